@@ -0,0 +1,43 @@
+package eu.europeana.api.recommend.common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Instead of creating a Milvus partition for each set, set ids can be hashed into a fixed number of partitions
+ * (buckets). This keeps the number of partitions low, while a search filtered on a set only has to look in 1 partition.
+ * Both writing and searching should use this class to determine the partition of a set.
+ */
+public final class PartitionBuckets {
+
+    public static final String BUCKET_PREFIX = "bucket_";
+
+    private PartitionBuckets() {
+        // empty constructor to prevent initialization
+    }
+
+    /**
+     * Determine the bucket of a set. The same set id and number of buckets always result in the same bucket.
+     * @param setId the set id, e.g. 2021672
+     * @param nrBuckets the total number of buckets
+     * @return bucket number, between 0 and nrBuckets - 1
+     */
+    public static int getBucket(String setId, int nrBuckets) {
+        if (nrBuckets <= 0) {
+            throw new IllegalArgumentException("Number of buckets should be larger than 0");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(setId.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % nrBuckets);
+    }
+
+    /**
+     * Determine the name of the partition that contains the records of a set
+     * @param setId the set id, e.g. 2021672
+     * @param nrBuckets the total number of buckets
+     * @return partition name, e.g. bucket_12
+     */
+    public static String getPartitionName(String setId, int nrBuckets) {
+        return BUCKET_PREFIX + getBucket(setId, nrBuckets);
+    }
+}
@@ -57,7 +57,8 @@ public class RecordId implements Serializable {
             LOG.warn("RecordId retrieved from Milvus may be incomplete: {}", recordId);
         }
 
-        String[] split = recordId.split("/");
+        // local ids may contain slashes themselves, so we only split on the first one
+        String[] split = recordId.split("/", 2);
         this.dataSetId = split[0];
         if (split.length == 1) {
             LOG.warn("RecordId retrieved from Milvus does not contain slash: {}", recordId);
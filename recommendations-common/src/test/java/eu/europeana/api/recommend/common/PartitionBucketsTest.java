@@ -0,0 +1,45 @@
+package eu.europeana.api.recommend.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionBucketsTest {
+
+    @Test
+    public void testPartitionName() {
+        assertEquals("bucket_" + PartitionBuckets.getBucket("2021672", 64), PartitionBuckets.getPartitionName("2021672", 64));
+        assertEquals(0, PartitionBuckets.getBucket("2021672", 1));
+    }
+
+    @Test
+    public void testKnownValues() {
+        // this should never change, otherwise existing collections can't be searched by set anymore
+        // CRC32 of "2021672" is 0x4DAA701C (1303015452)
+        assertEquals((int) (1303015452L % 64), PartitionBuckets.getBucket("2021672", 64));
+    }
+
+    @Test
+    public void testDistribution() {
+        int nrBuckets = 16;
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 16_000; i++) {
+            int bucket = PartitionBuckets.getBucket(String.valueOf(2_000_000 + i), nrBuckets);
+            assertTrue(bucket >= 0 && bucket < nrBuckets);
+            counts.merge(bucket, 1, Integer::sum);
+        }
+        assertEquals(nrBuckets, counts.size());
+        for (int count : counts.values()) {
+            // expected 1000 per bucket
+            assertTrue(count > 800 && count < 1200, "Uneven distribution: " + counts);
+        }
+    }
+
+    @Test
+    public void testInvalidNrBuckets() {
+        assertThrows(IllegalArgumentException.class, () -> PartitionBuckets.getBucket("2021672", 0));
+    }
+}
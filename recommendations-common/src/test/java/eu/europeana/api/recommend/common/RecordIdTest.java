@@ -59,6 +59,13 @@ public class RecordIdTest {
         assertEquals("/0123x/test_2", rId.getEuropeanaId());
     }
 
+    @Test
+    public void recordIdLocalIdWithSlash() {
+        RecordId rId = new RecordId("/0123x/test/2");
+        assertEquals("0123x/test/2", rId.getMilvusId());
+        assertEquals("/0123x/test/2", rId.getEuropeanaId());
+    }
+
     @Test
     public void recordIdEquals() {
         RecordId rId1 = new RecordId("1", "2");
@@ -3,14 +3,22 @@ package eu.europeana.api.recommend.updater.config;
 import eu.europeana.api.recommend.common.model.EmbeddingRecord;
 import eu.europeana.api.recommend.common.model.RecordVectors;
 import eu.europeana.api.recommend.updater.model.record.Record;
+import eu.europeana.api.recommend.updater.service.DeletionPass;
 import eu.europeana.api.recommend.updater.service.MailService;
+import eu.europeana.api.recommend.updater.service.MultiTargetWriter;
+import eu.europeana.api.recommend.updater.service.RecordReconciler;
+import eu.europeana.api.recommend.updater.service.ShardedFileWriter;
 import eu.europeana.api.recommend.updater.service.embeddings.EmbedRecordToVectorProcessor;
 import eu.europeana.api.recommend.updater.service.embeddings.EmbeddingRecordFileWriter;
+import eu.europeana.api.recommend.updater.service.embeddings.EmbeddingRecordJsonlWriter;
+import eu.europeana.api.recommend.updater.service.embeddings.EmbeddingRecordReplayReader;
 import eu.europeana.api.recommend.updater.service.embeddings.RecordVectorsFileWriter;
 import eu.europeana.api.recommend.updater.service.milvus.MilvusWriterService;
 import eu.europeana.api.recommend.updater.service.record.MongoDbItemReader;
 import eu.europeana.api.recommend.updater.service.record.RecordToEmbedRecordProcessor;
 import eu.europeana.api.recommend.updater.service.record.SolrSetReader;
+import eu.europeana.api.recommend.updater.service.vectorfile.VectorFileItemReader;
+import eu.europeana.api.recommend.updater.service.vectorfile.VectorFileWriter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.batch.core.Job;
@@ -21,7 +29,7 @@ import org.springframework.batch.core.configuration.annotation.JobBuilderFactory
 import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
 import org.springframework.batch.core.launch.support.RunIdIncrementer;
 import org.springframework.batch.item.ItemProcessor;
-import org.springframework.batch.item.file.FlatFileItemWriter;
+import org.springframework.batch.item.ItemStreamWriter;
 import org.springframework.batch.item.support.CompositeItemProcessor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -29,6 +37,7 @@ import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.core.task.TaskExecutor;
 
 import javax.sql.DataSource;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 
@@ -37,11 +46,16 @@ import java.util.List;
  * <ol>
  * <li>Read record data from MongoDb</li>
  * <li>Pick relevant data from record to construct EmbeddingRecord</li>
- * <li>If Embedding API is defined then we'll send batches of EmbeddingRecord to Embedding API and receive back vectors.
- * If no Embedding API is defined we'll write EmbeddingRecord data to file (for testing purposes)</li>
+ * <li>If Embedding API (or an in-process model) is defined then we'll send batches of EmbeddingRecord to it and receive
+ * back vectors. If no Embedding API is defined we'll write EmbeddingRecord data to file (for testing purposes)</li>
  * <li>If Milvus instance is defined, then we try to save vectors in Milvus.
  * If no Milvus instance is defined we'll write vectors to file (for testing purposes)</li>
  * </ol>
+ * If extra targets are configured, steps 3 and 4 are done for all targets in parallel.
+ * When reconciling, the ids in Mongo and Milvus are compared first and only missing records are processed. After a
+ * partial update records that were deleted or downgraded to ContentTier 0 are removed from Milvus.
+ * The separate replay job skips steps 1 and 2 and reads EmbeddingRecords from a previously exported file instead.
+ * The load job only does step 4, reading vectors from a previously generated binary vector file.
  * Since we want to sent multiple records in 1 request to Embedding API we process a group (list) of records. The size
  * is specified in the batch size property
  *
@@ -54,6 +68,7 @@ public class BatchConfiguration extends DefaultBatchConfigurer {
     private static final Logger LOG = LogManager.getLogger(BatchConfiguration.class);
 
     private static final int MAX_THREADS = 50;
+    private static final String CSV_EXTENSION = ".csv";
 
     private final UpdaterSettings settings;
     private final MongoDbItemReader recordReader;
@@ -63,36 +78,56 @@ public class BatchConfiguration extends DefaultBatchConfigurer {
 
     // Step 1. Query solr for all sets that we need to process
     private final SolrSetReader solrSetReader;
+    // Optional step 1b. Compare ids in Mongo and Milvus to find missing and orphaned records
+    private final RecordReconciler recordReconciler;
     // Step 2.1. Load records from Mongo per set and 2.2 generate EmbeddingRecords
     private final RecordToEmbedRecordProcessor recordToEmbedRecordProcessor;
     // Step 2.3. Send EmbeddingRecords to Embedding API and receive back vectors (RecordVector objects)
     private final EmbedRecordToVectorProcessor embedRecordToVectorProcessor;
     // Step 2.4. Write RecordVectors to Milvus
     private final MilvusWriterService milvusWriterService;
+    // Alternative for step 2.3 and 2.4 when there are extra targets (Embeddings API and Milvus collection)
+    private final MultiTargetWriter multiTargetWriter;
+    // Step 3. After a partial update remove records from Milvus that shouldn't be there anymore
+    private final DeletionPass deletionPass;
     // Last step send update results via email
     private final MailService mailService;
+    // Alternative for step 2.1 and 2.2 when replaying EmbeddingRecords from file
+    private final EmbeddingRecordReplayReader replayReader;
+    // Alternative for step 2.1 - 2.3 when loading vectors from file
+    private final VectorFileItemReader vectorFileReader;
 
     @SuppressWarnings("java:S107") // we want dependency injection, so need to have this many constructor parameters
     public BatchConfiguration(UpdaterSettings settings,
                               JobBuilderFactory jobBuilderFactory,
                               StepBuilderFactory stepBuilderFactory,
                               SolrSetReader solrSetReader,
+                              RecordReconciler recordReconciler,
                               MongoDbItemReader recordReader,
                               RecordToEmbedRecordProcessor recordToEmbedRecordProcessor,
                               EmbedRecordToVectorProcessor embedRecordToVectorProcessor,
                               MilvusWriterService milvusWriterService,
-                              MailService mailService) {
+                              MultiTargetWriter multiTargetWriter,
+                              DeletionPass deletionPass,
+                              MailService mailService,
+                              EmbeddingRecordReplayReader replayReader,
+                              VectorFileItemReader vectorFileReader) {
         this.settings = settings;
         this.jobBuilderFactory = jobBuilderFactory;
         this.stepBuilderFactory = stepBuilderFactory;
         this.solrSetReader = solrSetReader;
+        this.recordReconciler = recordReconciler;
         this.recordReader = recordReader;
         recordReader.setName("Mongo record reader");
         recordReader.setSaveState(false); // mongo reader is not fault tolerant
         this.recordToEmbedRecordProcessor = recordToEmbedRecordProcessor;
         this.embedRecordToVectorProcessor = embedRecordToVectorProcessor;
         this.milvusWriterService = milvusWriterService;
+        this.multiTargetWriter = multiTargetWriter;
+        this.deletionPass = deletionPass;
         this.mailService = mailService;
+        this.replayReader = replayReader;
+        this.vectorFileReader = vectorFileReader;
 
         SimpleAsyncTaskExecutor simpleTaskExecutor = new SimpleAsyncTaskExecutor();
         simpleTaskExecutor.setConcurrencyLimit(settings.getThreads());
@@ -123,21 +158,57 @@ public class BatchConfiguration extends DefaultBatchConfigurer {
     }
 
     /**
-     * Writes EmbeddingRecords to file (for testing)
-     * @return Spring Batch FlatFileItemWriter
+     * Writes EmbeddingRecords to file (for testing), either to a JSON Lines file or to csv, optionally in shards
+     * @return Spring Batch ItemStreamWriter
      */
     @Bean
-    public FlatFileItemWriter<List<EmbeddingRecord>> embeddingRecordWriter() {
-        return new EmbeddingRecordFileWriter(settings.getTestFile(), settings.getBatchSize()).build();
+    public ItemStreamWriter<List<EmbeddingRecord>> embeddingRecordWriter() {
+        Path baseFile = getBaseFile(settings.getTestFile());
+        if (settings.useShardedTestFile()) {
+            return new ShardedFileWriter<>(baseFile, shard -> createEmbeddingRecordWriter(shard, shard + CSV_EXTENSION),
+                    EmbeddingRecord::getId);
+        }
+        return createEmbeddingRecordWriter(baseFile, settings.getTestFile());
+    }
+
+    private ItemStreamWriter<List<EmbeddingRecord>> createEmbeddingRecordWriter(Path baseFile, String csvFileName) {
+        if (settings.useJsonlTestFile()) {
+            return new EmbeddingRecordJsonlWriter(EmbeddingRecordJsonlWriter.getFile(baseFile, settings.useTestFileGzip()),
+                    settings.useTestFileGzip(), 2 * settings.getThreads());
+        }
+        return new EmbeddingRecordFileWriter(csvFileName, settings.getBatchSize()).build();
     }
 
     /**
-     * Writes RecordVectors to file (for testing)
-     * @return Spring Batch FlatFileItemWriter
+     * Writes RecordVectors to file (for testing), either to binary vector files or to csv, optionally in shards
+     * @return Spring Batch ItemStreamWriter
      */
     @Bean
-    public FlatFileItemWriter<List<RecordVectors>> recordVectorsWriter() {
-        return new RecordVectorsFileWriter(settings.getTestFile(), settings.getBatchSize()).build();
+    public ItemStreamWriter<List<RecordVectors>> recordVectorsWriter() {
+        Path baseFile = getBaseFile(settings.getTestFile());
+        if (settings.useShardedTestFile()) {
+            return new ShardedFileWriter<>(baseFile, shard -> createRecordVectorsWriter(shard, shard + CSV_EXTENSION),
+                    RecordVectors::getId);
+        }
+        return createRecordVectorsWriter(baseFile, settings.getTestFile());
+    }
+
+    private ItemStreamWriter<List<RecordVectors>> createRecordVectorsWriter(Path baseFile, String csvFileName) {
+        if (settings.useBinaryTestFile()) {
+            return new VectorFileWriter(baseFile);
+        }
+        return new RecordVectorsFileWriter(csvFileName, settings.getBatchSize()).build();
+    }
+
+    /**
+     * @return the provided file name without extension
+     */
+    private static Path getBaseFile(String fileName) {
+        int extensionStart = fileName.lastIndexOf('.');
+        if (extensionStart > fileName.lastIndexOf('/') + 1) {
+            return Path.of(fileName.substring(0, extensionStart));
+        }
+        return Path.of(fileName);
     }
 
     /**
@@ -151,6 +222,17 @@ public class BatchConfiguration extends DefaultBatchConfigurer {
                 .build();
     }
 
+    /**
+     * Reconcile step: only does something when the --RECONCILE option is provided
+     * @return
+     */
+    @Bean
+    public Step reconcileStep() {
+        return stepBuilderFactory.get("reconcileStep")
+                .tasklet(this.recordReconciler)
+                .build();
+    }
+
     /**
      * Step2: do actual processing per set
      * @return
@@ -158,9 +240,21 @@ public class BatchConfiguration extends DefaultBatchConfigurer {
     @Bean
     public Step step2() {
         String step2 = "step2";
-        if (UpdaterSettings.isValueDefined(settings.getEmbeddingApiUrl())
+        if (multiTargetWriter.hasTargets()) {
+            LOG.info("Extra targets configured. Saving vectors to Milvus collection {} and {}", settings.getMilvusCollection(),
+                    settings.getEmbeddingTargets());
+            return stepBuilderFactory.get(step2)
+                    .<List<Record>, List<EmbeddingRecord>>chunk(1)
+                    .reader(this.recordReader)
+                    .processor(recordToEmbedRecordProcessor)
+                    .writer(multiTargetWriter)
+                    .taskExecutor(taskExecutor)
+                    .throttleLimit(MAX_THREADS)
+                    .build();
+
+        } else if (settings.isEmbeddingProviderDefined()
                 && UpdaterSettings.isValueDefined(settings.getMilvusCollection())
-                && UpdaterSettings.isValueDefined(settings.getMilvusUrl())) {
+                && settings.isVectorStoreDefined()) {
             LOG.info("Embeddings API and Milvus are configured. Saving vectors to Milvus collection {} ", settings.getMilvusCollection());
             return stepBuilderFactory.get(step2)
                     .<List<Record>, List<RecordVectors>>chunk(1)// chunksize=1 because we want to write to Embeddings API 1 list of <batchsize> records
@@ -171,8 +265,9 @@ public class BatchConfiguration extends DefaultBatchConfigurer {
                     .throttleLimit(MAX_THREADS)
                     .build();
 
-        } else if (UpdaterSettings.isValueDefined(settings.getEmbeddingApiUrl())) {
-            LOG.info("Embeddings API configured but no Milvus, so saving RecordVectors to file {}", settings.getTestFile());
+        } else if (settings.isEmbeddingProviderDefined()) {
+            LOG.info("Embeddings API configured but no Milvus, so saving RecordVectors to {} file {}",
+                    settings.useBinaryTestFile() ? "binary vector" : "csv", settings.getTestFile());
             return stepBuilderFactory.get(step2)
                     .<List<Record>, List<RecordVectors>>chunk(1)
                     .reader(this.recordReader)
@@ -183,7 +278,8 @@ public class BatchConfiguration extends DefaultBatchConfigurer {
                     .build();
         }
 
-        LOG.info("No Embeddings API and Milvus configured, so saving EmbeddingRecords to file {}", settings.getTestFile());
+        LOG.info("No Embeddings API and Milvus configured, so saving EmbeddingRecords to {} file {}",
+                settings.useJsonlTestFile() ? "JSON Lines" : "csv", settings.getTestFile());
         return stepBuilderFactory.get(step2)
                 .<List<Record>, List<EmbeddingRecord>>chunk(1)
                 .reader(this.recordReader)
@@ -194,22 +290,130 @@ public class BatchConfiguration extends DefaultBatchConfigurer {
                 .build();
     }
 
+    /**
+     * Replay step: read EmbeddingRecords from file and process them the same way as in step 2
+     * @return
+     */
+    @Bean
+    public Step replayStep() {
+        String replayStep = "replayStep";
+        if (multiTargetWriter.hasTargets()) {
+            LOG.info("Replay: extra targets configured. Saving vectors to Milvus collection {} and {}",
+                    settings.getMilvusCollection(), settings.getEmbeddingTargets());
+            return stepBuilderFactory.get(replayStep)
+                    .<List<EmbeddingRecord>, List<EmbeddingRecord>>chunk(1)
+                    .reader(replayReader)
+                    .writer(multiTargetWriter)
+                    .taskExecutor(taskExecutor)
+                    .throttleLimit(MAX_THREADS)
+                    .build();
+
+        } else if (settings.isEmbeddingProviderDefined()
+                && UpdaterSettings.isValueDefined(settings.getMilvusCollection())
+                && settings.isVectorStoreDefined()) {
+            LOG.info("Replay: saving vectors to Milvus collection {} ", settings.getMilvusCollection());
+            return stepBuilderFactory.get(replayStep)
+                    .<List<EmbeddingRecord>, List<RecordVectors>>chunk(1)
+                    .reader(replayReader)
+                    .processor(embedRecordToVectorProcessor)
+                    .writer(milvusWriterService)
+                    .taskExecutor(taskExecutor)
+                    .throttleLimit(MAX_THREADS)
+                    .build();
+
+        }
+
+        // JobCmdLineStarter doesn't allow replaying without an embedding provider
+        LOG.info("Replay: no Milvus configured, so saving RecordVectors to {} file {}",
+                settings.useBinaryTestFile() ? "binary vector" : "csv", settings.getTestFile());
+        return stepBuilderFactory.get(replayStep)
+                .<List<EmbeddingRecord>, List<RecordVectors>>chunk(1)
+                .reader(replayReader)
+                .processor(embedRecordToVectorProcessor)
+                .writer(recordVectorsWriter())
+                .taskExecutor(taskExecutor)
+                .throttleLimit(MAX_THREADS)
+                .build();
+    }
+
+    /**
+     * Load step: read vectors from file and write them to Milvus
+     * @return
+     */
+    @Bean
+    public Step loadStep() {
+        return stepBuilderFactory.get("loadStep")
+                .<List<RecordVectors>, List<RecordVectors>>chunk(1)
+                .reader(vectorFileReader)
+                .writer(milvusWriterService)
+                .taskExecutor(taskExecutor)
+                .throttleLimit(MAX_THREADS)
+                .build();
+    }
+
+    /**
+     * Step3: delete ContentTier 0 and deleted records from Milvus (only for partial updates)
+     * @return
+     */
+    @Bean
+    public Step step3() {
+        return stepBuilderFactory.get("step3")
+                .tasklet(this.deletionPass)
+                .build();
+    }
+
     /**
      * Basic Spring Batch update flow
      * @param step1
+     * @param reconcileStep
      * @param step2
+     * @param step3
      * @return
      */
     @Bean
-    public Job updateJob(Step step1, Step step2) {
+    public Job updateJob(Step step1, Step reconcileStep, Step step2, Step step3) {
         return jobBuilderFactory.get("updateJob")
                 .incrementer(new RunIdIncrementer())
                 .listener(mailService)
                 .flow(step1)
+                .next(reconcileStep)
                 .next(step2)
+                .next(step3)
                 .end()
                 .listener(recordReader)
                 .listener(milvusWriterService)
+                .listener(multiTargetWriter)
+                .build();
+    }
+
+    /**
+     * Replay flow, sends previously exported EmbeddingRecords to the Embeddings API and Milvus without using Mongo or Solr
+     * @param replayStep
+     * @return
+     */
+    @Bean
+    public Job replayJob(Step replayStep) {
+        return jobBuilderFactory.get("replayJob")
+                .incrementer(new RunIdIncrementer())
+                .flow(replayStep)
+                .end()
+                .listener(milvusWriterService)
+                .listener(multiTargetWriter)
+                .build();
+    }
+
+    /**
+     * Load flow, loads a previously generated vector file into Milvus. Indexing is deferred until all vectors are loaded
+     * @param loadStep
+     * @return
+     */
+    @Bean
+    public Job loadJob(Step loadStep) {
+        return jobBuilderFactory.get("loadJob")
+                .incrementer(new RunIdIncrementer())
+                .flow(loadStep)
+                .end()
+                .listener(milvusWriterService)
                 .build();
     }
 }
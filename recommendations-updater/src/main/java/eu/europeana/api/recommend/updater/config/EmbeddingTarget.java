@@ -0,0 +1,78 @@
+package eu.europeana.api.recommend.updater.config;
+
+/**
+ * An extra (embedding provider, Milvus collection) combination that vectors are generated for and written to, in
+ * addition to the default embedding provider and Milvus collection. This allows populating collections for multiple
+ * models while reading records from Mongo only once.
+ */
+public class EmbeddingTarget {
+
+    private final String name;
+    private final String embeddingProvider;
+    private final String embeddingApiUrl;
+    private final String onnxModel;
+    private final String onnxTokenizer;
+    private final String milvusCollection;
+
+    /**
+     * Create a new target that uses the Embeddings API
+     * @param name name of the target (used in property names and logging)
+     * @param embeddingApiUrl one or more (comma-separated) Embeddings API addresses
+     * @param milvusCollection name of the Milvus collection to write to
+     */
+    public EmbeddingTarget(String name, String embeddingApiUrl, String milvusCollection) {
+        this(name, UpdaterSettings.EMBEDDING_PROVIDER_API, embeddingApiUrl, null, null, milvusCollection);
+    }
+
+    /**
+     * Create a new target
+     * @param name name of the target (used in property names and logging)
+     * @param embeddingProvider name of the embedding provider, 'api' or 'onnx'
+     * @param embeddingApiUrl one or more (comma-separated) Embeddings API addresses, only used by the 'api' provider
+     * @param onnxModel path to the ONNX model file, only used by the 'onnx' provider
+     * @param onnxTokenizer path to the tokenizer.json file, only used by the 'onnx' provider
+     * @param milvusCollection name of the Milvus collection to write to
+     */
+    public EmbeddingTarget(String name, String embeddingProvider, String embeddingApiUrl, String onnxModel,
+                           String onnxTokenizer, String milvusCollection) {
+        this.name = name;
+        this.embeddingProvider = embeddingProvider;
+        this.embeddingApiUrl = embeddingApiUrl;
+        this.onnxModel = onnxModel;
+        this.onnxTokenizer = onnxTokenizer;
+        this.milvusCollection = milvusCollection;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEmbeddingProvider() {
+        return embeddingProvider;
+    }
+
+    public boolean isOnnx() {
+        return UpdaterSettings.EMBEDDING_PROVIDER_ONNX.equals(embeddingProvider);
+    }
+
+    public String getEmbeddingApiUrl() {
+        return embeddingApiUrl;
+    }
+
+    public String getOnnxModel() {
+        return onnxModel;
+    }
+
+    public String getOnnxTokenizer() {
+        return onnxTokenizer;
+    }
+
+    public String getMilvusCollection() {
+        return milvusCollection;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + (isOnnx() ? onnxModel : embeddingApiUrl) + " -> " + milvusCollection + ")";
+    }
+}
@@ -10,6 +10,7 @@ import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobParameters;
 import org.springframework.batch.core.JobParametersBuilder;
 import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.context.annotation.Configuration;
@@ -29,7 +30,19 @@ import java.util.*;
  * (indicated by the --FULL parameter) or a partial update (which requires a 'from' parameter with a date
  * selecting all records that were created or updated after this date).
  *
- * Additionally the --DELETE option can be provided which deletes any existing Milvus data.
+ * Additionally the --DELETE option can be provided which deletes any existing Milvus data, or for full updates the
+ * --REBUILD option which loads the data into a new collection and switches to that when done.
+ *
+ * The --RECONCILE option compares the record ids in Mongo and Milvus for all sets (or the sets provided with --sets or
+ * --setsFile) and reports which records are missing or orphaned.
+ *
+ * The --replay option reads EmbeddingRecords from a previously exported JSON Lines file (or shard manifest) instead of
+ * from Mongo, and sends them to the Embeddings API and Milvus (or the test files). It can be combined with --FULL,
+ * --DELETE and --REBUILD. Replaying requires an embedding provider to be configured.
+ *
+ * The --load option loads a binary vector file (or shard manifest) written earlier into Milvus, so generating vectors
+ * and loading them can be done at different times. An interrupted load can be resumed with --loadOffset. Loading
+ * cannot be combined with --REBUILD, because a rebuild load can't be resumed safely.
  *
  * @author Patrick Ehlert
  */
@@ -42,6 +55,11 @@ public class JobCmdLineStarter implements ApplicationRunner {
     public static final String PARAM_UPDATE_SETS = JobData.SETS_KEY;
     public static final String PARAM_UPDATE_SETSFILE = JobData.SETSFILE_KEY;
     public static final String PARAM_DELETE_DB = JobData.DELETE_DB.toUpperCase(Locale.ROOT);
+    public static final String PARAM_REBUILD = JobData.REBUILD.toUpperCase(Locale.ROOT);
+    public static final String PARAM_RECONCILE = JobData.RECONCILE.toUpperCase(Locale.ROOT);
+    public static final String PARAM_REPLAY = JobData.REPLAY_KEY;
+    public static final String PARAM_LOAD = JobData.LOAD_KEY;
+    public static final String PARAM_LOAD_OFFSET = JobData.LOAD_OFFSET_KEY;
 
     private static final Logger LOG = LogManager.getLogger(JobCmdLineStarter.class);
 
@@ -51,13 +69,22 @@ public class JobCmdLineStarter implements ApplicationRunner {
     private static final String PARTIAL_DESCRIPTION = "'--" + PARAM_UPDATE_FROM + "=[yyyy-MM-ddThh:mm:ss]' parameter with date value";
     private static final String SETS_DESCRIPTION = "'--" + PARAM_UPDATE_SETS + "=<setIds>' parameter with comma-separated set-id values";
     private static final String SETSFILE_DESCRIPTION = "'--" + PARAM_UPDATE_SETSFILE + "=<setFileName>' parameter";
+    private static final String REPLAY_DESCRIPTION = "'--" + PARAM_REPLAY + "=<fileName>' parameter";
+    private static final String LOAD_DESCRIPTION = "'--" + PARAM_LOAD + "=<fileName>' parameter";
 
+    private final UpdaterSettings settings;
     private final JobLauncher jobLauncher;
     private final Job job;
+    private final Job replayJob;
+    private final Job loadJob;
 
-    public JobCmdLineStarter(JobLauncher jobLauncher, Job job) {
+    public JobCmdLineStarter(UpdaterSettings settings, JobLauncher jobLauncher, @Qualifier("updateJob") Job job,
+                             @Qualifier("replayJob") Job replayJob, @Qualifier("loadJob") Job loadJob) {
+        this.settings = settings;
         this.jobLauncher = jobLauncher;
         this.job = job;
+        this.replayJob = replayJob;
+        this.loadJob = loadJob;
     }
 
     @Override
@@ -74,7 +101,13 @@ public class JobCmdLineStarter implements ApplicationRunner {
         }
 
         JobParametersBuilder jobParamBuilder = new JobParametersBuilder();
-        if (args.getOptionNames().contains(PARAM_UPDATE_FULL)) {
+        boolean isReplay = args.getOptionNames().contains(PARAM_REPLAY);
+        boolean isLoad = args.getOptionNames().contains(PARAM_LOAD);
+        if (isReplay) {
+            processReplay(args, jobParamBuilder);
+        } else if (isLoad) {
+            processLoad(args, jobParamBuilder);
+        } else if (args.getOptionNames().contains(PARAM_UPDATE_FULL)) {
             processFullUpdate(args, jobParamBuilder);
         } else if (args.getOptionNames().contains(PARAM_UPDATE_FROM)) {
             processPartialUpdate(args, jobParamBuilder);
@@ -88,14 +121,28 @@ public class JobCmdLineStarter implements ApplicationRunner {
                 throw new ConfigurationException("Either use --sets or --setFile option");
             }
             processSetsFile(args, jobParamBuilder);
+        } else if (args.getOptionNames().contains(PARAM_RECONCILE)) {
+            // reconcile all sets
+            jobParamBuilder.addString(JobData.UPDATETYPE_KEY, JobData.UPDATETYPE_VALUE_PARTIAL);
         } else {
             throw new ConfigurationException("Specify either command-line " + FULL_DESCRIPTION +
                     ", " + PARTIAL_DESCRIPTION +
                     ", " + SETS_DESCRIPTION +
-                    " or " + SETSFILE_DESCRIPTION);
+                    ", " + SETSFILE_DESCRIPTION +
+                    ", " + REPLAY_DESCRIPTION +
+                    ", " + LOAD_DESCRIPTION +
+                    " or '--" + PARAM_RECONCILE + "' parameter");
+        }
+        if (args.getOptionNames().contains(PARAM_RECONCILE)) {
+            processReconcile(args, jobParamBuilder);
+        }
+        if (!isLoad && args.getOptionNames().contains(PARAM_LOAD_OFFSET)) {
+            throw new ConfigurationException("The --" + PARAM_LOAD_OFFSET + " option can only be used with the " + LOAD_DESCRIPTION);
         }
 
-        if (args.getOptionNames().contains(PARAM_DELETE_DB)) {
+        if (args.getOptionNames().contains(PARAM_REBUILD)) {
+            processRebuild(args, jobParamBuilder);
+        } else if (args.getOptionNames().contains(PARAM_DELETE_DB)) {
             processDelete(jobParamBuilder);
         }
 
@@ -103,8 +150,14 @@ public class JobCmdLineStarter implements ApplicationRunner {
         if (args.getNonOptionArgs().contains("test")) {
             LOG.info("--test option detected. Not starting a job");
         } else {
-            LOG.info("Starting job {}...", job.getName());
-            JobExecution execution = jobLauncher.run(job, jobParamBuilder.toJobParameters());
+            Job jobToRun = job;
+            if (isReplay) {
+                jobToRun = replayJob;
+            } else if (isLoad) {
+                jobToRun = loadJob;
+            }
+            LOG.info("Starting job {}...", jobToRun.getName());
+            JobExecution execution = jobLauncher.run(jobToRun, jobParamBuilder.toJobParameters());
             LOG.info("Job finished with status {}", execution.getStatus());
             System.exit(execution.getStatus().ordinal());
         }
@@ -218,6 +271,90 @@ public class JobCmdLineStarter implements ApplicationRunner {
         jobParametersBuilder.addString(JobData.DELETE_DB, "true");
     }
 
+    private void processRebuild(ApplicationArguments args, JobParametersBuilder jobParametersBuilder) throws ConfigurationException {
+        if (!args.getOptionNames().contains(PARAM_UPDATE_FULL)) {
+            throw new ConfigurationException("The --" + PARAM_REBUILD + " option can only be used with the " + FULL_DESCRIPTION);
+        }
+        if (args.getOptionNames().contains(PARAM_DELETE_DB)) {
+            LOG.warn("Ignoring --{} option, existing data is kept until the rebuild is finished", PARAM_DELETE_DB);
+        }
+        jobParametersBuilder.addString(JobData.REBUILD, "true");
+    }
+
+    private void processReconcile(ApplicationArguments args, JobParametersBuilder jobParametersBuilder) throws ConfigurationException {
+        if (args.getOptionNames().contains(PARAM_UPDATE_FULL) || args.getOptionNames().contains(PARAM_UPDATE_FROM)
+                || args.getOptionNames().contains(PARAM_REBUILD) || args.getOptionNames().contains(PARAM_DELETE_DB)) {
+            throw new ConfigurationException("The --" + PARAM_RECONCILE + " option can only be used on its own or with the "
+                    + SETS_DESCRIPTION + " or " + SETSFILE_DESCRIPTION);
+        }
+        jobParametersBuilder.addString(JobData.RECONCILE, "true");
+    }
+
+    @SuppressWarnings("findsecbugs:PATH_TRAVERSAL_IN") // not an issue, users are always trusted
+    private void processReplay(ApplicationArguments args, JobParametersBuilder jobParametersBuilder) throws ConfigurationException {
+        if (args.getOptionNames().contains(PARAM_UPDATE_FROM) || args.getOptionNames().contains(PARAM_UPDATE_SETS)
+                || args.getOptionNames().contains(PARAM_UPDATE_SETSFILE) || args.getOptionNames().contains(PARAM_RECONCILE)
+                || args.getOptionNames().contains(PARAM_LOAD)) {
+            throw new ConfigurationException("The --" + PARAM_REPLAY + " option can only be used on its own or with the --"
+                    + PARAM_UPDATE_FULL + ", --" + PARAM_DELETE_DB + " or --" + PARAM_REBUILD + " options");
+        }
+        List<String> replayFile = args.getOptionValues(PARAM_REPLAY);
+        if (replayFile == null || replayFile.size() != 1 || StringUtils.isBlank(replayFile.get(0))) {
+            throw new ConfigurationException("Please specify 1 file to replay with the " + REPLAY_DESCRIPTION);
+        }
+        if (!new File(replayFile.get(0)).canRead()) {
+            throw new ConfigurationException("Cannot read from replay file '" + replayFile.get(0) + "'");
+        }
+        // without embedding provider the records would only be copied to the test file, which is most likely the
+        // file we are replaying (so that would be emptied before it's read)
+        if (!settings.isEmbeddingProviderDefined()) {
+            throw new ConfigurationException("The --" + PARAM_REPLAY + " option requires an embedding provider to be configured");
+        }
+        jobParametersBuilder.addString(JobData.UPDATETYPE_KEY, args.getOptionNames().contains(PARAM_UPDATE_FULL)
+                ? JobData.UPDATETYPE_VALUE_FULL
+                : JobData.UPDATETYPE_VALUE_PARTIAL);
+        jobParametersBuilder.addString(JobData.REPLAY_KEY, replayFile.get(0));
+    }
+
+    @SuppressWarnings("findsecbugs:PATH_TRAVERSAL_IN") // not an issue, users are always trusted
+    private void processLoad(ApplicationArguments args, JobParametersBuilder jobParametersBuilder) throws ConfigurationException {
+        if (args.getOptionNames().contains(PARAM_UPDATE_FROM) || args.getOptionNames().contains(PARAM_UPDATE_SETS)
+                || args.getOptionNames().contains(PARAM_UPDATE_SETSFILE) || args.getOptionNames().contains(PARAM_RECONCILE)) {
+            throw new ConfigurationException("The --" + PARAM_LOAD + " option can only be used on its own or with the --"
+                    + PARAM_UPDATE_FULL + ", --" + PARAM_DELETE_DB + " or --" + PARAM_LOAD_OFFSET + " options");
+        }
+        // an interrupted load into a new collection can't be resumed (the resumed load would write to the live
+        // collection), so loading always writes to milvus.collection
+        if (args.getOptionNames().contains(PARAM_REBUILD)) {
+            throw new ConfigurationException("The --" + PARAM_REBUILD + " option cannot be used with the " + LOAD_DESCRIPTION
+                    + ". Use --" + PARAM_UPDATE_FULL + " --" + PARAM_DELETE_DB + " instead, or set milvus.collection to a new collection");
+        }
+        List<String> loadFile = args.getOptionValues(PARAM_LOAD);
+        if (loadFile == null || loadFile.size() != 1 || StringUtils.isBlank(loadFile.get(0))) {
+            throw new ConfigurationException("Please specify 1 file to load with the " + LOAD_DESCRIPTION);
+        }
+        jobParametersBuilder.addString(JobData.UPDATETYPE_KEY, args.getOptionNames().contains(PARAM_UPDATE_FULL)
+                ? JobData.UPDATETYPE_VALUE_FULL
+                : JobData.UPDATETYPE_VALUE_PARTIAL);
+        jobParametersBuilder.addString(JobData.LOAD_KEY, loadFile.get(0));
+
+        if (args.getOptionNames().contains(PARAM_LOAD_OFFSET)) {
+            if (args.getOptionNames().contains(PARAM_DELETE_DB)) {
+                throw new ConfigurationException("The --" + PARAM_LOAD_OFFSET + " option cannot be used with the --"
+                        + PARAM_DELETE_DB + " option");
+            }
+            List<String> offset = args.getOptionValues(PARAM_LOAD_OFFSET);
+            long value = -1;
+            if (offset != null && offset.size() == 1 && StringUtils.isNumeric(offset.get(0))) {
+                value = Long.parseLong(offset.get(0));
+            }
+            if (value < 0) {
+                throw new ConfigurationException("Please specify a byte offset with the '--" + PARAM_LOAD_OFFSET + "=<bytes>' parameter");
+            }
+            jobParametersBuilder.addLong(JobData.LOAD_OFFSET_KEY, value);
+        }
+    }
+
     /**
      * Process --FULL parameter
      * @param jobParameters command-line parameters
@@ -245,6 +382,52 @@ public class JobCmdLineStarter implements ApplicationRunner {
         return Boolean.parseBoolean(jobParameters.getString(JobData.DELETE_DB));
     }
 
+    /**
+     * Process --REBUILD parameter
+     * @param jobParameters command-line parameters
+     * @return true if command-line parameter --REBUILD was provided
+     */
+    public static boolean isRebuild(JobParameters jobParameters) {
+        return Boolean.parseBoolean(jobParameters.getString(JobData.REBUILD));
+    }
+
+    /**
+     * Process --RECONCILE parameter
+     * @param jobParameters command-line parameters
+     * @return true if command-line parameter --RECONCILE was provided
+     */
+    public static boolean isReconcile(JobParameters jobParameters) {
+        return Boolean.parseBoolean(jobParameters.getString(JobData.RECONCILE));
+    }
+
+    /**
+     * Process --replay parameter
+     * @param jobParameters command-line parameters
+     * @return name of the file to replay, null if command-line parameter --replay wasn't provided
+     */
+    public static String getReplayFile(JobParameters jobParameters) {
+        return jobParameters.getString(JobData.REPLAY_KEY);
+    }
+
+    /**
+     * Process --load parameter
+     * @param jobParameters command-line parameters
+     * @return name of the vector file to load, null if command-line parameter --load wasn't provided
+     */
+    public static String getLoadFile(JobParameters jobParameters) {
+        return jobParameters.getString(JobData.LOAD_KEY);
+    }
+
+    /**
+     * Process --loadOffset parameter
+     * @param jobParameters command-line parameters
+     * @return byte offset in the vector file to start loading from, 0 if command-line parameter --loadOffset wasn't provided
+     */
+    public static long getLoadOffset(JobParameters jobParameters) {
+        Long offset = jobParameters.getLong(JobData.LOAD_OFFSET_KEY);
+        return offset == null ? 0 : offset;
+    }
+
     /**
      * Process --sets parameter
      * @param jobParameters command-line parameters
@@ -19,6 +19,16 @@ public final class JobData {
 
     public static final String DELETE_DB = "delete";
 
+    public static final String REBUILD = "rebuild";
+
+    public static final String RECONCILE = "reconcile";
+    public static final String MISSING_IDS_KEY = "missingIds";
+
+    public static final String REPLAY_KEY = "replay";
+
+    public static final String LOAD_KEY = "load";
+    public static final String LOAD_OFFSET_KEY = "loadOffset";
+
     private JobData() {
         // empty constructor to prevent initialization
     }
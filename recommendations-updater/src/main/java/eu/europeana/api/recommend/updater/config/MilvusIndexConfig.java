@@ -0,0 +1,81 @@
+package eu.europeana.api.recommend.updater.config;
+
+import eu.europeana.api.recommend.common.MilvusConstants;
+import io.milvus.param.IndexType;
+import io.milvus.param.MetricType;
+
+/**
+ * Type, metric, build and search parameters of the vector index. Note that the metric type has to match the one used
+ * when searching the collection (see MilvusConstants.INDEX_METRIC_TYPE).
+ */
+public final class MilvusIndexConfig {
+
+    /**
+     * The index we've been using so far (originally copied from Pangeanic's code)
+     */
+    public static final MilvusIndexConfig DEFAULT = new MilvusIndexConfig(IndexType.IVF_SQ8,
+            MilvusConstants.INDEX_METRIC_TYPE, "{\"nlist\": 16384}");
+
+    private final IndexType indexType;
+    private final MetricType metricType;
+    private final String buildParams;
+    private final String searchParams;
+
+    /**
+     * Create a new index configuration with the default search parameters for the index type
+     * @param indexType the type of index, e.g. IVF_SQ8 or HNSW
+     * @param metricType the metric type, e.g. L2 or IP
+     * @param buildParams optional, JSON string with index build parameters, e.g. {"M": 16, "efConstruction": 200}
+     */
+    public MilvusIndexConfig(IndexType indexType, MetricType metricType, String buildParams) {
+        this(indexType, metricType, buildParams, null);
+    }
+
+    /**
+     * Create a new index configuration
+     * @param indexType the type of index, e.g. IVF_SQ8 or HNSW
+     * @param metricType the metric type, e.g. L2 or IP
+     * @param buildParams optional, JSON string with index build parameters, e.g. {"M": 16, "efConstruction": 200}
+     * @param searchParams optional, JSON string with search parameters, e.g. {"ef": 64}. If empty the default
+     *                     parameters for the index type are used
+     */
+    public MilvusIndexConfig(IndexType indexType, MetricType metricType, String buildParams, String searchParams) {
+        this.indexType = indexType;
+        this.metricType = metricType;
+        this.buildParams = buildParams;
+        this.searchParams = (searchParams == null || searchParams.isBlank()) ? getDefaultSearchParams(indexType) : searchParams;
+    }
+
+    /**
+     * @param indexType the type of index
+     * @return JSON string with search parameters that suit the index type
+     */
+    public static String getDefaultSearchParams(IndexType indexType) {
+        return switch (indexType) {
+            case IVF_FLAT, IVF_SQ8, IVF_PQ, SCANN, GPU_IVF_FLAT, GPU_IVF_PQ, BIN_IVF_FLAT -> "{\"nprobe\": 16}";
+            case HNSW -> "{\"ef\": 64}";
+            default -> "{}";
+        };
+    }
+
+    public IndexType getIndexType() {
+        return indexType;
+    }
+
+    public MetricType getMetricType() {
+        return metricType;
+    }
+
+    public String getBuildParams() {
+        return buildParams;
+    }
+
+    public String getSearchParams() {
+        return searchParams;
+    }
+
+    @Override
+    public String toString() {
+        return indexType + " (" + metricType + ", " + buildParams + ", search " + searchParams + ")";
+    }
+}
@@ -1,15 +1,24 @@
 package eu.europeana.api.recommend.updater.config;
 
+import eu.europeana.api.recommend.common.MilvusConstants;
 import eu.europeana.api.recommend.updater.exception.ConfigurationException;
 import eu.europeana.api.recommend.common.model.EmbeddingRequestData;
+import io.milvus.param.IndexType;
+import io.milvus.param.MetricType;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.util.ClassUtils;
 
 import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * Container for all settings that we load from the application's properties file and optionally override from
@@ -25,6 +34,25 @@ public class UpdaterSettings {
     private static final int MAX_BATCH_SIZE = 500;
     private static final int DEFAULT_BATCH_SIZE = 200;
     private static final int DEFAULT_THREADS = 4;
+    private static final int MAX_MILVUS_PARTITIONS = 4096;
+
+    public static final String EMBEDDING_PROVIDER_API = "api";
+    public static final String EMBEDDING_PROVIDER_ONNX = "onnx";
+    // the onnx provider's libraries are only included when building with the onnx Maven profile
+    private static final String[] EMBEDDING_PROVIDER_ONNX_CLASSES = {"ai.onnxruntime.OrtSession",
+            "ai.djl.huggingface.tokenizers.HuggingFaceTokenizer"};
+
+    public static final String PARTIAL_UPDATE_INSERT = "insert";
+    public static final String PARTIAL_UPDATE_DELETE = "delete";
+    public static final String PARTIAL_UPDATE_UPSERT = "upsert";
+
+    public static final String VECTOR_STORE_MILVUS = "milvus";
+    public static final String VECTOR_STORE_MEMORY = "memory";
+
+    public static final String VECTOR_FORMAT_BINARY = "binary";
+    public static final String VECTOR_FORMAT_CSV = "csv";
+    public static final String RECORD_FORMAT_JSONL = "jsonl";
+    public static final String RECORD_FORMAT_CSV = "csv";
 
     @Value("${batchSize}")
     private Integer batchSize;
@@ -35,11 +63,47 @@ public class UpdaterSettings {
     @Value("${log.debug.timing.interval:200}")
     private Integer logTimingInterval;
 
+    @Value("${embedding.provider:api}")
+    private String embeddingProvider;
     @Value("${embedding.api.url:#{null}}")
     private String embeddingApiUrl;
     @Value("${embedding.api.timeout:60}")
     private Integer embeddingApiTimeout;
+    @Value("${embedding.api.gzip:false}")
+    private boolean embeddingApiGzip;
+    @Value("${embedding.api.hedge.enabled:false}")
+    private boolean embeddingApiHedge;
+    @Value("${embedding.api.hedge.percentile:95}")
+    private Integer embeddingApiHedgePercentile;
+    @Value("${embedding.api.hedge.budget:5}")
+    private Integer embeddingApiHedgeBudget;
 
+    @Value("${embedding.request.maxChars:0}")
+    private Integer embeddingRequestMaxChars;
+    @Value("${embedding.request.maxRecords:0}")
+    private Integer embeddingRequestMaxRecords;
+    @Value("${embedding.coalesce.enabled:false}")
+    private boolean embeddingCoalesce;
+    @Value("${embedding.coalesce.maxWait:2000}")
+    private Integer embeddingCoalesceMaxWait;
+    @Value("${embedding.coalesce.bucketByLength:false}")
+    private boolean embeddingCoalesceBucketByLength;
+    @Value("${embedding.coalesce.bufferSize:200}")
+    private Integer embeddingCoalesceBufferSize;
+
+    @Value("${embedding.onnx.model:#{null}}")
+    private String embeddingOnnxModel;
+    @Value("${embedding.onnx.tokenizer:#{null}}")
+    private String embeddingOnnxTokenizer;
+    @Value("${embedding.onnx.threads:4}")
+    private Integer embeddingOnnxThreads;
+    @Value("${embedding.onnx.maxTokens:256}")
+    private Integer embeddingOnnxMaxTokens;
+    @Value("${embedding.onnx.normalize:false}")
+    private boolean embeddingOnnxNormalize;
+
+    @Value("${vectorStore:milvus}")
+    private String vectorStore;
     @Value("${milvus.url:#{null}}")
     private String milvusUrl;
     @Value("${milvus.port}")
@@ -51,13 +115,101 @@ public class UpdaterSettings {
     private String milvusCollectionDescription;
     @Value("${milvus.usePartitions:false}")
     private boolean useMilvusPartitions;
+    @Value("${milvus.partitions.buckets:0}")
+    private Integer milvusPartitionBuckets;
+    @Value("${milvus.clientPool.size:1}")
+    private Integer milvusClientPoolSize;
+    @Value("${milvus.partialUpdateMode:delete}")
+    private String milvusPartialUpdateMode;
+    @Value("${milvus.insert.async:false}")
+    private boolean milvusInsertAsync;
+    @Value("${milvus.insert.batchRows:2000}")
+    private Integer milvusInsertBatchRows;
+    @Value("${milvus.insert.batchMB:16}")
+    private Integer milvusInsertBatchMB;
+    @Value("${milvus.insert.maxInFlight:4}")
+    private Integer milvusInsertMaxInFlight;
+
+    @Value("${milvus.index.type:IVF_SQ8}")
+    private String milvusIndexType;
+    @Value("${milvus.index.metric:L2}")
+    private String milvusIndexMetric;
+    @Value("${milvus.index.params:{\"nlist\": 16384}}")
+    private String milvusIndexParams;
+    @Value("${milvus.index.searchParams:#{null}}")
+    private String milvusIndexSearchParams;
+    private MilvusIndexConfig milvusIndexConfig;
+    @Value("${milvus.index.deferred:false}")
+    private boolean milvusIndexDeferred;
+    @Value("${milvus.flush.interval:0}")
+    private Integer milvusFlushInterval;
+    @Value("${milvus.rebuild.keep:1}")
+    private Integer milvusRebuildKeep;
+    @Value("${milvus.rebuild.minCountRatio:0.9}")
+    private Double milvusRebuildMinCountRatio;
+    @Value("${milvus.bulkInsert.enabled:false}")
+    private boolean milvusBulkInsert;
+    @Value("${milvus.bulkInsert.stagingDir:#{null}}")
+    private String milvusBulkInsertStagingDir;
+    @Value("${milvus.bulkInsert.remotePath:#{null}}")
+    private String milvusBulkInsertRemotePath;
+    @Value("${milvus.bulkInsert.fileMB:512}")
+    private Integer milvusBulkInsertFileMB;
+    @Value("${milvus.bulkInsert.timeout:360}")
+    private Integer milvusBulkInsertTimeout;
+    @Value("${milvus.bulkInsert.storage.endpoint:#{null}}")
+    private String milvusBulkInsertStorageEndpoint;
+    @Value("${milvus.bulkInsert.storage.bucket:a-bucket}")
+    private String milvusBulkInsertStorageBucket;
+    @Value("${milvus.bulkInsert.storage.accessKey:#{null}}")
+    private String milvusBulkInsertStorageAccessKey;
+    @Value("${milvus.bulkInsert.storage.secretKey:#{null}}")
+    private String milvusBulkInsertStorageSecretKey;
+    @Value("${milvus.spool.enabled:false}")
+    private boolean milvusSpool;
+    @Value("${milvus.spool.dir:#{null}}")
+    private String milvusSpoolDir;
+    @Value("${milvus.spool.segmentMB:64}")
+    private Integer milvusSpoolSegmentMB;
+    @Value("${milvus.spool.retries:30}")
+    private Integer milvusSpoolRetries;
+    @Value("${milvus.spool.retryDelay:10}")
+    private Integer milvusSpoolRetryDelay;
+
+    @Value("${milvus.deletionPass.enabled:true}")
+    private boolean milvusDeletionPass;
+    @Value("${milvus.deletionPass.diffSets:false}")
+    private boolean milvusDeletionPassDiffSets;
+
+    @Value("${reconcile.fix:false}")
+    private boolean reconcileFix;
+
+    @Value("${targets:#{null}}")
+    private String targets;
+    @Value("${targets.maxFailedRecords:0}")
+    private Integer targetsMaxFailedRecords;
+    private List<EmbeddingTarget> embeddingTargets = Collections.emptyList();
 
     @Value("${test.file:#{null}}")
     private String testFile;
+    @Value("${test.file.vectorFormat:binary}")
+    private String testFileVectorFormat;
+    @Value("${test.file.recordFormat:jsonl}")
+    private String testFileRecordFormat;
+    @Value("${test.file.gzip:false}")
+    private boolean testFileGzip;
+    @Value("${test.file.sharded:false}")
+    private boolean testFileSharded;
 
     @Value("${mail.to:#{null}}")
     private String mailTo;
 
+    private final Environment environment;
+
+    public UpdaterSettings(Environment environment) {
+        this.environment = environment;
+    }
+
     @PostConstruct
     private void logImportantSettings() throws ConfigurationException {
         if (this.batchSize != null && this.batchSize > MAX_BATCH_SIZE) {
@@ -69,13 +221,89 @@ public class UpdaterSettings {
         LOG.info("  Batch size = {}", getBatchSize());
         LOG.info("  Threads = {}", getThreads());
         LOG.info("  Log interval = {} seconds", logProgressInterval);
+        LOG.info("  Embedding provider = {}", embeddingProvider);
         LOG.info("  Embeddings API = {}", embeddingApiUrl);
         LOG.info("    Timeout = {} sec", embeddingApiTimeout);
         LOG.info("    Reduce = {}", EmbeddingRequestData.REDUCE);
+        if (embeddingApiGzip) {
+            LOG.info("    Gzip requests = true");
+        }
+        if (embeddingApiHedge) {
+            LOG.info("    Hedging after p{} response time, budget = {}%", embeddingApiHedgePercentile, embeddingApiHedgeBudget);
+        }
+        if (embeddingRequestMaxChars > 0) {
+            LOG.info("    Max characters per request = {}, max records per request = {}", embeddingRequestMaxChars,
+                    getEmbeddingRequestMaxRecords());
+        }
+        if (embeddingCoalesce) {
+            LOG.info("    Combine small batches, max wait = {} ms", embeddingCoalesceMaxWait);
+            if (embeddingCoalesceBucketByLength) {
+                LOG.info("    Group records by text length, buffer size = {}", embeddingCoalesceBufferSize);
+            }
+        }
+        if (EMBEDDING_PROVIDER_ONNX.equals(embeddingProvider)) {
+            checkOnnxAvailable();
+            LOG.info("  ONNX model = {}", embeddingOnnxModel);
+            LOG.info("    Threads = {}", embeddingOnnxThreads);
+            if (embeddingOnnxNormalize) {
+                LOG.info("    Normalize vectors = true");
+            }
+        }
+        if (useInMemoryVectorStore()) {
+            LOG.info("  In-memory vector store, collection {} (data is lost when the application stops!)", milvusCollection);
+        }
         LOG.info("  Milvus {} at {}", milvusUrl, milvusCollection);
         LOG.info("    Milvus use partitions = {}", useMilvusPartitions);
-        LOG.info("  Test file {}", testFile);
+        if (useMilvusPartitions && milvusPartitionBuckets > 0) {
+            LOG.info("    Milvus partition buckets = {}", milvusPartitionBuckets);
+        }
+        LOG.info("    Milvus client pool size = {}", milvusClientPoolSize);
+        LOG.info("    Milvus partial update mode = {}", milvusPartialUpdateMode);
+        if (milvusInsertAsync) {
+            LOG.info("    Async inserts of max {} rows / {} MB, max {} in progress", milvusInsertBatchRows,
+                    milvusInsertBatchMB, milvusInsertMaxInFlight);
+        }
+        LOG.info("    Milvus index = {} {} {}, search params = {}", milvusIndexType, milvusIndexMetric, milvusIndexParams,
+                isValueDefined(milvusIndexSearchParams) ? milvusIndexSearchParams : "default");
+        if (milvusIndexDeferred) {
+            LOG.info("    Create index after loading for full updates");
+        }
+        if (milvusFlushInterval > 0) {
+            LOG.info("    Flush every {} rows", milvusFlushInterval);
+        }
+        LOG.info("    Rebuild keeps {} old collections, min count ratio = {}", milvusRebuildKeep, milvusRebuildMinCountRatio);
+        if (milvusBulkInsert) {
+            LOG.info("    Bulk insert for full updates, staging dir = {}, remote path = {}, max file size = {} MB, timeout = {} minutes",
+                    milvusBulkInsertStagingDir, milvusBulkInsertRemotePath, milvusBulkInsertFileMB, milvusBulkInsertTimeout);
+            if (isValueDefined(milvusBulkInsertStorageEndpoint)) {
+                LOG.info("    Bulk insert files are uploaded to bucket {} at {}", milvusBulkInsertStorageBucket,
+                        milvusBulkInsertStorageEndpoint);
+            } else {
+                LOG.warn("    Bulk insert files are not uploaded, the staging dir should be mounted in the Milvus bucket");
+            }
+        }
+        if (milvusSpool) {
+            LOG.info("    Spool vectors in {}, segment size = {} MB, {} retries with {} seconds delay",
+                    milvusSpoolDir, milvusSpoolSegmentMB, milvusSpoolRetries, milvusSpoolRetryDelay);
+        }
+        LOG.info("    Partial updates delete ContentTier 0 records = {}, deleted records = {}", milvusDeletionPass,
+                milvusDeletionPass && milvusDeletionPassDiffSets);
+        LOG.info("  Reconcile fixes differences = {}", reconcileFix);
+        LOG.info("  Test file {}, vector format = {}, record format = {}, gzip = {}, sharded = {}", testFile,
+                testFileVectorFormat, testFileRecordFormat, testFileGzip, testFileSharded);
 
+        if (!List.of(VECTOR_STORE_MILVUS, VECTOR_STORE_MEMORY).contains(vectorStore)) {
+            throw new ConfigurationException("Property vectorStore should be " + VECTOR_STORE_MILVUS + " or " + VECTOR_STORE_MEMORY);
+        }
+        if (!List.of(VECTOR_FORMAT_BINARY, VECTOR_FORMAT_CSV).contains(testFileVectorFormat)) {
+            throw new ConfigurationException("Property test.file.vectorFormat should be " + VECTOR_FORMAT_BINARY + " or " + VECTOR_FORMAT_CSV);
+        }
+        if (!List.of(RECORD_FORMAT_JSONL, RECORD_FORMAT_CSV).contains(testFileRecordFormat)) {
+            throw new ConfigurationException("Property test.file.recordFormat should be " + RECORD_FORMAT_JSONL + " or " + RECORD_FORMAT_CSV);
+        }
+        if (useInMemoryVectorStore() && !isValueDefined(milvusCollection)) {
+            throw new ConfigurationException("Property milvus.collection is required when using the in-memory vector store");
+        }
         if (isValueDefined(milvusUrl)) {
             milvusUrl = milvusUrl.trim();
             if (!isValueDefined(milvusCollection)) {
@@ -84,7 +312,114 @@ public class UpdaterSettings {
             if (milvusPort == null) {
                 throw new ConfigurationException("Property milvus.port is required when milvus.url is defined");
             }
+            if (!List.of(PARTIAL_UPDATE_INSERT, PARTIAL_UPDATE_DELETE, PARTIAL_UPDATE_UPSERT).contains(milvusPartialUpdateMode)) {
+                throw new ConfigurationException("Property milvus.partialUpdateMode should be " + PARTIAL_UPDATE_INSERT
+                        + ", " + PARTIAL_UPDATE_DELETE + " or " + PARTIAL_UPDATE_UPSERT);
+            }
+            this.milvusIndexConfig = createIndexConfig();
+            if (milvusPartitionBuckets >= MAX_MILVUS_PARTITIONS) {
+                throw new ConfigurationException("Property milvus.partitions.buckets should be lower than " + MAX_MILVUS_PARTITIONS);
+            }
+            if (milvusBulkInsert && !isValueDefined(milvusBulkInsertStagingDir)) {
+                throw new ConfigurationException("Property milvus.bulkInsert.stagingDir is required when bulk insert is enabled");
+            }
+            if (milvusBulkInsert && isValueDefined(milvusBulkInsertStorageEndpoint)
+                    && (!isValueDefined(milvusBulkInsertStorageAccessKey) || !isValueDefined(milvusBulkInsertStorageSecretKey))) {
+                throw new ConfigurationException("Properties milvus.bulkInsert.storage.accessKey and secretKey are required "
+                        + "when milvus.bulkInsert.storage.endpoint is set");
+            }
+            if (milvusSpool && !isValueDefined(milvusSpoolDir)) {
+                throw new ConfigurationException("Property milvus.spool.dir is required when the spool is enabled");
+            }
+        }
+        loadEmbeddingTargets();
+    }
+
+    private MilvusIndexConfig createIndexConfig() throws ConfigurationException {
+        MilvusIndexConfig result;
+        try {
+            result = new MilvusIndexConfig(IndexType.valueOf(milvusIndexType.trim().toUpperCase(Locale.ROOT)),
+                    MetricType.valueOf(milvusIndexMetric.trim().toUpperCase(Locale.ROOT)), milvusIndexParams,
+                    milvusIndexSearchParams);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Unknown Milvus index type " + milvusIndexType + " or metric type " + milvusIndexMetric, e);
+        }
+        if (result.getMetricType() != MilvusConstants.INDEX_METRIC_TYPE) {
+            LOG.warn("Milvus index metric type {} differs from {}, make sure the Recommendation API searches using the same metric",
+                    result.getMetricType(), MilvusConstants.INDEX_METRIC_TYPE);
+        }
+        return result;
+    }
+
+    /**
+     * Read the Embeddings API and Milvus collection of each extra target
+     */
+    private void loadEmbeddingTargets() throws ConfigurationException {
+        if (!isValueDefined(targets)) {
+            return;
+        }
+        if (!isValueDefined(milvusUrl) || !isEmbeddingProviderDefined()) {
+            throw new ConfigurationException("Property targets requires an embedding provider and Milvus to be configured");
+        }
+        List<EmbeddingTarget> result = new ArrayList<>();
+        for (String name : targets.split(",")) {
+            String targetName = name.trim();
+            String prefix = "target." + targetName + ".";
+            String provider = environment.getProperty(prefix + "embedding.provider", EMBEDDING_PROVIDER_API).trim();
+            String apiUrl = environment.getProperty(prefix + "embedding.api.url");
+            String onnxModel = environment.getProperty(prefix + "embedding.onnx.model");
+            String onnxTokenizer = environment.getProperty(prefix + "embedding.onnx.tokenizer");
+            String collection = environment.getProperty(prefix + "milvus.collection");
+            if (EMBEDDING_PROVIDER_ONNX.equals(provider)) {
+                checkOnnxAvailable();
+                if (!isValueDefined(onnxModel) || !isValueDefined(onnxTokenizer)) {
+                    throw new ConfigurationException("Properties " + prefix + "embedding.onnx.model and " + prefix
+                            + "embedding.onnx.tokenizer are required for the " + EMBEDDING_PROVIDER_ONNX + " embedding provider");
+                }
+            } else if (EMBEDDING_PROVIDER_API.equals(provider)) {
+                if (!isValueDefined(apiUrl)) {
+                    throw new ConfigurationException("Property " + prefix + "embedding.api.url is required for the "
+                            + EMBEDDING_PROVIDER_API + " embedding provider");
+                }
+            } else {
+                throw new ConfigurationException("Unknown embedding provider " + provider + " for target " + targetName
+                        + ", expected " + EMBEDDING_PROVIDER_API + " or " + EMBEDDING_PROVIDER_ONNX);
+            }
+            if (!isValueDefined(collection)) {
+                throw new ConfigurationException("Property " + prefix + "milvus.collection is required");
+            }
+            if (collection.trim().equals(milvusCollection) || result.stream().anyMatch(t -> t.getMilvusCollection().equals(collection.trim()))) {
+                throw new ConfigurationException("Target " + targetName + " should write to a different Milvus collection");
+            }
+            EmbeddingTarget target = new EmbeddingTarget(targetName, provider,
+                    isValueDefined(apiUrl) ? apiUrl.trim() : null,
+                    isValueDefined(onnxModel) ? onnxModel.trim() : null,
+                    isValueDefined(onnxTokenizer) ? onnxTokenizer.trim() : null,
+                    collection.trim());
+            LOG.info("  Extra target {}", target);
+            result.add(target);
         }
+        if (targetsMaxFailedRecords > 0) {
+            LOG.info("  Extra targets fail after {} failed records", targetsMaxFailedRecords);
+        }
+        this.embeddingTargets = Collections.unmodifiableList(result);
+    }
+
+    private static void checkOnnxAvailable() throws ConfigurationException {
+        for (String className : EMBEDDING_PROVIDER_ONNX_CLASSES) {
+            if (!ClassUtils.isPresent(className, UpdaterSettings.class.getClassLoader())) {
+                throw new ConfigurationException("The " + EMBEDDING_PROVIDER_ONNX + " embedding provider is not available "
+                        + "(" + className + " not found). Build the updater with the onnx Maven profile (mvn package -Ponnx)");
+            }
+        }
+    }
+
+    /**
+     * @return maximum number of records an extra target may fail to process before the update is aborted, 0 if
+     * there's no maximum
+     */
+    public Integer getTargetsMaxFailedRecords() {
+        return targetsMaxFailedRecords;
     }
 
     /**
@@ -118,6 +453,21 @@ public class UpdaterSettings {
         return logTimingInterval;
     }
 
+    /**
+     * @return the name of the embedding provider to use, 'api' for the Embeddings API or 'onnx' for an in-process model
+     */
+    public String getEmbeddingProvider() {
+        return embeddingProvider;
+    }
+
+    /**
+     * @return true if we can generate vectors, either because the Embeddings API is configured, or because an
+     * in-process model is used
+     */
+    public boolean isEmbeddingProviderDefined() {
+        return EMBEDDING_PROVIDER_ONNX.equals(embeddingProvider) || isValueDefined(embeddingApiUrl);
+    }
+
     public String getEmbeddingApiUrl() {
         return embeddingApiUrl;
     }
@@ -126,6 +476,119 @@ public class UpdaterSettings {
         return embeddingApiTimeout;
     }
 
+    /**
+     * @return if true then request bodies sent to the Embeddings API are gzip-compressed
+     */
+    public boolean useEmbeddingApiGzip() {
+        return embeddingApiGzip;
+    }
+
+    /**
+     * @return if true then requests to the Embeddings API that take longer than usual are sent again to another
+     * Embeddings API address
+     */
+    public boolean useEmbeddingApiHedging() {
+        return embeddingApiHedge;
+    }
+
+    public Integer getEmbeddingApiHedgePercentile() {
+        return embeddingApiHedgePercentile;
+    }
+
+    public Integer getEmbeddingApiHedgeBudget() {
+        return embeddingApiHedgeBudget;
+    }
+
+    /**
+     * @return maximum number of characters in a request to the embedding provider, 0 means no limit
+     */
+    public Integer getEmbeddingRequestMaxChars() {
+        return embeddingRequestMaxChars;
+    }
+
+    /**
+     * @return maximum number of records in a request to the embedding provider (batch size if not set)
+     */
+    public Integer getEmbeddingRequestMaxRecords() {
+        if (embeddingRequestMaxRecords == null || embeddingRequestMaxRecords <= 0) {
+            return getBatchSize();
+        }
+        return embeddingRequestMaxRecords;
+    }
+
+    /**
+     * @return if true then small batches of records (from different sets) are combined into 1 request
+     */
+    public boolean useEmbeddingCoalescing() {
+        return embeddingCoalesce;
+    }
+
+    /**
+     * @return maximum time in ms to wait for a combined request to fill up
+     */
+    public Integer getEmbeddingCoalesceMaxWait() {
+        return embeddingCoalesceMaxWait;
+    }
+
+    /**
+     * @return true if buffered records should be grouped into requests of similar text length
+     */
+    public boolean useEmbeddingCoalesceBucketByLength() {
+        return embeddingCoalesceBucketByLength;
+    }
+
+    /**
+     * @return number of records to buffer before grouping them by text length
+     */
+    public Integer getEmbeddingCoalesceBufferSize() {
+        return embeddingCoalesceBufferSize;
+    }
+
+    public String getEmbeddingOnnxModel() {
+        return embeddingOnnxModel;
+    }
+
+    public String getEmbeddingOnnxTokenizer() {
+        return embeddingOnnxTokenizer;
+    }
+
+    public Integer getEmbeddingOnnxThreads() {
+        return embeddingOnnxThreads;
+    }
+
+    public Integer getEmbeddingOnnxMaxTokens() {
+        return embeddingOnnxMaxTokens;
+    }
+
+    /**
+     * @return true if vectors generated by the ONNX model should be scaled to unit length
+     */
+    public boolean useEmbeddingOnnxNormalize() {
+        return embeddingOnnxNormalize;
+    }
+
+    /**
+     * @return list of extra targets (Embeddings API and Milvus collection) to generate and write vectors for, empty
+     * list if there are none
+     */
+    public List<EmbeddingTarget> getEmbeddingTargets() {
+        return embeddingTargets;
+    }
+
+    /**
+     * @return true if vectors are written to an in-memory vector store instead of Milvus (for testing purposes)
+     */
+    public boolean useInMemoryVectorStore() {
+        return VECTOR_STORE_MEMORY.equals(vectorStore);
+    }
+
+    /**
+     * @return true if there is a vector store to write to, either Milvus or the in-memory store
+     */
+    public boolean isVectorStoreDefined() {
+        return useInMemoryVectorStore() || isValueDefined(milvusUrl);
+    }
+
     public String getMilvusUrl() {
         return milvusUrl;
     }
@@ -150,10 +613,215 @@ public class UpdaterSettings {
         return useMilvusPartitions;
     }
 
+    /**
+     * @return number of partitions (buckets) that set ids are hashed into, 0 means 1 partition per set
+     */
+    public Integer getMilvusPartitionBuckets() {
+        return milvusPartitionBuckets;
+    }
+
+    /**
+     * @return number of Milvus clients (gRPC connections) used for writing data
+     */
+    public Integer getMilvusClientPoolSize() {
+        return milvusClientPoolSize;
+    }
+
+    /**
+     * @return how existing entries are handled in a partial update, either insert (may create duplicates), delete
+     * (delete existing entries before inserting) or upsert (requires Milvus 2.3 or newer)
+     */
+    public String getMilvusPartialUpdateMode() {
+        return milvusPartialUpdateMode;
+    }
+
+    /**
+     * @return if true then vectors are collected into larger batches and inserted asynchronously into Milvus
+     */
+    public boolean useMilvusInsertAsync() {
+        return milvusInsertAsync;
+    }
+
+    public Integer getMilvusInsertBatchRows() {
+        return milvusInsertBatchRows;
+    }
+
+    public Integer getMilvusInsertBatchMB() {
+        return milvusInsertBatchMB;
+    }
+
+    public Integer getMilvusInsertMaxInFlight() {
+        return milvusInsertMaxInFlight;
+    }
+
+    /**
+     * @return type, metric, build and search parameters of the index to create
+     */
+    public MilvusIndexConfig getMilvusIndexConfig() {
+        return milvusIndexConfig;
+    }
+
+    /**
+     * @return if true then a full update creates a new collection without index and builds the index after all
+     * vectors are loaded
+     */
+    public boolean useMilvusDeferredIndex() {
+        return milvusIndexDeferred;
+    }
+
+    /**
+     * @return number of written rows after which we flush the collection, 0 means we leave flushing to Milvus
+     */
+    public Integer getMilvusFlushInterval() {
+        return milvusFlushInterval;
+    }
+
+    /**
+     * @return number of old collections that are kept after a rebuild
+     */
+    public Integer getMilvusRebuildKeep() {
+        return milvusRebuildKeep;
+    }
+
+    /**
+     * @return a rebuilt collection should contain at least this fraction of the number of entries in the current
+     * collection, otherwise we don't switch to it
+     */
+    public Double getMilvusRebuildMinCountRatio() {
+        return milvusRebuildMinCountRatio;
+    }
+
+    /**
+     * @return if true then a full update writes vectors to files in the staging directory first and then imports those
+     * using the Milvus bulk insert API
+     */
+    public boolean useMilvusBulkInsert() {
+        return milvusBulkInsert;
+    }
+
+    public String getMilvusBulkInsertStagingDir() {
+        return milvusBulkInsertStagingDir;
+    }
+
+    /**
+     * @return optional, path of the staging directory in the object storage (bucket) used by Milvus
+     */
+    public String getMilvusBulkInsertRemotePath() {
+        return milvusBulkInsertRemotePath;
+    }
+
+    public Integer getMilvusBulkInsertFileMB() {
+        return milvusBulkInsertFileMB;
+    }
+
+    /**
+     * @return max time in minutes to wait for all bulk insert tasks to complete
+     */
+    public Integer getMilvusBulkInsertTimeout() {
+        return milvusBulkInsertTimeout;
+    }
+
+    /**
+     * @return optional, address of the object storage used by Milvus. If set, bulk insert files are uploaded there
+     */
+    public String getMilvusBulkInsertStorageEndpoint() {
+        return milvusBulkInsertStorageEndpoint;
+    }
+
+    public String getMilvusBulkInsertStorageBucket() {
+        return milvusBulkInsertStorageBucket;
+    }
+
+    public String getMilvusBulkInsertStorageAccessKey() {
+        return milvusBulkInsertStorageAccessKey;
+    }
+
+    public String getMilvusBulkInsertStorageSecretKey() {
+        return milvusBulkInsertStorageSecretKey;
+    }
+
+    /**
+     * @return true if generated vectors are written to a local spool first (and from there to Milvus)
+     */
+    public boolean useMilvusSpool() {
+        return milvusSpool;
+    }
+
+    public String getMilvusSpoolDir() {
+        return milvusSpoolDir;
+    }
+
+    public Integer getMilvusSpoolSegmentMB() {
+        return milvusSpoolSegmentMB;
+    }
+
+    public Integer getMilvusSpoolRetries() {
+        return milvusSpoolRetries;
+    }
+
+    /**
+     * @return delay in seconds before writing a spool segment is retried
+     */
+    public Integer getMilvusSpoolRetryDelay() {
+        return milvusSpoolRetryDelay;
+    }
+
+    /**
+     * @return true if records that are ContentTier 0 should be deleted from Milvus after a partial update
+     */
+    public boolean useMilvusDeletionPass() {
+        return milvusDeletionPass;
+    }
+
+    /**
+     * @return true if the ids of updated sets should be compared after a partial update, to delete records that no
+     * longer exist in Mongo
+     */
+    public boolean useMilvusDeletionPassDiffSets() {
+        return milvusDeletionPassDiffSets;
+    }
+
+    /**
+     * @return true if a reconcile run should delete orphaned Milvus entries and write missing records to Milvus
+     */
+    public boolean useReconcileFix() {
+        return reconcileFix;
+    }
+
     public String getTestFile() {
         return testFile;
     }
 
+    /**
+     * @return true if generated vectors should be saved to binary vector files instead of csv (when no vector store
+     * is configured)
+     */
+    public boolean useBinaryTestFile() {
+        return VECTOR_FORMAT_BINARY.equals(testFileVectorFormat);
+    }
+
+    /**
+     * @return true if EmbeddingRecords should be saved to a JSON Lines file instead of csv (when no Embeddings API is
+     * configured)
+     */
+    public boolean useJsonlTestFile() {
+        return RECORD_FORMAT_JSONL.equals(testFileRecordFormat);
+    }
+
+    /**
+     * @return true if the JSON Lines file with EmbeddingRecords should be gzip-compressed
+     */
+    public boolean useTestFileGzip() {
+        return testFileGzip;
+    }
+
+    /**
+     * @return true if each chunk thread should write to its own test file (shard)
+     */
+    public boolean useShardedTestFile() {
+        return testFileSharded;
+    }
+
     public String getMailTo() {
         return mailTo;
     }
@@ -0,0 +1,171 @@
+package eu.europeana.api.recommend.updater.service;
+
+import eu.europeana.api.recommend.common.RecordId;
+import eu.europeana.api.recommend.updater.config.JobCmdLineStarter;
+import eu.europeana.api.recommend.updater.config.JobData;
+import eu.europeana.api.recommend.updater.config.UpdaterSettings;
+import eu.europeana.api.recommend.updater.service.milvus.MilvusClientPool;
+import eu.europeana.api.recommend.updater.service.milvus.MilvusUtils;
+import eu.europeana.api.recommend.updater.service.record.MongoService;
+import eu.europeana.api.recommend.updater.util.SortedDiff;
+import io.milvus.client.MilvusClient;
+import io.milvus.param.ConnectParam;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Partial updates only load records that are not ContentTier 0, so records that were downgraded to ContentTier 0 or
+ * deleted from Mongo would stay in Milvus. This step removes those after a partial update:
+ * <ol>
+ * <li>Records that are ContentTier 0 (and were modified after the from date, or are in one of the updated sets) are
+ * deleted from Milvus. Deleting ids that are not in Milvus is harmless.</li>
+ * <li>Optionally, the ids of each updated set are compared with Mongo, and Milvus entries of records that no longer
+ * exist are deleted. Note that sets without any updated records are not checked; use --RECONCILE for that.</li>
+ * </ol>
+ */
+@SuppressWarnings("fb-contrib:USFW_UNSYNCHRONIZED_SINGLETON_FIELD_WRITES") // due to the way Spring-Batch works there
+// is no need to synchronize changing instance variables in methods
+@Service
+public class DeletionPass implements Tasklet, StepExecutionListener {
+
+    private static final Logger LOG = LogManager.getLogger(DeletionPass.class);
+
+    private static final int DELETE_BATCH_SIZE = 10_000;
+
+    private final UpdaterSettings settings;
+    private final MongoService mongoService;
+
+    private boolean isEnabled;
+    private Date fromDate;
+    private List<String> sets;
+
+    public DeletionPass(UpdaterSettings settings, MongoService mongoService) {
+        this.settings = settings;
+        this.mongoService = mongoService;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void beforeStep(StepExecution stepExecution) {
+        // reconcile deletes orphaned entries itself
+        isEnabled = settings.useMilvusDeletionPass()
+                && UpdaterSettings.isValueDefined(settings.getMilvusUrl())
+                && !JobCmdLineStarter.isFullUpdate(stepExecution.getJobParameters())
+                && !JobCmdLineStarter.isReconcile(stepExecution.getJobParameters());
+        fromDate = JobCmdLineStarter.getFromDate(stepExecution.getJobParameters());
+        sets = (List<String>) stepExecution.getJobExecution().getExecutionContext().get(JobData.SETS_KEY);
+        if (sets == null) {
+            sets = Collections.emptyList();
+        }
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution stepContribution, ChunkContext chunkContext) {
+        if (!isEnabled) {
+            return RepeatStatus.FINISHED;
+        }
+
+        String collection = settings.getMilvusCollection();
+        ConnectParam connectParam = ConnectParam.newBuilder()
+                .withHost(settings.getMilvusUrl())
+                .withPort(settings.getMilvusPort())
+                .build();
+        try (MilvusClientPool clientPool = MilvusClientPool.create(connectParam, 1)) {
+            deleteFromMilvus(clientPool.getPrimary(), collection);
+        }
+        return RepeatStatus.FINISHED;
+    }
+
+    /**
+     * Delete ContentTier 0 records and (optionally) records that are no longer in Mongo from the provided collection
+     * @param milvusClient the client to use
+     * @param collection the collection to delete from
+     */
+    void deleteFromMilvus(MilvusClient milvusClient, String collection) {
+        long start = System.currentTimeMillis();
+        long nrDeleted = deleteContentTier0(milvusClient, collection);
+        LOG.info("Deleted {} ContentTier 0 records from Milvus collection {} in {} ms", nrDeleted, collection,
+                System.currentTimeMillis() - start);
+
+        if (settings.useMilvusDeletionPassDiffSets()) {
+            start = System.currentTimeMillis();
+            nrDeleted = 0;
+            for (String setId : sets) {
+                nrDeleted = nrDeleted + deleteOrphaned(milvusClient, collection, setId);
+            }
+            LOG.info("Deleted {} records no longer in Mongo from Milvus collection {} in {} ms", nrDeleted, collection,
+                    System.currentTimeMillis() - start);
+        }
+    }
+
+    private long deleteContentTier0(MilvusClient milvusClient, String collection) {
+        long result = 0;
+        if (fromDate != null) {
+            try (Stream<String> ids = mongoService.streamAboutContentTier0(null, fromDate)) {
+                result = deleteInBatches(milvusClient, collection, ids.map(DeletionPass::toMilvusId).iterator());
+            }
+        } else {
+            for (String setId : sets) {
+                try (Stream<String> ids = mongoService.streamAboutContentTier0("^/" + setId + "/", null)) {
+                    result = result + deleteInBatches(milvusClient, collection, ids.map(DeletionPass::toMilvusId).iterator());
+                }
+            }
+        }
+        return result;
+    }
+
+    private long deleteOrphaned(MilvusClient milvusClient, String collection, String setId) {
+        Iterator<String> milvusIds = MilvusUtils.iterateSetIds(milvusClient, collection, setId);
+        List<String> orphaned = new ArrayList<>();
+        try (Stream<String> mongoIds = mongoService.streamAboutSorted("^/" + setId + "/")) {
+            SortedDiff.diff(mongoIds.iterator(), DeletionPass::toMilvusId, milvusIds, id -> { }, orphaned::add);
+        } catch (IllegalArgumentException e) {
+            // ids are compared in Java string order, if Mongo or Milvus sorts differently we can't tell what's orphaned
+            LOG.error("Set {}: skipped deleting records no longer in Mongo, {}", setId, e.getMessage());
+            return 0;
+        }
+        if (!orphaned.isEmpty()) {
+            LOG.info("Set {}: deleting {} records no longer in Mongo", setId, orphaned.size());
+        }
+        return deleteInBatches(milvusClient, collection, orphaned.iterator());
+    }
+
+    private static String toMilvusId(String about) {
+        return new RecordId(about).getMilvusId();
+    }
+
+    private long deleteInBatches(MilvusClient milvusClient, String collection, Iterator<String> ids) {
+        long result = 0;
+        List<String> batch = new ArrayList<>(DELETE_BATCH_SIZE);
+        while (ids.hasNext()) {
+            batch.add(ids.next());
+            if (batch.size() >= DELETE_BATCH_SIZE || !ids.hasNext()) {
+                MilvusUtils.deleteIds(milvusClient, collection, null, batch);
+                result = result + batch.size();
+                batch.clear();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        return stepExecution.getExitStatus();
+    }
+
+}
@@ -0,0 +1,315 @@
+package eu.europeana.api.recommend.updater.service;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.config.BuildInfo;
+import eu.europeana.api.recommend.updater.config.EmbeddingTarget;
+import eu.europeana.api.recommend.updater.config.UpdaterSettings;
+import eu.europeana.api.recommend.updater.exception.ConfigurationException;
+import eu.europeana.api.recommend.updater.exception.EmbeddingsException;
+import eu.europeana.api.recommend.updater.service.embeddings.EmbedRecordToVectorProcessor;
+import eu.europeana.api.recommend.updater.service.embeddings.EmbeddingProvider;
+import eu.europeana.api.recommend.updater.service.embeddings.EmbeddingsApiProvider;
+import eu.europeana.api.recommend.updater.service.embeddings.OnnxEmbeddingProvider;
+import eu.europeana.api.recommend.updater.service.milvus.MilvusWriterService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends each batch of EmbeddingRecords to the default embedding provider and all extra targets in parallel, and writes
+ * the generated vectors to the Milvus collection of each target. This way records are read from Mongo and converted
+ * to EmbeddingRecords only once, no matter how many models we populate. Extra targets can use the Embeddings API or
+ * an ONNX model, independent of the default provider.
+ *
+ * Each target does its own retries and keeps track of its own progress. If an extra target fails we log an error,
+ * write the ids of the failed records to a file (so they can be processed again later) and continue with the other
+ * targets. If an extra target fails more records than the configured maximum, or if the default target fails, the
+ * update is aborted (same as without extra targets).
+ */
+@Service
+public class MultiTargetWriter implements ItemWriter<List<EmbeddingRecord>>, JobExecutionListener, StepExecutionListener {
+
+    private static final Logger LOG = LogManager.getLogger(MultiTargetWriter.class);
+
+    private static final String DEFAULT_TARGET_NAME = "default";
+    private static final String FAILED_FILE_NAME = "Target-";
+    private static final String FAILED_FILE_EXTENSION = "-failed.txt";
+    private static final long MS_PER_SEC = 1000;
+
+    private final List<Target> targets;
+    private final List<OnnxEmbeddingProvider> onnxProviders = new ArrayList<>();
+    private ExecutorService executor;
+
+    /**
+     * Setup a new writer for all configured targets
+     * @param settings inject application settings bean
+     * @param buildInfo inject build info bean
+     * @param defaultProcessor inject processor that generates vectors for the default target
+     * @param defaultWriter inject writer for the default Milvus collection
+     */
+    @Autowired
+    public MultiTargetWriter(UpdaterSettings settings, BuildInfo buildInfo, EmbedRecordToVectorProcessor defaultProcessor,
+                             MilvusWriterService defaultWriter) throws ConfigurationException {
+        this.targets = new ArrayList<>();
+        if (settings.getEmbeddingTargets().isEmpty()) {
+            return;
+        }
+
+        int logProgressInterval = settings.getLogProgressInterval();
+        targets.add(new Target(DEFAULT_TARGET_NAME, defaultProcessor, defaultWriter, true, null, 0, logProgressInterval));
+        for (EmbeddingTarget embeddingTarget : settings.getEmbeddingTargets()) {
+            LOG.info("Setting up target {}...", embeddingTarget);
+            targets.add(new Target(embeddingTarget.getName(),
+                    new EmbedRecordToVectorProcessor(settings, createProvider(settings, buildInfo, embeddingTarget)),
+                    new MilvusWriterService(settings, embeddingTarget.getMilvusCollection(), settings.getMilvusCollectionDescription()),
+                    false,
+                    getFailedFile(embeddingTarget.getName()),
+                    settings.getTargetsMaxFailedRecords(),
+                    logProgressInterval));
+        }
+        startExecutor(settings);
+    }
+
+    /**
+     * Setup a new writer for the provided targets
+     * @param settings application settings bean
+     * @param targets the default target and all extra targets
+     */
+    MultiTargetWriter(UpdaterSettings settings, List<Target> targets) {
+        this.targets = targets;
+        startExecutor(settings);
+    }
+
+    private void startExecutor(UpdaterSettings settings) {
+        this.executor = Executors.newFixedThreadPool(settings.getThreads() * targets.size(),
+                new CustomizableThreadFactory("Target"));
+    }
+
+    private EmbeddingProvider createProvider(UpdaterSettings settings, BuildInfo buildInfo,
+                                             EmbeddingTarget embeddingTarget) throws ConfigurationException {
+        if (embeddingTarget.isOnnx()) {
+            OnnxEmbeddingProvider provider = new OnnxEmbeddingProvider(settings, embeddingTarget.getOnnxModel(),
+                    embeddingTarget.getOnnxTokenizer());
+            provider.loadModel();
+            onnxProviders.add(provider);
+            return provider;
+        }
+        EmbeddingsApiProvider provider = new EmbeddingsApiProvider(settings, buildInfo, embeddingTarget.getEmbeddingApiUrl());
+        provider.initWebClient();
+        return provider;
+    }
+
+    @SuppressWarnings("findsecbugs:PATH_TRAVERSAL_OUT") // not an issue, target name is provided by trusted users
+    private static Path getFailedFile(String targetName) {
+        return Path.of(FAILED_FILE_NAME + targetName + FAILED_FILE_EXTENSION);
+    }
+
+    /**
+     * @return true if there are extra targets configured
+     */
+    public boolean hasTargets() {
+        return !targets.isEmpty();
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        // the default Milvus writer is a job listener itself, so we only need to set up the extra targets
+        for (Target target : targets) {
+            if (!target.isDefault) {
+                target.writer.beforeJob(jobExecution);
+            }
+        }
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        for (Target target : targets) {
+            target.writer.beforeStep(stepExecution);
+        }
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        // we are the step writer, so Milvus writers of all targets (including the default) need to finish writing
+        ExitStatus result = stepExecution.getExitStatus();
+        for (Target target : targets) {
+            result = result.and(target.writer.afterStep(stepExecution));
+        }
+        return result;
+    }
+
+    @Override
+    public void afterJob(JobExecution jobExecution) {
+        for (Target target : targets) {
+            LOG.info("Target {}: {} vectors written, {} records failed", target.name, target.nrWritten, target.nrFailed);
+            if (!target.isDefault) {
+                target.writer.afterJob(jobExecution);
+            }
+            target.closeFailedFile();
+        }
+        shutdown();
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        for (OnnxEmbeddingProvider provider : onnxProviders) {
+            provider.close();
+        }
+        onnxProviders.clear();
+    }
+
+    @Override
+    public void write(List<? extends List<EmbeddingRecord>> lists) throws Exception {
+        for (List<EmbeddingRecord> embeddingRecords : lists) {
+            List<Future<Void>> results = new ArrayList<>(targets.size());
+            for (Target target : targets) {
+                results.add(executor.submit(() -> {
+                    target.process(embeddingRecords);
+                    return null;
+                }));
+            }
+            // wait for all targets to finish, so we don't read new records faster than the slowest target can process
+            Exception targetError = null;
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception exception) {
+                        targetError = exception;
+                    } else {
+                        throw e;
+                    }
+                }
+            }
+            if (targetError != null) {
+                throw targetError;
+            }
+        }
+    }
+
+    /**
+     * Embeddings provider and Milvus writer for 1 target, including progress information
+     */
+    static final class Target {
+        private final String name;
+        private final EmbedRecordToVectorProcessor processor;
+        private final MilvusWriterService writer;
+        private final boolean isDefault;
+        private final Path failedFile;
+        private final long maxFailed;
+        private final int logProgressInterval;
+
+        private final AtomicLong nrWritten = new AtomicLong();
+        private final AtomicLong nrFailed = new AtomicLong();
+        private final AtomicLong lastLogTime = new AtomicLong(System.currentTimeMillis());
+        private BufferedWriter failedWriter;
+
+        /**
+         * @param failedFile file to write the ids of failed records to (not used for the default target)
+         * @param maxFailed maximum number of failed records before the update is aborted, 0 for no maximum
+         * @param logProgressInterval interval in seconds for logging progress
+         */
+        Target(String name, EmbedRecordToVectorProcessor processor, MilvusWriterService writer, boolean isDefault,
+               Path failedFile, long maxFailed, int logProgressInterval) {
+            this.name = name;
+            this.processor = processor;
+            this.writer = writer;
+            this.isDefault = isDefault;
+            this.failedFile = failedFile;
+            this.maxFailed = maxFailed;
+            this.logProgressInterval = logProgressInterval;
+        }
+
+        void process(List<EmbeddingRecord> embeddingRecords) throws Exception {
+            try {
+                List<RecordVectors> vectors = processor.process(embeddingRecords);
+                if (vectors != null) {
+                    writer.write(List.of(vectors));
+                    nrWritten.addAndGet(vectors.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw e;
+            } catch (Exception e) {
+                long failed = nrFailed.addAndGet(embeddingRecords.size());
+                if (isDefault) {
+                    throw e;
+                }
+                LOG.error("Target {} failed to process {} records", name, embeddingRecords.size(), e);
+                writeFailedIds(embeddingRecords);
+                if (maxFailed > 0 && failed > maxFailed) {
+                    throw new EmbeddingsException("Target " + name + " failed to process " + failed
+                            + " records, more than the maximum of " + maxFailed + ". Ids are written to " + failedFile, e);
+                }
+            }
+            logProgress();
+        }
+
+        /**
+         * Append the ids of records that failed to the failed file, so they can be processed again later
+         */
+        private synchronized void writeFailedIds(List<EmbeddingRecord> embeddingRecords) throws IOException {
+            if (failedWriter == null) {
+                failedWriter = Files.newBufferedWriter(failedFile, StandardCharsets.UTF_8);
+            }
+            for (EmbeddingRecord embeddingRecord : embeddingRecords) {
+                failedWriter.write(embeddingRecord.getId());
+                failedWriter.newLine();
+            }
+            failedWriter.flush();
+        }
+
+        private synchronized void closeFailedFile() {
+            if (failedWriter == null) {
+                return;
+            }
+            try {
+                failedWriter.close();
+                LOG.warn("Target {}: ids of {} failed records are written to {}", name, nrFailed, failedFile);
+            } catch (IOException e) {
+                LOG.error("Error closing file {}", failedFile, e);
+            }
+            failedWriter = null;
+        }
+
+        long getNrFailed() {
+            return nrFailed.get();
+        }
+
+        private void logProgress() {
+            long now = System.currentTimeMillis();
+            long last = lastLogTime.get();
+            if (logProgressInterval > 0 && now - last >= logProgressInterval * MS_PER_SEC
+                    && lastLogTime.compareAndSet(last, now)) {
+                LOG.info("Target {}: {} vectors written, {} records failed", name, nrWritten, nrFailed);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+package eu.europeana.api.recommend.updater.service;
+
+import eu.europeana.api.recommend.common.RecordId;
+import eu.europeana.api.recommend.updater.config.JobCmdLineStarter;
+import eu.europeana.api.recommend.updater.config.JobData;
+import eu.europeana.api.recommend.updater.config.UpdaterSettings;
+import eu.europeana.api.recommend.updater.exception.ConfigurationException;
+import eu.europeana.api.recommend.updater.service.milvus.MilvusClientPool;
+import eu.europeana.api.recommend.updater.service.milvus.MilvusUtils;
+import eu.europeana.api.recommend.updater.service.record.MongoService;
+import eu.europeana.api.recommend.updater.util.SortedDiff;
+import io.milvus.client.MilvusClient;
+import io.milvus.param.ConnectParam;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Compares the record ids in Mongo (records that are not ContentTier 0) with the ids in the Milvus collection, set by
+ * set. Ids are streamed from both in sorted order and merge-diffed. Records that are in Mongo but not in Milvus are
+ * written to a 'missing' file, records that are in Milvus but not in Mongo to an 'orphaned' file.
+ *
+ * Only runs when the --RECONCILE option is provided. If reconcile.fix is enabled, orphaned entries are deleted from
+ * Milvus and the missing records are passed on to the next step, so only those are loaded and written to Milvus.
+ * Otherwise the next step has nothing to do.
+ */
+@SuppressWarnings("fb-contrib:USFW_UNSYNCHRONIZED_SINGLETON_FIELD_WRITES") // due to the way Spring-Batch works there
+// is no need to synchronize changing instance variables in methods
+@Service
+public class RecordReconciler implements Tasklet, StepExecutionListener {
+
+    private static final Logger LOG = LogManager.getLogger(RecordReconciler.class);
+
+    private static final String RESULT_FILE_NAME = "Reconcile-";
+    private static final String RESULT_FILE_EXTENSION = ".txt";
+
+    private final UpdaterSettings settings;
+    private final MongoService mongoService;
+
+    private boolean isReconcile;
+    private List<String> sets;
+    private final Map<String, List<String>> missingIds = new LinkedHashMap<>();
+    private long nrMatched;
+    private long nrMissing;
+    private long nrOrphaned;
+    private final List<String> failedSets = new ArrayList<>();
+
+    public RecordReconciler(UpdaterSettings settings, MongoService mongoService) {
+        this.settings = settings;
+        this.mongoService = mongoService;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void beforeStep(StepExecution stepExecution) {
+        isReconcile = JobCmdLineStarter.isReconcile(stepExecution.getJobParameters());
+        sets = (List<String>) stepExecution.getJobExecution().getExecutionContext().get(JobData.SETS_KEY);
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution stepContribution, ChunkContext chunkContext) throws Exception {
+        if (!isReconcile) {
+            return RepeatStatus.FINISHED;
+        }
+        if (!UpdaterSettings.isValueDefined(settings.getMilvusUrl())) {
+            throw new ConfigurationException("Milvus needs to be configured to reconcile");
+        }
+
+        String collection = settings.getMilvusCollection();
+        LOG.info("Reconciling {} sets with Milvus collection {}...", sets.size(), collection);
+        ConnectParam connectParam = ConnectParam.newBuilder()
+                .withHost(settings.getMilvusUrl())
+                .withPort(settings.getMilvusPort())
+                .build();
+        try (MilvusClientPool clientPool = MilvusClientPool.create(connectParam, 1);
+             BufferedWriter missingFile = createResultFile(collection, "missing");
+             BufferedWriter orphanedFile = createResultFile(collection, "orphaned")) {
+            MilvusUtils.loadCollection(clientPool.getPrimary(), collection);
+            for (String setId : sets) {
+                reconcileSet(clientPool.getPrimary(), collection, setId, missingFile, orphanedFile);
+            }
+        }
+        LOG.info("Reconcile finished: {} records ok, {} missing in Milvus, {} orphaned in Milvus", nrMatched, nrMissing, nrOrphaned);
+        if (!failedSets.isEmpty()) {
+            LOG.error("{} sets could not be reconciled: {}", failedSets.size(), failedSets);
+        }
+        return RepeatStatus.FINISHED;
+    }
+
+    @SuppressWarnings("findsecbugs:PATH_TRAVERSAL_OUT") // not an issue, collection name is provided by trusted users
+    private BufferedWriter createResultFile(String collection, String type) throws IOException {
+        return Files.newBufferedWriter(Path.of(RESULT_FILE_NAME + collection + "-" + type + RESULT_FILE_EXTENSION),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compare the ids of 1 set. Missing ids are Mongo abouts (so they can be loaded again), orphaned ids are Milvus ids
+     */
+    void reconcileSet(MilvusClient milvusClient, String collection, String setId, Writer missingFile,
+                      Writer orphanedFile) throws IOException {
+        Iterator<String> milvusIds = MilvusUtils.iterateSetIds(milvusClient, collection, setId);
+        List<String> missing = new ArrayList<>();
+        List<String> orphaned = new ArrayList<>();
+        long matched;
+        try (Stream<String> mongoIds = mongoService.streamAboutSorted("^/" + setId + "/")) {
+            matched = SortedDiff.diff(mongoIds.iterator(), about -> new RecordId(about).getMilvusId(),
+                    milvusIds, missing::add, orphaned::add);
+        } catch (IllegalArgumentException e) {
+            // ids are compared in Java string order, if Mongo or Milvus sorts differently we can't tell what's missing
+            LOG.error("Set {}: can't reconcile, {}", setId, e.getMessage());
+            failedSets.add(setId);
+            return;
+        }
+        writeIds(missingFile, missing);
+        writeIds(orphanedFile, orphaned);
+        nrMatched += matched;
+        nrMissing += missing.size();
+        nrOrphaned += orphaned.size();
+        LOG.info("Set {}: {} records ok, {} missing, {} orphaned", setId, matched, missing.size(), orphaned.size());
+
+        if (settings.useReconcileFix()) {
+            if (!orphaned.isEmpty()) {
+                MilvusUtils.deleteIds(milvusClient, collection, null, orphaned);
+                LOG.info("Set {}: deleted {} orphaned entries", setId, orphaned.size());
+            }
+            if (!missing.isEmpty()) {
+                missingIds.put(setId, missing);
+            }
+        }
+    }
+
+    private void writeIds(Writer file, List<String> ids) throws IOException {
+        for (String id : ids) {
+            file.write(id);
+            file.write(System.lineSeparator());
+        }
+        file.flush();
+    }
+
+    /**
+     * Pass the missing records (if any) to the next step
+     * @param stepExecution the reconcile step
+     * @return step exit status
+     */
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (isReconcile) {
+            stepExecution.getJobExecution().getExecutionContext().put(JobData.MISSING_IDS_KEY, new LinkedHashMap<>(missingIds));
+            stepExecution.getJobExecution().getExecutionContext().put(JobData.SETS_KEY, new ArrayList<>(missingIds.keySet()));
+        }
+        return stepExecution.getExitStatus();
+    }
+
+}
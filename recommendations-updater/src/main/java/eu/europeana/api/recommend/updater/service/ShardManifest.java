@@ -0,0 +1,115 @@
+package eu.europeana.api.recommend.updater.service;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists the shards written by a ShardedFileWriter: for each shard the base name of its file(s), the number of
+ * records and the number of records per set. Saved as JSON next to the shards, so loaders can find and read all shards
+ * in parallel.
+ */
+public final class ShardManifest {
+
+    public static final String MANIFEST_SUFFIX = "_manifest.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final long records;
+    private final List<Shard> shards;
+
+    /**
+     * Create a new manifest
+     * @param records total number of records in all shards
+     * @param shards information about each shard
+     */
+    @JsonCreator
+    public ShardManifest(@JsonProperty("records") long records, @JsonProperty("shards") List<Shard> shards) {
+        this.records = records;
+        this.shards = shards;
+    }
+
+    /**
+     * @param baseFile path and name of the output without extension
+     * @return the manifest file
+     */
+    public static Path getFile(Path baseFile) {
+        return Path.of(baseFile.toString() + MANIFEST_SUFFIX);
+    }
+
+    /**
+     * Read the manifest of a sharded output
+     * @param baseFile path and name of the output without extension
+     * @return the manifest
+     * @throws IOException when there's a problem reading the manifest
+     */
+    public static ShardManifest read(Path baseFile) throws IOException {
+        return MAPPER.readValue(getFile(baseFile).toFile(), ShardManifest.class);
+    }
+
+    /**
+     * Save the manifest of a sharded output
+     * @param baseFile path and name of the output without extension
+     * @throws IOException when there's a problem writing the manifest
+     */
+    public void write(Path baseFile) throws IOException {
+        MAPPER.writeValue(getFile(baseFile).toFile(), this);
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    /**
+     * Information about 1 shard
+     */
+    public static final class Shard {
+        private final String name;
+        private final long records;
+        private final Map<String, Long> sets;
+
+        /**
+         * @param name base name of the shard file(s), relative to the manifest directory
+         * @param records number of records in the shard
+         * @param sets number of records per set in the shard
+         */
+        @JsonCreator
+        public Shard(@JsonProperty("name") String name, @JsonProperty("records") long records,
+                     @JsonProperty("sets") Map<String, Long> sets) {
+            this.name = name;
+            this.records = records;
+            this.sets = sets;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public Map<String, Long> getSets() {
+            return sets;
+        }
+
+        /**
+         * @param manifestBaseFile path and name of the output without extension (as used to read the manifest)
+         * @return path and name of the shard without extension
+         */
+        public Path resolve(Path manifestBaseFile) {
+            Path dir = manifestBaseFile.toAbsolutePath().getParent();
+            return dir == null ? Path.of(name) : dir.resolve(name);
+        }
+    }
+}
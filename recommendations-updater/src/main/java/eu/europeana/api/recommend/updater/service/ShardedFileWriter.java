@@ -0,0 +1,151 @@
+package eu.europeana.api.recommend.updater.service;
+
+import eu.europeana.api.recommend.common.RecordId;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamWriter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * Writes output to multiple files (shards), so chunk threads don't have to wait for each other when writing. A chunk
+ * thread takes an idle shard (or creates a new one if all are in use), writes to it and hands it back. This way there
+ * are never more shards than the maximum number of chunks that are written at the same time.
+ *
+ * Note that Spring-Batch may run every chunk in a new thread, that's why shards are not bound to a particular thread.
+ *
+ * When closed, a manifest is saved listing all shards, their number of records and which sets they contain (see
+ * ShardManifest).
+ *
+ * @param <T> type of the items that are written
+ */
+public class ShardedFileWriter<T> implements ItemStreamWriter<List<T>> {
+
+    private static final Logger LOG = LogManager.getLogger(ShardedFileWriter.class);
+
+    private static final String SHARD_FORMAT = "%s_shard_%03d";
+
+    private final Path baseFile;
+    private final Function<Path, ItemStreamWriter<List<T>>> writerFactory;
+    private final Function<T, String> idFunction;
+
+    private final Deque<Shard<T>> idleShards = new ConcurrentLinkedDeque<>();
+    private final List<Shard<T>> allShards = new CopyOnWriteArrayList<>();
+
+    /**
+     * Create a new sharded writer
+     * @param baseFile path and name of the output without extension, shards are named after this
+     * @param writerFactory creates the writer for a shard, given the path and name of the shard without extension
+     * @param idFunction returns the record id of an item, used to keep track of the sets in a shard
+     */
+    public ShardedFileWriter(Path baseFile, Function<Path, ItemStreamWriter<List<T>>> writerFactory,
+                             Function<T, String> idFunction) {
+        this.baseFile = baseFile;
+        this.writerFactory = writerFactory;
+        this.idFunction = idFunction;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) {
+        // shards are opened when they are needed
+        LOG.info("Writing output in shards named {}_shard_###", baseFile);
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) {
+        // nothing to save, restarting a job will overwrite the shards
+    }
+
+    @Override
+    public void write(List<? extends List<T>> lists) throws Exception {
+        Shard<T> shard = idleShards.pollFirst();
+        if (shard == null) {
+            shard = openShard();
+        }
+        try {
+            shard.write(lists, idFunction);
+        } finally {
+            idleShards.offerFirst(shard);
+        }
+    }
+
+    private synchronized Shard<T> openShard() {
+        Path shardFile = Path.of(String.format(SHARD_FORMAT, baseFile, allShards.size() + 1));
+        ItemStreamWriter<List<T>> writer = writerFactory.apply(shardFile);
+        // each shard gets its own context, so shards with the same kind of writer don't overwrite each other's state
+        writer.open(new ExecutionContext());
+        Shard<T> result = new Shard<>(shardFile.getFileName().toString(), writer);
+        allShards.add(result);
+        LOG.debug("Opened shard {}", shardFile);
+        return result;
+    }
+
+    /**
+     * Close all shards and save the manifest
+     * @throws ItemStreamException when closing a shard or saving the manifest failed
+     */
+    @Override
+    public synchronized void close() {
+        ItemStreamException error = null;
+        List<ShardManifest.Shard> manifestShards = new ArrayList<>();
+        long total = 0;
+        for (Shard<T> shard : allShards) {
+            try {
+                shard.writer.close();
+            } catch (ItemStreamException e) {
+                LOG.error("Error closing shard {}", shard.name, e);
+                error = (error == null ? e : error);
+            }
+            manifestShards.add(new ShardManifest.Shard(shard.name, shard.records, shard.sets));
+            total = total + shard.records;
+        }
+        try {
+            new ShardManifest(total, manifestShards).write(baseFile);
+        } catch (IOException e) {
+            error = (error == null ? new ItemStreamException("Error writing manifest " + ShardManifest.getFile(baseFile), e) : error);
+        }
+        LOG.info("Wrote {} records in {} shards, manifest is {}", total, allShards.size(), ShardManifest.getFile(baseFile));
+        allShards.clear();
+        idleShards.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * A shard is only used by 1 thread at a time
+     */
+    private static final class Shard<T> {
+        private final String name;
+        private final ItemStreamWriter<List<T>> writer;
+        private final Map<String, Long> sets = new TreeMap<>();
+        private long records;
+
+        private Shard(String name, ItemStreamWriter<List<T>> writer) {
+            this.name = name;
+            this.writer = writer;
+        }
+
+        private void write(List<? extends List<T>> lists, Function<T, String> idFunction) throws Exception {
+            writer.write(lists);
+            for (List<T> list : lists) {
+                for (T item : list) {
+                    sets.merge(new RecordId(idFunction.apply(item)).getDataSetId(), 1L, Long::sum);
+                }
+                records = records + list.size();
+            }
+        }
+    }
+
+}
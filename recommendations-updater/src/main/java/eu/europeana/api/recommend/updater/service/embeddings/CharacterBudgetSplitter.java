@@ -0,0 +1,89 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.exception.EmbeddingsException;
+import eu.europeana.api.recommend.updater.util.TextLengthUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wraps an EmbeddingProvider and splits requests so that each request contains at most a maximum number of
+ * characters and records. Since the text length of records varies a lot (from a short title to many long
+ * descriptions), limiting the number of characters keeps the memory usage and latency of the embedding server more
+ * predictable than limiting the number of records only. A record that is longer than the character budget is sent
+ * in a request by itself.
+ */
+public class CharacterBudgetSplitter implements EmbeddingProvider {
+
+    private static final Logger LOG = LogManager.getLogger(CharacterBudgetSplitter.class);
+
+    private final EmbeddingProvider embeddingProvider;
+    private final int maxChars;
+    private final int maxRecords;
+
+    /**
+     * Create a new splitter
+     * @param embeddingProvider provider to send the (split) requests to
+     * @param maxChars maximum number of characters in a request
+     * @param maxRecords maximum number of records in a request
+     */
+    public CharacterBudgetSplitter(EmbeddingProvider embeddingProvider, int maxChars, int maxRecords) {
+        this.embeddingProvider = embeddingProvider;
+        this.maxChars = maxChars;
+        this.maxRecords = maxRecords;
+    }
+
+    @Override
+    public String getName() {
+        return embeddingProvider.getName();
+    }
+
+    @Override
+    public List<RecordVectors> getVectors(List<EmbeddingRecord> embeddingRecords) throws InterruptedException, EmbeddingsException {
+        if (embeddingRecords == null || embeddingRecords.isEmpty()) {
+            return embeddingProvider.getVectors(embeddingRecords);
+        }
+        List<List<EmbeddingRecord>> requests = split(embeddingRecords);
+        if (requests.size() == 1) {
+            return embeddingProvider.getVectors(embeddingRecords);
+        }
+
+        LOG.trace("Split {} records into {} requests", embeddingRecords.size(), requests.size());
+        List<RecordVectors> result = new ArrayList<>(embeddingRecords.size());
+        for (List<EmbeddingRecord> request : requests) {
+            List<RecordVectors> vectors = embeddingProvider.getVectors(request);
+            if (vectors == null) {
+                throw new EmbeddingsException("No vectors received for request of " + request.size() + " records");
+            }
+            result.addAll(vectors);
+        }
+        return result;
+    }
+
+    /**
+     * Split the provided records into consecutive requests that stay within the character and record budget
+     * @param embeddingRecords the records to split
+     * @return list of requests
+     */
+    private List<List<EmbeddingRecord>> split(List<EmbeddingRecord> embeddingRecords) {
+        List<List<EmbeddingRecord>> result = new ArrayList<>();
+        List<EmbeddingRecord> request = new ArrayList<>();
+        long requestChars = 0;
+        for (EmbeddingRecord embeddingRecord : embeddingRecords) {
+            int chars = TextLengthUtils.estimateLength(embeddingRecord);
+            if (!request.isEmpty() && (request.size() >= maxRecords || requestChars + chars > maxChars)) {
+                result.add(request);
+                request = new ArrayList<>();
+                requestChars = 0;
+            }
+            request.add(embeddingRecord);
+            requestChars = requestChars + chars;
+        }
+        result.add(request);
+        return result;
+    }
+}
@@ -0,0 +1,28 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.exception.EmbeddingsException;
+
+import java.util.List;
+
+/**
+ * Generates vectors for EmbeddingRecords. Which provider is used is determined by the embedding.provider property
+ */
+public interface EmbeddingProvider {
+
+    /**
+     * @return the name of this provider, as used in the embedding.provider property
+     */
+    String getName();
+
+    /**
+     * Generate vectors for the provided EmbeddingRecords
+     * @param embeddingRecords the records to generate vectors for
+     * @return list of generated vectors, in the same order as the provided records
+     * @throws InterruptedException when the thread was interrupted while waiting for the vectors
+     * @throws EmbeddingsException when there was a problem generating vectors
+     */
+    List<RecordVectors> getVectors(List<EmbeddingRecord> embeddingRecords) throws InterruptedException, EmbeddingsException;
+
+}
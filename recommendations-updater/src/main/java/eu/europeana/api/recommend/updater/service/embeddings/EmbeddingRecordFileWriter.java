@@ -14,7 +14,8 @@ import java.util.stream.Collectors;
 /**
  * Writes EmbeddingRecord objects to csv file
  * For testing purposes.
- * TODO known issue: any delimiter or new lines in the data is not escaped, so this can mess things up
+ * Known issue: any delimiter or new lines in the data is not escaped, so this can mess things up. Use
+ * EmbeddingRecordJsonlWriter if you need to read the records back.
  *
  * @author Patrick Ehlert
  */
@@ -0,0 +1,202 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes EmbeddingRecord objects to a JSON Lines file (1 JSON object per line, in the same format as sent to the
+ * Embeddings API), optionally gzip-compressed. All values are properly escaped, so records with newlines or other
+ * special characters can be read back.
+ *
+ * Serializing and writing is done by a separate writer thread. Chunk threads only add their records to a bounded
+ * queue, so they only have to wait when the writer thread can't keep up.
+ */
+public class EmbeddingRecordJsonlWriter implements ItemStreamWriter<List<EmbeddingRecord>> {
+
+    public static final String JSONL_EXTENSION = ".jsonl";
+    public static final String GZIP_EXTENSION = ".gz";
+
+    private static final Logger LOG = LogManager.getLogger(EmbeddingRecordJsonlWriter.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().setRootValueSeparator(null);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long QUEUE_POLL_INTERVAL_MS = 1000;
+    private static final List<EmbeddingRecord> END_OF_DATA = Collections.emptyList();
+
+    private final Path file;
+    private final boolean gzip;
+    private final int queueSize;
+
+    private BlockingQueue<List<EmbeddingRecord>> queue;
+    private Thread writerThread;
+    private final AtomicReference<Exception> error = new AtomicReference<>();
+    private volatile long nrWritten;
+
+    /**
+     * Create a new writer
+     * @param file the file to write to, existing files are overwritten
+     * @param gzip if true the file is gzip-compressed
+     * @param queueSize maximum number of record lists waiting to be written
+     */
+    public EmbeddingRecordJsonlWriter(Path file, boolean gzip, int queueSize) {
+        this.file = file;
+        this.gzip = gzip;
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * @param baseFile path and name of the file without extension
+     * @param gzip true if the file is gzip-compressed
+     * @return the file name with the appropriate extension
+     */
+    public static Path getFile(Path baseFile, boolean gzip) {
+        return Path.of(baseFile.toString() + JSONL_EXTENSION + (gzip ? GZIP_EXTENSION : ""));
+    }
+
+    @Override
+    public synchronized void open(ExecutionContext executionContext) {
+        if (writerThread != null) {
+            return;
+        }
+        JsonGenerator generator;
+        try {
+            OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+            if (gzip) {
+                out = new GZIPOutputStream(out, BUFFER_SIZE);
+            }
+            generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+        } catch (IOException e) {
+            throw new ItemStreamException("Error opening file " + file, e);
+        }
+        queue = new ArrayBlockingQueue<>(queueSize);
+        error.set(null);
+        nrWritten = 0;
+        writerThread = new Thread(() -> writeFromQueue(generator), "EmbeddingRecordJsonlWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        LOG.info("Writing EmbeddingRecords to {}", file);
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) {
+        // nothing to save, restarting a job will overwrite the file
+    }
+
+    /**
+     * Queue the provided records for writing
+     * @param lists lists of EmbeddingRecords
+     * @throws ItemStreamException when the writer thread failed
+     * @throws InterruptedException when interrupted while waiting for space in the queue
+     */
+    @Override
+    public void write(List<? extends List<EmbeddingRecord>> lists) throws InterruptedException {
+        BlockingQueue<List<EmbeddingRecord>> q = queue;
+        if (q == null) {
+            throw new IllegalStateException("EmbeddingRecord writer is not open");
+        }
+        checkError();
+        List<EmbeddingRecord> records = new ArrayList<>();
+        for (List<EmbeddingRecord> list : lists) {
+            records.addAll(list);
+        }
+        if (!records.isEmpty()) {
+            enqueue(q, records);
+        }
+    }
+
+    /**
+     * Add to the queue, waiting for space if necessary. If the writer thread stops because of an error, nobody takes
+     * from the queue anymore, so we regularly check for that
+     */
+    private void enqueue(BlockingQueue<List<EmbeddingRecord>> q, List<EmbeddingRecord> records) throws InterruptedException {
+        while (!q.offer(records, QUEUE_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+            checkError();
+        }
+    }
+
+    private void checkError() {
+        Exception e = error.get();
+        if (e != null) {
+            throw new ItemStreamException("Error writing to file " + file, e);
+        }
+    }
+
+    private void writeFromQueue(JsonGenerator generator) {
+        try (generator) {
+            while (true) {
+                List<EmbeddingRecord> records = queue.take();
+                if (records == END_OF_DATA) {
+                    break;
+                }
+                for (EmbeddingRecord embeddingRecord : records) {
+                    EmbeddingRequestEncoder.writeRecord(generator, embeddingRecord);
+                    generator.writeRaw('\n');
+                }
+                nrWritten = nrWritten + records.size();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error.compareAndSet(null, e);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Error writing EmbeddingRecords to {}", file, e);
+            error.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * @return the number of records written so far
+     */
+    public long getNrWritten() {
+        return nrWritten;
+    }
+
+    /**
+     * Write all queued records and close the file
+     * @throws ItemStreamException when not all records could be written
+     */
+    @Override
+    public synchronized void close() {
+        if (writerThread == null) {
+            return;
+        }
+        try {
+            if (error.get() == null) {
+                enqueue(queue, END_OF_DATA);
+            }
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ItemStreamException("Interrupted while closing file " + file, e);
+        } catch (ItemStreamException e) {
+            LOG.error("Not all EmbeddingRecords were written to {}", file);
+            throw e;
+        } finally {
+            writerThread = null;
+            queue = null;
+        }
+        checkError();
+        LOG.info("Wrote {} EmbeddingRecords to {}", nrWritten, file);
+    }
+
+}
@@ -0,0 +1,187 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.updater.config.JobCmdLineStarter;
+import eu.europeana.api.recommend.updater.config.UpdaterSettings;
+import eu.europeana.api.recommend.updater.service.ShardManifest;
+import eu.europeana.api.recommend.updater.util.ProgressLogger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Spring Batch reader for replaying EmbeddingRecords that were exported earlier by EmbeddingRecordJsonlWriter. This
+ * way the Embeddings API and Milvus stages can be benchmarked and tuned on a fixed set of records, without reading
+ * from Mongo or Solr.
+ *
+ * The file to replay is provided with the --replay command-line option. It can be a (gzip-compressed) JSON Lines file
+ * or the manifest of a sharded output, in which case all shards are read one after the other.
+ */
+@Service
+@SuppressWarnings("fb-contrib:USFW_UNSYNCHRONIZED_SINGLETON_FIELD_WRITES") // due to the way Spring-Batch works there
+// is no need to synchronize changing instance variables in beforeStep, open or close methods
+public class EmbeddingRecordReplayReader implements ItemStreamReader<List<EmbeddingRecord>>, StepExecutionListener {
+
+    private static final Logger LOG = LogManager.getLogger(EmbeddingRecordReplayReader.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final UpdaterSettings settings;
+
+    private final Deque<Path> filesToDo = new ArrayDeque<>();
+    private BufferedReader currentReader;
+    private Path currentFile;
+    private long lineNr;
+    private long nrRead;
+    private ProgressLogger progressLogger;
+
+    /**
+     * Create a new replay reader
+     * @param settings inject application settings bean
+     */
+    public EmbeddingRecordReplayReader(UpdaterSettings settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        Path replayFile = Path.of(JobCmdLineStarter.getReplayFile(stepExecution.getJobParameters()));
+        long totalRecords = 0;
+        filesToDo.clear();
+        try {
+            if (replayFile.getFileName().toString().endsWith(ShardManifest.MANIFEST_SUFFIX)) {
+                String manifestName = replayFile.toString();
+                Path baseFile = Path.of(manifestName.substring(0, manifestName.length() - ShardManifest.MANIFEST_SUFFIX.length()));
+                ShardManifest manifest = ShardManifest.read(baseFile);
+                for (ShardManifest.Shard shard : manifest.getShards()) {
+                    filesToDo.add(getShardFile(shard.resolve(baseFile)));
+                }
+                totalRecords = manifest.getRecords();
+            } else {
+                filesToDo.add(replayFile);
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Error reading manifest " + replayFile, e);
+        }
+        LOG.info("Replaying EmbeddingRecords from {} file(s)", filesToDo.size());
+        this.nrRead = 0;
+        this.progressLogger = new ProgressLogger(totalRecords, settings.getLogProgressInterval());
+    }
+
+    /**
+     * @return the JSON Lines file of a shard, which may or may not be compressed
+     */
+    private static Path getShardFile(Path shardBaseFile) {
+        Path gzipFile = EmbeddingRecordJsonlWriter.getFile(shardBaseFile, true);
+        if (Files.exists(gzipFile)) {
+            return gzipFile;
+        }
+        return EmbeddingRecordJsonlWriter.getFile(shardBaseFile, false);
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        LOG.info("Replayed {} EmbeddingRecords", nrRead);
+        return stepExecution.getExitStatus();
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) {
+        // files are opened when we start reading them
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) {
+        // replaying is not restartable
+    }
+
+    /**
+     * Read the next batch of records
+     * @return list of at most batch size records, or null if there are no more records
+     * @throws IOException when there's a problem reading a file or a line is not a valid EmbeddingRecord
+     */
+    @Override
+    public synchronized List<EmbeddingRecord> read() throws IOException {
+        List<EmbeddingRecord> result = new ArrayList<>(settings.getBatchSize());
+        while (result.size() < settings.getBatchSize()) {
+            String line = readLine();
+            if (line == null) {
+                break;
+            }
+            if (!line.isBlank()) {
+                try {
+                    result.add(MAPPER.readValue(line, EmbeddingRecord.class));
+                } catch (IOException e) {
+                    throw new IOException("Invalid EmbeddingRecord on line " + lineNr + " of " + currentFile, e);
+                }
+            }
+        }
+        if (result.isEmpty()) {
+            return null;
+        }
+        nrRead = nrRead + result.size();
+        progressLogger.logProgress(result.size());
+        return result;
+    }
+
+    /**
+     * @return the next line of the current file, continuing with the next file if necessary. Null if all files are read
+     */
+    private String readLine() throws IOException {
+        while (true) {
+            if (currentReader == null) {
+                currentFile = filesToDo.poll();
+                if (currentFile == null) {
+                    return null;
+                }
+                LOG.info("Reading EmbeddingRecords from {}", currentFile);
+                InputStream in = Files.newInputStream(currentFile);
+                if (currentFile.getFileName().toString().endsWith(EmbeddingRecordJsonlWriter.GZIP_EXTENSION)) {
+                    in = new GZIPInputStream(in);
+                }
+                currentReader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                lineNr = 0;
+            }
+            String line = currentReader.readLine();
+            if (line != null) {
+                lineNr++;
+                return line;
+            }
+            currentReader.close();
+            currentReader = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (currentReader != null) {
+            try {
+                currentReader.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing {}", currentFile, e);
+            }
+            currentReader = null;
+        }
+    }
+
+}
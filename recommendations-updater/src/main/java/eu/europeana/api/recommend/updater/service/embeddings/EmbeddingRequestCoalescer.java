@@ -0,0 +1,160 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.exception.EmbeddingsException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Combines small lists of EmbeddingRecords (e.g. the last page of a set) from multiple threads into 1 request, so we
+ * send fewer under-filled requests to the EmbeddingProvider. Each thread waits until the vectors for its own records
+ * are available. If a request isn't filled within the maximum wait time, the waiting thread sends what is available.
+ * Generated vectors are split again, so each thread only gets back the vectors of its own records (and set).
+ */
+public class EmbeddingRequestCoalescer {
+
+    private static final Logger LOG = LogManager.getLogger(EmbeddingRequestCoalescer.class);
+
+    private final EmbeddingProvider embeddingProvider;
+    private final int batchSize;
+    private final long maxWaitMs;
+
+    private final Object lock = new Object();
+    private List<PendingPart> pending = new ArrayList<>();
+    private int pendingSize;
+
+    /**
+     * Create a new coalescer
+     * @param embeddingProvider provider to send the combined requests to
+     * @param batchSize the preferred number of records in a request
+     * @param maxWaitMs maximum time in ms that a thread waits for a request to fill up
+     */
+    public EmbeddingRequestCoalescer(EmbeddingProvider embeddingProvider, int batchSize, long maxWaitMs) {
+        this.embeddingProvider = embeddingProvider;
+        this.batchSize = batchSize;
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    /**
+     * Generate vectors for the provided records. Lists with at least batchSize records are sent directly, smaller lists
+     * are combined with those of other threads.
+     * @param embeddingRecords the records to generate vectors for
+     * @return list of generated vectors for the provided records
+     * @throws InterruptedException when the thread was interrupted while waiting for the vectors
+     * @throws EmbeddingsException when there was a problem generating vectors
+     */
+    public List<RecordVectors> getVectors(List<EmbeddingRecord> embeddingRecords) throws InterruptedException, EmbeddingsException {
+        if (embeddingRecords == null || embeddingRecords.size() >= batchSize) {
+            return embeddingProvider.getVectors(embeddingRecords);
+        }
+
+        PendingPart part = new PendingPart(embeddingRecords);
+        List<PendingPart> toSend = null;
+        synchronized (lock) {
+            if (pendingSize + part.records.size() > batchSize) {
+                // doesn't fit anymore, so send what we have and start a new request
+                toSend = takePending();
+            }
+            pending.add(part);
+            pendingSize = pendingSize + part.records.size();
+            if (toSend == null && pendingSize >= batchSize) {
+                toSend = takePending();
+            }
+        }
+        if (toSend != null) {
+            send(toSend);
+        }
+
+        try {
+            return part.vectors.get(maxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // request didn't fill up in time, so send it ourselves (if no other thread did that already)
+            List<PendingPart> remaining = null;
+            synchronized (lock) {
+                if (pending.contains(part)) {
+                    remaining = takePending();
+                }
+            }
+            if (remaining != null) {
+                send(remaining);
+            }
+            return waitForVectors(part);
+        } catch (ExecutionException e) {
+            throw toEmbeddingsException(e);
+        }
+    }
+
+    private List<RecordVectors> waitForVectors(PendingPart part) throws InterruptedException, EmbeddingsException {
+        try {
+            return part.vectors.get();
+        } catch (ExecutionException e) {
+            throw toEmbeddingsException(e);
+        }
+    }
+
+    private EmbeddingsException toEmbeddingsException(ExecutionException e) {
+        if (e.getCause() instanceof EmbeddingsException embeddingsException) {
+            return new EmbeddingsException(embeddingsException.getMessage(), embeddingsException);
+        }
+        return new EmbeddingsException("Error generating vectors for combined request", e.getCause());
+    }
+
+    private List<PendingPart> takePending() {
+        List<PendingPart> result = pending;
+        pending = new ArrayList<>();
+        pendingSize = 0;
+        return result;
+    }
+
+    /**
+     * Send the records of all provided parts in 1 request and hand each part its own vectors
+     */
+    private void send(List<PendingPart> parts) throws InterruptedException {
+        List<EmbeddingRecord> combined = new ArrayList<>(batchSize);
+        for (PendingPart part : parts) {
+            combined.addAll(part.records);
+        }
+        LOG.trace("Sending combined request of {} records from {} lists", combined.size(), parts.size());
+
+        try {
+            List<RecordVectors> vectors = embeddingProvider.getVectors(combined);
+            if (vectors == null || vectors.size() != combined.size()) {
+                throw new EmbeddingsException("Expected " + combined.size() + " vectors for combined request, but received "
+                        + (vectors == null ? null : vectors.size()));
+            }
+            int start = 0;
+            for (PendingPart part : parts) {
+                part.vectors.complete(new ArrayList<>(vectors.subList(start, start + part.records.size())));
+                start = start + part.records.size();
+            }
+        } catch (EmbeddingsException | RuntimeException e) {
+            for (PendingPart part : parts) {
+                part.vectors.completeExceptionally(e);
+            }
+        } catch (InterruptedException e) {
+            // make sure other threads don't keep waiting
+            for (PendingPart part : parts) {
+                part.vectors.completeExceptionally(e);
+            }
+            throw e;
+        }
+    }
+
+    private static final class PendingPart {
+        private final List<EmbeddingRecord> records;
+        private final CompletableFuture<List<RecordVectors>> vectors = new CompletableFuture<>();
+
+        private PendingPart(List<EmbeddingRecord> records) {
+            this.records = records;
+        }
+    }
+
+}
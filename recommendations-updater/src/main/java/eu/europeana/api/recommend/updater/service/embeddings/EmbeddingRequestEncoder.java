@@ -0,0 +1,109 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.EmbeddingRequestData;
+import eu.europeana.api.recommend.updater.util.TextLengthUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serializes EmbeddingRecords into the JSON request body expected by the Embeddings API. Records are streamed
+ * straight into a (pooled) Netty buffer, so we don't need to create an EmbeddingRequestData object and an
+ * intermediate byte array. Optionally the body is gzip-compressed.
+ *
+ * The resulting buffer can be sent multiple times (e.g. on retries or hedged requests). Callers should release it
+ * when it's no longer needed.
+ */
+public class EmbeddingRequestEncoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    // to estimate the initial buffer size, so there's less resizing
+    private static final int JSON_BYTES_PER_RECORD = 128;
+    private static final int GZIP_RATIO = 4;
+
+    private final ByteBufAllocator allocator;
+    private final boolean gzip;
+
+    /**
+     * Create a new encoder
+     * @param allocator the allocator to use for creating buffers
+     * @param gzip if true then the generated request body is gzip-compressed
+     */
+    public EmbeddingRequestEncoder(ByteBufAllocator allocator, boolean gzip) {
+        this.allocator = allocator;
+        this.gzip = gzip;
+    }
+
+    /**
+     * @return true if the generated request body is gzip-compressed
+     */
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * Serialize the provided records into a new buffer
+     * @param embeddingRecords the records to serialize
+     * @return buffer containing the request body, the caller is responsible for releasing it
+     */
+    public ByteBuf encode(List<EmbeddingRecord> embeddingRecords) {
+        int initialCapacity = 0;
+        for (EmbeddingRecord embeddingRecord : embeddingRecords) {
+            initialCapacity = initialCapacity + TextLengthUtils.estimateLength(embeddingRecord) + JSON_BYTES_PER_RECORD;
+        }
+        ByteBuf buffer = allocator.buffer(gzip ? initialCapacity / GZIP_RATIO : initialCapacity);
+        try (OutputStream out = (gzip ? new GZIPOutputStream(new ByteBufOutputStream(buffer)) : new ByteBufOutputStream(buffer));
+             JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("records");
+            for (EmbeddingRecord embeddingRecord : embeddingRecords) {
+                writeRecord(generator, embeddingRecord);
+            }
+            generator.writeEndArray();
+            generator.writeNumberField("reduce", EmbeddingRequestData.REDUCE);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            buffer.release();
+            throw new UncheckedIOException("Error serializing request for Embeddings API", e);
+        }
+        return buffer;
+    }
+
+    /**
+     * Write 1 record as JSON object, in the format expected by the Embeddings API
+     * @param generator the generator to write to
+     * @param embeddingRecord the record to write
+     * @throws IOException when there's a problem writing
+     */
+    static void writeRecord(JsonGenerator generator, EmbeddingRecord embeddingRecord) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("id", embeddingRecord.getId());
+        writeValues(generator, "title", embeddingRecord.getTitle());
+        writeValues(generator, "description", embeddingRecord.getDescription());
+        writeValues(generator, "creator", embeddingRecord.getCreator());
+        writeValues(generator, "tags", embeddingRecord.getTags());
+        writeValues(generator, "places", embeddingRecord.getPlaces());
+        writeValues(generator, "times", embeddingRecord.getTimes());
+        generator.writeEndObject();
+    }
+
+    private static void writeValues(JsonGenerator generator, String fieldName, String[] values) throws IOException {
+        generator.writeFieldName(fieldName);
+        if (values == null) {
+            generator.writeNull();
+            return;
+        }
+        generator.writeArray(values, 0, values.length);
+    }
+}
@@ -0,0 +1,378 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.EmbeddingResponse;
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.config.BuildInfo;
+import eu.europeana.api.recommend.updater.config.UpdaterSettings;
+import eu.europeana.api.recommend.updater.exception.EmbeddingsException;
+import eu.europeana.api.recommend.updater.util.AverageTime;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeStrategies;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Send EmbedRecord objects to the Embeddings API. The Embeddings API returns vectors that can be saved in Milvus
+ *
+ * @author Patrick Ehlert
+ */
+@Component
+public class EmbeddingsApiProvider implements EmbeddingProvider {
+
+    public static final String NAME = UpdaterSettings.EMBEDDING_PROVIDER_API;
+
+    private static final Logger LOG = LogManager.getLogger(EmbeddingsApiProvider.class);
+
+    // on each retry it will add extra wait time, so with 5 retries with wait time 2 sec then the application
+    // will fail after 2 + 4 + 6 + 8 + 10 = 30 seconds
+    private static final int RETRY_GET_CLIENT = 5;
+    private static final int RETRY_GET_CLIENT_WAIT_TIME = 2; // in seconds
+    // 7 retries, wait time 3 sec -> 3 + 6 + 9 + 12 + 15 + 18 + 21 + 24 = 108 seconds
+    private static final int RETRY_GET_VECTOR = 8;
+    private static final int RETRY_GET_VECTOR_WAIT_TIME = 3; // in seconds
+
+    private static final long MS_PER_SEC = 1000;
+
+    private static final String GZIP = "gzip";
+
+    private static final int MAX_RESPONSE_SIZE_MB = 10;
+    private static final int BYTES_PER_MB = 1024 * 1024;
+
+    private final UpdaterSettings settings;
+    private final BuildInfo buildInfo;
+    private final String apiUrl;
+
+    private final Queue<WebClient> webClients = new ConcurrentLinkedQueue<>();
+    private List<WebClient> allWebClients = List.of(); // fixed list of all clients, used to pick a client for hedging
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+    private final EmbeddingRequestEncoder encoder;
+    private HedgePolicy hedgePolicy; // only set when hedging is enabled
+
+    private boolean shuttingDown = false;
+    private AverageTime averageTime; // for debugging purposes
+
+    /**
+     * Create a new provider that sends requests to the Embeddings API address(es) in the settings
+     * @param settings inject application settings bean
+     * @param buildInfo inject build info bean
+     */
+    @Autowired
+    public EmbeddingsApiProvider(UpdaterSettings settings, BuildInfo buildInfo) {
+        this(settings, buildInfo, settings.getEmbeddingApiUrl());
+    }
+
+    /**
+     * Create a new provider that sends requests to the provided Embeddings API address(es), e.g. for an extra target.
+     * Note that {@link #initWebClient()} should be called before use
+     * @param settings application settings bean
+     * @param buildInfo build info bean
+     * @param apiUrl one or more (comma-separated) Embeddings API addresses
+     */
+    public EmbeddingsApiProvider(UpdaterSettings settings, BuildInfo buildInfo, String apiUrl) {
+        this.settings = settings;
+        this.buildInfo = buildInfo;
+        this.apiUrl = apiUrl;
+        this.encoder = new EmbeddingRequestEncoder(PooledByteBufAllocator.DEFAULT, settings.useEmbeddingApiGzip());
+        if (LOG.isDebugEnabled()) {
+            this.averageTime = new AverageTime(settings.getLogTimingInterval(), "sending/receiving from Embeddings API");
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!NAME.equals(settings.getEmbeddingProvider()) || !UpdaterSettings.isValueDefined(apiUrl)) {
+            LOG.debug("Embeddings API not used");
+            return;
+        }
+        initWebClient();
+    }
+
+    /**
+     * Create webclients for all configured Embeddings API addresses
+     */
+    public void initWebClient() {
+        // Check whether to use 1 Embeddings API address or multiple
+        // If multiple, we'll keep track of which one was used last so load balancing is improved
+        String[] embeddingsApis = apiUrl.split(",");
+        if (embeddingsApis.length == 1) {
+            webClients.add(createWebClient(apiUrl.trim()));
+            LOG.info("Using 1 Embeddings API address at {}", apiUrl);
+        } else {
+            LOG.info("Multiple Embeddings API addresses found");
+            for (String embeddingApi : embeddingsApis) {
+                String url = embeddingApi.trim();
+                LOG.info("  {}", url);
+                webClients.add(createWebClient(url));
+            }
+            // Also check if number of threads in config match the number of addresses
+            if (settings.getThreads() != embeddingsApis.length) {
+                LOG.warn("Found {} Embeddings API urls, but application is configured to use {} threads", embeddingsApis.length, settings.getBatchSize());
+            }
+        }
+
+        this.allWebClients = List.copyOf(webClients);
+
+        if (settings.useEmbeddingApiHedging()) {
+            if (webClients.size() > 1) {
+                this.hedgePolicy = new HedgePolicy(settings.getEmbeddingApiHedgePercentile(),
+                        settings.getEmbeddingApiHedgeBudget(), settings.getEmbeddingApiTimeout() * MS_PER_SEC);
+            } else {
+                LOG.warn("Hedging requires multiple Embeddings API addresses. Hedging is disabled");
+            }
+        }
+    }
+
+    private WebClient createWebClient(String url) {
+        WebClient.Builder wcBuilder = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create()
+                        //.wiretap(true)
+                        .compress(true)
+                        .responseTimeout(Duration.ofSeconds(settings.getEmbeddingApiTimeout()))
+                        .option(ChannelOption.SO_KEEPALIVE, true)
+               ))
+                .exchangeStrategies(ExchangeStrategies.builder()
+                        .codecs(configurer -> configurer
+                                .defaultCodecs()
+                                .maxInMemorySize(MAX_RESPONSE_SIZE_MB * BYTES_PER_MB))
+                        .build());
+
+        return wcBuilder
+                .baseUrl(url)
+                .defaultHeader(HttpHeaders.USER_AGENT, buildInfo.getAppName() + " v" + buildInfo.getAppVersion())
+                .filter(logRequest())
+                .filter(logResponse())
+                .build();
+    }
+
+
+    private ExchangeFilterFunction logRequest() {
+        return (request, next) -> {
+            LOG.trace("Request: {} {}", request.method(), request.url());
+            return next.exchange(request);
+        };
+    }
+
+    private ExchangeFilterFunction logResponse() {
+        return ExchangeFilterFunction.ofResponseProcessor(response -> {
+            if (response.statusCode().isError()) {
+                LOG.error("Response: {} {}", response.statusCode().value(), response.statusCode().getReasonPhrase());
+                // TODO figure out how to also log error message field.
+            } else {
+                LOG.trace("Response: {} {}", response.statusCode().value(), response.statusCode().getReasonPhrase());
+            }
+            return Mono.just(response);
+        });
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public List<RecordVectors> getVectors(List<EmbeddingRecord> embeddingRecords) throws InterruptedException, EmbeddingsException {
+        LOG.trace("Sending {} records to Embedding API...", embeddingRecords.size());
+        return retrySend(embeddingRecords, RETRY_GET_VECTOR);
+    }
+
+    private List<RecordVectors> retrySend(List<EmbeddingRecord> embeddingRecords, int maxTries) throws InterruptedException, EmbeddingsException {
+        int nrTries = 1;
+        EmbeddingResponse response = null;
+        List<RecordVectors> result = null;
+
+        // Extra check because Embeddings API will fail if we sent 0 items to it.
+        if (embeddingRecords == null || embeddingRecords.isEmpty()) {
+            LOG.warn("No items to sent to Embeddings API");
+            return result;
+        }
+
+        // the request body is serialized only once, retries and hedged requests reuse the same bytes
+        ByteBuf payload = encoder.encode(embeddingRecords);
+        try {
+            while (nrTries <= maxTries && response == null) {
+                Long start = System.currentTimeMillis();
+                AtomicBoolean hedgeWon = new AtomicBoolean();
+                try {
+                    response = requestVectors(embeddingRecords.get(0), payload, hedgeWon).block();
+                    long duration = System.currentTimeMillis() - start;
+                    if (LOG.isDebugEnabled()) {
+                        averageTime.addTiming(duration);
+                    }
+                    // a hedged response took at least the hedge delay, so it would pull the percentile to the delay
+                    if (hedgePolicy != null && response != null && !hedgeWon.get()) {
+                        hedgePolicy.addTiming(duration);
+                    }
+
+                    result = (response == null ? null : Arrays.asList(response.getData()));
+                    LOG.trace("  Response = {}...", result);
+                    if (result == null) {
+                        LOG.warn("No response from Embeddings API after {} ms!", duration);
+                    } else {
+                        LOG.trace("3. Generated {} vectors in {} ms", result.size(), duration);
+                    }
+                } catch (RuntimeException e) {
+                    Throwable cause = getCause(e);
+                    String setName = getSetName(embeddingRecords);
+                    int sleepTime = RETRY_GET_VECTOR_WAIT_TIME * nrTries;
+                    LOG.warn("Request to Embeddings API for set {} failed after {} ms with cause {}. Attempt {}, will retry in {} seconds",
+                            setName, System.currentTimeMillis() - start, (cause == null ? null : cause.getMessage()), nrTries, sleepTime);
+                    if (shuttingDown || nrTries == maxTries) {
+                        // rethrow (with set info) so error is propagated
+                        throw new EmbeddingsException("Request to Embeddings API failed too often for set " + setName, e);
+                    } else {
+                        Thread.sleep(sleepTime * MS_PER_SEC); // wait some extra time before we try again
+                    }
+                }
+                nrTries++;
+            }
+        } finally {
+            payload.release();
+        }
+        return result;
+    }
+
+    private String getSetName(List<EmbeddingRecord> embeddingRecords) {
+        if (embeddingRecords.isEmpty()) {
+            return "unknown - empty list of embeddings records!";
+        }
+        return getSetName(embeddingRecords.get(0));
+    }
+
+    private String getSetName(EmbeddingRecord embeddingRecord) {
+        String result;
+        if (embeddingRecord == null) {
+            result = "unknown - provided record is null";
+        } else {
+            String[] parts = embeddingRecord.getId().split("/");
+            if (parts.length > 0) {
+                result = parts[0];
+            } else {
+                result = "unknown - id doesn't contain expected / character";
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check if there is a webclient that is not in use. If so we return that, else we wait until one is
+     * available
+     * @return
+     */
+    private synchronized WebClient getWebClientFromQueue(int maxTries) throws InterruptedException, EmbeddingsException {
+        int nrTries = 1;
+        WebClient webClient = null;
+
+        while (webClient == null && nrTries < maxTries){
+            webClient = webClients.poll();
+            if (webClient == null) {
+                int sleepTime = RETRY_GET_CLIENT_WAIT_TIME * nrTries;
+                LOG.warn("All Embeddings API instances are in use. Waiting {} sec ...", sleepTime);
+                webClients.wait(sleepTime * MS_PER_SEC); // wait some extra time before we try again
+                nrTries++;
+            }
+        }
+
+        if (webClient == null) {
+            throw new EmbeddingsException("No Embeddings API address available. Giving up");
+        }
+        return webClient;
+    }
+
+    /**
+     * When both the request and the hedged request fail, Reactor reports that no request returned a value, with the
+     * actual errors as suppressed exceptions
+     */
+    private static Throwable getCause(RuntimeException e) {
+        Throwable cause = Exceptions.unwrap(e);
+        if (cause instanceof NoSuchElementException && cause.getSuppressed().length > 0) {
+            return Exceptions.unwrap(cause.getSuppressed()[0]);
+        }
+        return cause;
+    }
+
+    private Mono<EmbeddingResponse> requestVectors(EmbeddingRecord firstRecord, ByteBuf payload, AtomicBoolean hedgeWon)
+            throws InterruptedException, EmbeddingsException {
+        WebClient webClient = getWebClientFromQueue(RETRY_GET_CLIENT);
+        Mono<EmbeddingResponse> request;
+        try {
+            request = sendRequest(webClient, payload);
+        } finally {
+            this.webClients.add(webClient); // put back in queue
+        }
+        if (hedgePolicy == null) {
+            return request;
+        }
+
+        hedgePolicy.addRequest();
+        Duration hedgeDelay = hedgePolicy.getHedgeDelay();
+        if (hedgeDelay == null) {
+            return request;
+        }
+        // If there's no response after the hedge delay we send the same request to another Embeddings API address.
+        // Whichever returns a response first is used, the other request is cancelled. An error of one request doesn't
+        // cancel the other one, only when both fail the attempt fails. Note that this runs on a timer thread, so
+        // we shouldn't block here (i.e. not wait for the queue)
+        Mono<EmbeddingResponse> hedgedRequest = Mono.delay(hedgeDelay)
+                .flatMap(tick -> {
+                    if (!hedgePolicy.tryAcquire()) {
+                        LOG.trace("No budget left to hedge request for set {}", getSetName(firstRecord));
+                        return Mono.<EmbeddingResponse>empty();
+                    }
+                    LOG.debug("No response for set {} after {} ms, sending hedged request...",
+                            getSetName(firstRecord), hedgeDelay.toMillis());
+                    return sendRequest(getOtherWebClient(webClient), payload)
+                            .doOnNext(response -> hedgeWon.set(true));
+                });
+        return Mono.firstWithValue(request, hedgedRequest);
+    }
+
+    /**
+     * Get the webclient that comes after the provided one in the list of all webclients, without taking it from the
+     * queue. Hedged requests are rare and short-lived, so they don't need a client of their own
+     */
+    private WebClient getOtherWebClient(WebClient notThisOne) {
+        int index = allWebClients.indexOf(notThisOne);
+        return allWebClients.get((index + 1) % allWebClients.size());
+    }
+
+    private Mono<EmbeddingResponse> sendRequest(WebClient webClient, ByteBuf payload) {
+        // each subscription gets its own retained view of the payload, which is released after it's written
+        Mono<DataBuffer> body = Mono.fromSupplier(() -> bufferFactory.wrap(payload.retainedDuplicate()));
+        WebClient.RequestBodySpec request = webClient.post()
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .contentLength(payload.readableBytes());
+        if (encoder.isGzip()) {
+            request.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+        }
+        return request
+                .body(BodyInserters.fromDataBuffers(body))
+                .retrieve()
+                .bodyToMono(EmbeddingResponse.class);
+    }
+
+}
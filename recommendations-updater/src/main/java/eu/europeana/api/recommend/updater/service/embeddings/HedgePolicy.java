@@ -0,0 +1,91 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Keeps track of recent Embeddings API response times to determine after how long a request should be hedged (i.e. a
+ * duplicate request is sent to another Embeddings API address). To prevent hedging from overloading the Embeddings API,
+ * the number of hedged requests is limited to a percentage of all requests (the budget).
+ */
+public class HedgePolicy {
+
+    private static final int WINDOW_SIZE = 200; // number of recent response times we keep
+    private static final int MIN_SAMPLES = 20; // minimum number of response times required before we start hedging
+    private static final int MAX_BURST = 10; // maximum number of hedged requests we allow in a short burst
+    private static final int PERCENT = 100;
+
+    private final int percentile;
+    private final int budgetPercentage;
+    private final long maxDelayMs;
+
+    private final long[] responseTimes = new long[WINDOW_SIZE];
+    private int nextIndex;
+    private int nrResponseTimes;
+    private int budget; // in percentage of a request, so 100 means we can send 1 hedged request
+
+    /**
+     * Create a new hedging policy
+     * @param percentile percentile of recent response times after which a request is hedged (between 1 and 99)
+     * @param budgetPercentage maximum percentage of extra requests that hedging is allowed to add
+     * @param maxDelayMs maximum delay in ms before hedging (e.g. the request timeout). Hedging later makes no sense
+     */
+    public HedgePolicy(int percentile, int budgetPercentage, long maxDelayMs) {
+        if (percentile < 1 || percentile > 99) {
+            throw new IllegalArgumentException("Hedging percentile should be between 1 and 99");
+        }
+        if (budgetPercentage < 0 || budgetPercentage > PERCENT) {
+            throw new IllegalArgumentException("Hedging budget should be between 0 and 100 percent");
+        }
+        this.percentile = percentile;
+        this.budgetPercentage = budgetPercentage;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * Register the response time of a successful request
+     * @param durationMs response time in ms
+     */
+    public synchronized void addTiming(long durationMs) {
+        responseTimes[nextIndex] = durationMs;
+        nextIndex = (nextIndex + 1) % WINDOW_SIZE;
+        nrResponseTimes = Math.min(nrResponseTimes + 1, WINDOW_SIZE);
+    }
+
+    /**
+     * Register that a new (primary) request is being sent. Each request adds a bit to the hedging budget.
+     */
+    public synchronized void addRequest() {
+        budget = Math.min(MAX_BURST * PERCENT, budget + budgetPercentage);
+    }
+
+    /**
+     * @return the time after which a request should be hedged, or null if there are not enough response times
+     * available yet to calculate this
+     */
+    public synchronized Duration getHedgeDelay() {
+        if (nrResponseTimes < MIN_SAMPLES) {
+            return null;
+        }
+        long[] sorted = Arrays.copyOf(responseTimes, nrResponseTimes);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * nrResponseTimes / (double) PERCENT) - 1;
+        long delay = sorted[Math.max(0, index)];
+        if (maxDelayMs > 0 && delay >= maxDelayMs) {
+            return null;
+        }
+        return Duration.ofMillis(delay);
+    }
+
+    /**
+     * Check if there is enough budget left to send a hedged request. If so the budget is decreased
+     * @return true if a hedged request can be sent, otherwise false
+     */
+    public synchronized boolean tryAcquire() {
+        if (budget >= PERCENT) {
+            budget = budget - PERCENT;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,274 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.exception.EmbeddingsException;
+import eu.europeana.api.recommend.updater.util.TextLengthUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffers EmbeddingRecords from multiple threads and groups them into requests with records of similar text length.
+ * Embedding servers pad all texts in a request to the longest one, so a single long description slows down all
+ * other records in the same request.
+ *
+ * When the buffer is full (or a thread has waited the maximum wait time) the buffered records are sorted by length and
+ * split into requests of at most batchSize records. These requests are sent by the waiting threads, so we keep the
+ * same number of parallel requests as without buffering. Each thread gets back the vectors of its own records, in the
+ * original order.
+ *
+ * The estimated padding waste of the requests (see estimatePaddingWaste) is logged at the progress interval.
+ */
+public class LengthBucketingCoalescer {
+
+    private static final Logger LOG = LogManager.getLogger(LengthBucketingCoalescer.class);
+
+    private static final int PERCENT = 100;
+    private static final long MS_PER_SEC = 1000;
+
+    private final EmbeddingProvider embeddingProvider;
+    private final int batchSize;
+    private final int bufferSize;
+    private final long maxWaitMs;
+    private final long logIntervalMs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private List<BufferedRecord> buffer = new ArrayList<>();
+    private final Deque<List<BufferedRecord>> readyRequests = new ArrayDeque<>();
+
+    // padding waste statistics since the last time they were logged, only accessed when holding the lock
+    private long lastLogTime = System.currentTimeMillis();
+    private long nrRequests;
+    private long totalWaste;
+    private int maxWaste;
+
+    /**
+     * Create a new length-bucketing coalescer
+     * @param embeddingProvider provider to send the requests to
+     * @param batchSize the maximum number of records in a request
+     * @param bufferSize number of records to buffer before they are grouped into requests
+     * @param maxWaitMs maximum time in ms that a thread waits for the buffer to fill up
+     */
+    public LengthBucketingCoalescer(EmbeddingProvider embeddingProvider, int batchSize, int bufferSize, long maxWaitMs) {
+        this(embeddingProvider, batchSize, bufferSize, maxWaitMs, 0);
+    }
+
+    /**
+     * Create a new length-bucketing coalescer
+     * @param embeddingProvider provider to send the requests to
+     * @param batchSize the maximum number of records in a request
+     * @param bufferSize number of records to buffer before they are grouped into requests
+     * @param maxWaitMs maximum time in ms that a thread waits for the buffer to fill up
+     * @param logProgressInterval interval in seconds for logging the padding waste, 0 to disable logging
+     */
+    public LengthBucketingCoalescer(EmbeddingProvider embeddingProvider, int batchSize, int bufferSize, long maxWaitMs,
+                                    int logProgressInterval) {
+        this.embeddingProvider = embeddingProvider;
+        this.batchSize = batchSize;
+        this.bufferSize = Math.max(batchSize, bufferSize);
+        this.maxWaitMs = maxWaitMs;
+        this.logIntervalMs = logProgressInterval * MS_PER_SEC;
+    }
+
+    /**
+     * Generate vectors for the provided records. The records are buffered and sent together with records of other
+     * threads that have a similar text length.
+     * @param embeddingRecords the records to generate vectors for
+     * @return list of generated vectors for the provided records (in the same order)
+     * @throws InterruptedException when the thread was interrupted while waiting for the vectors
+     * @throws EmbeddingsException when there was a problem generating vectors
+     */
+    public List<RecordVectors> getVectors(List<EmbeddingRecord> embeddingRecords) throws InterruptedException, EmbeddingsException {
+        if (embeddingRecords == null || embeddingRecords.isEmpty()) {
+            return embeddingProvider.getVectors(embeddingRecords);
+        }
+
+        PendingPart part = new PendingPart(embeddingRecords.size());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        lock.lock();
+        try {
+            for (int i = 0; i < embeddingRecords.size(); i++) {
+                buffer.add(new BufferedRecord(embeddingRecords.get(i), part, i));
+            }
+            part.nrBuffered = embeddingRecords.size();
+            if (buffer.size() >= bufferSize) {
+                flushBuffer();
+            }
+
+            while (!part.isDone()) {
+                List<BufferedRecord> request = readyRequests.poll();
+                if (request != null) {
+                    // help sending requests, we can't continue until all our records are processed anyway
+                    lock.unlock();
+                    try {
+                        send(request);
+                    } finally {
+                        lock.lock();
+                    }
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    changed.awaitNanos(remaining);
+                } else if (part.nrBuffered > 0) {
+                    // buffer didn't fill up in time, so send what we have
+                    flushBuffer();
+                } else {
+                    // all our records are being processed by other threads
+                    changed.await();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (part.error != null) {
+            throw new EmbeddingsException(part.error.getMessage(), part.error);
+        }
+        return Arrays.asList(part.vectors);
+    }
+
+    /**
+     * Sort all buffered records on text length and split them into requests. Should only be called when holding the lock
+     */
+    private void flushBuffer() {
+        List<BufferedRecord> records = buffer;
+        buffer = new ArrayList<>();
+        records.sort(Comparator.comparingInt(r -> r.length));
+        for (int start = 0; start < records.size(); start = start + batchSize) {
+            List<BufferedRecord> request = records.subList(start, Math.min(records.size(), start + batchSize));
+            for (BufferedRecord bufferedRecord : request) {
+                bufferedRecord.part.nrBuffered--;
+            }
+            readyRequests.add(request);
+        }
+        LOG.trace("Created {} requests from {} buffered records", readyRequests.size(), records.size());
+        changed.signalAll();
+    }
+
+    private void send(List<BufferedRecord> request) throws InterruptedException {
+        List<EmbeddingRecord> records = new ArrayList<>(request.size());
+        for (BufferedRecord bufferedRecord : request) {
+            records.add(bufferedRecord.embeddingRecord);
+        }
+        int waste = estimatePaddingWaste(request.stream().mapToInt(r -> r.length).toArray());
+        LOG.debug("Sending request of {} records, estimated padding waste is {}%", records.size(), waste);
+
+        List<RecordVectors> vectors = null;
+        Exception error = null;
+        try {
+            vectors = embeddingProvider.getVectors(records);
+            if (vectors == null || vectors.size() != records.size()) {
+                error = new EmbeddingsException("Expected " + records.size() + " vectors for combined request, but received "
+                        + (vectors == null ? null : vectors.size()));
+            }
+        } catch (EmbeddingsException | RuntimeException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            // make sure other threads don't keep waiting
+            setResult(request, null, new EmbeddingsException("Interrupted while generating vectors", e), waste);
+            throw e;
+        }
+        setResult(request, vectors, error, waste);
+    }
+
+    private void setResult(List<BufferedRecord> request, List<RecordVectors> vectors, Exception error, int waste) {
+        lock.lock();
+        try {
+            addWaste(waste);
+            for (int i = 0; i < request.size(); i++) {
+                BufferedRecord bufferedRecord = request.get(i);
+                if (error == null) {
+                    bufferedRecord.part.vectors[bufferedRecord.index] = vectors.get(i);
+                } else {
+                    bufferedRecord.part.error = error;
+                }
+                bufferedRecord.part.nrDone++;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add the padding waste of a request to the statistics and log those when the progress interval has passed.
+     * Should only be called when holding the lock
+     */
+    private void addWaste(int waste) {
+        nrRequests++;
+        totalWaste = totalWaste + waste;
+        maxWaste = Math.max(maxWaste, waste);
+        long now = System.currentTimeMillis();
+        if (logIntervalMs > 0 && now - lastLogTime >= logIntervalMs) {
+            LOG.info("Grouped {} requests by length, estimated padding waste is {}% on average, {}% at most",
+                    nrRequests, totalWaste / nrRequests, maxWaste);
+            lastLogTime = now;
+            nrRequests = 0;
+            totalWaste = 0;
+            maxWaste = 0;
+        }
+    }
+
+    /**
+     * Estimate which percentage of the request consists of padding, assuming all texts are padded to the longest one
+     * @param lengths the estimated text lengths of all records in the request
+     * @return estimated padding waste percentage (between 0 and 100)
+     */
+    static int estimatePaddingWaste(int[] lengths) {
+        long total = 0;
+        int max = 0;
+        for (int length : lengths) {
+            total = total + length;
+            max = Math.max(max, length);
+        }
+        if (max == 0) {
+            return 0;
+        }
+        return (int) (PERCENT - (total * PERCENT / ((long) max * lengths.length)));
+    }
+
+    private static final class BufferedRecord {
+        private final EmbeddingRecord embeddingRecord;
+        private final PendingPart part;
+        private final int index;
+        private final int length;
+
+        private BufferedRecord(EmbeddingRecord embeddingRecord, PendingPart part, int index) {
+            this.embeddingRecord = embeddingRecord;
+            this.part = part;
+            this.index = index;
+            this.length = TextLengthUtils.estimateLength(embeddingRecord);
+        }
+    }
+
+    /**
+     * Keeps track of the records of 1 thread. Should only be accessed when holding the lock
+     */
+    private static final class PendingPart {
+        private final RecordVectors[] vectors;
+        private int nrBuffered;
+        private int nrDone;
+        private Exception error;
+
+        private PendingPart(int size) {
+            this.vectors = new RecordVectors[size];
+        }
+
+        private boolean isDone() {
+            return nrDone == vectors.length;
+        }
+    }
+
+}
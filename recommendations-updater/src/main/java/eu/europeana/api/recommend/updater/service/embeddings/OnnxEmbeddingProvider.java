@@ -0,0 +1,365 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import ai.djl.huggingface.tokenizers.Encoding;
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import ai.onnxruntime.NodeInfo;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OnnxValue;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+import eu.europeana.api.recommend.common.MilvusConstants;
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.config.UpdaterSettings;
+import eu.europeana.api.recommend.updater.exception.ConfigurationException;
+import eu.europeana.api.recommend.updater.exception.EmbeddingsException;
+import eu.europeana.api.recommend.updater.util.AverageTime;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Generates vectors in-process, by running an exported sentence-embedding model with ONNX Runtime on the CPU. This
+ * avoids network hops and serialization, so it's useful for small deployments and testing.
+ *
+ * The model is expected to have input_ids and attention_mask inputs (and optionally token_type_ids). If the model has
+ * a sentence_embedding output we use that, otherwise we do mean pooling over the first output (last hidden state).
+ * The model has to generate vectors with the same dimension as used in Milvus. Optionally vectors are normalized to
+ * unit length, for models that were trained with a normalize layer that is not part of the exported model.
+ * ONNX Runtime and the tokenizer are only available when the updater is built with the onnx Maven profile, otherwise
+ * this provider isn't created.
+ */
+@Component
+@ConditionalOnClass(name = {"ai.onnxruntime.OrtSession", "ai.djl.huggingface.tokenizers.HuggingFaceTokenizer"})
+public class OnnxEmbeddingProvider implements EmbeddingProvider {
+
+    public static final String NAME = UpdaterSettings.EMBEDDING_PROVIDER_ONNX;
+
+    private static final Logger LOG = LogManager.getLogger(OnnxEmbeddingProvider.class);
+
+    private static final String INPUT_IDS = "input_ids";
+    private static final String ATTENTION_MASK = "attention_mask";
+    private static final String TOKEN_TYPE_IDS = "token_type_ids";
+    private static final String SENTENCE_EMBEDDING = "sentence_embedding";
+    private static final String TEXT_SEPARATOR = ". ";
+
+    private final UpdaterSettings settings;
+    private final String modelPath;
+    private final String tokenizerPath;
+
+    private OrtEnvironment environment;
+    private OrtSession session;
+    private HuggingFaceTokenizer huggingFaceTokenizer;
+    private Tokenizer tokenizer;
+    private Model model;
+    private AverageTime averageTime; // for debugging purposes
+
+    /**
+     * Tokenized text, without padding
+     */
+    record TokenizedText(long[] ids, long[] attentionMask, long[] typeIds) {}
+
+    /**
+     * Converts texts to tokens
+     */
+    interface Tokenizer {
+        List<TokenizedText> encode(String[] texts);
+    }
+
+    /**
+     * Output of the model, either sentence embeddings ([text][dimension]) or if the model doesn't do pooling itself,
+     * token embeddings ([text][token][dimension])
+     */
+    record ModelOutput(float[][] sentenceEmbeddings, float[][][] tokenEmbeddings) {}
+
+    /**
+     * Runs the model on a batch of padded token sequences (all arrays have size [text][token])
+     */
+    interface Model {
+        ModelOutput run(long[][] ids, long[][] attentionMask, long[][] typeIds) throws OrtException;
+    }
+
+    /**
+     * Create a new provider that uses the ONNX model and tokenizer in the settings
+     * @param settings inject application settings bean
+     */
+    @Autowired
+    public OnnxEmbeddingProvider(UpdaterSettings settings) {
+        this(settings, settings.getEmbeddingOnnxModel(), settings.getEmbeddingOnnxTokenizer());
+    }
+
+    /**
+     * Create a new provider that uses the provided ONNX model and tokenizer, e.g. for an extra target. Note that
+     * {@link #loadModel()} should be called before use
+     * @param settings application settings bean
+     * @param modelPath path to the ONNX model file
+     * @param tokenizerPath path to the tokenizer.json file
+     */
+    public OnnxEmbeddingProvider(UpdaterSettings settings, String modelPath, String tokenizerPath) {
+        this.settings = settings;
+        this.modelPath = modelPath;
+        this.tokenizerPath = tokenizerPath;
+        if (LOG.isDebugEnabled()) {
+            this.averageTime = new AverageTime(settings.getLogTimingInterval(), "generating vectors with ONNX model");
+        }
+    }
+
+    /**
+     * Create a provider that uses the provided tokenizer and model instead of loading them from file, for testing
+     */
+    OnnxEmbeddingProvider(UpdaterSettings settings, Tokenizer tokenizer, Model model) {
+        this(settings, (String) null, (String) null);
+        this.tokenizer = tokenizer;
+        this.model = model;
+    }
+
+    @PostConstruct
+    private void init() throws ConfigurationException {
+        if (!NAME.equals(settings.getEmbeddingProvider())) {
+            LOG.debug("ONNX model not used");
+            return;
+        }
+        if (!UpdaterSettings.isValueDefined(modelPath) || !UpdaterSettings.isValueDefined(tokenizerPath)) {
+            throw new ConfigurationException("Properties embedding.onnx.model and embedding.onnx.tokenizer are required " +
+                    "when using the " + NAME + " embedding provider");
+        }
+        loadModel();
+    }
+
+    /**
+     * Load the ONNX model and tokenizer
+     * @throws ConfigurationException when the model or tokenizer can't be loaded, or the model has the wrong dimension
+     */
+    public void loadModel() throws ConfigurationException {
+        LOG.info("Loading ONNX model {} using {} threads...", modelPath, settings.getEmbeddingOnnxThreads());
+        try {
+            this.environment = OrtEnvironment.getEnvironment();
+            OrtSession.SessionOptions options = new OrtSession.SessionOptions();
+            options.setIntraOpNumThreads(settings.getEmbeddingOnnxThreads());
+            options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+            this.session = environment.createSession(modelPath, options);
+            checkModelDimension();
+
+            this.huggingFaceTokenizer = HuggingFaceTokenizer.builder()
+                    .optTokenizerPath(Paths.get(tokenizerPath))
+                    .optTruncation(true)
+                    .optMaxLength(settings.getEmbeddingOnnxMaxTokens())
+                    .optPadding(false) // we do padding ourselves per batch
+                    .build();
+            this.tokenizer = this::encode;
+            this.model = this::runSession;
+        } catch (OrtException | IOException e) {
+            throw new ConfigurationException("Error loading ONNX model " + modelPath, e);
+        }
+        LOG.info("ONNX model loaded. Inputs = {}, outputs = {}", session.getInputNames(), session.getOutputNames());
+    }
+
+    private void checkModelDimension() throws OrtException, ConfigurationException {
+        NodeInfo output = session.getOutputInfo().get(SENTENCE_EMBEDDING);
+        if (output == null) {
+            output = session.getOutputInfo().values().iterator().next();
+        }
+        if (output.getInfo() instanceof TensorInfo tensorInfo) {
+            long[] shape = tensorInfo.getShape();
+            long dimension = shape[shape.length - 1];
+            if (dimension > 0 && dimension != MilvusConstants.VECTOR_DIMENSION) {
+                throw new ConfigurationException("ONNX model output " + output.getName() + " has dimension " + dimension
+                        + ", expected " + MilvusConstants.VECTOR_DIMENSION);
+            }
+        }
+    }
+
+    /**
+     * Release the model and tokenizer
+     */
+    @PreDestroy
+    public void close() {
+        if (huggingFaceTokenizer != null) {
+            huggingFaceTokenizer.close();
+        }
+        if (session != null) {
+            LOG.info("Closing ONNX model");
+            try {
+                session.close();
+            } catch (OrtException e) {
+                LOG.warn("Error closing ONNX model", e);
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public List<RecordVectors> getVectors(List<EmbeddingRecord> embeddingRecords) throws EmbeddingsException {
+        if (embeddingRecords == null || embeddingRecords.isEmpty()) {
+            LOG.warn("No items to generate vectors for");
+            return null;
+        }
+        long start = System.currentTimeMillis();
+
+        String[] texts = embeddingRecords.stream().map(OnnxEmbeddingProvider::toText).toArray(String[]::new);
+        List<TokenizedText> tokenized = tokenizer.encode(texts);
+        // pad all sequences to the longest one in this batch
+        int sequenceLength = 0;
+        for (TokenizedText text : tokenized) {
+            sequenceLength = Math.max(sequenceLength, text.ids().length);
+        }
+        long[][] ids = pad(tokenized, TokenizedText::ids, sequenceLength);
+        long[][] attentionMask = pad(tokenized, TokenizedText::attentionMask, sequenceLength);
+        long[][] typeIds = pad(tokenized, TokenizedText::typeIds, sequenceLength);
+
+        float[][] embeddings;
+        try {
+            ModelOutput output = model.run(ids, attentionMask, typeIds);
+            embeddings = (output.sentenceEmbeddings() != null
+                    ? output.sentenceEmbeddings()
+                    : meanPool(output.tokenEmbeddings(), attentionMask));
+        } catch (OrtException e) {
+            throw new EmbeddingsException("Error generating vectors for set " + embeddingRecords.get(0).getId().split("/")[0], e);
+        }
+        if (settings.useEmbeddingOnnxNormalize()) {
+            normalize(embeddings);
+        }
+
+        List<RecordVectors> result = new ArrayList<>(embeddings.length);
+        for (int i = 0; i < embeddings.length; i++) {
+            Float[] vector = new Float[embeddings[i].length];
+            for (int j = 0; j < vector.length; j++) {
+                vector[j] = embeddings[i][j];
+            }
+            result.add(new RecordVectors(embeddingRecords.get(i).getId(), vector));
+        }
+
+        long duration = System.currentTimeMillis() - start;
+        if (LOG.isDebugEnabled()) {
+            averageTime.addTiming(duration);
+        }
+        LOG.trace("3. Generated {} vectors in {} ms", result.size(), duration);
+        return result;
+    }
+
+    private List<TokenizedText> encode(String[] texts) {
+        Encoding[] encodings = huggingFaceTokenizer.batchEncode(texts);
+        List<TokenizedText> result = new ArrayList<>(encodings.length);
+        for (Encoding encoding : encodings) {
+            result.add(new TokenizedText(encoding.getIds(), encoding.getAttentionMask(), encoding.getTypeIds()));
+        }
+        return result;
+    }
+
+    private ModelOutput runSession(long[][] ids, long[][] attentionMask, long[][] typeIds) throws OrtException {
+        try (OnnxTensor idsTensor = OnnxTensor.createTensor(environment, ids);
+             OnnxTensor maskTensor = OnnxTensor.createTensor(environment, attentionMask);
+             OnnxTensor typeIdsTensor = OnnxTensor.createTensor(environment, typeIds)) {
+            Map<String, OnnxTensor> inputs = new HashMap<>();
+            inputs.put(INPUT_IDS, idsTensor);
+            inputs.put(ATTENTION_MASK, maskTensor);
+            if (session.getInputNames().contains(TOKEN_TYPE_IDS)) {
+                inputs.put(TOKEN_TYPE_IDS, typeIdsTensor);
+            }
+            try (OrtSession.Result output = session.run(inputs)) {
+                Optional<OnnxValue> sentenceEmbedding = output.get(SENTENCE_EMBEDDING);
+                if (sentenceEmbedding.isPresent()) {
+                    return new ModelOutput((float[][]) sentenceEmbedding.get().getValue(), null);
+                }
+                return new ModelOutput(null, (float[][][]) output.get(0).getValue());
+            }
+        }
+    }
+
+    /**
+     * Copy token sequences into arrays of the same length, padded with zeros
+     */
+    static long[][] pad(List<TokenizedText> texts, Function<TokenizedText, long[]> field, int length) {
+        long[][] result = new long[texts.size()][length];
+        for (int i = 0; i < texts.size(); i++) {
+            long[] values = field.apply(texts.get(i));
+            System.arraycopy(values, 0, result[i], 0, values.length);
+        }
+        return result;
+    }
+
+    /**
+     * Mean pooling of the token embeddings, ignoring padding
+     */
+    static float[][] meanPool(float[][][] tokenEmbeddings, long[][] attentionMask) {
+        float[][] result = new float[tokenEmbeddings.length][];
+        for (int i = 0; i < tokenEmbeddings.length; i++) {
+            int dimension = tokenEmbeddings[i][0].length;
+            float[] sum = new float[dimension];
+            int nrTokens = 0;
+            for (int t = 0; t < tokenEmbeddings[i].length; t++) {
+                if (attentionMask[i][t] == 0) {
+                    continue;
+                }
+                nrTokens++;
+                for (int d = 0; d < dimension; d++) {
+                    sum[d] += tokenEmbeddings[i][t][d];
+                }
+            }
+            for (int d = 0; d < dimension; d++) {
+                sum[d] = sum[d] / Math.max(1, nrTokens);
+            }
+            result[i] = sum;
+        }
+        return result;
+    }
+
+    /**
+     * Scale all vectors to unit length (L2 norm). Zero vectors are left as they are
+     */
+    static void normalize(float[][] vectors) {
+        for (float[] vector : vectors) {
+            double sumSquares = 0;
+            for (float value : vector) {
+                sumSquares += value * value;
+            }
+            if (sumSquares == 0) {
+                continue;
+            }
+            float norm = (float) Math.sqrt(sumSquares);
+            for (int d = 0; d < vector.length; d++) {
+                vector[d] = vector[d] / norm;
+            }
+        }
+    }
+
+    /**
+     * Combine all the fields of an EmbeddingRecord into 1 text
+     */
+    static String toText(EmbeddingRecord embeddingRecord) {
+        StringBuilder s = new StringBuilder();
+        for (String[] field : new String[][]{ embeddingRecord.getTitle(), embeddingRecord.getDescription(),
+                embeddingRecord.getCreator(), embeddingRecord.getTags(), embeddingRecord.getPlaces(), embeddingRecord.getTimes()}) {
+            if (field == null) {
+                continue;
+            }
+            for (String value : field) {
+                if (!s.isEmpty()) {
+                    s.append(TEXT_SEPARATOR);
+                }
+                s.append(value);
+            }
+        }
+        return s.toString();
+    }
+
+}
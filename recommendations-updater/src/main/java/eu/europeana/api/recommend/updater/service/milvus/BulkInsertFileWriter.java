@@ -0,0 +1,191 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.io.CountingOutputStream;
+import eu.europeana.api.recommend.common.MilvusConstants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes vectors to row-based JSON files that can be imported with the Milvus bulk insert API, for example
+ * <pre>{"rows": [{"about": "/1/a", "vector": [0.1, 0.2, ...]}, ...]}</pre>
+ * There is a separate file for each partition and a new file is started when a file reaches the maximum size, so the
+ * files stay below the size that Milvus can import in 1 task.
+ *
+ * This class doesn't need a Milvus connection, it only writes to the local staging directory.
+ */
+public class BulkInsertFileWriter implements AutoCloseable {
+
+    private static final Logger LOG = LogManager.getLogger(BulkInsertFileWriter.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String ROWS_FIELD_NAME = "rows";
+    private static final String NO_PARTITION = "";
+    private static final String NO_PARTITION_FILE_NAME = "all";
+
+    private final Path stagingDir;
+    private final String filePrefix;
+    private final long maxFileBytes;
+
+    private final Map<String, Shard> openShards = new HashMap<>(); // key is partition name
+    private final Map<String, Integer> shardCount = new HashMap<>();
+    private final List<BulkInsertFile> finishedFiles = new ArrayList<>();
+
+    /**
+     * Create a new file writer
+     * @param stagingDir directory where the files are written, will be created if it doesn't exist
+     * @param filePrefix prefix of the generated files, e.g. the collection name
+     * @param maxFileBytes maximum (approximate) size of a file, a file may be larger than this by 1 batch of vectors
+     * @throws IOException when the staging directory can't be created
+     */
+    public BulkInsertFileWriter(Path stagingDir, String filePrefix, long maxFileBytes) throws IOException {
+        this.stagingDir = Files.createDirectories(stagingDir);
+        this.filePrefix = filePrefix;
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * Write vectors to the file of the provided partition
+     * @param partition optional, the partition to import the vectors into
+     * @param ids the record ids
+     * @param vectors the vectors of the records
+     * @throws UncheckedIOException when there's a problem writing the file
+     */
+    public synchronized void write(String partition, List<String> ids, List<List<Float>> vectors) {
+        String key = (partition == null ? NO_PARTITION : partition);
+        try {
+            Shard shard = openShards.get(key);
+            if (shard == null) {
+                shard = openShard(partition);
+                openShards.put(key, shard);
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                shard.writeRow(ids.get(i), vectors.get(i));
+            }
+            if (shard.size() >= maxFileBytes) {
+                finishedFiles.add(openShards.remove(key).finish());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error writing bulk insert file for partition " + partition, e);
+        }
+    }
+
+    /**
+     * Finish all open files
+     * @return list of all files written by this writer
+     * @throws IOException when there's a problem finishing a file
+     */
+    public synchronized List<BulkInsertFile> finish() throws IOException {
+        for (Shard shard : openShards.values()) {
+            finishedFiles.add(shard.finish());
+        }
+        openShards.clear();
+        return new ArrayList<>(finishedFiles);
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    private Shard openShard(String partition) throws IOException {
+        String key = (partition == null ? NO_PARTITION : partition);
+        int nr = shardCount.merge(key, 1, Integer::sum);
+        String partitionFileName = (partition == null ? NO_PARTITION_FILE_NAME : partition.replaceAll("[^A-Za-z0-9_-]", "_"));
+        Path file = stagingDir.resolve(String.format("%s_%s_%05d.json", filePrefix, partitionFileName, nr));
+        LOG.debug("Starting bulk insert file {}", file);
+        return new Shard(partition, file);
+    }
+
+    /**
+     * A file that is being written
+     */
+    private static final class Shard {
+        private final String partition;
+        private final Path file;
+        private final CountingOutputStream out;
+        private final JsonGenerator generator;
+        private long rows;
+
+        private Shard(String partition, Path file) throws IOException {
+            this.partition = partition;
+            this.file = file;
+            this.out = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+            this.generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+            generator.writeStartObject();
+            generator.writeArrayFieldStart(ROWS_FIELD_NAME);
+        }
+
+        private void writeRow(String id, List<Float> vector) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField(MilvusConstants.RECORD_ID_FIELD_NAME, id);
+            generator.writeArrayFieldStart(MilvusConstants.VECTOR_FIELD_NAME);
+            for (Float f : vector) {
+                generator.writeNumber(f);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            rows++;
+        }
+
+        private long size() {
+            return out.getCount() + generator.getOutputBuffered();
+        }
+
+        private BulkInsertFile finish() throws IOException {
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.close();
+            LOG.info("Finished bulk insert file {} with {} rows ({} bytes)", file, rows, out.getCount());
+            return new BulkInsertFile(partition, file, rows);
+        }
+    }
+
+    /**
+     * A finished bulk insert file
+     */
+    public static final class BulkInsertFile {
+        private final String partition;
+        private final Path file;
+        private final long rows;
+
+        public BulkInsertFile(String partition, Path file, long rows) {
+            this.partition = partition;
+            this.file = file;
+            this.rows = rows;
+        }
+
+        /**
+         * @return the partition to import the file into, null if there is no partition
+         */
+        public String getPartition() {
+            return partition;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        @Override
+        public String toString() {
+            return file.getFileName() + " (" + rows + " rows)";
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import eu.europeana.api.recommend.updater.exception.MilvusStateException;
+import io.minio.BucketExistsArgs;
+import io.minio.MinioClient;
+import io.minio.UploadObjectArgs;
+import io.minio.errors.MinioException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+
+/**
+ * Uploads bulk insert files to the object storage (MinIO or S3) bucket that Milvus reads imported files from.
+ */
+public class BulkInsertUploader {
+
+    private static final Logger LOG = LogManager.getLogger(BulkInsertUploader.class);
+
+    private final MinioClient minioClient;
+    private final String bucket;
+
+    /**
+     * Create a new uploader
+     * @param endpoint address of the object storage used by Milvus, e.g. http://localhost:9000
+     * @param accessKey access key of the object storage
+     * @param secretKey secret key of the object storage
+     * @param bucket name of the bucket used by Milvus
+     */
+    public BulkInsertUploader(String endpoint, String accessKey, String secretKey, String bucket) {
+        this.minioClient = MinioClient.builder().endpoint(endpoint).credentials(accessKey, secretKey).build();
+        this.bucket = bucket;
+    }
+
+    /**
+     * Check if the bucket exists, so we can fail before generating any vectors
+     * @throws MilvusStateException when the bucket doesn't exist or can't be reached
+     */
+    public void checkBucket() {
+        try {
+            if (!minioClient.bucketExists(BucketExistsArgs.builder().bucket(bucket).build())) {
+                throw new MilvusStateException("Bucket " + bucket + " for bulk insert files doesn't exist", null);
+            }
+        } catch (MinioException | IOException | GeneralSecurityException e) {
+            throw new MilvusStateException("Error checking bucket " + bucket + " for bulk insert files", e);
+        }
+    }
+
+    /**
+     * Upload a file to the bucket
+     * @param file the local file to upload
+     * @param remoteFile path of the file in the bucket
+     * @throws IOException when there's an error uploading the file
+     */
+    public void upload(Path file, String remoteFile) throws IOException {
+        LOG.debug("Uploading {} to {}/{}", file, bucket, remoteFile);
+        try {
+            minioClient.uploadObject(UploadObjectArgs.builder()
+                    .bucket(bucket)
+                    .object(remoteFile)
+                    .filename(file.toString())
+                    .build());
+        } catch (MinioException | GeneralSecurityException e) {
+            throw new IOException("Error uploading " + file + " to bucket " + bucket, e);
+        }
+    }
+}
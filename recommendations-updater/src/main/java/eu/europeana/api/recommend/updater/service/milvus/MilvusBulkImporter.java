@@ -0,0 +1,137 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import eu.europeana.api.recommend.updater.exception.MilvusStateException;
+import eu.europeana.api.recommend.updater.service.milvus.BulkInsertFileWriter.BulkInsertFile;
+import io.milvus.client.MilvusClient;
+import io.milvus.grpc.GetImportStateResponse;
+import io.milvus.grpc.ImportResponse;
+import io.milvus.grpc.ImportState;
+import io.milvus.param.R;
+import io.milvus.param.bulkinsert.BulkInsertParam;
+import io.milvus.param.bulkinsert.GetBulkInsertStateParam;
+import io.milvus.response.BulkInsertResponseWrapper;
+import io.milvus.response.GetBulkInsertStateWrapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Imports bulk insert files into a Milvus collection and waits until all imports are finished.
+ *
+ * Milvus reads the files from its own object storage (e.g. MinIO), so when an uploader is provided the files are
+ * uploaded to the Milvus bucket first. Without an uploader the staging directory needs to be synchronized with or
+ * mounted in that storage. The remote path is the location of the files within the Milvus bucket.
+ * For row-based JSON files Milvus creates 1 import task per file.
+ */
+public class MilvusBulkImporter {
+
+    private static final Logger LOG = LogManager.getLogger(MilvusBulkImporter.class);
+
+    private final MilvusClient milvusClient;
+    private final String collectionName;
+    private final String remotePath;
+    private final BulkInsertUploader uploader;
+    private final long pollIntervalMs;
+    private final long timeoutMs;
+
+    /**
+     * Create a new importer
+     * @param milvusClient the client to use
+     * @param collectionName the collection to import into
+     * @param remotePath optional, path of the files in the Milvus bucket
+     * @param uploader optional, used to upload the files to the Milvus bucket before importing them
+     * @param pollIntervalMs time in ms between import state checks
+     * @param timeoutMs max time in ms to wait for all import tasks to complete
+     */
+    public MilvusBulkImporter(MilvusClient milvusClient, String collectionName, String remotePath,
+                              BulkInsertUploader uploader, long pollIntervalMs, long timeoutMs) {
+        this.milvusClient = milvusClient;
+        this.collectionName = collectionName;
+        this.remotePath = remotePath;
+        this.uploader = uploader;
+        this.pollIntervalMs = pollIntervalMs;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Upload the files (if there's an uploader), start an import task for each file and wait until all tasks are
+     * completed
+     * @param files the files to import
+     * @return total number of imported rows
+     * @throws IOException when a file couldn't be uploaded
+     * @throws MilvusStateException when a task couldn't be started, failed or didn't complete in time
+     * @throws InterruptedException when the thread was interrupted while waiting
+     */
+    public long importFiles(List<BulkInsertFile> files) throws IOException, InterruptedException {
+        if (uploader != null) {
+            for (BulkInsertFile file : files) {
+                uploader.upload(file.getFile(), getRemoteFile(file));
+            }
+            LOG.info("Uploaded {} files for collection {}", files.size(), collectionName);
+        }
+        Map<Long, BulkInsertFile> tasks = new LinkedHashMap<>();
+        for (BulkInsertFile file : files) {
+            BulkInsertParam.Builder builder = BulkInsertParam.newBuilder()
+                    .withCollectionName(collectionName)
+                    .addFile(getRemoteFile(file));
+            if (file.getPartition() != null) {
+                builder.withPartitionName(file.getPartition());
+            }
+            R<ImportResponse> response = MilvusUtils.checkResponse(milvusClient.bulkInsert(builder.build()),
+                    "Error starting bulk insert of file " + file);
+            long taskId = new BulkInsertResponseWrapper(response.getData()).getTaskID();
+            LOG.debug("Started bulk insert task {} for file {}", taskId, file);
+            tasks.put(taskId, file);
+        }
+        LOG.info("Started {} bulk insert tasks for collection {}", tasks.size(), collectionName);
+        return waitForTasks(tasks);
+    }
+
+    private long waitForTasks(Map<Long, BulkInsertFile> tasks) throws InterruptedException {
+        long nrImported = 0;
+        int nrTasks = tasks.size();
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!tasks.isEmpty()) {
+            if (System.currentTimeMillis() >= deadline) {
+                throw new MilvusStateException("Bulk insert did not complete within " + timeoutMs / 1000
+                        + " seconds, " + tasks.size() + " of " + nrTasks + " tasks are still running: " + tasks.keySet(), null);
+            }
+            TimeUnit.MILLISECONDS.sleep(pollIntervalMs);
+            for (Long taskId : List.copyOf(tasks.keySet())) {
+                GetBulkInsertStateWrapper state = getState(taskId);
+                ImportState importState = state.getState();
+                if (importState == ImportState.ImportCompleted) {
+                    LOG.debug("Bulk insert task {} completed, imported {} rows", taskId, state.getImportedCount());
+                    nrImported = nrImported + state.getImportedCount();
+                    tasks.remove(taskId);
+                } else if (importState == ImportState.ImportFailed || importState == ImportState.ImportFailedAndCleaned
+                        || importState == ImportState.UNRECOGNIZED) {
+                    throw new MilvusStateException("Bulk insert of file " + tasks.get(taskId) + " failed: "
+                            + state.getFailedReason(), null);
+                }
+            }
+            LOG.info("Bulk insert: {} of {} tasks completed, {} rows imported", nrTasks - tasks.size(), nrTasks, nrImported);
+        }
+        return nrImported;
+    }
+
+    private GetBulkInsertStateWrapper getState(long taskId) {
+        R<GetImportStateResponse> response = MilvusUtils.checkResponse(milvusClient.getBulkInsertState(
+                GetBulkInsertStateParam.newBuilder().withTask(taskId).build()), "Error retrieving state of bulk insert task " + taskId);
+        return new GetBulkInsertStateWrapper(response.getData());
+    }
+
+    private String getRemoteFile(BulkInsertFile file) {
+        String fileName = file.getFile().getFileName().toString();
+        if (remotePath == null || remotePath.isBlank()) {
+            return fileName;
+        }
+        return remotePath.endsWith("/") ? remotePath + fileName : remotePath + "/" + fileName;
+    }
+
+}
@@ -0,0 +1,141 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import io.milvus.client.MilvusClient;
+import io.milvus.client.MilvusServiceClient;
+import io.milvus.param.ConnectParam;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A fixed set of Milvus clients, each with its own gRPC channel, so inserts from multiple threads don't all have to
+ * go over 1 connection. Each call uses the client with the fewest calls in progress. If several clients are equally
+ * busy, we pick them in round-robin order.
+ */
+public class MilvusClientPool implements AutoCloseable {
+
+    private static final Logger LOG = LogManager.getLogger(MilvusClientPool.class);
+
+    private final List<MilvusClient> clients;
+    private final AtomicInteger[] inProgress;
+    private final AtomicInteger nextStart = new AtomicInteger();
+
+    /**
+     * Create a pool for the provided clients
+     * @param clients the clients to use, the first one is also used for non-insert operations
+     */
+    public MilvusClientPool(List<MilvusClient> clients) {
+        if (clients.isEmpty()) {
+            throw new IllegalArgumentException("At least 1 Milvus client is required");
+        }
+        this.clients = List.copyOf(clients);
+        this.inProgress = new AtomicInteger[clients.size()];
+        for (int i = 0; i < inProgress.length; i++) {
+            inProgress[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Create a pool of new clients that all connect to the same Milvus server
+     * @param connectParam connection parameters
+     * @param size number of clients
+     * @return new client pool
+     */
+    public static MilvusClientPool create(ConnectParam connectParam, int size) {
+        List<MilvusClient> clients = new ArrayList<>(size);
+        for (int i = 0; i < Math.max(1, size); i++) {
+            clients.add(new MilvusServiceClient(connectParam));
+        }
+        LOG.debug("Created pool of {} Milvus clients", clients.size());
+        return new MilvusClientPool(clients);
+    }
+
+    /**
+     * @return the first client in the pool, to be used for operations that don't need to be spread (e.g. creating
+     * collections)
+     */
+    public MilvusClient getPrimary() {
+        return clients.get(0);
+    }
+
+    public int size() {
+        return clients.size();
+    }
+
+    /**
+     * Reserve the least busy client. The returned lease has to be released when the call is done.
+     * @return lease of a client
+     */
+    public Lease acquire() {
+        int start = Math.floorMod(nextStart.getAndIncrement(), clients.size());
+        int selected = start;
+        for (int i = 1; i < clients.size(); i++) {
+            int candidate = (start + i) % clients.size();
+            if (inProgress[candidate].get() < inProgress[selected].get()) {
+                selected = candidate;
+            }
+        }
+        inProgress[selected].incrementAndGet();
+        return new Lease(selected);
+    }
+
+    /**
+     * Do a (synchronous) call with the least busy client
+     * @param call the call to make
+     * @param <T> type of the result
+     * @return result of the call
+     */
+    public <T> T execute(Function<MilvusClient, T> call) {
+        Lease lease = acquire();
+        try {
+            return call.apply(lease.getClient());
+        } finally {
+            lease.release();
+        }
+    }
+
+    /**
+     * @param index index of a client in the pool
+     * @return the number of calls in progress for that client
+     */
+    int getInProgress(int index) {
+        return inProgress[index].get();
+    }
+
+    @Override
+    public void close() {
+        for (MilvusClient client : clients) {
+            client.close();
+        }
+    }
+
+    /**
+     * A client reserved for 1 call
+     */
+    public final class Lease {
+        private final int index;
+        private final AtomicInteger released = new AtomicInteger();
+
+        private Lease(int index) {
+            this.index = index;
+        }
+
+        public MilvusClient getClient() {
+            return clients.get(index);
+        }
+
+        /**
+         * Mark the call as done. Calling this more than once has no effect.
+         */
+        public void release() {
+            if (released.compareAndSet(0, 1)) {
+                inProgress[index].decrementAndGet();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import eu.europeana.api.recommend.common.MilvusConstants;
+import eu.europeana.api.recommend.updater.exception.MilvusStateException;
+import io.milvus.grpc.MutationResult;
+import io.milvus.param.R;
+import io.milvus.param.dml.InsertParam;
+import io.milvus.param.dml.UpsertParam;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Collects vectors from all chunk threads and inserts them into Milvus in larger batches, using asynchronous inserts.
+ * A batch is sent when it reaches the maximum number of rows or bytes. The number of inserts that are in progress is
+ * limited. If Milvus falls behind, threads that add vectors are blocked until an insert finishes, so upstream
+ * processing (reading records and generating vectors) slows down as well.
+ *
+ * Inserts are done asynchronously, so errors are reported on the next call to add() or flush(). After flush() reported
+ * an error, the buffer can be used again. Optionally upserts are used instead of inserts, so existing entries with the
+ * same id are replaced.
+ */
+public class MilvusInsertBuffer {
+
+    private static final Logger LOG = LogManager.getLogger(MilvusInsertBuffer.class);
+
+    private static final int BYTES_PER_FLOAT = 4;
+    private static final String NO_PARTITION = "";
+
+    private final MilvusClientPool clientPool;
+    private final String collectionName;
+    private final int maxRows;
+    private final long maxBytes;
+    private final int maxInFlight;
+    private final boolean upsert;
+
+    private final Semaphore inFlight;
+    private final Map<String, Batch> batches = new HashMap<>(); // key is partition name
+    private final AtomicReference<Exception> error = new AtomicReference<>();
+
+    /**
+     * Create a new insert buffer
+     * @param clientPool the clients to use for inserts
+     * @param collectionName the collection to insert into
+     * @param maxRows maximum number of rows in 1 insert
+     * @param maxBytes maximum (estimated) size in bytes of 1 insert
+     * @param maxInFlight maximum number of inserts that can be in progress at the same time
+     * @param upsert if true then upserts are used instead of inserts (requires Milvus 2.3 or newer)
+     */
+    public MilvusInsertBuffer(MilvusClientPool clientPool, String collectionName, int maxRows, long maxBytes, int maxInFlight,
+                              boolean upsert) {
+        this.clientPool = clientPool;
+        this.collectionName = collectionName;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.maxInFlight = maxInFlight;
+        this.upsert = upsert;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Add vectors to the buffer. If the buffer is full, an insert is started. This blocks when the maximum number of
+     * inserts is already in progress.
+     * @param partition optional, partition to insert into
+     * @param ids the record ids
+     * @param vectors the vectors of the records
+     */
+    public void add(String partition, List<String> ids, List<List<Float>> vectors) {
+        checkError();
+        String key = (partition == null ? NO_PARTITION : partition);
+        Batch full = null;
+        synchronized (batches) {
+            Batch batch = batches.computeIfAbsent(key, k -> new Batch(partition));
+            batch.add(ids, vectors);
+            if (batch.ids.size() >= maxRows || batch.bytes >= maxBytes) {
+                full = batches.remove(key);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    /**
+     * Insert all buffered vectors and wait until all inserts are finished
+     * @throws MilvusStateException when one of the inserts failed
+     */
+    public void flush() {
+        List<Batch> remaining;
+        synchronized (batches) {
+            remaining = new ArrayList<>(batches.values());
+            batches.clear();
+        }
+        for (Batch batch : remaining) {
+            send(batch);
+        }
+        try {
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MilvusStateException("Interrupted while waiting for inserts to finish", e);
+        }
+        // the error is cleared, so the buffer can be used again (e.g. to retry the same vectors)
+        Exception e = error.getAndSet(null);
+        if (e != null) {
+            throw new MilvusStateException("Error writing data", e);
+        }
+    }
+
+    private void checkError() {
+        Exception e = error.get();
+        if (e != null) {
+            throw new MilvusStateException("Error writing data", e);
+        }
+    }
+
+    private void send(Batch batch) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MilvusStateException("Interrupted while waiting to insert data", e);
+        }
+
+        List<InsertParam.Field> fields = new ArrayList<>();
+        fields.add(new InsertParam.Field(MilvusConstants.RECORD_ID_FIELD_NAME, batch.ids));
+        fields.add(new InsertParam.Field(MilvusConstants.VECTOR_FIELD_NAME, batch.vectors));
+        InsertParam.Builder insertBuilder = (upsert ? UpsertParam.newBuilder() : InsertParam.newBuilder())
+                .withCollectionName(collectionName)
+                .withFields(fields);
+        if (batch.partition != null) {
+            insertBuilder.withPartitionName(batch.partition);
+        }
+
+        long start = System.currentTimeMillis();
+        MilvusClientPool.Lease lease = clientPool.acquire();
+        ListenableFuture<R<MutationResult>> future;
+        try {
+            if (upsert) {
+                future = lease.getClient().upsertAsync((UpsertParam) insertBuilder.build());
+            } else {
+                future = lease.getClient().insertAsync(insertBuilder.build());
+            }
+        } catch (RuntimeException e) {
+            lease.release();
+            inFlight.release();
+            throw e;
+        }
+        future.addListener(() -> {
+            try {
+                MilvusUtils.checkResponse(future.get(), "Error writing data");
+                LOG.trace("Inserted {} vectors in Milvus in {} ms", batch.ids.size(), System.currentTimeMillis() - start);
+            } catch (ExecutionException e) {
+                error.compareAndSet(null, e.getCause() instanceof Exception cause ? cause : e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error.compareAndSet(null, e);
+            } catch (RuntimeException e) {
+                error.compareAndSet(null, e);
+            } finally {
+                lease.release();
+                inFlight.release();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Vectors waiting to be inserted into 1 partition
+     */
+    private static final class Batch {
+        private final String partition;
+        private final List<String> ids = new ArrayList<>();
+        private final List<List<Float>> vectors = new ArrayList<>();
+        private long bytes;
+
+        private Batch(String partition) {
+            this.partition = partition;
+        }
+
+        private void add(List<String> newIds, List<List<Float>> newVectors) {
+            ids.addAll(newIds);
+            vectors.addAll(newVectors);
+            for (int i = 0; i < newIds.size(); i++) {
+                bytes = bytes + newIds.get(i).length() + (long) newVectors.get(i).size() * BYTES_PER_FLOAT;
+            }
+        }
+    }
+
+}
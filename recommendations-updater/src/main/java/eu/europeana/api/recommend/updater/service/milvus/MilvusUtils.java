@@ -2,26 +2,40 @@ package eu.europeana.api.recommend.updater.service.milvus;
 
 import eu.europeana.api.recommend.common.MilvusConstants;
 import eu.europeana.api.recommend.common.RecordId;
+import eu.europeana.api.recommend.updater.config.MilvusIndexConfig;
 import eu.europeana.api.recommend.updater.exception.MilvusStateException;
 import io.milvus.client.MilvusClient;
 import io.milvus.grpc.DataType;
 import io.milvus.grpc.GetCollectionStatisticsResponse;
+import io.milvus.grpc.GetIndexBuildProgressResponse;
+import io.milvus.grpc.QueryResults;
 import io.milvus.grpc.ShowPartitionsResponse;
-import io.milvus.param.IndexType;
+import io.milvus.common.clientenum.ConsistencyLevelEnum;
 import io.milvus.param.R;
 import io.milvus.param.collection.CreateCollectionParam;
 import io.milvus.param.collection.DropCollectionParam;
 import io.milvus.param.collection.FieldType;
+import io.milvus.param.collection.FlushParam;
 import io.milvus.param.collection.GetCollectionStatisticsParam;
+import io.milvus.param.collection.LoadCollectionParam;
+import io.milvus.param.dml.DeleteParam;
+import io.milvus.param.dml.QueryParam;
 import io.milvus.param.index.CreateIndexParam;
+import io.milvus.param.index.GetIndexBuildProgressParam;
 import io.milvus.param.partition.ShowPartitionsParam;
 import io.milvus.response.GetCollStatResponseWrapper;
+import io.milvus.response.QueryResultsWrapper;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -31,6 +45,11 @@ public final class MilvusUtils {
 
     private static final Logger LOG = LogManager.getLogger(MilvusUtils.class);
 
+    // Milvus limits the size of (delete) expressions, so we split long lists of ids into multiple expressions
+    private static final int MAX_EXPRESSION_LENGTH = 60_000;
+    // Milvus limits the number of entries returned by a query (offset + limit) to 16384
+    private static final int QUERY_PAGE_SIZE = 10_000;
+
     private MilvusUtils() {
         // empty constructor to prevent initialization
     }
@@ -69,6 +88,18 @@ public final class MilvusUtils {
      * @param indexName optional, if not null a index with the provided name is created
      */
     public static void createCollection(MilvusClient milvusClient, String collectionName, String collectionDescription, String indexName) {
+        createCollection(milvusClient, collectionName, collectionDescription, indexName, MilvusIndexConfig.DEFAULT);
+    }
+
+    /**
+     * Creates a new collection and optionally an index using the provided MilvusClient
+     * @param milvusClient
+     * @param collectionName
+     * @param indexName optional, if not null a index with the provided name is created
+     * @param indexConfig type and parameters of the index to create
+     */
+    public static void createCollection(MilvusClient milvusClient, String collectionName, String collectionDescription,
+                                        String indexName, MilvusIndexConfig indexConfig) {
         FieldType fieldType1 = FieldType.newBuilder()
                 .withName(MilvusConstants.RECORD_ID_FIELD_NAME)
                 .withDescription("record id")
@@ -92,19 +123,86 @@ public final class MilvusUtils {
                 .build()), "Error creating collection " + collectionName));
 
         if (StringUtils.isNotBlank(indexName)) {
-            LOG.info("Creating index for collection {}...", collectionName);
-            LOG.info(checkResponse(milvusClient.createIndex(CreateIndexParam.newBuilder()
-                    .withCollectionName(collectionName)
-                    .withFieldName(MilvusConstants.VECTOR_FIELD_NAME)
-                    .withIndexName(indexName)
-                    .withIndexType(IndexType.IVF_SQ8) // copied from original code by Pangeanic
-                    .withMetricType(MilvusConstants.INDEX_METRIC_TYPE) // not sure, using L2 for now
-                    .withExtraParam("{\"nlist\": 16384}") // copied from original code by Pangeanic
-                    //.withSyncMode(Boolean.TRUE) // not sure, not setting for now
-                    .build()), "Error creating index" + indexName));
+            createIndex(milvusClient, collectionName, indexName, indexConfig);
+        }
+    }
+
+    /**
+     * Creates an index on the vector field of the provided collection. Note that this doesn't wait until the index is
+     * built
+     * @param milvusClient the client to use
+     * @param collectionName the collection to index
+     * @param indexName name of the new index
+     * @param indexConfig type and parameters of the index
+     */
+    public static void createIndex(MilvusClient milvusClient, String collectionName, String indexName,
+                                   MilvusIndexConfig indexConfig) {
+        LOG.info("Creating index {} for collection {}...", indexConfig, collectionName);
+        CreateIndexParam.Builder indexBuilder = CreateIndexParam.newBuilder()
+                .withCollectionName(collectionName)
+                .withFieldName(MilvusConstants.VECTOR_FIELD_NAME)
+                .withIndexName(indexName)
+                .withIndexType(indexConfig.getIndexType())
+                .withMetricType(indexConfig.getMetricType());
+        if (StringUtils.isNotBlank(indexConfig.getBuildParams())) {
+            indexBuilder.withExtraParam(indexConfig.getBuildParams());
+        }
+        LOG.info(checkResponse(milvusClient.createIndex(indexBuilder.build()), "Error creating index " + indexName));
+    }
+
+    /**
+     * Wait until all rows in a collection are indexed
+     * @param milvusClient the client to use
+     * @param collectionName the collection that is being indexed
+     * @param indexName the name of the index
+     * @param pollIntervalMs time in ms between progress checks
+     * @throws InterruptedException when the thread was interrupted while waiting
+     */
+    public static void waitForIndex(MilvusClient milvusClient, String collectionName, String indexName, long pollIntervalMs)
+            throws InterruptedException {
+        while (true) {
+            R<GetIndexBuildProgressResponse> response = checkResponse(milvusClient.getIndexBuildProgress(
+                    GetIndexBuildProgressParam.newBuilder()
+                            .withCollectionName(collectionName)
+                            .withIndexName(indexName)
+                            .build()), "Error retrieving progress of index " + indexName);
+            long indexed = response.getData().getIndexedRows();
+            long total = response.getData().getTotalRows();
+            LOG.info("Index {}: {} of {} rows indexed", indexName, indexed, total);
+            if (indexed >= total) {
+                return;
+            }
+            TimeUnit.MILLISECONDS.sleep(pollIntervalMs);
         }
     }
 
+    /**
+     * Load a collection into memory so it can be searched, and wait until that is done
+     * @param milvusClient the client to use
+     * @param collectionName the collection to load
+     */
+    public static void loadCollection(MilvusClient milvusClient, String collectionName) {
+        LOG.info("Loading collection {}...", collectionName);
+        checkResponse(milvusClient.loadCollection(LoadCollectionParam.newBuilder()
+                .withCollectionName(collectionName)
+                .withSyncLoad(true)
+                .build()), "Error loading collection " + collectionName);
+    }
+
+    /**
+     * Flush all inserted data of a collection to storage (seal segments)
+     * @param milvusClient the client to use
+     * @param collectionName the collection to flush
+     * @param sync if true then we wait until the flush is finished
+     */
+    public static void flush(MilvusClient milvusClient, String collectionName, boolean sync) {
+        LOG.debug("Flushing collection {}...", collectionName);
+        checkResponse(milvusClient.flush(FlushParam.newBuilder()
+                .addCollectionName(collectionName)
+                .withSyncFlush(sync)
+                .build()), "Error flushing collection " + collectionName);
+    }
+
     /**
      * Return a list of all partitions in a particular collection
      * @param milvusClient the client to use
@@ -166,4 +264,182 @@ public final class MilvusUtils {
                 .build())));
     }
 
+    /**
+     * Delete the entries with the provided record ids from a collection. If there are many ids this is done in
+     * multiple delete requests
+     * @param milvusClient the client to use
+     * @param collectionName the collection to delete from
+     * @param partitionName optional, the partition to delete from
+     * @param ids the record ids to delete
+     */
+    public static void deleteIds(MilvusClient milvusClient, String collectionName, String partitionName, List<String> ids) {
+        for (String expression : createInExpressions(ids, MAX_EXPRESSION_LENGTH)) {
+            DeleteParam.Builder deleteBuilder = DeleteParam.newBuilder()
+                    .withCollectionName(collectionName)
+                    .withExpr(expression);
+            if (partitionName != null) {
+                deleteBuilder.withPartitionName(partitionName);
+            }
+            checkResponse(milvusClient.delete(deleteBuilder.build()), "Error deleting existing data");
+        }
+    }
+
+    /**
+     * Iterate over the record ids of all entries in a set, in ascending order. Ids are retrieved lazily per id range,
+     * so large sets don't run into Milvus's query result limit and are never completely in memory.
+     * A query with a limit returns an arbitrary selection of the matching ids (not necessarily the lowest), so a range
+     * is only used when it returns less than pageSize ids. Otherwise the range is split in two at the middle id that
+     * was returned, and both halves are queried again.
+     * @param milvusClient the client to use
+     * @param collectionName the collection to query, should be loaded
+     * @param setId the set to retrieve the ids for
+     * @param pageSize maximum number of ids retrieved per query, at least 2 (Milvus allows at most 16384)
+     * @return iterator over the sorted record ids
+     */
+    public static Iterator<String> iterateSetIds(MilvusClient milvusClient, String collectionName, String setId, int pageSize) {
+        if (pageSize < 2) {
+            throw new IllegalArgumentException("Page size should be at least 2");
+        }
+        return new SetIdIterator(milvusClient, collectionName, setId, pageSize);
+    }
+
+    /**
+     * Iterate over the record ids of all entries in a set, in ascending order, using the default page size
+     * @param milvusClient the client to use
+     * @param collectionName the collection to query, should be loaded
+     * @param setId the set to retrieve the ids for
+     * @return iterator over the sorted record ids
+     */
+    public static Iterator<String> iterateSetIds(MilvusClient milvusClient, String collectionName, String setId) {
+        return iterateSetIds(milvusClient, collectionName, setId, QUERY_PAGE_SIZE);
+    }
+
+    /**
+     * @param setId the set id
+     * @return expression that selects all entries of a set (Milvus ids don't have a leading slash)
+     */
+    static String createSetExpression(String setId) {
+        return MilvusConstants.RECORD_ID_FIELD_NAME + " like \"" + setId + "/%\"";
+    }
+
+    /**
+     * @param setId the set id
+     * @param fromId optional, if not null only ids greater than or equal to this one are selected
+     * @param toId optional, if not null only ids less than this one are selected
+     * @return expression that selects entries of a set with an id in the range [fromId, toId)
+     */
+    static String createSetExpression(String setId, String fromId, String toId) {
+        StringBuilder result = new StringBuilder(createSetExpression(setId));
+        if (fromId != null) {
+            result.append(" && ").append(MilvusConstants.RECORD_ID_FIELD_NAME).append(" >= ").append(quote(fromId));
+        }
+        if (toId != null) {
+            result.append(" && ").append(MilvusConstants.RECORD_ID_FIELD_NAME).append(" < ").append(quote(toId));
+        }
+        return result.toString();
+    }
+
+    private static String quote(String id) {
+        return '"' + id.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * Create one or more 'about in [...]' expressions for the provided record ids, each of at most maxLength characters
+     * (unless a single id is longer than that)
+     * @param ids the record ids to include in the expressions
+     * @param maxLength maximum length of an expression
+     * @return list of expressions
+     */
+    static List<String> createInExpressions(List<String> ids, int maxLength) {
+        String prefix = MilvusConstants.RECORD_ID_FIELD_NAME + " in [";
+        List<String> result = new ArrayList<>();
+        StringBuilder expression = new StringBuilder(prefix);
+        for (String id : ids) {
+            String quotedId = quote(id);
+            boolean isEmpty = expression.length() == prefix.length();
+            if (!isEmpty && expression.length() + 1 + quotedId.length() + 1 > maxLength) {
+                result.add(expression.append(']').toString());
+                expression = new StringBuilder(prefix);
+                isEmpty = true;
+            }
+            if (!isEmpty) {
+                expression.append(',');
+            }
+            expression.append(quotedId);
+        }
+        if (expression.length() > prefix.length()) {
+            result.add(expression.append(']').toString());
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the ids of a set range by range when needed. Ranges that still have to be retrieved are kept on a
+     * stack, with the lowest range on top
+     */
+    private static final class SetIdIterator implements Iterator<String> {
+        private final MilvusClient milvusClient;
+        private final String collectionName;
+        private final String setId;
+        private final int pageSize;
+        private final Deque<String[]> ranges = new ArrayDeque<>();
+        private List<String> page = new ArrayList<>();
+        private int position;
+
+        private SetIdIterator(MilvusClient milvusClient, String collectionName, String setId, int pageSize) {
+            this.milvusClient = milvusClient;
+            this.collectionName = collectionName;
+            this.setId = setId;
+            this.pageSize = pageSize;
+            this.ranges.push(new String[]{null, null});
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (position >= page.size() && !ranges.isEmpty()) {
+                retrieveNextRange();
+            }
+            return position < page.size();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.get(position++);
+        }
+
+        private void retrieveNextRange() {
+            String[] range = ranges.pop();
+            R<QueryResults> response = checkResponse(milvusClient.query(QueryParam.newBuilder()
+                    .withCollectionName(collectionName)
+                    .withOutFields(List.of(MilvusConstants.RECORD_ID_FIELD_NAME))
+                    .withExpr(createSetExpression(setId, range[0], range[1]))
+                    .withLimit((long) pageSize)
+                    .withConsistencyLevel(ConsistencyLevelEnum.STRONG)
+                    .build()), "Error retrieving ids of set " + setId);
+            List<?> data = new QueryResultsWrapper(response.getData())
+                    .getFieldWrapper(MilvusConstants.RECORD_ID_FIELD_NAME).getFieldData();
+            List<String> ids = new ArrayList<>(data.size());
+            for (Object id : data) {
+                ids.add((String) id);
+            }
+            ids.sort(null);
+            if (ids.size() >= pageSize) {
+                // there may be more ids in this range, which can be lower than the ones returned. Ids are unique, so
+                // both halves contain fewer ids than this range
+                String middle = ids.get(ids.size() / 2);
+                ranges.push(new String[]{middle, range[1]});
+                ranges.push(new String[]{range[0], middle});
+                LOG.debug("Too many ids in range of set {}, splitting at {}", setId, middle);
+                ids = List.of();
+            } else {
+                LOG.debug("Retrieved {} ids of set {}", ids.size(), setId);
+            }
+            page = ids;
+            position = 0;
+        }
+    }
+
 }
@@ -0,0 +1,139 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import eu.europeana.api.recommend.common.MilvusConstants;
+import eu.europeana.api.recommend.updater.config.MilvusIndexConfig;
+import eu.europeana.api.recommend.updater.service.vectorstore.VectorStore;
+import io.milvus.grpc.SearchResults;
+import io.milvus.param.R;
+import io.milvus.param.dml.InsertParam;
+import io.milvus.param.dml.SearchParam;
+import io.milvus.param.dml.UpsertParam;
+import io.milvus.param.highlevel.collection.ListCollectionsParam;
+import io.milvus.param.highlevel.collection.response.ListCollectionsResponse;
+import io.milvus.param.partition.CreatePartitionParam;
+import io.milvus.response.SearchResultsWrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Vector store backed by a Milvus server. Writes are spread over the clients of the pool, everything else is done
+ * with the primary client.
+ */
+public class MilvusVectorStore implements VectorStore {
+
+    private final MilvusClientPool clientPool;
+    private final MilvusIndexConfig indexConfig;
+
+    /**
+     * Create a new Milvus vector store
+     * @param clientPool the clients to use, closed when the store is closed
+     * @param indexConfig the index to create for new collections, also provides the search parameters
+     */
+    public MilvusVectorStore(MilvusClientPool clientPool, MilvusIndexConfig indexConfig) {
+        this.clientPool = clientPool;
+        this.indexConfig = indexConfig;
+    }
+
+    /**
+     * @return the client pool, for features that are only available in Milvus
+     */
+    public MilvusClientPool getClientPool() {
+        return clientPool;
+    }
+
+    @Override
+    public List<String> listCollections() {
+        R<ListCollectionsResponse> response = MilvusUtils.checkResponse(clientPool.getPrimary().listCollections(
+                ListCollectionsParam.newBuilder().build()), "Error listing collections");
+        return response.getData().collectionNames;
+    }
+
+    @Override
+    public void createCollection(String collectionName, String description, boolean withIndex) {
+        MilvusUtils.createCollection(clientPool.getPrimary(), collectionName, description,
+                withIndex ? collectionName + MilvusWriterService.INDEX_SUFFIX : null, indexConfig);
+    }
+
+    @Override
+    public void dropCollection(String collectionName) {
+        MilvusUtils.deleteCollection(clientPool.getPrimary(), collectionName);
+    }
+
+    @Override
+    public List<String> getPartitions(String collectionName) {
+        return MilvusUtils.getPartitions(clientPool.getPrimary(), collectionName);
+    }
+
+    @Override
+    public void createPartition(String collectionName, String partitionName) {
+        MilvusUtils.checkResponse(clientPool.getPrimary().createPartition(CreatePartitionParam.newBuilder()
+                .withCollectionName(collectionName)
+                .withPartitionName(partitionName)
+                .build()), "Error creating new partition " + partitionName);
+    }
+
+    @Override
+    public void insert(String collectionName, String partitionName, List<String> ids, List<List<Float>> vectors) {
+        InsertParam insertParam = buildInsert(InsertParam.newBuilder(), collectionName, partitionName, ids, vectors).build();
+        MilvusUtils.checkResponse(clientPool.execute(client -> client.insert(insertParam)), "Error writing data");
+    }
+
+    @Override
+    public void upsert(String collectionName, String partitionName, List<String> ids, List<List<Float>> vectors) {
+        UpsertParam upsertParam = (UpsertParam) buildInsert(UpsertParam.newBuilder(), collectionName, partitionName,
+                ids, vectors).build();
+        MilvusUtils.checkResponse(clientPool.execute(client -> client.upsert(upsertParam)), "Error writing data");
+    }
+
+    private static InsertParam.Builder buildInsert(InsertParam.Builder builder, String collectionName,
+                                                   String partitionName, List<String> ids, List<List<Float>> vectors) {
+        List<InsertParam.Field> fields = new ArrayList<>();
+        fields.add(new InsertParam.Field(MilvusConstants.RECORD_ID_FIELD_NAME, ids));
+        fields.add(new InsertParam.Field(MilvusConstants.VECTOR_FIELD_NAME, vectors));
+        builder.withCollectionName(collectionName).withFields(fields);
+        if (partitionName != null) {
+            builder.withPartitionName(partitionName);
+        }
+        return builder;
+    }
+
+    @Override
+    public void delete(String collectionName, String partitionName, List<String> ids) {
+        clientPool.execute(client -> {
+            MilvusUtils.deleteIds(client, collectionName, partitionName, ids);
+            return null;
+        });
+    }
+
+    @Override
+    public long count(String collectionName) {
+        return MilvusUtils.getCount(clientPool.getPrimary(), collectionName);
+    }
+
+    /**
+     * Search a collection. Note that the collection needs to be loaded first.
+     */
+    @Override
+    public List<Hit> search(String collectionName, List<Float> vector, int topK) {
+        R<SearchResults> response = MilvusUtils.checkResponse(clientPool.getPrimary().search(SearchParam.newBuilder()
+                .withCollectionName(collectionName)
+                .withMetricType(indexConfig.getMetricType())
+                .withVectorFieldName(MilvusConstants.VECTOR_FIELD_NAME)
+                .withVectors(List.of(vector))
+                .withTopK(topK)
+                .withParams(indexConfig.getSearchParams())
+                .build()), "Error searching collection " + collectionName);
+        List<Hit> result = new ArrayList<>();
+        for (SearchResultsWrapper.IDScore score : new SearchResultsWrapper(response.getData().getResults()).getIDScore(0)) {
+            result.add(new Hit(score.getStrID(), score.getScore()));
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        clientPool.close();
+    }
+
+}
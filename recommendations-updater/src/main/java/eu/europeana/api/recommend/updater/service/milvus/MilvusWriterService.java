@@ -1,31 +1,38 @@
 package eu.europeana.api.recommend.updater.service.milvus;
 
-import eu.europeana.api.recommend.common.MilvusConstants;
+import eu.europeana.api.recommend.common.PartitionBuckets;
 import eu.europeana.api.recommend.common.model.RecordVectors;
 import eu.europeana.api.recommend.updater.config.JobCmdLineStarter;
 import eu.europeana.api.recommend.updater.config.UpdaterSettings;
 import eu.europeana.api.recommend.updater.exception.MilvusStateException;
+import eu.europeana.api.recommend.updater.service.vectorstore.InMemoryVectorStore;
+import eu.europeana.api.recommend.updater.service.vectorstore.VectorStore;
 import eu.europeana.api.recommend.updater.util.AverageTime;
 import io.milvus.client.MilvusClient;
-import io.milvus.client.MilvusServiceClient;
 import io.milvus.param.ConnectParam;
-import io.milvus.param.R;
-import io.milvus.param.dml.InsertParam;
-import io.milvus.param.highlevel.collection.ListCollectionsParam;
-import io.milvus.param.highlevel.collection.response.ListCollectionsResponse;
-import io.milvus.param.partition.CreatePartitionParam;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
 import org.springframework.batch.item.ItemWriter;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Service that sets up connection to Milvus and writes vectors to it.
+ * Service that sets up connection to Milvus (or the in-memory vector store) and writes vectors to it.
  *
  * The current used Milvus version (v2.2.11) supports varchar ids as primary keys
  *
@@ -33,28 +40,63 @@ import java.util.*;
  */
 @Service
 @SuppressWarnings("fb-contrib:USFW_UNSYNCHRONIZED_SINGLETON_FIELD_WRITES")
-public class MilvusWriterService implements ItemWriter<List<RecordVectors>>, JobExecutionListener {
+public class MilvusWriterService implements ItemWriter<List<RecordVectors>>, JobExecutionListener, StepExecutionListener {
 
     public static final String INDEX_SUFFIX = "Index";
 
+    private static final long BYTES_PER_MB = 1024L * 1024L;
+    private static final long BULK_INSERT_POLL_INTERVAL_MS = 10_000;
+    private static final long INDEX_POLL_INTERVAL_MS = 10_000;
+    private static final long MS_PER_SEC = 1000;
+    private static final long MS_PER_MIN = 60 * MS_PER_SEC;
+
     private static final Logger LOG = LogManager.getLogger(MilvusWriterService.class);
 
     private final UpdaterSettings settings;
-    private final String collectionName;
+    private String collectionName; // when rebuilding this is the new (shadow) collection
+    private String alias; // only set when rebuilding
     private final String collectionDescription;
 
     private boolean isFullUpdate;
-    private MilvusClient milvusClient;
-    private Set<String> partitionsExist = new HashSet<>(); // to keep track which sets (partitions) are present in Milvus collection
+    private boolean isLoad; // true when loading vectors from file
+    private boolean isResumedLoad; // true when continuing an interrupted full load from file
+    private VectorStore vectorStore;
+    private MilvusClient milvusClient; // primary client of the pool, only set when using Milvus
+    private MilvusClientPool clientPool;
+    private MilvusInsertBuffer insertBuffer; // only set when using async inserts
+    private BulkInsertFileWriter bulkInsertFileWriter; // only set when using bulk insert
+    private BulkInsertUploader bulkInsertUploader; // only set when bulk insert files are uploaded
+    private VectorSpool spool; // only set when spooling vectors
+    private SpoolDrainer spoolDrainer;
+    private boolean isIndexDeferred; // true if we created the collection without index
+    private final AtomicLong rowsSinceFlush = new AtomicLong();
+    private final AtomicLong nrWritten = new AtomicLong();
+    private long loadStartTime;
+    private PartitionRegistry partitionRegistry; // to keep track which partitions are present in Milvus collection
     private AverageTime averageTimeMilvus;  // for debugging purposes
 
 
+    /**
+     * Create a new writer for the Milvus collection in the settings
+     * @param settings inject application settings bean
+     */
+    @Autowired
     public MilvusWriterService(UpdaterSettings settings) {
+        this(settings, settings.getMilvusCollection(), settings.getMilvusCollectionDescription());
+    }
+
+    /**
+     * Create a new writer for the provided Milvus collection, e.g. for an extra target
+     * @param settings application settings bean
+     * @param collectionName the collection to write to
+     * @param collectionDescription description used when the collection is created
+     */
+    public MilvusWriterService(UpdaterSettings settings, String collectionName, String collectionDescription) {
         this.settings = settings;
-        this.collectionName = settings.getMilvusCollection();
-        this.collectionDescription = settings.getMilvusCollectionDescription();
+        this.collectionName = collectionName;
+        this.collectionDescription = collectionDescription;
         if (LOG.isDebugEnabled()) {
-            this.averageTimeMilvus = new AverageTime(settings.getLogTimingInterval(), "writing to Milvus");
+            this.averageTimeMilvus = new AverageTime(settings.getLogTimingInterval(), "writing to Milvus collection " + collectionName);
         }
     }
 
@@ -66,52 +108,148 @@ public class MilvusWriterService implements ItemWriter<List<RecordVectors>>, Job
     @SuppressWarnings("fb-contrib:USFW_UNSYNCHRONIZED_SINGLETON_FIELD_WRITES")
     public void beforeJob(JobExecution jobExecution) {
         this.isFullUpdate = JobCmdLineStarter.isFullUpdate(jobExecution.getJobParameters());
+        this.isLoad = JobCmdLineStarter.getLoadFile(jobExecution.getJobParameters()) != null;
+        this.isResumedLoad = isFullUpdate && isLoad && JobCmdLineStarter.getLoadOffset(jobExecution.getJobParameters()) > 0;
         boolean isDeleteDb = JobCmdLineStarter.isDeleteDb(jobExecution.getJobParameters());
 
-        if (UpdaterSettings.isValueDefined(settings.getMilvusUrl())) {
+        if (settings.useInMemoryVectorStore()) {
+            // Milvus-only features (rebuild, bulk insert, async inserts, spool) are not used
+            LOG.info("Using in-memory vector store");
+            this.vectorStore = new InMemoryVectorStore();
+            checkMilvusCollectionsState(vectorStore.listCollections(), isDeleteDb);
+        } else if (UpdaterSettings.isValueDefined(settings.getMilvusUrl())) {
             LOG.info("Setting up connection to Milvus at {}...", settings.getMilvusUrl());
             ConnectParam connectParam = ConnectParam.newBuilder()
                     .withHost(settings.getMilvusUrl())
                     .withPort(settings.getMilvusPort())
                     .build();
-            milvusClient = new MilvusServiceClient(connectParam);
+            clientPool = MilvusClientPool.create(connectParam, settings.getMilvusClientPoolSize());
+            milvusClient = clientPool.getPrimary();
+            vectorStore = new MilvusVectorStore(clientPool, settings.getMilvusIndexConfig());
 
             LOG.info("Milvus connection ok. Checking collections...");
-            R<ListCollectionsResponse> collectionsResponse = milvusClient.listCollections(ListCollectionsParam.newBuilder().build());
-            List<String> collectionNames = collectionsResponse.getData().collectionNames;
+            List<String> collectionNames = vectorStore.listCollections();
             LOG.info("Available collections are: {}", collectionNames);
 
+            if (isFullUpdate && JobCmdLineStarter.isRebuild(jobExecution.getJobParameters())) {
+                this.alias = collectionName;
+                this.collectionName = ShadowCollectionSwapper.createShadowName(alias, LocalDateTime.now());
+                LOG.info("Rebuilding {} in new collection {}", alias, collectionName);
+                isDeleteDb = false;
+            }
+
             checkMilvusCollectionsState(collectionNames, isDeleteDb);
+
+            if (!isFullUpdate) {
+                LOG.info("Partial update, existing entries are handled using mode {}", settings.getMilvusPartialUpdateMode());
+            }
+            if (isFullUpdate && !isResumedLoad && settings.useMilvusBulkInsert()) {
+                try {
+                    this.bulkInsertFileWriter = new BulkInsertFileWriter(Path.of(settings.getMilvusBulkInsertStagingDir()),
+                            collectionName, settings.getMilvusBulkInsertFileMB() * BYTES_PER_MB);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Error creating bulk insert staging directory", e);
+                }
+                if (UpdaterSettings.isValueDefined(settings.getMilvusBulkInsertStorageEndpoint())) {
+                    this.bulkInsertUploader = new BulkInsertUploader(settings.getMilvusBulkInsertStorageEndpoint(),
+                            settings.getMilvusBulkInsertStorageAccessKey(), settings.getMilvusBulkInsertStorageSecretKey(),
+                            settings.getMilvusBulkInsertStorageBucket());
+                    bulkInsertUploader.checkBucket();
+                }
+                LOG.info("Full update, vectors are written to {} and imported afterwards", settings.getMilvusBulkInsertStagingDir());
+            } else if (settings.useMilvusInsertAsync()) {
+                this.insertBuffer = new MilvusInsertBuffer(clientPool, collectionName, settings.getMilvusInsertBatchRows(),
+                        settings.getMilvusInsertBatchMB() * BYTES_PER_MB, settings.getMilvusInsertMaxInFlight(), isUpsert());
+            }
+            if (bulkInsertFileWriter == null && settings.useMilvusSpool()) {
+                setupSpool();
+            }
+        }
+    }
+
+    private void setupSpool() {
+        // when rebuilding the collection name changes every run, so we use the alias to find left-over segments
+        Path spoolDir = Path.of(settings.getMilvusSpoolDir(), alias == null ? collectionName : alias);
+        try {
+            this.spool = new VectorSpool(spoolDir, settings.getMilvusSpoolSegmentMB() * BYTES_PER_MB);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error creating spool directory " + spoolDir, e);
+        }
+        if (isFullUpdate && !isResumedLoad) {
+            // a full update generates all vectors again, writing left-over vectors as well would create duplicates
+            try {
+                int nrDiscarded = spool.discardPreviousRun();
+                if (nrDiscarded > 0) {
+                    LOG.warn("Full update, discarded {} spool segments from a previous run", nrDiscarded);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error removing old segments from spool directory " + spoolDir, e);
+            }
         }
+        // rows are counted by the drainer once their segment is completely written
+        this.spoolDrainer = new SpoolDrainer(spool, new SpoolDrainer.Target() {
+            @Override
+            public void write(List<String> ids, List<List<Float>> vectors, boolean replay) {
+                writeToMilvusPerSet(ids, vectors, replay);
+            }
+
+            @Override
+            public void sync() {
+                if (insertBuffer != null) {
+                    insertBuffer.flush();
+                }
+            }
+        }, settings.getMilvusSpoolRetries(), settings.getMilvusSpoolRetryDelay() * MS_PER_SEC);
+        LOG.info("Vectors are spooled in {} before writing them to Milvus", spoolDir);
     }
 
     private void checkMilvusCollectionsState(List<String> availableCollectionNames, boolean deleteOldData) {
         long nrEntities;
-        if (availableCollectionNames.contains(collectionName)) {
+        // the collection name may also be an alias (created by a rebuild)
+        String aliasedCollection = null;
+        if (!availableCollectionNames.contains(collectionName) && milvusClient != null) {
+            aliasedCollection = new ShadowCollectionSwapper(milvusClient, collectionName).getCurrentCollection();
+        }
+        if (deleteOldData && aliasedCollection != null) {
+            // an alias can't be dropped like a collection, and we can't create a collection with the alias's name
+            throw new MilvusStateException("Cannot delete " + collectionName + ", it's an alias of collection "
+                    + aliasedCollection + " created by a rebuild. Use --" + JobCmdLineStarter.PARAM_REBUILD
+                    + " instead to replace it", null);
+        }
+        if (availableCollectionNames.contains(collectionName) || aliasedCollection != null) {
             if (deleteOldData) {
                 LOG.info("Deleting old collection {}...", collectionName);
-                MilvusUtils.deleteCollection(milvusClient, collectionName);
+                vectorStore.dropCollection(collectionName);
 
                 LOG.info("Creating empty new collection named {}...", collectionName);
-                MilvusUtils.createCollection(milvusClient, collectionName, collectionDescription, collectionName + INDEX_SUFFIX);
+                createCollection();
                 nrEntities = 0;
             } else {
-                nrEntities = MilvusUtils.getCount(milvusClient, collectionName);
+                nrEntities = vectorStore.count(collectionName);
                 LOG.info("Found collection {} containing {} entries", collectionName, nrEntities);
+                if (isResumedLoad && milvusClient != null) {
+                    // the interrupted load created the collection without index
+                    this.isIndexDeferred = true;
+                }
 
                 if (settings.useMilvusPartitions()) {
-                    this.partitionsExist = new HashSet<>(MilvusUtils.getPartitions(milvusClient, collectionName));
-                    LOG.info("Found {} partitions", partitionsExist.size());
+                    this.partitionRegistry = new PartitionRegistry(vectorStore, collectionName,
+                            vectorStore.getPartitions(collectionName));
+                    LOG.info("Found {} partitions", partitionRegistry.size());
                 }
             }
         } else {
             LOG.info("Creating empty new collection named {}...", collectionName);
-            MilvusUtils.createCollection(milvusClient, collectionName, collectionDescription, collectionName + INDEX_SUFFIX);
+            createCollection();
             nrEntities = 0;
         }
 
+        if (partitionRegistry == null) {
+            this.partitionRegistry = new PartitionRegistry(vectorStore, collectionName, Collections.emptyList());
+        }
+
         // for full update check if database is empty
-        if (isFullUpdate && nrEntities > 0) {
+        if (isFullUpdate && !isResumedLoad && nrEntities > 0) {
             throw new MilvusStateException("Aborting full update because Milvus target collection exists and is not empty", null);
         }
 
@@ -121,6 +259,214 @@ public class MilvusWriterService implements ItemWriter<List<RecordVectors>>, Job
         }
     }
 
+    private void createCollection() {
+        if (milvusClient != null && isFullUpdate && (settings.useMilvusDeferredIndex() || isLoad)) {
+            // building the index while loading is slower, so we do that once all data is loaded
+            LOG.info("Index for collection {} will be created after loading", collectionName);
+            vectorStore.createCollection(collectionName, collectionDescription, false);
+            this.isIndexDeferred = true;
+        } else {
+            vectorStore.createCollection(collectionName, collectionDescription, true);
+        }
+    }
+
+    /**
+     * @return true if entries may already exist, i.e. for partial updates or when a load is resumed (some rows after
+     * the resume offset may have been written already)
+     */
+    private boolean isExistingDataExpected() {
+        return !isFullUpdate || isResumedLoad;
+    }
+
+    /**
+     * @return true if existing entries should be deleted before inserting new ones
+     */
+    private boolean isDeleteBeforeInsert() {
+        return isExistingDataExpected() && UpdaterSettings.PARTIAL_UPDATE_DELETE.equals(settings.getMilvusPartialUpdateMode());
+    }
+
+    /**
+     * @return true if we should use upserts instead of inserts
+     */
+    private boolean isUpsert() {
+        return isExistingDataExpected() && UpdaterSettings.PARTIAL_UPDATE_UPSERT.equals(settings.getMilvusPartialUpdateMode());
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        this.loadStartTime = System.currentTimeMillis();
+        if (spoolDrainer != null) {
+            spoolDrainer.start();
+        }
+    }
+
+    /**
+     * When spooling or using async inserts, make sure all spooled and buffered vectors are written before the step
+     * finishes. When using bulk insert, import all generated files and wait until that is done. If the index was
+     * deferred, it's built afterwards.
+     * @param stepExecution the step that finished
+     * @return exit status of the step, FAILED if not all vectors could be written or indexed
+     */
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        ExitStatus result = writeRemaining(stepExecution);
+        if (vectorStore != null) {
+            LOG.info("Loading data into collection {} took {} seconds", collectionName,
+                    (System.currentTimeMillis() - loadStartTime) / MS_PER_SEC);
+        }
+        if (isIndexDeferred && !ExitStatus.FAILED.getExitCode().equals(result.getExitCode())) {
+            result = result.and(buildIndex(stepExecution));
+        }
+        if (alias != null && !ExitStatus.FAILED.getExitCode().equals(result.getExitCode())) {
+            result = result.and(swapCollection(stepExecution));
+        }
+        return result;
+    }
+
+    private ExitStatus writeRemaining(StepExecution stepExecution) {
+        if (bulkInsertFileWriter != null) {
+            return bulkInsert(stepExecution);
+        }
+        if (spoolDrainer != null) {
+            LOG.info("Waiting for {} spooled segments to be written to Milvus collection {}...", spool.getNrSealed(), collectionName);
+            try {
+                spoolDrainer.finish();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stepExecution.addFailureException(e);
+                return ExitStatus.FAILED;
+            } catch (MilvusStateException e) {
+                LOG.error("Error writing spooled vectors to Milvus collection {}, these will be written in the next run",
+                        collectionName, e);
+                stepExecution.addFailureException(e);
+                return ExitStatus.FAILED;
+            }
+        }
+        if (insertBuffer != null) {
+            LOG.info("Waiting for remaining inserts into Milvus collection {}...", collectionName);
+            try {
+                insertBuffer.flush();
+            } catch (MilvusStateException e) {
+                LOG.error("Error writing remaining vectors to Milvus collection {}", collectionName, e);
+                stepExecution.addFailureException(e);
+                return ExitStatus.FAILED;
+            }
+        }
+        return stepExecution.getExitStatus();
+    }
+
+    private ExitStatus buildIndex(StepExecution stepExecution) {
+        if (stepExecution.getStatus() != BatchStatus.COMPLETED) {
+            LOG.warn("Step did not complete, index for collection {} is not created", collectionName);
+            return stepExecution.getExitStatus();
+        }
+        String indexName = collectionName + INDEX_SUFFIX;
+        try {
+            long start = System.currentTimeMillis();
+            MilvusUtils.flush(milvusClient, collectionName, true);
+            LOG.info("Flushing collection {} took {} seconds", collectionName, (System.currentTimeMillis() - start) / MS_PER_SEC);
+
+            start = System.currentTimeMillis();
+            MilvusUtils.createIndex(milvusClient, collectionName, indexName, settings.getMilvusIndexConfig());
+            MilvusUtils.waitForIndex(milvusClient, collectionName, indexName, INDEX_POLL_INTERVAL_MS);
+            LOG.info("Building index {} took {} seconds", indexName, (System.currentTimeMillis() - start) / MS_PER_SEC);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stepExecution.addFailureException(e);
+            return ExitStatus.FAILED;
+        } catch (RuntimeException e) {
+            LOG.error("Error building index {} for Milvus collection {}", indexName, collectionName, e);
+            stepExecution.addFailureException(e);
+            return ExitStatus.FAILED;
+        }
+        return stepExecution.getExitStatus();
+    }
+
+    /**
+     * Check if the new collection is complete, load it and move the alias to it
+     */
+    private ExitStatus swapCollection(StepExecution stepExecution) {
+        if (stepExecution.getStatus() != BatchStatus.COMPLETED) {
+            LOG.warn("Step did not complete, alias {} is not moved to collection {}", alias, collectionName);
+            return stepExecution.getExitStatus();
+        }
+        try {
+            long start = System.currentTimeMillis();
+            MilvusUtils.flush(milvusClient, collectionName, true);
+            if (!isIndexDeferred) {
+                // index was created together with the collection, but may not be finished yet
+                MilvusUtils.waitForIndex(milvusClient, collectionName, collectionName + INDEX_SUFFIX, INDEX_POLL_INTERVAL_MS);
+            }
+            checkRebuildCount();
+            MilvusUtils.loadCollection(milvusClient, collectionName);
+            LOG.info("Loading collection {} took {} seconds", collectionName, (System.currentTimeMillis() - start) / MS_PER_SEC);
+
+            ShadowCollectionSwapper swapper = new ShadowCollectionSwapper(milvusClient, alias);
+            swapper.swap(collectionName, vectorStore.listCollections());
+            List<String> dropped = swapper.removeOldCollections(vectorStore.listCollections(), collectionName, settings.getMilvusRebuildKeep());
+            LOG.info("Alias {} now points to collection {}, removed old collections {}", alias, collectionName, dropped);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stepExecution.addFailureException(e);
+            return ExitStatus.FAILED;
+        } catch (RuntimeException e) {
+            LOG.error("Error switching alias {} to collection {}. The old data is still in use", alias, collectionName, e);
+            stepExecution.addFailureException(e);
+            return ExitStatus.FAILED;
+        }
+        return stepExecution.getExitStatus();
+    }
+
+    private long getNrWritten() {
+        return nrWritten.get() + (spoolDrainer == null ? 0 : spoolDrainer.getNrWritten());
+    }
+
+    private void checkRebuildCount() {
+        long count = MilvusUtils.getCount(milvusClient, collectionName);
+        long written = getNrWritten();
+        if (count != written) {
+            throw new MilvusStateException("Collection " + collectionName + " contains " + count + " entries, but "
+                    + written + " were written", null);
+        }
+        String current = new ShadowCollectionSwapper(milvusClient, alias).getCurrentCollection();
+        if (current != null) {
+            long currentCount = MilvusUtils.getCount(milvusClient, current);
+            if (count < settings.getMilvusRebuildMinCountRatio() * currentCount) {
+                throw new MilvusStateException("Collection " + collectionName + " contains " + count
+                        + " entries, which is too few compared to " + currentCount + " in current collection " + current, null);
+            }
+        }
+        LOG.info("Collection {} contains {} entries", collectionName, count);
+    }
+
+    private ExitStatus bulkInsert(StepExecution stepExecution) {
+        try {
+            List<BulkInsertFileWriter.BulkInsertFile> files = bulkInsertFileWriter.finish();
+            if (stepExecution.getStatus() != BatchStatus.COMPLETED) {
+                LOG.warn("Step did not complete, files in {} are not imported", settings.getMilvusBulkInsertStagingDir());
+                return stepExecution.getExitStatus();
+            }
+            LOG.info("Importing {} files into Milvus collection {}...", files.size(), collectionName);
+            long start = System.currentTimeMillis();
+            long nrImported = new MilvusBulkImporter(milvusClient, collectionName, settings.getMilvusBulkInsertRemotePath(),
+                    bulkInsertUploader, BULK_INSERT_POLL_INTERVAL_MS, settings.getMilvusBulkInsertTimeout() * MS_PER_MIN)
+                    .importFiles(files);
+            LOG.info("Imported {} vectors in {} seconds", nrImported, (System.currentTimeMillis() - start) / 1000);
+            for (BulkInsertFileWriter.BulkInsertFile file : files) {
+                Files.delete(file.getFile());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stepExecution.addFailureException(e);
+            return ExitStatus.FAILED;
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Error importing vectors into Milvus collection {}", collectionName, e);
+            stepExecution.addFailureException(e);
+            return ExitStatus.FAILED;
+        }
+        return stepExecution.getExitStatus();
+    }
+
     @Override
     public void afterJob(JobExecution jobExecution) {
         this.shutdown();
@@ -129,16 +475,21 @@ public class MilvusWriterService implements ItemWriter<List<RecordVectors>>, Job
     @PreDestroy
     @SuppressWarnings("fb-contrib:USFW_UNSYNCHRONIZED_SINGLETON_FIELD_WRITES")
     private void shutdown() {
-        if (milvusClient != null) {
-            LOG.info("Closing connection to Milvus.");
-            milvusClient.close();
+        if (spool != null) {
+            spool.close();
+            spool = null;
+        }
+        if (vectorStore != null) {
+            LOG.info("Closing vector store.");
+            vectorStore.close(); // also closes the Milvus client pool
+            vectorStore = null;
+            clientPool = null;
             milvusClient = null;
         }
     }
 
     @Override
     public void write(List<? extends List<RecordVectors>> lists) {
-        String setName = null; // only used when writing to partitions
         List<String> milvusRecordIds = new ArrayList<>();
         List<List<Float>> vectors = new ArrayList<>();
 
@@ -156,51 +507,110 @@ public class MilvusWriterService implements ItemWriter<List<RecordVectors>>, Job
         } else {
             long start = System.currentTimeMillis();
 
-            // HACK determine setname to use as milvus partition name
-            if (settings.useMilvusPartitions()) {
-                setName = milvusRecordIds.get(0).split("/")[0];
-                LOG.trace("Set name is {} ", setName);
+            if (spool != null) {
+                // vectors are written to Milvus by the spool drainer
+                spoolDrainer.checkError();
+                spool.append(milvusRecordIds, vectors);
+            } else {
+                writeToMilvusPerSet(milvusRecordIds, vectors, false);
+                nrWritten.addAndGet(milvusRecordIds.size());
             }
-            writeToMilvus(setName, milvusRecordIds, vectors);
 
             if (LOG.isDebugEnabled()) {
                 long duration = System.currentTimeMillis() - start;
                 averageTimeMilvus.addTiming(duration);
-                LOG.trace("4. Saved {} vectors in Milvus partition {} in {} ms", milvusRecordIds.size(), setName, duration);
+                LOG.trace("4. Saved {} vectors in Milvus in {} ms", milvusRecordIds.size(), duration);
+            }
+        }
+    }
+
+    /**
+     * HACK determine setname to use as milvus partition name
+     * @return the set name of the record
+     */
+    private static String getSetName(String milvusRecordId) {
+        return milvusRecordId.split("/")[0];
+    }
+
+    /**
+     * Write records to Milvus. If partitions are used, each consecutive run of records from the same set is written
+     * separately. Normally all records are from the same set, but that's not the case when loading from a vector file.
+     * @param replay if true the records may have been written before (e.g. when a spool segment is written again), so
+     *               existing entries are always replaced, whatever the update type
+     */
+    private void writeToMilvusPerSet(List<String> ids, List<List<Float>> vectors, boolean replay) {
+        if (!settings.useMilvusPartitions()) {
+            writeToMilvus(null, ids, vectors, replay);
+            return;
+        }
+        int start = 0;
+        String setName = getSetName(ids.get(0));
+        for (int i = 1; i <= ids.size(); i++) {
+            String nextSetName = (i < ids.size() ? getSetName(ids.get(i)) : null);
+            if (!setName.equals(nextSetName)) {
+                LOG.trace("Set name is {} ", setName);
+                writeToMilvus(setName, ids.subList(start, i), vectors.subList(start, i), replay);
+                start = i;
+                setName = nextSetName;
             }
         }
     }
 
-    private void writeToMilvus(String setName, List<String> ids, List<List<Float>> vectors) {
+    /**
+     * @return the partition to write the records of a set to, either 1 partition per set or a bucket of sets. Null if
+     * partitions are not used
+     */
+    private String getPartitionName(String setName) {
+        if (!settings.useMilvusPartitions() || setName == null) {
+            return null;
+        }
+        if (settings.getMilvusPartitionBuckets() > 0) {
+            return PartitionBuckets.getPartitionName(setName, settings.getMilvusPartitionBuckets());
+        }
+        return setName;
+    }
+
+    private void writeToMilvus(String setName, List<String> ids, List<List<Float>> vectors, boolean replay) {
         if (setName == null) {
             LOG.trace("Writing {} records to Milvus...", ids.size());
         } else {
             LOG.trace("Writing {} records for set {} to Milvus...", ids.size(), setName);
         }
 
-        List<InsertParam.Field> fields = new ArrayList<>();
-        fields.add(new InsertParam.Field(MilvusConstants.RECORD_ID_FIELD_NAME, ids));
-        fields.add(new InsertParam.Field(MilvusConstants.VECTOR_FIELD_NAME, vectors));
-
-        InsertParam.Builder insertBuilder = InsertParam.newBuilder()
-                .withCollectionName(collectionName)
-                .withFields(fields);
-        if (settings.useMilvusPartitions() && setName != null) {
-            // Keep in mind that there is a 4096 partition limit (see also https://milvus.io/docs/create_collection.md)
-
-            // Do we need to create a new partition first?
-            if (!partitionsExist.contains(setName)) {
-                LOG.debug("Creating new milvus partition {}", setName);
-                MilvusUtils.checkResponse(milvusClient.createPartition(CreatePartitionParam.newBuilder()
-                        .withCollectionName(collectionName)
-                        .withPartitionName(setName)
-                        .build()), "Error creating new partition for set " + setName);
-                partitionsExist.add(setName);
-            }
+        String partitionName = getPartitionName(setName);
+        if (partitionName != null) {
+            partitionRegistry.ensureExists(partitionName);
+        }
+        if (bulkInsertFileWriter != null) {
+            bulkInsertFileWriter.write(partitionName, ids, vectors);
+            return;
+        }
+        if (isDeleteBeforeInsert() || (replay && !isUpsert())) {
+            // prevent duplicate entries for records that already exist. We delete from the whole collection because an
+            // existing entry may be in another partition (e.g. written before partition buckets were used)
+            vectorStore.delete(collectionName, null, ids);
+        }
+        if (insertBuffer != null) {
+            insertBuffer.add(partitionName, ids, vectors);
+        } else if (isUpsert()) {
+            vectorStore.upsert(collectionName, partitionName, ids, vectors);
+        } else {
+            vectorStore.insert(collectionName, partitionName, ids, vectors);
+        }
+        flushIfNeeded(ids.size());
+    }
 
-            insertBuilder.withPartitionName(setName);
+    /**
+     * Flush (seal segments) every x rows, if configured, so Milvus doesn't decide on its own when to do that
+     */
+    private void flushIfNeeded(int nrRows) {
+        int flushInterval = settings.getMilvusFlushInterval();
+        if (milvusClient != null && flushInterval > 0 && rowsSinceFlush.addAndGet(nrRows) >= flushInterval) {
+            rowsSinceFlush.set(0);
+            long start = System.currentTimeMillis();
+            MilvusUtils.flush(milvusClient, collectionName, false);
+            LOG.debug("Flush of collection {} requested in {} ms", collectionName, System.currentTimeMillis() - start);
         }
-        MilvusUtils.checkResponse(milvusClient.insert(insertBuilder.build()), "Error writing data");
     }
 
 }
@@ -0,0 +1,62 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import eu.europeana.api.recommend.updater.service.vectorstore.VectorStore;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the partitions in a collection and creates missing ones. Can be used by multiple threads at the same
+ * time; if several threads need the same new partition, it's created only once and the other threads wait until
+ * that is done.
+ */
+public class PartitionRegistry {
+
+    private static final Logger LOG = LogManager.getLogger(PartitionRegistry.class);
+
+    private final VectorStore vectorStore;
+    private final String collectionName;
+    private final Map<String, Boolean> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new registry
+     * @param vectorStore the store to create partitions in
+     * @param collectionName the collection that contains the partitions
+     * @param existingPartitions the partitions that are already present in the collection
+     */
+    public PartitionRegistry(VectorStore vectorStore, String collectionName, Collection<String> existingPartitions) {
+        this.vectorStore = vectorStore;
+        this.collectionName = collectionName;
+        for (String partition : existingPartitions) {
+            partitions.put(partition, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Make sure the provided partition exists, create it if necessary
+     * @param partition the name of the partition
+     */
+    public void ensureExists(String partition) {
+        if (partitions.containsKey(partition)) {
+            return;
+        }
+        // only 1 thread runs this for a particular partition, if it fails nothing is registered
+        partitions.computeIfAbsent(partition, name -> {
+            // Keep in mind that there is a 4096 partition limit (see also https://milvus.io/docs/create_collection.md)
+            LOG.debug("Creating new milvus partition {}", name);
+            vectorStore.createPartition(collectionName, name);
+            return Boolean.TRUE;
+        });
+    }
+
+    /**
+     * @return the number of known partitions
+     */
+    public int size() {
+        return partitions.size();
+    }
+
+}
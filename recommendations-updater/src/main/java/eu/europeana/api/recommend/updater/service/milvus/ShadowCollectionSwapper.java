@@ -0,0 +1,132 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import io.milvus.client.MilvusClient;
+import io.milvus.grpc.DescribeCollectionResponse;
+import io.milvus.param.R;
+import io.milvus.param.alias.AlterAliasParam;
+import io.milvus.param.alias.CreateAliasParam;
+import io.milvus.param.collection.DescribeCollectionParam;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Rebuilds are loaded into a new (shadow) collection named after the alias that clients use, plus a timestamp.
+ * When the shadow collection is complete, the alias is moved to it, so clients switch to the new data at once.
+ * Afterwards old shadow collections are removed, except for the most recent ones (so we can switch back if needed).
+ */
+public class ShadowCollectionSwapper {
+
+    private static final Logger LOG = LogManager.getLogger(ShadowCollectionSwapper.class);
+
+    private static final DateTimeFormatter VERSION_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private final MilvusClient milvusClient;
+    private final String alias;
+
+    /**
+     * Create a new swapper
+     * @param milvusClient the client to use
+     * @param alias the alias that clients use to query the collection
+     */
+    public ShadowCollectionSwapper(MilvusClient milvusClient, String alias) {
+        this.milvusClient = milvusClient;
+        this.alias = alias;
+    }
+
+    /**
+     * Generate the name of a new shadow collection
+     * @param alias the alias that clients use
+     * @param time the time the rebuild started
+     * @return name of the new collection
+     */
+    public static String createShadowName(String alias, LocalDateTime time) {
+        return alias + "_" + VERSION_FORMAT.format(time);
+    }
+
+    /**
+     * @return the name of the collection the alias currently points to, null if the alias doesn't exist
+     */
+    public String getCurrentCollection() {
+        R<DescribeCollectionResponse> response = milvusClient.describeCollection(DescribeCollectionParam.newBuilder()
+                .withCollectionName(alias)
+                .build());
+        if (R.Status.Success.getCode() != response.getStatus()) {
+            return null;
+        }
+        return response.getData().getCollectionName();
+    }
+
+    /**
+     * Point the alias to the provided collection. If there is still a regular collection with the same name as the
+     * alias (i.e. from before we used rebuilds), that collection is dropped first. Only in that case clients won't
+     * find data for a brief moment.
+     * @param newCollection the collection the alias should point to
+     * @param collectionNames list of all available collections
+     */
+    public void swap(String newCollection, List<String> collectionNames) {
+        String current = getCurrentCollection();
+        if (collectionNames.contains(alias)) {
+            LOG.warn("Dropping collection {} so its name can be used as alias for {}", alias, newCollection);
+            MilvusUtils.deleteCollection(milvusClient, alias);
+            current = null;
+        }
+        if (current == null) {
+            LOG.info("Creating alias {} for collection {}...", alias, newCollection);
+            MilvusUtils.checkResponse(milvusClient.createAlias(CreateAliasParam.newBuilder()
+                    .withCollectionName(newCollection)
+                    .withAlias(alias)
+                    .build()), "Error creating alias " + alias);
+        } else {
+            LOG.info("Moving alias {} from collection {} to {}...", alias, current, newCollection);
+            MilvusUtils.checkResponse(milvusClient.alterAlias(AlterAliasParam.newBuilder()
+                    .withCollectionName(newCollection)
+                    .withAlias(alias)
+                    .build()), "Error moving alias " + alias);
+        }
+    }
+
+    /**
+     * Drop old shadow collections
+     * @param collectionNames list of all available collections
+     * @param current the collection the alias points to, this one is never dropped
+     * @param keep the number of old shadow collections to keep
+     * @return the names of the dropped collections
+     */
+    public List<String> removeOldCollections(List<String> collectionNames, String current, int keep) {
+        List<String> toDrop = selectCollectionsToDrop(collectionNames, alias, current, keep);
+        for (String collection : toDrop) {
+            MilvusUtils.deleteCollection(milvusClient, collection);
+        }
+        return toDrop;
+    }
+
+    /**
+     * Determine which old shadow collections should be dropped, i.e. all except the current and the most recent
+     * 'keep' old ones. Collections that don't follow the shadow naming pattern are never selected.
+     * @param collectionNames list of all available collections
+     * @param alias the alias that clients use
+     * @param current the collection the alias points to
+     * @param keep the number of old shadow collections to keep
+     * @return list of collections to drop
+     */
+    static List<String> selectCollectionsToDrop(List<String> collectionNames, String alias, String current, int keep) {
+        Pattern shadowName = Pattern.compile(Pattern.quote(alias) + "_\\d{14}");
+        List<String> old = new ArrayList<>();
+        for (String name : collectionNames) {
+            if (!name.equals(current) && shadowName.matcher(name).matches()) {
+                old.add(name);
+            }
+        }
+        // newest first, timestamps in the names sort chronologically
+        old.sort(Comparator.reverseOrder());
+        return old.subList(Math.min(Math.max(keep, 0), old.size()), old.size());
+    }
+
+}
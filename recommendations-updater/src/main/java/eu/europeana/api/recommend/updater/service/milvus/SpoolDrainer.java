@@ -0,0 +1,184 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import eu.europeana.api.recommend.updater.exception.MilvusStateException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Background thread that reads sealed segments from a VectorSpool and writes them to Milvus. A segment is only
+ * deleted when all its vectors are written, so if Milvus is unavailable or the application is stopped, the segment is
+ * written again later.
+ *
+ * When writing fails, we wait and retry the whole segment, so a (short) Milvus outage doesn't fail the update. Retried
+ * segments and segments left over from a previous run are written as a replay, meaning the target has to make sure
+ * vectors that were already stored are not duplicated. Rows are only counted as written once their segment is
+ * completely stored. When the drainer is idle, it seals the current segment of the spool so vectors don't stay in the
+ * spool for long.
+ */
+public class SpoolDrainer {
+
+    private static final Logger LOG = LogManager.getLogger(SpoolDrainer.class);
+
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    private final VectorSpool spool;
+    private final Target target;
+    private final int maxRetries;
+    private final long retryDelayMs;
+
+    private final AtomicLong nrWritten = new AtomicLong();
+    private final AtomicReference<Exception> error = new AtomicReference<>();
+    private volatile boolean finishRequested;
+    private Thread thread;
+
+    /**
+     * Destination of the spooled vectors
+     */
+    public interface Target {
+        /**
+         * Write a batch of vectors
+         * @param ids the record ids
+         * @param vectors the vectors of the records
+         * @param replay if true (some of) the vectors may have been written before, so existing entries should be
+         *               replaced instead of duplicated
+         * @throws InterruptedException when the thread is interrupted while writing
+         */
+        void write(List<String> ids, List<List<Float>> vectors, boolean replay) throws InterruptedException;
+
+        /**
+         * Make sure all written vectors are stored, called before a segment is deleted. If this fails, the target
+         * should be usable again afterwards
+         */
+        void sync();
+    }
+
+    /**
+     * Create a new drainer
+     * @param spool the spool to read from
+     * @param target the destination of the vectors
+     * @param maxRetries maximum number of retries for writing 1 segment
+     * @param retryDelayMs time in ms to wait between retries
+     */
+    public SpoolDrainer(VectorSpool spool, Target target, int maxRetries, long retryDelayMs) {
+        this.spool = spool;
+        this.target = target;
+        this.maxRetries = maxRetries;
+        this.retryDelayMs = retryDelayMs;
+    }
+
+    /**
+     * Start reading segments in a new thread
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Spool drainer already started");
+        }
+        thread = new Thread(this::run, "SpoolDrainer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Seal the current segment and wait until all segments are written
+     * @throws InterruptedException when the thread is interrupted while waiting
+     * @throws MilvusStateException when writing a segment failed
+     */
+    public void finish() throws InterruptedException {
+        spool.seal();
+        finishRequested = true;
+        if (thread != null) {
+            thread.join();
+        }
+        checkError();
+    }
+
+    /**
+     * @throws MilvusStateException when the drainer stopped because writing a segment failed
+     */
+    public void checkError() {
+        Exception e = error.get();
+        if (e != null) {
+            throw new MilvusStateException("Error writing spooled vectors", e);
+        }
+    }
+
+    /**
+     * @return the number of rows in segments that were completely written
+     */
+    public long getNrWritten() {
+        return nrWritten.get();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Path segment = spool.takeSealed(POLL_INTERVAL_MS);
+                if (segment != null) {
+                    drain(segment);
+                } else if (finishRequested && spool.getNrSealed() == 0) {
+                    break;
+                } else {
+                    // nothing to do, so make vectors written so far available
+                    spool.seal();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error.compareAndSet(null, e);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Stopped writing spooled vectors", e);
+            error.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * Write all vectors of a segment. If that fails, the whole segment is written again (as a replay), because with
+     * asynchronous writes we don't know exactly which vectors were stored.
+     */
+    private void drain(Path segment) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        int attempt = 0;
+        while (true) {
+            boolean replay = attempt > 0 || spool.isFromPreviousRun(segment);
+            AtomicLong nrRows = new AtomicLong();
+            try {
+                long nrEntries = VectorSpool.readSegment(segment, (ids, vectors) -> {
+                    target.write(ids, vectors, replay);
+                    nrRows.addAndGet(ids.size());
+                });
+                target.sync();
+                spool.delete(segment);
+                nrWritten.addAndGet(nrRows.get());
+                LOG.debug("Wrote {} entries ({} rows) from spool segment {} in {} ms", nrEntries, nrRows.get(), segment,
+                        System.currentTimeMillis() - start);
+                return;
+            } catch (RuntimeException e) {
+                attempt++;
+                if (attempt > maxRetries) {
+                    throw e;
+                }
+                LOG.warn("Error writing spooled vectors, retry {} of {} in {} ms: {}", attempt, maxRetries, retryDelayMs,
+                        e.getMessage());
+                resetTarget();
+                TimeUnit.MILLISECONDS.sleep(retryDelayMs);
+            }
+        }
+    }
+
+    private void resetTarget() {
+        try {
+            // wait for (and discard errors of) writes that were still in progress
+            target.sync();
+        } catch (RuntimeException e) {
+            LOG.debug("Ignoring error of unfinished writes: {}", e.getMessage());
+        }
+    }
+
+}
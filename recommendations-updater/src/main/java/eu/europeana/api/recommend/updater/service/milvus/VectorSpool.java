@@ -0,0 +1,325 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import com.google.common.io.CountingOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Local append-only spool for generated vectors, so vectors are safely stored on disk before they are written to
+ * Milvus. The spool consists of numbered segment files. Vectors are appended to the current segment and when that
+ * reaches the maximum size it's sealed and handed to the reader (see SpoolDrainer). Sealed segments are deleted once
+ * all their vectors are written to Milvus.
+ *
+ * Each batch of vectors is stored as 1 entry: length, data (number of rows, and for each row the id and float32
+ * vector) and a CRC32 checksum of the data. When the application stops unexpectedly, the last entry may be incomplete.
+ * Reading a segment stops at the first incomplete or corrupt entry.
+ *
+ * Segments that are left over from a previous run are picked up again when a new spool is created in the same
+ * directory.
+ */
+public class VectorSpool implements AutoCloseable {
+
+    private static final Logger LOG = LogManager.getLogger(VectorSpool.class);
+
+    private static final String SEGMENT_PREFIX = "segment_";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String SEGMENT_FORMAT = SEGMENT_PREFIX + "%010d" + SEGMENT_SUFFIX;
+
+    private final Path spoolDir;
+    private final long maxSegmentBytes;
+    private final BlockingQueue<Path> sealedSegments = new LinkedBlockingQueue<>();
+
+    private long nextSegmentNr;
+    private final long firstSegmentNrOfRun;
+    private Segment currentSegment;
+
+    /**
+     * Interface for processing the entries of a segment
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        /**
+         * Process 1 spooled batch of vectors
+         * @param ids the record ids
+         * @param vectors the vectors of the records
+         * @throws InterruptedException when the thread is interrupted while processing the vectors
+         */
+        void accept(List<String> ids, List<List<Float>> vectors) throws InterruptedException;
+    }
+
+    /**
+     * Create a new spool. Segments already present in the directory are queued for reading.
+     * @param spoolDir directory where segments are written, will be created if it doesn't exist
+     * @param maxSegmentBytes maximum (approximate) size of a segment, a segment may be larger than this by 1 entry
+     * @throws IOException when the directory can't be created or read
+     */
+    public VectorSpool(Path spoolDir, long maxSegmentBytes) throws IOException {
+        this.spoolDir = Files.createDirectories(spoolDir);
+        this.maxSegmentBytes = maxSegmentBytes;
+
+        List<Path> existing;
+        try (Stream<Path> files = Files.list(spoolDir)) {
+            existing = files.filter(VectorSpool::isSegment).sorted().toList();
+        }
+        for (Path segment : existing) {
+            if (Files.size(segment) == 0) {
+                Files.delete(segment);
+            } else {
+                sealedSegments.add(segment);
+            }
+            nextSegmentNr = Math.max(nextSegmentNr, getSegmentNr(segment) + 1);
+        }
+        this.firstSegmentNrOfRun = nextSegmentNr;
+        if (!sealedSegments.isEmpty()) {
+            LOG.warn("Found {} segments from a previous run in {}, these will be written first", sealedSegments.size(), spoolDir);
+        }
+    }
+
+    private static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long getSegmentNr(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Append a batch of vectors to the current segment. The data is handed to the operating system before this method
+     * returns, so it survives a crash of the application (but not necessarily of the machine).
+     * @param ids the record ids
+     * @param vectors the vectors of the records
+     * @throws UncheckedIOException when there's a problem writing the segment
+     */
+    public synchronized void append(List<String> ids, List<List<Float>> vectors) {
+        try {
+            if (currentSegment == null) {
+                currentSegment = new Segment(spoolDir.resolve(String.format(SEGMENT_FORMAT, nextSegmentNr++)));
+            }
+            currentSegment.writeEntry(encode(ids, vectors));
+            if (currentSegment.size() >= maxSegmentBytes) {
+                seal();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error writing to spool " + spoolDir, e);
+        }
+    }
+
+    /**
+     * Seal the current segment (if any), so it can be read. New vectors will be written to a new segment
+     * @throws UncheckedIOException when there's a problem closing the segment
+     */
+    public synchronized void seal() {
+        if (currentSegment == null) {
+            return;
+        }
+        try {
+            currentSegment.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error sealing spool segment " + currentSegment.file, e);
+        }
+        sealedSegments.add(currentSegment.file);
+        LOG.debug("Sealed spool segment {}", currentSegment.file);
+        currentSegment = null;
+    }
+
+    /**
+     * Wait for the next sealed segment
+     * @param timeoutMs maximum time to wait in ms
+     * @return the next sealed segment, or null if there was none within the timeout
+     * @throws InterruptedException when the thread is interrupted while waiting
+     */
+    public Path takeSealed(long timeoutMs) throws InterruptedException {
+        return sealedSegments.poll(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the number of sealed segments waiting to be read
+     */
+    public int getNrSealed() {
+        return sealedSegments.size();
+    }
+
+    /**
+     * @param segment a spool segment
+     * @return true if the segment was left over from a previous run
+     */
+    public boolean isFromPreviousRun(Path segment) {
+        return getSegmentNr(segment) < firstSegmentNrOfRun;
+    }
+
+    /**
+     * Remove all segments left over from a previous run that were not read yet, e.g. because all vectors are generated
+     * again anyway
+     * @return the number of removed segments
+     * @throws IOException when a file can't be deleted
+     */
+    public int discardPreviousRun() throws IOException {
+        List<Path> discarded = new ArrayList<>();
+        sealedSegments.removeIf(segment -> isFromPreviousRun(segment) && discarded.add(segment));
+        for (Path segment : discarded) {
+            delete(segment);
+        }
+        return discarded.size();
+    }
+
+    /**
+     * Remove a segment after all its vectors are processed
+     * @param segment the segment to remove
+     * @throws IOException when the file can't be deleted
+     */
+    public void delete(Path segment) throws IOException {
+        Files.delete(segment);
+        LOG.debug("Deleted spool segment {}", segment);
+    }
+
+    @Override
+    public synchronized void close() {
+        seal();
+    }
+
+    /**
+     * Read all valid entries of a segment
+     * @param segment the segment to read
+     * @param consumer the consumer that processes each entry
+     * @return the number of entries read
+     * @throws IOException when there's a problem reading the file
+     * @throws InterruptedException when the consumer was interrupted
+     */
+    public static long readSegment(Path segment, EntryConsumer consumer) throws IOException, InterruptedException {
+        long nrEntries = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+            while (true) {
+                byte[] data;
+                long checksum;
+                boolean entryStarted = false;
+                try {
+                    int length = in.readInt();
+                    entryStarted = true;
+                    if (length < 0) {
+                        LOG.warn("Invalid entry length {} in spool segment {}, skipping rest of the segment", length, segment);
+                        break;
+                    }
+                    data = in.readNBytes(length);
+                    if (data.length < length) {
+                        throw new EOFException();
+                    }
+                    checksum = in.readInt() & 0xFFFFFFFFL;
+                } catch (EOFException e) {
+                    if (entryStarted) {
+                        LOG.warn("Incomplete entry at the end of spool segment {} after {} entries", segment, nrEntries);
+                    }
+                    break;
+                }
+                if (checksum != crc(data)) {
+                    LOG.warn("Checksum error in spool segment {} after {} entries, skipping rest of the segment", segment, nrEntries);
+                    break;
+                }
+                decode(data, consumer);
+                nrEntries++;
+            }
+        }
+        return nrEntries;
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static byte[] encode(List<String> ids, List<List<Float>> vectors) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                byte[] id = ids.get(i).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(id.length);
+                out.write(id);
+                List<Float> vector = vectors.get(i);
+                out.writeInt(vector.size());
+                for (Float f : vector) {
+                    out.writeFloat(f);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void decode(byte[] data, EntryConsumer consumer) throws IOException, InterruptedException {
+        List<String> ids;
+        List<List<Float>> vectors;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int nrRows = in.readInt();
+            ids = new ArrayList<>(nrRows);
+            vectors = new ArrayList<>(nrRows);
+            for (int i = 0; i < nrRows; i++) {
+                ids.add(new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8));
+                int dimension = in.readInt();
+                List<Float> vector = new ArrayList<>(dimension);
+                for (int j = 0; j < dimension; j++) {
+                    vector.add(in.readFloat());
+                }
+                vectors.add(vector);
+            }
+        }
+        consumer.accept(ids, vectors);
+    }
+
+    /**
+     * The segment that is currently written to
+     */
+    private static final class Segment {
+        private final Path file;
+        private final FileOutputStream fileOut;
+        private final CountingOutputStream counter;
+        private final DataOutputStream out;
+
+        private Segment(Path file) throws IOException {
+            this.file = file;
+            this.fileOut = new FileOutputStream(file.toFile());
+            this.counter = new CountingOutputStream(new BufferedOutputStream(fileOut));
+            this.out = new DataOutputStream(counter);
+        }
+
+        private void writeEntry(byte[] data) throws IOException {
+            out.writeInt(data.length);
+            out.write(data);
+            out.writeInt((int) crc(data));
+            out.flush();
+        }
+
+        private long size() {
+            return counter.getCount();
+        }
+
+        private void close() throws IOException {
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+        }
+    }
+
+}
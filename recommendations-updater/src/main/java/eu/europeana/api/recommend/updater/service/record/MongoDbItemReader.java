@@ -53,6 +53,7 @@ public class MongoDbItemReader extends AbstractItemCountingItemStreamItemReader<
     private Date updateStart; // to check if records were modified during the update
     private Boolean isFullUpdate;
     private Date fromDate;
+    private Map<String, List<String>> missingIds; // only set when reconciling, the records to read per set
 
     // we create 1 cursor per set so we can download multiple sets at a time
     private final Queue<String> setsToDo = new ConcurrentLinkedQueue<>();
@@ -94,10 +95,16 @@ public class MongoDbItemReader extends AbstractItemCountingItemStreamItemReader<
             List<String> list = (List<String>) sets;
             setsToDo.addAll(list);
         }
+        Object missing = stepExecution.getJobExecution().getExecutionContext().get(JobData.MISSING_IDS_KEY);
+        if (missing instanceof Map) {
+            missingIds = (Map<String, List<String>>) missing;
+        }
 
         // get total record count from Mongo
         long totalItemsToRead = 0;
-        if (this.isFullUpdate) {
+        if (this.missingIds != null) {
+            totalItemsToRead = missingIds.values().stream().mapToLong(List::size).sum();
+        } else if (this.isFullUpdate) {
             totalItemsToRead = mongoService.countAll();
         } else if (this.fromDate != null) {
             totalItemsToRead = mongoService.countAllUpdatedAfter(this.fromDate);
@@ -152,12 +159,20 @@ public class MongoDbItemReader extends AbstractItemCountingItemStreamItemReader<
         // fetch records for selected setCursor
         long start = System.currentTimeMillis();
         List<Record> result;
-        if (isFullUpdate || this.fromDate == null) {
+        boolean setDone;
+        if (missingIds != null) {
+            List<String> ids = missingIds.getOrDefault(setToProcess.setId, Collections.emptyList());
+            int end = (int) Math.min(ids.size(), setToProcess.idsRequested + settings.getBatchSize());
+            result = mongoService.getRecordsByAbout(ids.subList((int) setToProcess.idsRequested, end));
+            setToProcess.idsRequested = end;
+            setDone = end >= ids.size();
+        } else if (isFullUpdate || this.fromDate == null) {
             result = mongoService.getAllRecordsPaged(setToProcess.regex, setToProcess.lastRetrieved, settings.getBatchSize());
+            setDone = result.isEmpty() || result.size() < settings.getBatchSize();
         } else {
             result = mongoService.getAllRecordsPagedUpdatedAfter(setToProcess.regex, fromDate, setToProcess.lastRetrieved, settings.getBatchSize());
+            setDone = result.isEmpty() || result.size() < settings.getBatchSize();
         }
-        boolean setDone = result.isEmpty() || result.size() < settings.getBatchSize();
 
         if (LOG.isTraceEnabled()) {
             LOG.trace("1. Retrieved {} items from set {} in {} ms", result.size(), setToProcess.setId, System.currentTimeMillis() - start);
@@ -173,11 +188,11 @@ public class MongoDbItemReader extends AbstractItemCountingItemStreamItemReader<
             // more work to do, so keep set in progress (and update stats)
             setToProcess.itemsRead = setToProcess.itemsRead + result.size();
             setToProcess.lastRetrieved = result.get(result.size() - 1).getMongoId();
-            if (!setDone) {
-                setsInProgress.add(setToProcess); // put back in queue, still work to be done
-            }
             progressLogger.logProgress(result.size());
         }
+        if (!setDone) {
+            setsInProgress.add(setToProcess); // put back in queue, still work to be done
+        }
 
         if (setDone) {
             // work is done for this set, setInProgress doesn't go back in queue
@@ -285,6 +300,7 @@ public class MongoDbItemReader extends AbstractItemCountingItemStreamItemReader<
         private final Date started;
         private String lastRetrieved;
         private long itemsRead;
+        private long idsRequested; // only used when reading specific records
 
         private SetInProgress(String setId) {
             this.setId = setId;
@@ -9,8 +9,10 @@ import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Service to read data from Mongo. The quickest way to retrieve records per set is to use a 'starts-with' regex on the
@@ -66,6 +68,53 @@ public class MongoService {
         return getRecords(lastRetrieved, (int) pageSize, criteria);
     }
 
+    /**
+     * Retrieve records by their id, for example to update records that are missing in Milvus
+     * @param abouts the record ids to retrieve
+     * @return list of retrieved records that are not ContentTier 0
+     */
+    public List<Record> getRecordsByAbout(Collection<String> abouts) {
+        Criteria criteria = Criteria.where(FIELD_ABOUT).in(abouts)
+                .and(FIELD_QUALITY_ANNOTATIONS).not().regex(VALUE_REGEX_CONTENT_TIER0);
+        Query query = new Query(criteria);
+        query.with(Sort.by(Sort.Direction.ASC, FIELD_ID));
+        return mongoTemplate.find(query, Record.class);
+    }
+
+    /**
+     * Stream the ids of all records in a set that are not ContentTier 0, ordered by id. Only the about field is
+     * retrieved so this is a lot faster than loading the records. Make sure to close the stream after use.
+     * @param aboutRegex regex filtering per set, should be in the form of "^/<setId>/"
+     * @return stream of record ids in ascending order
+     */
+    public Stream<String> streamAboutSorted(String aboutRegex) {
+        Query query = new Query(Criteria.where(FIELD_ABOUT).regex(aboutRegex)
+                .and(FIELD_QUALITY_ANNOTATIONS).not().regex(VALUE_REGEX_CONTENT_TIER0));
+        query.fields().include(FIELD_ABOUT);
+        query.with(Sort.by(Sort.Direction.ASC, FIELD_ABOUT));
+        return mongoTemplate.stream(query, Record.class).stream().map(Record::getAbout);
+    }
+
+    /**
+     * Stream the ids of ContentTier 0 records, for example to remove records that were downgraded from Milvus. Make
+     * sure to close the stream after use.
+     * @param aboutRegex optional, regex filtering per set, should be in the form of "^/<setId>/"
+     * @param updatedAfter optional, filters records on lastModified date
+     * @return stream of record ids
+     */
+    public Stream<String> streamAboutContentTier0(String aboutRegex, Date updatedAfter) {
+        Criteria criteria = Criteria.where(FIELD_QUALITY_ANNOTATIONS).regex(VALUE_REGEX_CONTENT_TIER0);
+        if (aboutRegex != null) {
+            criteria = criteria.and(FIELD_ABOUT).regex(aboutRegex);
+        }
+        if (updatedAfter != null) {
+            criteria = criteria.and(FIELD_TIMESTAMP_UPDATED).gt(updatedAfter);
+        }
+        Query query = new Query(criteria);
+        query.fields().include(FIELD_ABOUT);
+        return mongoTemplate.stream(query, Record.class).stream().map(Record::getAbout);
+    }
+
     private List<Record> getRecords(String lastRetrieved, int pageSize, Criteria criteria) {
         if (lastRetrieved != null) {
             criteria = criteria.and(FIELD_ID).gt(new ObjectId(lastRetrieved));
@@ -0,0 +1,298 @@
+package eu.europeana.api.recommend.updater.service.vectorfile;
+
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.config.JobCmdLineStarter;
+import eu.europeana.api.recommend.updater.config.UpdaterSettings;
+import eu.europeana.api.recommend.updater.service.ShardManifest;
+import eu.europeana.api.recommend.updater.util.ProgressLogger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spring Batch reader for loading a binary vector file (written by VectorFileWriter) into Milvus. The file to load is
+ * provided with the --load command-line option; either the base name of the vector file (with or without .fvecs
+ * extension) or the manifest of a sharded output, in which case the shards are loaded in the order of the manifest.
+ *
+ * Reading is done by the chunk threads in parallel: a thread only claims the next range of rows while holding a lock,
+ * the ids and vectors are read afterwards. Each range contains at most milvus.insert.batchRows rows, so vectors are
+ * inserted in large batches.
+ *
+ * As all vectors have the same size, a byte offset in the vectors file corresponds to a row. Loading can start at a
+ * byte offset (--loadOffset), and when a load is interrupted the offset to resume from is logged. When there are
+ * shards, the offset counts from the start of the first shard as if all vectors files were concatenated.
+ */
+@Service
+@SuppressWarnings("fb-contrib:USFW_UNSYNCHRONIZED_SINGLETON_FIELD_WRITES") // due to the way Spring-Batch works there
+// is no need to synchronize changing instance variables in beforeStep, open or close methods
+public class VectorFileItemReader implements ItemStreamReader<List<RecordVectors>>, StepExecutionListener,
+        ItemWriteListener<List<RecordVectors>> {
+
+    private static final Logger LOG = LogManager.getLogger(VectorFileItemReader.class);
+
+    private static final long MS_PER_SEC = 1000;
+
+    private final UpdaterSettings settings;
+
+    private Path loadFile;
+    private long startOffset;
+    private final List<VectorFileReader> files = new ArrayList<>();
+    private long[] fileStartRows;
+    private long totalRows;
+    private int vectorBytes;
+    private long startRow;
+    private long nextRow; // guarded by this
+
+    // start rows of ranges that were read but are not written yet, used to determine the offset to resume from
+    private final NavigableSet<Long> rangesInProgress = new ConcurrentSkipListSet<>();
+    private final Map<List<RecordVectors>, Long> rangeStarts = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final AtomicLong nrLoaded = new AtomicLong();
+    private long startTime;
+    private volatile long lastWriteTime;
+    private ProgressLogger progressLogger;
+
+    /**
+     * Create a new vector file reader
+     * @param settings inject application settings bean
+     */
+    public VectorFileItemReader(UpdaterSettings settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        this.loadFile = Path.of(JobCmdLineStarter.getLoadFile(stepExecution.getJobParameters()));
+        this.startOffset = JobCmdLineStarter.getLoadOffset(stepExecution.getJobParameters());
+    }
+
+    /**
+     * Open all vector files and determine the row to start at
+     * @param executionContext not used
+     * @throws ItemStreamException when there's no Milvus to load into, a problem opening the files or the offset is invalid
+     */
+    @Override
+    public void open(ExecutionContext executionContext) {
+        if (!settings.isVectorStoreDefined() || !UpdaterSettings.isValueDefined(settings.getMilvusCollection())) {
+            throw new ItemStreamException("No Milvus collection configured to load vectors into");
+        }
+        List<Path> baseFiles = getBaseFiles(loadFile);
+        fileStartRows = new long[baseFiles.size()];
+        totalRows = 0;
+        vectorBytes = 0;
+        for (Path baseFile : baseFiles) {
+            VectorFileReader file = openFile(baseFile);
+            if (file.size() > 0 && vectorBytes > 0 && file.getVectorBytes() != vectorBytes) {
+                files.add(file);
+                close();
+                throw new ItemStreamException("Vector file " + baseFile + " has dimension " + file.getDimension()
+                        + ", which is different from the other files");
+            } else if (file.size() > 0) {
+                vectorBytes = file.getVectorBytes();
+            }
+            fileStartRows[files.size()] = totalRows;
+            files.add(file);
+            totalRows = totalRows + file.size();
+        }
+
+        if (vectorBytes > 0 && startOffset % vectorBytes != 0) {
+            LOG.warn("Offset {} is not the start of a vector, starting at the vector containing that byte", startOffset);
+        }
+        startRow = (vectorBytes == 0 ? 0 : startOffset / vectorBytes);
+        if (startRow > totalRows || (vectorBytes == 0 && startOffset > 0)) {
+            throw new ItemStreamException("Offset " + startOffset + " is beyond the end of the vector file(s)");
+        }
+        synchronized (this) {
+            nextRow = startRow;
+        }
+        rangesInProgress.clear();
+        rangeStarts.clear();
+        nrLoaded.set(0);
+        LOG.info("Loading {} of {} vectors from {} file(s), starting at offset {}", totalRows - startRow, totalRows,
+                files.size(), startRow * vectorBytes);
+        this.progressLogger = new ProgressLogger(totalRows - startRow, settings.getLogProgressInterval());
+        this.startTime = System.currentTimeMillis();
+        this.lastWriteTime = startTime;
+    }
+
+    /**
+     * @return the base names of the vector files to load
+     */
+    private static List<Path> getBaseFiles(Path loadFile) {
+        String name = loadFile.toString();
+        if (name.endsWith(ShardManifest.MANIFEST_SUFFIX)) {
+            Path baseFile = Path.of(name.substring(0, name.length() - ShardManifest.MANIFEST_SUFFIX.length()));
+            List<Path> result = new ArrayList<>();
+            try {
+                for (ShardManifest.Shard shard : ShardManifest.read(baseFile).getShards()) {
+                    result.add(shard.resolve(baseFile));
+                }
+            } catch (IOException e) {
+                throw new ItemStreamException("Error reading manifest " + loadFile, e);
+            }
+            return result;
+        }
+        for (String extension : List.of(VectorFileWriter.VECTORS_EXTENSION, VectorFileWriter.INDEX_EXTENSION)) {
+            if (name.endsWith(extension)) {
+                return List.of(Path.of(name.substring(0, name.length() - extension.length())));
+            }
+        }
+        return List.of(loadFile);
+    }
+
+    private VectorFileReader openFile(Path baseFile) {
+        try {
+            return new VectorFileReader(baseFile);
+        } catch (IOException e) {
+            close();
+            throw new ItemStreamException("Error opening vector file " + baseFile, e);
+        }
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) {
+        // we don't use Spring Batch restarts, loading is resumed with the --loadOffset option
+    }
+
+    /**
+     * Read the next range of vectors. Multiple threads can read at the same time.
+     * @return list of at most milvus.insert.batchRows vectors from the same file, or null if all vectors are read
+     * @throws IOException when there's a problem reading the index file
+     */
+    @Override
+    public List<RecordVectors> read() throws IOException {
+        long start;
+        long end;
+        int fileNr;
+        synchronized (this) {
+            if (nextRow >= totalRows) {
+                return null;
+            }
+            start = nextRow;
+            fileNr = getFileNr(start);
+            end = Math.min(start + settings.getMilvusInsertBatchRows(), fileStartRows[fileNr] + files.get(fileNr).size());
+            nextRow = end;
+            rangesInProgress.add(start);
+        }
+
+        VectorFileReader file = files.get(fileNr);
+        int first = (int) (start - fileStartRows[fileNr]);
+        int size = (int) (end - start);
+        List<RecordVectors> result = new ArrayList<>(size);
+        float[] vector = new float[file.getDimension()];
+        for (int i = first; i < first + size; i++) {
+            file.getVector(i, vector);
+            Float[] embedding = new Float[vector.length];
+            for (int j = 0; j < vector.length; j++) {
+                embedding[j] = vector[j];
+            }
+            result.add(new RecordVectors(file.getId(i), embedding));
+        }
+        rangeStarts.put(result, start);
+        return result;
+    }
+
+    /**
+     * @return the number of the file containing the provided row (skipping empty files)
+     */
+    private int getFileNr(long row) {
+        int result = 0;
+        while (row >= fileStartRows[result] + files.get(result).size()) {
+            result++;
+        }
+        return result;
+    }
+
+    @Override
+    public void beforeWrite(List<? extends List<RecordVectors>> items) {
+        // nothing to do
+    }
+
+    /**
+     * Keep track of which ranges are written
+     * @param items the lists of vectors that were written
+     */
+    @Override
+    public void afterWrite(List<? extends List<RecordVectors>> items) {
+        for (List<RecordVectors> item : items) {
+            Long start = rangeStarts.remove(item);
+            if (start != null) {
+                rangesInProgress.remove(start);
+            }
+            nrLoaded.addAndGet(item.size());
+            progressLogger.logProgress(item.size());
+        }
+        lastWriteTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public void onWriteError(Exception exception, List<? extends List<RecordVectors>> items) {
+        // ranges that were not written remain in progress, so they are loaded again when resuming
+    }
+
+    /**
+     * @return the byte offset from which loading can be resumed without skipping vectors. This is the start of the
+     * first range that was not written (or not read completely). When using async inserts, written vectors may still
+     * be in the insert buffer, so we go back enough rows to include those as well.
+     */
+    public long getResumeOffset() {
+        long row;
+        synchronized (this) {
+            row = rangesInProgress.isEmpty() ? nextRow : rangesInProgress.first();
+        }
+        if (settings.useMilvusInsertAsync()) {
+            long buffered = (long) (settings.getMilvusInsertMaxInFlight() + 1) * settings.getMilvusInsertBatchRows();
+            row = Math.max(startRow, row - buffered);
+        }
+        return row * vectorBytes;
+    }
+
+    /**
+     * Report loading speed and, if the step didn't complete, the offset to resume from
+     * @param stepExecution the step that finished
+     * @return the exit status of the step
+     */
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        long duration = Math.max(1, lastWriteTime - startTime);
+        LOG.info("Loaded {} vectors in {} ({} rows/sec)", nrLoaded.get(), ProgressLogger.getDurationText(duration),
+                nrLoaded.get() * MS_PER_SEC / duration);
+        if (stepExecution.getStatus() != BatchStatus.COMPLETED || !stepExecution.getFailureExceptions().isEmpty()
+                || ExitStatus.FAILED.getExitCode().equals(stepExecution.getExitStatus().getExitCode())) {
+            LOG.warn("Loading did not complete. To resume, start again with the same options (except --{}) and --{}={}",
+                    JobCmdLineStarter.PARAM_DELETE_DB, JobCmdLineStarter.PARAM_LOAD_OFFSET, getResumeOffset());
+        }
+        return stepExecution.getExitStatus();
+    }
+
+    @Override
+    public void close() {
+        for (VectorFileReader file : files) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing vector file", e);
+            }
+        }
+        files.clear();
+    }
+
+}
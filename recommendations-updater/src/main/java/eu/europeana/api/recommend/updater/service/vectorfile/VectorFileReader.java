@@ -0,0 +1,229 @@
+package eu.europeana.api.recommend.updater.service.vectorfile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a binary vector file created by VectorFileWriter. The vectors file is memory-mapped, so vectors are read
+ * directly from the operating system's page cache without copying the whole file into the heap. Only the positions
+ * of the ids in the index file are kept in memory; ids are read from disk when requested.
+ *
+ * Files larger than 2 GB are mapped in multiple parts, each containing a whole number of vectors. All read methods
+ * can be used by multiple threads at the same time.
+ *
+ * If the files were not closed properly (e.g. the application crashed) an incomplete last vector or index entry is
+ * ignored.
+ */
+public final class VectorFileReader implements AutoCloseable {
+
+    private static final Logger LOG = LogManager.getLogger(VectorFileReader.class);
+
+    private static final long MAX_MAPPING_BYTES = Integer.MAX_VALUE;
+    private static final int INDEX_ENTRY_HEADER_BYTES = Long.BYTES + Integer.BYTES;
+    private static final int INDEX_READ_BUFFER_BYTES = 1024 * 1024;
+
+    private final Path vectorsFile;
+    private final FileChannel vectorsChannel;
+    private final FileChannel indexChannel;
+    private final int dimension;
+    private final int vectorBytes;
+    private final long vectorsPerMapping;
+    private final ByteBuffer[] mappings;
+    private final long[] indexPositions;
+
+    /**
+     * Open a vector file
+     * @param baseFile path and name of the files without extension
+     * @throws IOException when there's a problem reading the files, or the files are not valid
+     */
+    public VectorFileReader(Path baseFile) throws IOException {
+        this.vectorsFile = VectorFileWriter.getVectorsFile(baseFile);
+        this.vectorsChannel = FileChannel.open(vectorsFile, StandardOpenOption.READ);
+        try {
+            this.indexChannel = FileChannel.open(VectorFileWriter.getIndexFile(baseFile), StandardOpenOption.READ);
+        } catch (IOException e) {
+            vectorsChannel.close();
+            throw e;
+        }
+        try {
+            this.dimension = readDimension();
+            this.vectorBytes = Integer.BYTES + Float.BYTES * dimension;
+            this.vectorsPerMapping = MAX_MAPPING_BYTES / vectorBytes;
+            long nrVectors = vectorsChannel.size() / vectorBytes;
+            if (nrVectors * vectorBytes != vectorsChannel.size()) {
+                LOG.warn("Ignoring incomplete last vector in {}", vectorsFile);
+            }
+            this.mappings = mapVectors(nrVectors);
+            this.indexPositions = readIndexPositions(nrVectors);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        LOG.info("Opened vector file {} containing {} vectors of dimension {}", vectorsFile, indexPositions.length, dimension);
+    }
+
+    private int readDimension() throws IOException {
+        if (vectorsChannel.size() < Integer.BYTES) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(vectorsChannel, buffer, 0);
+        int result = buffer.getInt(0);
+        if (result <= 0) {
+            throw new IOException("Invalid vector dimension " + result + " in " + vectorsFile);
+        }
+        return result;
+    }
+
+    private ByteBuffer[] mapVectors(long nrVectors) throws IOException {
+        if (nrVectors == 0) {
+            return new ByteBuffer[0];
+        }
+        int nrMappings = (int) ((nrVectors + vectorsPerMapping - 1) / vectorsPerMapping);
+        ByteBuffer[] result = new ByteBuffer[nrMappings];
+        for (int i = 0; i < nrMappings; i++) {
+            long firstVector = i * vectorsPerMapping;
+            long size = Math.min(vectorsPerMapping, nrVectors - firstVector) * vectorBytes;
+            result[i] = vectorsChannel.map(FileChannel.MapMode.READ_ONLY, firstVector * vectorBytes, size)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return result;
+    }
+
+    /**
+     * Scan the index file once, checking that the vector offsets are as expected, and remember where each entry starts
+     */
+    private long[] readIndexPositions(long nrVectors) throws IOException {
+        if (nrVectors > Integer.MAX_VALUE) {
+            throw new IOException("Vector file " + vectorsFile + " contains too many vectors");
+        }
+        long[] result = new long[(int) nrVectors];
+        int nrEntries = 0;
+        long indexSize = indexChannel.size();
+        long position = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(INDEX_READ_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.limit(0);
+        long bufferStart = 0;
+        while (nrEntries < nrVectors && position + INDEX_ENTRY_HEADER_BYTES <= indexSize) {
+            int offsetInBuffer = (int) (position - bufferStart);
+            if (offsetInBuffer + INDEX_ENTRY_HEADER_BYTES > buffer.limit()) {
+                bufferStart = position;
+                offsetInBuffer = 0;
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), indexSize - position));
+                readFully(indexChannel, buffer, position);
+            }
+            long vectorOffset = buffer.getLong(offsetInBuffer);
+            int idLength = buffer.getInt(offsetInBuffer + Long.BYTES);
+            if (vectorOffset != (long) nrEntries * vectorBytes || idLength < 0) {
+                throw new IOException("Index entry " + nrEntries + " doesn't match vector file " + vectorsFile);
+            }
+            if (position + INDEX_ENTRY_HEADER_BYTES + idLength > indexSize) {
+                break;
+            }
+            result[nrEntries++] = position;
+            position = position + INDEX_ENTRY_HEADER_BYTES + idLength;
+        }
+        if (nrEntries < nrVectors) {
+            LOG.warn("Index of {} contains only {} of {} vectors, ignoring the rest", vectorsFile, nrEntries, nrVectors);
+            return Arrays.copyOf(result, nrEntries);
+        }
+        return result;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, pos);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            pos = pos + read;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * @return the number of vectors in the file
+     */
+    public int size() {
+        return indexPositions.length;
+    }
+
+    /**
+     * @return the dimension of the vectors, 0 if the file is empty
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @return the size in bytes of 1 vector in the vectors file
+     */
+    public int getVectorBytes() {
+        return vectorBytes;
+    }
+
+    /**
+     * Read a vector
+     * @param nr the number of the vector (starting with 0)
+     * @param destination array of at least the vector dimension length to copy the values to
+     */
+    public void getVector(int nr, float[] destination) {
+        checkNr(nr);
+        ByteBuffer mapping = mappings[(int) (nr / vectorsPerMapping)];
+        int start = (int) ((nr % vectorsPerMapping) * vectorBytes) + Integer.BYTES;
+        for (int i = 0; i < dimension; i++) {
+            destination[i] = mapping.getFloat(start + i * Float.BYTES);
+        }
+    }
+
+    /**
+     * Read a vector
+     * @param nr the number of the vector (starting with 0)
+     * @return the vector values
+     */
+    public float[] getVector(int nr) {
+        float[] result = new float[dimension];
+        getVector(nr, result);
+        return result;
+    }
+
+    /**
+     * Read the record id of a vector
+     * @param nr the number of the vector (starting with 0)
+     * @return the record id
+     * @throws IOException when there's a problem reading the index file
+     */
+    public String getId(int nr) throws IOException {
+        checkNr(nr);
+        ByteBuffer header = ByteBuffer.allocate(INDEX_ENTRY_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(indexChannel, header, indexPositions[nr]);
+        ByteBuffer id = ByteBuffer.allocate(header.getInt(Long.BYTES));
+        readFully(indexChannel, id, indexPositions[nr] + INDEX_ENTRY_HEADER_BYTES);
+        return new String(id.array(), StandardCharsets.UTF_8);
+    }
+
+    private void checkNr(int nr) {
+        if (nr < 0 || nr >= indexPositions.length) {
+            throw new IndexOutOfBoundsException("Vector " + nr + " doesn't exist, file contains " + indexPositions.length + " vectors");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (FileChannel v = vectorsChannel; FileChannel i = indexChannel) {
+            LOG.debug("Closing vector file {}", vectorsFile);
+        }
+    }
+
+}
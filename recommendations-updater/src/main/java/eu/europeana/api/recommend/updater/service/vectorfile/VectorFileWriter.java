@@ -0,0 +1,171 @@
+package eu.europeana.api.recommend.updater.service.vectorfile;
+
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes RecordVectors to a binary vector file, which is a lot smaller and faster to write (and read) than csv.
+ * For testing purposes, or to load vectors into Milvus later.
+ *
+ * The output consists of 2 files:
+ * <ul>
+ * <li>a vectors file in fvecs format; for each vector the dimension (int32) followed by the vector values (float32).
+ * All values are little-endian. As all vectors have the same dimension, vector n starts at byte n * (4 + 4 * dimension)
+ * </li>
+ * <li>an index file; for each vector the byte offset of the vector in the vectors file (int64), the length of the record
+ * id (int32) and the record id (UTF-8). Also little-endian</li>
+ * </ul>
+ * Vectors and ids are written in the same order. Use VectorFileReader to read the files.
+ */
+public class VectorFileWriter implements ItemStreamWriter<List<RecordVectors>> {
+
+    public static final String VECTORS_EXTENSION = ".fvecs";
+    public static final String INDEX_EXTENSION = ".idx";
+
+    private static final Logger LOG = LogManager.getLogger(VectorFileWriter.class);
+
+    private static final int INDEX_ENTRY_HEADER_BYTES = Long.BYTES + Integer.BYTES;
+
+    private final Path vectorsFile;
+    private final Path indexFile;
+
+    private FileChannel vectorsChannel;
+    private FileChannel indexChannel;
+    private long vectorsPosition;
+    private long nrVectors;
+
+    /**
+     * Create a new writer
+     * @param baseFile path and name of the files to write without extension, existing files are overwritten
+     */
+    public VectorFileWriter(Path baseFile) {
+        this.vectorsFile = getVectorsFile(baseFile);
+        this.indexFile = getIndexFile(baseFile);
+    }
+
+    /**
+     * @param baseFile path and name of the files without extension
+     * @return the vectors file
+     */
+    public static Path getVectorsFile(Path baseFile) {
+        return Path.of(baseFile.toString() + VECTORS_EXTENSION);
+    }
+
+    /**
+     * @param baseFile path and name of the files without extension
+     * @return the index file
+     */
+    public static Path getIndexFile(Path baseFile) {
+        return Path.of(baseFile.toString() + INDEX_EXTENSION);
+    }
+
+    @Override
+    public synchronized void open(ExecutionContext executionContext) {
+        if (vectorsChannel != null) {
+            return;
+        }
+        try {
+            vectorsChannel = FileChannel.open(vectorsFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new ItemStreamException("Error opening vector file " + vectorsFile, e);
+        }
+        vectorsPosition = 0;
+        nrVectors = 0;
+        LOG.info("Writing vectors to {} and {}", vectorsFile, indexFile);
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) {
+        // nothing to save, restarting a job will overwrite the files
+    }
+
+    /**
+     * Append the vectors of all provided lists. As chunk threads share 1 writer, this is synchronized so the vectors and
+     * index stay in the same order
+     * @param lists lists of RecordVectors
+     * @throws IOException when there's a problem writing to the files
+     */
+    @Override
+    public synchronized void write(List<? extends List<RecordVectors>> lists) throws IOException {
+        if (vectorsChannel == null) {
+            throw new IllegalStateException("Vector file writer is not open");
+        }
+        int vectorBytes = 0;
+        int indexBytes = 0;
+        for (List<RecordVectors> list : lists) {
+            for (RecordVectors recordVectors : list) {
+                vectorBytes = vectorBytes + Integer.BYTES + Float.BYTES * recordVectors.getEmbedding().length;
+                indexBytes = indexBytes + INDEX_ENTRY_HEADER_BYTES + recordVectors.getId().length() * 3; // max UTF-8 size
+            }
+        }
+        ByteBuffer vectors = ByteBuffer.allocate(vectorBytes).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer index = ByteBuffer.allocate(indexBytes).order(ByteOrder.LITTLE_ENDIAN);
+        long position = vectorsPosition;
+        long count = 0;
+        for (List<RecordVectors> list : lists) {
+            for (RecordVectors recordVectors : list) {
+                byte[] id = recordVectors.getId().getBytes(StandardCharsets.UTF_8);
+                index.putLong(position + vectors.position()).putInt(id.length).put(id);
+                Float[] embedding = recordVectors.getEmbedding();
+                vectors.putInt(embedding.length);
+                for (Float f : embedding) {
+                    vectors.putFloat(f);
+                }
+                count++;
+            }
+        }
+        vectors.flip();
+        index.flip();
+        writeFully(vectorsChannel, vectors);
+        writeFully(indexChannel, index);
+        vectorsPosition = position + vectors.limit();
+        nrVectors = nrVectors + count;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return the number of vectors written so far
+     */
+    public synchronized long getNrVectors() {
+        return nrVectors;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (vectorsChannel == null) {
+            return;
+        }
+        try (FileChannel v = vectorsChannel; FileChannel i = indexChannel) {
+            v.force(false);
+            i.force(false);
+            LOG.info("Wrote {} vectors ({} bytes) to {}", nrVectors, vectorsPosition, vectorsFile);
+        } catch (IOException e) {
+            throw new ItemStreamException("Error closing vector file " + vectorsFile, e);
+        } finally {
+            vectorsChannel = null;
+            indexChannel = null;
+        }
+    }
+
+}
@@ -0,0 +1,287 @@
+package eu.europeana.api.recommend.updater.service.vectorstore;
+
+import eu.europeana.api.recommend.common.MilvusConstants;
+import io.milvus.param.MetricType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Vector store that keeps all data in memory, so the whole update pipeline can be tested (and load-tested) without a
+ * Milvus server. Vectors of a collection are stored in 1 contiguous float array and searches are brute-force.
+ *
+ * Unlike Milvus, a collection never contains duplicate ids; inserting an existing id replaces the old vector.
+ */
+public class InMemoryVectorStore implements VectorStore {
+
+    public static final String DEFAULT_PARTITION = "_default";
+
+    private static final Logger LOG = LogManager.getLogger(InMemoryVectorStore.class);
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final MetricType metricType;
+    private final int dimension;
+    private final Map<String, Collection> collections = new LinkedHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Create a new empty store for vectors of the default dimension, using L2 distance for searches
+     */
+    public InMemoryVectorStore() {
+        this(MilvusConstants.INDEX_METRIC_TYPE, MilvusConstants.VECTOR_DIMENSION);
+    }
+
+    /**
+     * Create a new empty store
+     * @param metricType either L2 (squared euclidean distance, lower is more similar) or IP (inner product, higher is
+     *                   more similar)
+     * @param dimension the dimension of all vectors
+     */
+    public InMemoryVectorStore(MetricType metricType, int dimension) {
+        if (metricType != MetricType.L2 && metricType != MetricType.IP) {
+            throw new IllegalArgumentException("Unsupported metric type " + metricType);
+        }
+        this.metricType = metricType;
+        this.dimension = dimension;
+    }
+
+    @Override
+    public List<String> listCollections() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(collections.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void createCollection(String collectionName, String description, boolean withIndex) {
+        lock.writeLock().lock();
+        try {
+            if (collections.containsKey(collectionName)) {
+                throw new IllegalStateException("Collection " + collectionName + " already exists");
+            }
+            collections.put(collectionName, new Collection());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void dropCollection(String collectionName) {
+        lock.writeLock().lock();
+        try {
+            collections.remove(collectionName);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> getPartitions(String collectionName) {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(getCollection(collectionName).partitions);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void createPartition(String collectionName, String partitionName) {
+        lock.writeLock().lock();
+        try {
+            if (!getCollection(collectionName).partitions.add(partitionName)) {
+                throw new IllegalStateException("Partition " + partitionName + " already exists");
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void insert(String collectionName, String partitionName, List<String> ids, List<List<Float>> vectors) {
+        upsert(collectionName, partitionName, ids, vectors);
+    }
+
+    @Override
+    public void upsert(String collectionName, String partitionName, List<String> ids, List<List<Float>> vectors) {
+        if (ids.size() != vectors.size()) {
+            throw new IllegalArgumentException("Number of ids and vectors is not the same");
+        }
+        for (List<Float> vector : vectors) {
+            if (vector.size() != dimension) {
+                throw new IllegalArgumentException("Expected vectors of dimension " + dimension + ", not " + vector.size());
+            }
+        }
+        String partition = (partitionName == null ? DEFAULT_PARTITION : partitionName);
+        lock.writeLock().lock();
+        try {
+            Collection collection = getCollection(collectionName);
+            if (!collection.partitions.contains(partition)) {
+                throw new IllegalStateException("Partition " + partition + " doesn't exist");
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                collection.put(ids.get(i), partition, vectors.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(String collectionName, String partitionName, List<String> ids) {
+        lock.writeLock().lock();
+        try {
+            Collection collection = getCollection(collectionName);
+            for (String id : ids) {
+                collection.remove(id, partitionName);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long count(String collectionName) {
+        lock.readLock().lock();
+        try {
+            return getCollection(collectionName).size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Hit> search(String collectionName, List<Float> vector, int topK) {
+        float[] query = new float[vector.size()];
+        for (int i = 0; i < query.length; i++) {
+            query[i] = vector.get(i);
+        }
+        // keep the worst result at the head of the queue, so we can easily replace it
+        Comparator<Hit> bestFirst = (metricType == MetricType.L2
+                ? Comparator.comparingDouble(Hit::getDistance)
+                : Comparator.comparingDouble(Hit::getDistance).reversed());
+        PriorityQueue<Hit> best = new PriorityQueue<>(topK + 1, bestFirst.reversed());
+
+        lock.readLock().lock();
+        try {
+            Collection collection = getCollection(collectionName);
+            for (int row = 0; row < collection.size; row++) {
+                float distance = distance(collection.vectors, row * dimension, query);
+                if (best.size() < topK) {
+                    best.add(new Hit(collection.ids[row], distance));
+                } else if (topK > 0 && bestFirst.compare(new Hit(null, distance), best.peek()) < 0) {
+                    best.poll();
+                    best.add(new Hit(collection.ids[row], distance));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Hit> result = new ArrayList<>(best);
+        result.sort(bestFirst);
+        return result;
+    }
+
+    private float distance(float[] vectors, int offset, float[] query) {
+        float result = 0;
+        if (metricType == MetricType.L2) {
+            for (int i = 0; i < dimension; i++) {
+                float diff = vectors[offset + i] - query[i];
+                result = result + diff * diff;
+            }
+        } else {
+            for (int i = 0; i < dimension; i++) {
+                result = result + vectors[offset + i] * query[i];
+            }
+        }
+        return result;
+    }
+
+    private Collection getCollection(String collectionName) {
+        Collection result = collections.get(collectionName);
+        if (result == null) {
+            throw new IllegalStateException("Collection " + collectionName + " doesn't exist");
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, Collection> entry : collections.entrySet()) {
+                LOG.info("In-memory collection {} contains {} vectors", entry.getKey(), entry.getValue().size);
+            }
+            collections.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * All data of 1 collection. Deleted rows are filled with the last row, so vectors are always contiguous
+     */
+    private final class Collection {
+        private final Set<String> partitions = new LinkedHashSet<>(List.of(DEFAULT_PARTITION));
+        private final Map<String, Integer> rowById = new HashMap<>();
+        private float[] vectors = new float[INITIAL_CAPACITY * dimension];
+        private String[] ids = new String[INITIAL_CAPACITY];
+        private String[] rowPartitions = new String[INITIAL_CAPACITY];
+        private int size;
+
+        private void put(String id, String partition, List<Float> vector) {
+            Integer row = rowById.get(id);
+            if (row == null) {
+                if (size == ids.length) {
+                    int capacity = ids.length * 2;
+                    vectors = Arrays.copyOf(vectors, capacity * dimension);
+                    ids = Arrays.copyOf(ids, capacity);
+                    rowPartitions = Arrays.copyOf(rowPartitions, capacity);
+                }
+                row = size++;
+                rowById.put(id, row);
+                ids[row] = id;
+            }
+            rowPartitions[row] = partition;
+            int offset = row * dimension;
+            for (int i = 0; i < dimension; i++) {
+                vectors[offset + i] = vector.get(i);
+            }
+        }
+
+        private void remove(String id, String partition) {
+            Integer row = rowById.get(id);
+            if (row == null || (partition != null && !partition.equals(rowPartitions[row]))) {
+                return;
+            }
+            rowById.remove(id);
+            int last = size - 1;
+            if (row != last) {
+                System.arraycopy(vectors, last * dimension, vectors, row * dimension, dimension);
+                ids[row] = ids[last];
+                rowPartitions[row] = rowPartitions[last];
+                rowById.put(ids[row], row);
+            }
+            ids[last] = null;
+            rowPartitions[last] = null;
+            size--;
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package eu.europeana.api.recommend.updater.service.vectorstore;
+
+import java.util.List;
+
+/**
+ * Basic operations on a store of record vectors, organised in collections and (optional) partitions. The production
+ * implementation is Milvus, an in-memory implementation is available for local testing.
+ *
+ * Features that only Milvus supports (e.g. bulk insert, indexes and aliases) are not part of this interface.
+ */
+public interface VectorStore extends AutoCloseable {
+
+    /**
+     * @return the names of all collections in the store
+     */
+    List<String> listCollections();
+
+    /**
+     * Create a new empty collection
+     * @param collectionName the name of the collection
+     * @param description description of the collection
+     * @param withIndex if true, an index is created as well (if the store supports that)
+     */
+    void createCollection(String collectionName, String description, boolean withIndex);
+
+    /**
+     * Remove a collection and all its data
+     * @param collectionName the name of the collection
+     */
+    void dropCollection(String collectionName);
+
+    /**
+     * @param collectionName the name of the collection
+     * @return the names of all partitions in the collection
+     */
+    List<String> getPartitions(String collectionName);
+
+    /**
+     * Create a new partition
+     * @param collectionName the name of the collection
+     * @param partitionName the name of the partition
+     */
+    void createPartition(String collectionName, String partitionName);
+
+    /**
+     * Add vectors to a collection
+     * @param collectionName the name of the collection
+     * @param partitionName optional, the partition to add the vectors to
+     * @param ids the record ids
+     * @param vectors the vectors of the records
+     */
+    void insert(String collectionName, String partitionName, List<String> ids, List<List<Float>> vectors);
+
+    /**
+     * Add vectors to a collection, replacing existing vectors with the same id
+     * @param collectionName the name of the collection
+     * @param partitionName optional, the partition to add the vectors to
+     * @param ids the record ids
+     * @param vectors the vectors of the records
+     */
+    void upsert(String collectionName, String partitionName, List<String> ids, List<List<Float>> vectors);
+
+    /**
+     * Remove vectors from a collection
+     * @param collectionName the name of the collection
+     * @param partitionName optional, the partition to remove the vectors from
+     * @param ids the ids of the records to remove
+     */
+    void delete(String collectionName, String partitionName, List<String> ids);
+
+    /**
+     * @param collectionName the name of the collection
+     * @return the number of vectors in the collection
+     */
+    long count(String collectionName);
+
+    /**
+     * Find the vectors that are most similar to the provided vector
+     * @param collectionName the name of the collection
+     * @param vector the vector to search for
+     * @param topK the maximum number of results
+     * @return list of results, most similar first
+     */
+    List<Hit> search(String collectionName, List<Float> vector, int topK);
+
+    @Override
+    void close();
+
+    /**
+     * A search result
+     */
+    final class Hit {
+        private final String id;
+        private final float distance;
+
+        public Hit(String id, float distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return distance or score of the result, depending on the metric type
+         */
+        public float getDistance() {
+            return distance;
+        }
+
+        @Override
+        public String toString() {
+            return id + " (" + distance + ")";
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package eu.europeana.api.recommend.updater.util;
+
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Compares 2 sorted streams of ids in a single pass, without loading both completely into memory
+ */
+public final class SortedDiff {
+
+    private SortedDiff() {
+        // prevent initialization
+    }
+
+    /**
+     * Merge-diff 2 iterators of ids. Both iterators must return ids in ascending (String.compareTo) order, duplicates
+     * are reported only once.
+     * @param expected the ids that should be present (e.g. in Mongo)
+     * @param actual the ids that are present (e.g. in Milvus)
+     * @param missing consumer of ids that are expected but not present
+     * @param orphaned consumer of ids that are present but not expected
+     * @return number of ids present in both
+     * @throws IllegalArgumentException when one of the iterators is not sorted
+     */
+    public static long diff(Iterator<String> expected, Iterator<String> actual, Consumer<String> missing,
+                            Consumer<String> orphaned) {
+        return diff(expected, Function.identity(), actual, missing, orphaned);
+    }
+
+    /**
+     * Merge-diff 2 iterators of ids, where the expected ids are first converted to the format of the actual ids (e.g.
+     * Mongo abouts to Milvus ids). Both iterators must return ids in ascending (String.compareTo) order after conversion,
+     * duplicates are reported only once.
+     * @param expected the ids that should be present (e.g. in Mongo)
+     * @param expectedToActual converts an expected id to the format of the actual ids
+     * @param actual the ids that are present (e.g. in Milvus)
+     * @param missing consumer of (unconverted) ids that are expected but not present
+     * @param orphaned consumer of ids that are present but not expected
+     * @return number of ids present in both
+     * @throws IllegalArgumentException when one of the iterators is not sorted
+     */
+    public static long diff(Iterator<String> expected, Function<String, String> expectedToActual, Iterator<String> actual,
+                            Consumer<String> missing, Consumer<String> orphaned) {
+        long nrMatched = 0;
+        SortedIterator exp = new SortedIterator(expected, expectedToActual, "expected");
+        SortedIterator act = new SortedIterator(actual, Function.identity(), "actual");
+        boolean hasExp = exp.next();
+        boolean hasAct = act.next();
+        while (hasExp || hasAct) {
+            int compare;
+            if (!hasExp) {
+                compare = 1;
+            } else if (!hasAct) {
+                compare = -1;
+            } else {
+                compare = exp.key.compareTo(act.key);
+            }
+
+            if (compare == 0) {
+                nrMatched++;
+                hasExp = exp.next();
+                hasAct = act.next();
+            } else if (compare < 0) {
+                missing.accept(exp.value);
+                hasExp = exp.next();
+            } else {
+                orphaned.accept(act.value);
+                hasAct = act.next();
+            }
+        }
+        return nrMatched;
+    }
+
+    /**
+     * Converts the values of the wrapped iterator to comparison keys, skips duplicate keys and checks the order
+     */
+    private static final class SortedIterator {
+        private final Iterator<String> iterator;
+        private final Function<String, String> toKey;
+        private final String name;
+        private String value;
+        private String key;
+
+        private SortedIterator(Iterator<String> iterator, Function<String, String> toKey, String name) {
+            this.iterator = iterator;
+            this.toKey = toKey;
+            this.name = name;
+        }
+
+        /**
+         * Move to the next value with a new key
+         * @return false if there are no more values
+         */
+        private boolean next() {
+            while (iterator.hasNext()) {
+                String nextValue = iterator.next();
+                String nextKey = toKey.apply(nextValue);
+                if (key == null || nextKey.compareTo(key) > 0) {
+                    value = nextValue;
+                    key = nextKey;
+                    return true;
+                }
+                if (nextKey.compareTo(key) < 0) {
+                    throw new IllegalArgumentException("Ids in " + name + " are not sorted, " + nextKey + " comes after " + key);
+                }
+            }
+            return false;
+        }
+    }
+
+}
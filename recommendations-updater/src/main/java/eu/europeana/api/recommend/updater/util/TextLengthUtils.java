@@ -0,0 +1,37 @@
+package eu.europeana.api.recommend.updater.util;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+
+/**
+ * Utility class to estimate how much text an EmbeddingRecord contains
+ */
+public final class TextLengthUtils {
+
+    private TextLengthUtils() {
+        // empty constructor to prevent initialization
+    }
+
+    /**
+     * Estimate the text length of a record, that is the total number of characters in all its field values
+     * @param embeddingRecord the record to check
+     * @return total number of characters
+     */
+    public static int estimateLength(EmbeddingRecord embeddingRecord) {
+        return length(embeddingRecord.getTitle()) + length(embeddingRecord.getDescription())
+                + length(embeddingRecord.getCreator()) + length(embeddingRecord.getTags())
+                + length(embeddingRecord.getPlaces()) + length(embeddingRecord.getTimes());
+    }
+
+    private static int length(String[] values) {
+        if (values == null) {
+            return 0;
+        }
+        int result = 0;
+        for (String value : values) {
+            if (value != null) {
+                result = result + value.length();
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,26 @@
+package eu.europeana.api.recommend.updater.config;
+
+import io.milvus.param.IndexType;
+import io.milvus.param.MetricType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MilvusIndexConfigTest {
+
+    @Test
+    public void testDefaultSearchParams() {
+        assertEquals("{\"nprobe\": 16}", MilvusIndexConfig.DEFAULT.getSearchParams());
+        assertEquals("{\"nprobe\": 16}", new MilvusIndexConfig(IndexType.IVF_PQ, MetricType.L2,
+                "{\"nlist\": 128, \"m\": 30, \"nbits\": 8}").getSearchParams());
+        assertEquals("{\"ef\": 64}", new MilvusIndexConfig(IndexType.HNSW, MetricType.L2,
+                "{\"M\": 16, \"efConstruction\": 200}", " ").getSearchParams());
+        assertEquals("{}", new MilvusIndexConfig(IndexType.FLAT, MetricType.L2, null).getSearchParams());
+    }
+
+    @Test
+    public void testConfiguredSearchParams() {
+        assertEquals("{\"ef\": 128}", new MilvusIndexConfig(IndexType.HNSW, MetricType.L2,
+                "{\"M\": 32, \"efConstruction\": 200}", "{\"ef\": 128}").getSearchParams());
+    }
+}
@@ -0,0 +1,107 @@
+package eu.europeana.api.recommend.updater.service;
+
+import eu.europeana.api.recommend.updater.config.JobData;
+import eu.europeana.api.recommend.updater.config.UpdaterSettings;
+import eu.europeana.api.recommend.updater.service.milvus.MilvusUtilsTest;
+import eu.europeana.api.recommend.updater.service.record.MongoService;
+import io.milvus.client.MilvusClient;
+import io.milvus.grpc.MutationResult;
+import io.milvus.param.R;
+import io.milvus.param.dml.DeleteParam;
+import io.milvus.param.dml.QueryParam;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class DeletionPassTest {
+
+    private static final String SET_ID = "2021672";
+
+    private static MilvusClient mockMilvus(List<String> milvusIds) {
+        MilvusClient client = mock(MilvusClient.class);
+        when(client.query(any(QueryParam.class)))
+                .thenReturn(MilvusUtilsTest.queryResults(milvusIds), MilvusUtilsTest.queryResults(List.of()));
+        when(client.delete(any(DeleteParam.class))).thenReturn(R.success(MutationResult.getDefaultInstance()));
+        return client;
+    }
+
+    private static UpdaterSettings mockSettings(boolean diffSets) {
+        UpdaterSettings settings = mock(UpdaterSettings.class);
+        when(settings.useMilvusDeletionPass()).thenReturn(true);
+        when(settings.useMilvusDeletionPassDiffSets()).thenReturn(diffSets);
+        when(settings.getMilvusUrl()).thenReturn("localhost");
+        return settings;
+    }
+
+    private static StepExecution createStepExecution(JobParametersBuilder params) {
+        StepExecution result = new StepExecution("deletionStep", new JobExecution(1L, params
+                .addString(JobData.UPDATETYPE_KEY, JobData.UPDATETYPE_VALUE_PARTIAL)
+                .toJobParameters()));
+        result.getJobExecution().getExecutionContext().put(JobData.SETS_KEY, List.of(SET_ID));
+        return result;
+    }
+
+    private static List<String> getDeleteExpressions(MilvusClient milvusClient) {
+        ArgumentCaptor<DeleteParam> deletes = ArgumentCaptor.forClass(DeleteParam.class);
+        verify(milvusClient, atLeast(0)).delete(deletes.capture());
+        return deletes.getAllValues().stream().map(DeleteParam::getExpr).toList();
+    }
+
+    @Test
+    public void testDeleteContentTier0FromDate() {
+        Date from = new Date();
+        MongoService mongoService = mock(MongoService.class);
+        when(mongoService.streamAboutContentTier0(null, from))
+                .thenAnswer(invocation -> List.of("/2021672/a", "/2021672/b").stream());
+        DeletionPass deletionPass = new DeletionPass(mockSettings(false), mongoService);
+        deletionPass.beforeStep(createStepExecution(new JobParametersBuilder().addDate(JobData.FROM_KEY, from)));
+        MilvusClient milvusClient = mockMilvus(List.of());
+
+        deletionPass.deleteFromMilvus(milvusClient, "test");
+
+        // Mongo abouts are deleted as Milvus ids (without leading slash)
+        assertEquals(List.of("about in [\"2021672/a\",\"2021672/b\"]"), getDeleteExpressions(milvusClient));
+        verify(milvusClient, never()).query(any(QueryParam.class));
+    }
+
+    @Test
+    public void testDeleteContentTier0Sets() {
+        MongoService mongoService = mock(MongoService.class);
+        when(mongoService.streamAboutContentTier0(eq("^/" + SET_ID + "/"), any()))
+                .thenAnswer(invocation -> List.of("/2021672/c").stream());
+        DeletionPass deletionPass = new DeletionPass(mockSettings(false), mongoService);
+        deletionPass.beforeStep(createStepExecution(new JobParametersBuilder()));
+        MilvusClient milvusClient = mockMilvus(List.of());
+
+        deletionPass.deleteFromMilvus(milvusClient, "test");
+
+        assertEquals(List.of("about in [\"2021672/c\"]"), getDeleteExpressions(milvusClient));
+    }
+
+    @Test
+    public void testDeleteOrphaned() {
+        MongoService mongoService = mock(MongoService.class);
+        when(mongoService.streamAboutContentTier0(any(), any())).thenAnswer(invocation -> List.<String>of().stream());
+        when(mongoService.streamAboutSorted("^/" + SET_ID + "/"))
+                .thenAnswer(invocation -> List.of("/2021672/a", "/2021672/c").stream());
+        DeletionPass deletionPass = new DeletionPass(mockSettings(true), mongoService);
+        deletionPass.beforeStep(createStepExecution(new JobParametersBuilder()));
+        MilvusClient milvusClient = mockMilvus(List.of("2021672/a", "2021672/b", "2021672/c", "2021672/d"));
+
+        deletionPass.deleteFromMilvus(milvusClient, "test");
+
+        // only entries that are in Milvus but no longer in Mongo are deleted
+        assertEquals(List.of("about in [\"2021672/b\",\"2021672/d\"]"), getDeleteExpressions(milvusClient));
+    }
+
+}
@@ -0,0 +1,104 @@
+package eu.europeana.api.recommend.updater.service;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.config.UpdaterSettings;
+import eu.europeana.api.recommend.updater.exception.EmbeddingsException;
+import eu.europeana.api.recommend.updater.service.embeddings.EmbedRecordToVectorProcessor;
+import eu.europeana.api.recommend.updater.service.milvus.MilvusWriterService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.batch.core.JobExecution;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class MultiTargetWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static List<EmbeddingRecord> createRecords(String... ids) {
+        return List.of(ids).stream()
+                .map(id -> new EmbeddingRecord(id, new String[]{"Title " + id}, null, null, null, null, null))
+                .toList();
+    }
+
+    private static EmbedRecordToVectorProcessor mockProcessor() throws Exception {
+        EmbedRecordToVectorProcessor processor = mock(EmbedRecordToVectorProcessor.class);
+        when(processor.process(any())).thenAnswer(invocation -> {
+            List<EmbeddingRecord> records = invocation.getArgument(0);
+            return records.stream().map(r -> new RecordVectors(r.getId(), new Float[]{1f})).toList();
+        });
+        return processor;
+    }
+
+    private static EmbedRecordToVectorProcessor mockFailingProcessor() throws Exception {
+        EmbedRecordToVectorProcessor processor = mock(EmbedRecordToVectorProcessor.class);
+        when(processor.process(any())).thenThrow(new EmbeddingsException("Target not available"));
+        return processor;
+    }
+
+    private MultiTargetWriter createWriter(MultiTargetWriter.Target failingTarget, MilvusWriterService defaultWriter)
+            throws Exception {
+        UpdaterSettings settings = mock(UpdaterSettings.class);
+        when(settings.getThreads()).thenReturn(1);
+        MultiTargetWriter.Target defaultTarget = new MultiTargetWriter.Target("default", mockProcessor(),
+                defaultWriter, true, null, 0, 0);
+        return new MultiTargetWriter(settings, List.of(defaultTarget, failingTarget));
+    }
+
+    @Test
+    public void testFailedIdsWrittenToFile() throws Exception {
+        Path failedFile = tempDir.resolve("Target-test-failed.txt");
+        MultiTargetWriter.Target failingTarget = new MultiTargetWriter.Target("test", mockFailingProcessor(),
+                mock(MilvusWriterService.class), false, failedFile, 0, 0);
+        MilvusWriterService defaultWriter = mock(MilvusWriterService.class);
+        MultiTargetWriter writer = createWriter(failingTarget, defaultWriter);
+
+        writer.write(List.of(createRecords("1/a", "1/b"), createRecords("1/c")));
+        writer.afterJob(new JobExecution(1L));
+
+        // the default target continues, the failed records of the extra target can be found in the file
+        verify(defaultWriter, times(2)).write(any());
+        assertEquals(3, failingTarget.getNrFailed());
+        assertEquals(List.of("1/a", "1/b", "1/c"), Files.readAllLines(failedFile, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testMaxFailedAbortsUpdate() throws Exception {
+        Path failedFile = tempDir.resolve("Target-test-failed.txt");
+        MultiTargetWriter.Target failingTarget = new MultiTargetWriter.Target("test", mockFailingProcessor(),
+                mock(MilvusWriterService.class), false, failedFile, 2, 0);
+        MultiTargetWriter writer = createWriter(failingTarget, mock(MilvusWriterService.class));
+
+        // 2 failed records is still allowed, the 3rd is not
+        writer.write(List.of(createRecords("1/a", "1/b")));
+        List<List<EmbeddingRecord>> nextBatch = List.of(createRecords("1/c"));
+        assertThrows(EmbeddingsException.class, () -> writer.write(nextBatch));
+        writer.afterJob(new JobExecution(1L));
+
+        assertEquals(List.of("1/a", "1/b", "1/c"), Files.readAllLines(failedFile, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testNoFailedFileWhenAllSucceed() throws Exception {
+        Path failedFile = tempDir.resolve("Target-test-failed.txt");
+        MultiTargetWriter.Target target = new MultiTargetWriter.Target("test", mockProcessor(),
+                mock(MilvusWriterService.class), false, failedFile, 1, 0);
+        MultiTargetWriter writer = createWriter(target, mock(MilvusWriterService.class));
+
+        writer.write(List.of(createRecords("1/a", "1/b")));
+        writer.afterJob(new JobExecution(1L));
+
+        assertEquals(0, target.getNrFailed());
+        assertFalse(Files.exists(failedFile));
+    }
+
+}
@@ -0,0 +1,125 @@
+package eu.europeana.api.recommend.updater.service;
+
+import eu.europeana.api.recommend.updater.config.JobData;
+import eu.europeana.api.recommend.updater.config.UpdaterSettings;
+import eu.europeana.api.recommend.updater.service.milvus.MilvusUtilsTest;
+import eu.europeana.api.recommend.updater.service.record.MongoService;
+import io.milvus.client.MilvusClient;
+import io.milvus.grpc.MutationResult;
+import io.milvus.param.R;
+import io.milvus.param.dml.DeleteParam;
+import io.milvus.param.dml.QueryParam;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class RecordReconcilerTest {
+
+    private static final String SET_ID = "2021672";
+    private static final String NEW_LINE = System.lineSeparator();
+
+    private static MilvusClient mockMilvus(List<String> milvusIds) {
+        MilvusClient client = mock(MilvusClient.class);
+        when(client.query(any(QueryParam.class)))
+                .thenReturn(MilvusUtilsTest.queryResults(milvusIds), MilvusUtilsTest.queryResults(List.of()));
+        when(client.delete(any(DeleteParam.class))).thenReturn(R.success(MutationResult.getDefaultInstance()));
+        return client;
+    }
+
+    private static RecordReconciler createReconciler(List<String> mongoIds, boolean fix) {
+        UpdaterSettings settings = mock(UpdaterSettings.class);
+        when(settings.useReconcileFix()).thenReturn(fix);
+        MongoService mongoService = mock(MongoService.class);
+        when(mongoService.streamAboutSorted("^/" + SET_ID + "/")).thenAnswer(invocation -> mongoIds.stream());
+        return new RecordReconciler(settings, mongoService);
+    }
+
+    /**
+     * Mongo abouts have a leading slash, Milvus ids don't. Both refer to the same records so they should match
+     */
+    @Test
+    public void testReconcileRealIdFormats() throws IOException {
+        RecordReconciler reconciler = createReconciler(List.of("/2021672/a", "/2021672/b", "/2021672/c"), false);
+        MilvusClient milvusClient = mockMilvus(List.of("2021672/a", "2021672/b", "2021672/c"));
+        StringWriter missing = new StringWriter();
+        StringWriter orphaned = new StringWriter();
+
+        reconciler.reconcileSet(milvusClient, "test", SET_ID, missing, orphaned);
+
+        assertEquals("", missing.toString());
+        assertEquals("", orphaned.toString());
+        verify(milvusClient, never()).delete(any(DeleteParam.class));
+    }
+
+    /**
+     * Local ids can contain slashes, these should be compared as a whole
+     */
+    @Test
+    public void testReconcileLocalIdWithSlash() throws IOException {
+        RecordReconciler reconciler = createReconciler(List.of("/2021672/a-c", "/2021672/a/b"), false);
+        MilvusClient milvusClient = mockMilvus(List.of("2021672/a-c", "2021672/a/b"));
+        StringWriter missing = new StringWriter();
+        StringWriter orphaned = new StringWriter();
+
+        reconciler.reconcileSet(milvusClient, "test", SET_ID, missing, orphaned);
+
+        assertEquals("", missing.toString());
+        assertEquals("", orphaned.toString());
+    }
+
+    @Test
+    public void testReconcileUnsortedSetIsSkipped() throws IOException {
+        RecordReconciler reconciler = createReconciler(List.of("/2021672/b", "/2021672/a"), true);
+        MilvusClient milvusClient = mockMilvus(List.of("2021672/c"));
+        StringWriter missing = new StringWriter();
+        StringWriter orphaned = new StringWriter();
+
+        assertDoesNotThrow(() -> reconciler.reconcileSet(milvusClient, "test", SET_ID, missing, orphaned));
+
+        // nothing is reported or fixed for a set that couldn't be compared
+        assertEquals("", missing.toString());
+        assertEquals("", orphaned.toString());
+        verify(milvusClient, never()).delete(any(DeleteParam.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReconcileFix() throws IOException {
+        RecordReconciler reconciler = createReconciler(List.of("/2021672/a", "/2021672/b", "/2021672/c"), true);
+        StepExecution stepExecution = new StepExecution("reconcileStep", new JobExecution(1L, new JobParametersBuilder()
+                .addString(JobData.RECONCILE, "true")
+                .toJobParameters()));
+        stepExecution.getJobExecution().getExecutionContext().put(JobData.SETS_KEY, List.of(SET_ID));
+        reconciler.beforeStep(stepExecution);
+        MilvusClient milvusClient = mockMilvus(List.of("2021672/b", "2021672/d"));
+        StringWriter missing = new StringWriter();
+        StringWriter orphaned = new StringWriter();
+
+        reconciler.reconcileSet(milvusClient, "test", SET_ID, missing, orphaned);
+        reconciler.afterStep(stepExecution);
+
+        // missing records are reported as Mongo abouts so they can be loaded again
+        assertEquals("/2021672/a" + NEW_LINE + "/2021672/c" + NEW_LINE, missing.toString());
+        Map<String, List<String>> missingIds = (Map<String, List<String>>) stepExecution.getJobExecution()
+                .getExecutionContext().get(JobData.MISSING_IDS_KEY);
+        assertEquals(Map.of(SET_ID, List.of("/2021672/a", "/2021672/c")), missingIds);
+
+        // orphaned entries are reported and deleted as Milvus ids
+        assertEquals("2021672/d" + NEW_LINE, orphaned.toString());
+        ArgumentCaptor<DeleteParam> delete = ArgumentCaptor.forClass(DeleteParam.class);
+        verify(milvusClient).delete(delete.capture());
+        assertEquals("about in [\"2021672/d\"]", delete.getValue().getExpr());
+    }
+
+}
@@ -0,0 +1,97 @@
+package eu.europeana.api.recommend.updater.service;
+
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.service.vectorfile.VectorFileReader;
+import eu.europeana.api.recommend.updater.service.vectorfile.VectorFileWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedFileWriterTest {
+
+    private static List<RecordVectors> createBatch(String setId, int batchNr, int size) {
+        List<RecordVectors> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            result.add(new RecordVectors("/" + setId + "/" + batchNr + "_" + i, new Float[]{(float) i, 1f}));
+        }
+        return result;
+    }
+
+    private static ShardedFileWriter<RecordVectors> createWriter(Path baseFile) {
+        ShardedFileWriter<RecordVectors> writer = new ShardedFileWriter<>(baseFile, VectorFileWriter::new,
+                RecordVectors::getId);
+        writer.open(new ExecutionContext());
+        return writer;
+    }
+
+    @Test
+    public void testSequentialWritesUseOneShard(@TempDir Path tempDir) throws Exception {
+        Path baseFile = tempDir.resolve("output");
+        ShardedFileWriter<RecordVectors> writer = createWriter(baseFile);
+        writer.write(List.of(createBatch("1", 1, 3)));
+        writer.write(List.of(createBatch("2", 2, 2), createBatch("1", 3, 1)));
+        writer.close();
+
+        ShardManifest manifest = ShardManifest.read(baseFile);
+        assertEquals(6, manifest.getRecords());
+        assertEquals(1, manifest.getShards().size());
+        ShardManifest.Shard shard = manifest.getShards().get(0);
+        assertEquals("output_shard_001", shard.getName());
+        assertEquals(Map.of("1", 4L, "2", 2L), shard.getSets());
+        try (VectorFileReader reader = new VectorFileReader(shard.resolve(baseFile))) {
+            assertEquals(6, reader.size());
+            assertEquals("/2/2_1", reader.getId(4));
+        }
+    }
+
+    @Test
+    public void testConcurrentWrites(@TempDir Path tempDir) throws Exception {
+        Path baseFile = tempDir.resolve("output");
+        ShardedFileWriter<RecordVectors> writer = createWriter(baseFile);
+
+        int nrThreads = 4;
+        int batchesPerThread = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < nrThreads; t++) {
+            String setId = String.valueOf(t);
+            results.add(executor.submit(() -> {
+                for (int b = 0; b < batchesPerThread; b++) {
+                    writer.write(List.of(createBatch(setId, b, 10)));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        writer.close();
+
+        ShardManifest manifest = ShardManifest.read(baseFile);
+        assertEquals(nrThreads * batchesPerThread * 10, manifest.getRecords());
+        assertTrue(manifest.getShards().size() <= nrThreads);
+        long total = 0;
+        long set0 = 0;
+        for (ShardManifest.Shard shard : manifest.getShards()) {
+            try (VectorFileReader reader = new VectorFileReader(shard.resolve(baseFile))) {
+                assertEquals(shard.getRecords(), reader.size());
+            }
+            total = total + shard.getRecords();
+            set0 = set0 + shard.getSets().getOrDefault("0", 0L);
+        }
+        assertEquals(manifest.getRecords(), total);
+        assertEquals(batchesPerThread * 10, set0);
+    }
+}
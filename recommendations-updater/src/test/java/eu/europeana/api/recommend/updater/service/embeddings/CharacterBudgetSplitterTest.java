@@ -0,0 +1,75 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.exception.EmbeddingsException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CharacterBudgetSplitterTest {
+
+    /**
+     * Returns vectors with the same id as the record and records the size of each request
+     */
+    private static final class TestProvider implements EmbeddingProvider {
+        private final List<Integer> requestSizes = new ArrayList<>();
+
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public List<RecordVectors> getVectors(List<EmbeddingRecord> embeddingRecords) {
+            requestSizes.add(embeddingRecords.size());
+            List<RecordVectors> result = new ArrayList<>();
+            for (EmbeddingRecord embeddingRecord : embeddingRecords) {
+                result.add(new RecordVectors(embeddingRecord.getId(), new Float[]{ 1F }));
+            }
+            return result;
+        }
+    }
+
+    private static List<EmbeddingRecord> createRecords(int... titleLengths) {
+        List<EmbeddingRecord> result = new ArrayList<>();
+        for (int i = 0; i < titleLengths.length; i++) {
+            result.add(new EmbeddingRecord("1/" + i, new String[]{ "x".repeat(titleLengths[i]) }, null, null, null, null, null));
+        }
+        return result;
+    }
+
+    @Test
+    public void testSplitOnCharacters() throws InterruptedException, EmbeddingsException {
+        TestProvider provider = new TestProvider();
+        CharacterBudgetSplitter splitter = new CharacterBudgetSplitter(provider, 100, 50);
+
+        List<RecordVectors> vectors = splitter.getVectors(createRecords(40, 40, 40, 10, 300, 5));
+        assertEquals(List.of(2, 2, 1, 1), provider.requestSizes); // a record over budget is sent by itself
+        assertEquals(6, vectors.size());
+        for (int i = 0; i < vectors.size(); i++) {
+            assertEquals("1/" + i, vectors.get(i).getId());
+        }
+    }
+
+    @Test
+    public void testSplitOnRecords() throws InterruptedException, EmbeddingsException {
+        TestProvider provider = new TestProvider();
+        CharacterBudgetSplitter splitter = new CharacterBudgetSplitter(provider, Integer.MAX_VALUE, 2);
+
+        assertEquals(5, splitter.getVectors(createRecords(1, 1, 1, 1, 1)).size());
+        assertEquals(List.of(2, 2, 1), provider.requestSizes);
+    }
+
+    @Test
+    public void testNoSplit() throws InterruptedException, EmbeddingsException {
+        TestProvider provider = new TestProvider();
+        CharacterBudgetSplitter splitter = new CharacterBudgetSplitter(provider, 1000, 10);
+
+        assertEquals(3, splitter.getVectors(createRecords(10, 20, 30)).size());
+        assertEquals(List.of(3), provider.requestSizes);
+    }
+}
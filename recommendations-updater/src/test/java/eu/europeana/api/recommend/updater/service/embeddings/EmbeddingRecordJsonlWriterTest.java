@@ -0,0 +1,90 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmbeddingRecordJsonlWriterTest {
+
+    private static final EmbeddingRecord RECORD1 = new EmbeddingRecord("/1/a", new String[]{"Title; with \"quotes\""},
+            new String[]{"Line 1\nLine 2", "Tab\there"}, null, new String[]{"tag"}, new String[0], null);
+    private static final EmbeddingRecord RECORD2 = new EmbeddingRecord("/1/b", new String[]{"Tïtle 2"},
+            null, new String[]{"creator"}, null, null, new String[]{"1900"});
+
+    private static List<EmbeddingRecord> writeAndRead(Path file, boolean gzip) throws Exception {
+        EmbeddingRecordJsonlWriter writer = new EmbeddingRecordJsonlWriter(file, gzip, 1);
+        writer.open(new ExecutionContext());
+        for (int i = 0; i < 100; i++) {
+            writer.write(List.of(List.of(RECORD1), List.of(RECORD2)));
+        }
+        writer.close();
+        assertEquals(200, writer.getNrWritten());
+
+        ObjectMapper mapper = new ObjectMapper();
+        List<EmbeddingRecord> result = new ArrayList<>();
+        try (InputStream in = (gzip ? new GZIPInputStream(Files.newInputStream(file)) : Files.newInputStream(file));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                result.add(mapper.readValue(line, EmbeddingRecord.class));
+            }
+        }
+        return result;
+    }
+
+    private static void assertRecordsEqual(EmbeddingRecord expected, EmbeddingRecord actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertArrayEquals(expected.getTitle(), actual.getTitle());
+        assertArrayEquals(expected.getDescription(), actual.getDescription());
+        assertArrayEquals(expected.getCreator(), actual.getCreator());
+        assertArrayEquals(expected.getTags(), actual.getTags());
+        assertArrayEquals(expected.getPlaces(), actual.getPlaces());
+        assertArrayEquals(expected.getTimes(), actual.getTimes());
+    }
+
+    @Test
+    public void testWritePlain(@TempDir Path tempDir) throws Exception {
+        Path file = EmbeddingRecordJsonlWriter.getFile(tempDir.resolve("records"), false);
+        assertEquals("records.jsonl", file.getFileName().toString());
+
+        List<EmbeddingRecord> records = writeAndRead(file, false);
+        assertEquals(200, records.size());
+        assertRecordsEqual(RECORD1, records.get(0));
+        assertRecordsEqual(RECORD2, records.get(1));
+        assertRecordsEqual(RECORD2, records.get(199));
+    }
+
+    @Test
+    public void testWriteGzip(@TempDir Path tempDir) throws Exception {
+        Path file = EmbeddingRecordJsonlWriter.getFile(tempDir.resolve("records"), true);
+        assertEquals("records.jsonl.gz", file.getFileName().toString());
+
+        List<EmbeddingRecord> records = writeAndRead(file, true);
+        assertEquals(200, records.size());
+        assertRecordsEqual(RECORD1, records.get(198));
+    }
+
+    @Test
+    public void testOpenError(@TempDir Path tempDir) throws IOException {
+        Path dir = Files.createDirectory(tempDir.resolve("dir"));
+        EmbeddingRecordJsonlWriter writer = new EmbeddingRecordJsonlWriter(dir, false, 1);
+        assertThrows(ItemStreamException.class, () -> writer.open(new ExecutionContext()));
+        assertThrows(IllegalStateException.class, () -> writer.write(List.of(List.of(RECORD1))));
+    }
+}
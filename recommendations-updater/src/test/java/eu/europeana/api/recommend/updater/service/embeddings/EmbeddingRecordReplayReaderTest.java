@@ -0,0 +1,103 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.updater.config.JobData;
+import eu.europeana.api.recommend.updater.config.UpdaterSettings;
+import eu.europeana.api.recommend.updater.service.ShardManifest;
+import eu.europeana.api.recommend.updater.service.ShardedFileWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class EmbeddingRecordReplayReaderTest {
+
+    private static final int BATCH_SIZE = 3;
+
+    private static List<EmbeddingRecord> createRecords(String setId, int size) {
+        List<EmbeddingRecord> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            result.add(new EmbeddingRecord("/" + setId + "/" + i, new String[]{"Title " + i}, null, null, null, null, null));
+        }
+        return result;
+    }
+
+    private static EmbeddingRecordReplayReader createReader(Path replayFile) {
+        UpdaterSettings settings = mock(UpdaterSettings.class);
+        when(settings.getBatchSize()).thenReturn(BATCH_SIZE);
+        when(settings.getLogProgressInterval()).thenReturn(0);
+        EmbeddingRecordReplayReader reader = new EmbeddingRecordReplayReader(settings);
+        reader.beforeStep(new StepExecution("replayStep", new JobExecution(1L, new JobParametersBuilder()
+                .addString(JobData.REPLAY_KEY, replayFile.toString())
+                .toJobParameters())));
+        reader.open(new ExecutionContext());
+        return reader;
+    }
+
+    private static List<String> readAllIds(EmbeddingRecordReplayReader reader) throws IOException {
+        List<String> result = new ArrayList<>();
+        List<EmbeddingRecord> batch;
+        while ((batch = reader.read()) != null) {
+            assertFalse(batch.isEmpty());
+            assertTrue(batch.size() <= BATCH_SIZE);
+            batch.forEach(r -> result.add(r.getId()));
+        }
+        reader.close();
+        return result;
+    }
+
+    @Test
+    public void testReplayFile(@TempDir Path tempDir) throws Exception {
+        for (boolean gzip : new boolean[]{false, true}) {
+            Path file = EmbeddingRecordJsonlWriter.getFile(tempDir.resolve("records"), gzip);
+            EmbeddingRecordJsonlWriter writer = new EmbeddingRecordJsonlWriter(file, gzip, 1);
+            writer.open(new ExecutionContext());
+            writer.write(List.of(createRecords("1", 4), createRecords("2", 3)));
+            writer.close();
+
+            EmbeddingRecordReplayReader reader = createReader(file);
+            List<String> ids = readAllIds(reader);
+            assertEquals(7, ids.size());
+            assertEquals("/1/0", ids.get(0));
+            assertEquals("/2/2", ids.get(6));
+        }
+    }
+
+    @Test
+    public void testReplayManifest(@TempDir Path tempDir) throws Exception {
+        Path baseFile = tempDir.resolve("records");
+        ShardedFileWriter<EmbeddingRecord> writer = new ShardedFileWriter<>(baseFile,
+                shard -> new EmbeddingRecordJsonlWriter(EmbeddingRecordJsonlWriter.getFile(shard, true), true, 1),
+                EmbeddingRecord::getId);
+        writer.open(new ExecutionContext());
+        writer.write(List.of(createRecords("1", 5), createRecords("2", 1)));
+        writer.close();
+
+        EmbeddingRecordReplayReader reader = createReader(ShardManifest.getFile(baseFile));
+        List<String> ids = readAllIds(reader);
+        assertEquals(ShardManifest.read(baseFile).getRecords(), ids.size());
+        assertEquals(6, ids.size());
+        assertTrue(ids.contains("/2/0"));
+    }
+
+    @Test
+    public void testInvalidLine(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("invalid.jsonl");
+        Files.writeString(file, "{\"id\":\"/1/a\"}\n\nnot json\n");
+        EmbeddingRecordReplayReader reader = createReader(file);
+        IOException e = assertThrows(IOException.class, reader::read);
+        assertTrue(e.getMessage().contains("line 3"));
+        reader.close();
+    }
+}
@@ -0,0 +1,107 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.exception.EmbeddingsException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmbeddingRequestCoalescerTest {
+
+    /**
+     * Returns vectors with the same id as the record and records the size of each request
+     */
+    private static final class TestProvider implements EmbeddingProvider {
+        private final List<Integer> requestSizes = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public List<RecordVectors> getVectors(List<EmbeddingRecord> embeddingRecords) {
+            requestSizes.add(embeddingRecords.size());
+            List<RecordVectors> result = new ArrayList<>();
+            for (EmbeddingRecord embeddingRecord : embeddingRecords) {
+                result.add(new RecordVectors(embeddingRecord.getId(), new Float[]{ 1F }));
+            }
+            return result;
+        }
+    }
+
+    private static List<EmbeddingRecord> createRecords(String setId, int size) {
+        List<EmbeddingRecord> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            result.add(new EmbeddingRecord(setId + "/" + i, new String[]{"title"}, null, null, null, null, null));
+        }
+        return result;
+    }
+
+    private static void assertVectorsForSet(String setId, int size, List<RecordVectors> vectors) {
+        assertEquals(size, vectors.size());
+        for (int i = 0; i < size; i++) {
+            assertEquals(setId + "/" + i, vectors.get(i).getId());
+        }
+    }
+
+    @Test
+    public void testFullBatchSentDirectly() throws InterruptedException, EmbeddingsException {
+        TestProvider provider = new TestProvider();
+        EmbeddingRequestCoalescer coalescer = new EmbeddingRequestCoalescer(provider, 10, 60_000);
+
+        assertVectorsForSet("1", 10, coalescer.getVectors(createRecords("1", 10)));
+        assertEquals(List.of(10), provider.requestSizes);
+    }
+
+    @Test
+    public void testSmallBatchSentAfterMaxWait() throws InterruptedException, EmbeddingsException {
+        TestProvider provider = new TestProvider();
+        EmbeddingRequestCoalescer coalescer = new EmbeddingRequestCoalescer(provider, 10, 100);
+
+        assertVectorsForSet("1", 3, coalescer.getVectors(createRecords("1", 3)));
+        assertEquals(List.of(3), provider.requestSizes);
+    }
+
+    @Test
+    public void testCombineSets() throws InterruptedException, ExecutionException {
+        TestProvider provider = new TestProvider();
+        EmbeddingRequestCoalescer coalescer = new EmbeddingRequestCoalescer(provider, 10, 60_000);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<List<RecordVectors>> set1 = executor.submit(() -> coalescer.getVectors(createRecords("1", 3)));
+            Future<List<RecordVectors>> set2 = executor.submit(() -> coalescer.getVectors(createRecords("2", 3)));
+            Future<List<RecordVectors>> set3 = executor.submit(() -> coalescer.getVectors(createRecords("3", 4)));
+
+            // 3 + 3 + 4 fills the request, so nobody has to wait for the maximum wait time
+            assertVectorsForSet("1", 3, set1.get());
+            assertVectorsForSet("2", 3, set2.get());
+            assertVectorsForSet("3", 4, set3.get());
+            assertEquals(List.of(10), provider.requestSizes);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testErrorIsPropagated() {
+        EmbeddingProvider failingProvider = new EmbeddingProvider() {
+            @Override
+            public String getName() {
+                return "failing";
+            }
+
+            @Override
+            public List<RecordVectors> getVectors(List<EmbeddingRecord> embeddingRecords) throws EmbeddingsException {
+                throw new EmbeddingsException("Test error");
+            }
+        };
+        EmbeddingRequestCoalescer coalescer = new EmbeddingRequestCoalescer(failingProvider, 10, 100);
+        assertThrows(EmbeddingsException.class, () -> coalescer.getVectors(createRecords("1", 3)));
+    }
+}
@@ -0,0 +1,54 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.EmbeddingRequestData;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class EmbeddingRequestEncoderTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final List<EmbeddingRecord> RECORDS = List.of(
+            new EmbeddingRecord("1/a", new String[]{"Title \"quoted\""}, new String[]{"Description ü"},
+                    new String[]{"Creator"}, new String[]{"tag1", "tag2"}, new String[]{"Place"}, new String[]{"1900"}),
+            new EmbeddingRecord("1/b", new String[]{"Only title"}, null, null, null, null, null));
+
+    private static JsonNode expectedJson() {
+        return MAPPER.valueToTree(new EmbeddingRequestData(RECORDS.toArray(new EmbeddingRecord[0])));
+    }
+
+    @Test
+    public void testEncode() throws IOException {
+        EmbeddingRequestEncoder encoder = new EmbeddingRequestEncoder(UnpooledByteBufAllocator.DEFAULT, false);
+        ByteBuf payload = encoder.encode(RECORDS);
+        try (InputStream in = new ByteBufInputStream(payload.duplicate())) {
+            assertEquals(expectedJson(), MAPPER.readTree(in));
+        } finally {
+            payload.release();
+        }
+        assertEquals(0, payload.refCnt());
+    }
+
+    @Test
+    public void testEncodeGzip() throws IOException {
+        EmbeddingRequestEncoder encoder = new EmbeddingRequestEncoder(UnpooledByteBufAllocator.DEFAULT, true);
+        ByteBuf payload = encoder.encode(RECORDS);
+        try (InputStream in = new GZIPInputStream(new ByteBufInputStream(payload.duplicate()))) {
+            assertEquals(expectedJson(), MAPPER.readTree(in));
+        } finally {
+            payload.release();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load-test harness that measures throughput, tail latency and allocation rate of the Embeddings API client for
+ * different batch sizes and concurrency levels, using a local Embeddings API stub. This is usually disabled and we
+ * only start it manually when necessary.
+ */
+@Disabled("Run this manually if you want to benchmark the Embeddings API client")
+public class EmbeddingsApiLoadTestIT {
+
+    private static final Logger LOG = LogManager.getLogger(EmbeddingsApiLoadTestIT.class);
+
+    private static final int[] BATCH_SIZES = {10, 50, 200};
+    private static final int[] CONCURRENCY = {1, 4, 16};
+    private static final int REQUESTS_PER_THREAD = 50;
+    private static final int WARMUP_REQUESTS = 20;
+
+    private static final double MEDIAN_LATENCY_MS = 20;
+    private static final double LATENCY_SIGMA = 0.5;
+    private static final double ERROR_RATE = 0;
+    private static final boolean GZIP = false;
+
+    private static final double NS_PER_MS = 1_000_000D;
+    private static final int BYTES_PER_KB = 1024;
+
+    @Test
+    public void benchmark() throws Exception {
+        try (EmbeddingsApiStub stub = new EmbeddingsApiStub(Arrays.stream(CONCURRENCY).max().orElse(1), 42)) {
+            stub.setLatency(MEDIAN_LATENCY_MS, LATENCY_SIGMA);
+            stub.setErrorRate(ERROR_RATE);
+
+            List<String> results = new ArrayList<>();
+            results.add(String.format("%10s %12s %14s %10s %10s %14s", "batchSize", "concurrency", "records/sec",
+                    "p50 (ms)", "p99 (ms)", "KB/record"));
+            for (int batchSize : BATCH_SIZES) {
+                for (int concurrency : CONCURRENCY) {
+                    results.add(run(stub, batchSize, concurrency));
+                }
+            }
+            LOG.info("Results (median stub latency {} ms, sigma {}, gzip {}):\n{}", MEDIAN_LATENCY_MS, LATENCY_SIGMA, GZIP,
+                    String.join("\n", results));
+        }
+    }
+
+    private String run(EmbeddingsApiStub stub, int batchSize, int concurrency) throws Exception {
+        // every thread needs its own Embeddings API address, so we add the same url multiple times
+        String url = String.join(",", Collections.nCopies(concurrency, stub.getUrl()));
+        EmbeddingsApiProvider provider = EmbeddingsApiProviderTest.createProvider(url, GZIP, concurrency);
+        for (int i = 0; i < WARMUP_REQUESTS; i++) {
+            provider.getVectors(EmbeddingsApiProviderTest.createRecords("warmup", batchSize));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        long[] latencies = new long[concurrency * REQUESTS_PER_THREAD];
+        long start = System.nanoTime();
+        List<Future<Long>> allocatedBytes = new ArrayList<>();
+        for (int t = 0; t < concurrency; t++) {
+            int thread = t;
+            allocatedBytes.add(executor.submit(() -> {
+                com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+                long allocatedStart = threadBean.getCurrentThreadAllocatedBytes();
+                for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                    List<EmbeddingRecord> records = EmbeddingsApiProviderTest.createRecords(thread + "-" + i, batchSize);
+                    long requestStart = System.nanoTime();
+                    provider.getVectors(records);
+                    latencies[thread * REQUESTS_PER_THREAD + i] = System.nanoTime() - requestStart;
+                }
+                return threadBean.getCurrentThreadAllocatedBytes() - allocatedStart;
+            }));
+        }
+        long totalAllocated = 0;
+        for (Future<Long> bytes : allocatedBytes) {
+            totalAllocated = totalAllocated + bytes.get();
+        }
+        long duration = System.nanoTime() - start;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        // note that allocation is only measured for the calling threads, not for the Netty event loop threads
+        long totalRecords = (long) latencies.length * batchSize;
+        Arrays.sort(latencies);
+        return String.format("%10d %12d %14.0f %10.1f %10.1f %14.2f", batchSize, concurrency,
+                totalRecords / (duration / NS_PER_MS / 1000),
+                latencies[latencies.length / 2] / NS_PER_MS,
+                latencies[(int) Math.ceil(latencies.length * 0.99) - 1] / NS_PER_MS,
+                totalAllocated / (double) totalRecords / BYTES_PER_KB);
+    }
+}
@@ -0,0 +1,136 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.config.BuildInfo;
+import eu.europeana.api.recommend.updater.config.UpdaterSettings;
+import eu.europeana.api.recommend.updater.exception.EmbeddingsException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Sends requests to a local Embeddings API stub, to check if the request and response format is correct
+ */
+public class EmbeddingsApiProviderTest {
+
+    private static EmbeddingsApiStub stub;
+
+    @BeforeAll
+    public static void startStub() throws IOException {
+        stub = new EmbeddingsApiStub(2, 1);
+    }
+
+    @AfterAll
+    public static void stopStub() {
+        stub.close();
+    }
+
+    static EmbeddingsApiProvider createProvider(String url, boolean gzip, int threads) {
+        return createProvider(url, gzip, threads, false);
+    }
+
+    static EmbeddingsApiProvider createProvider(String url, boolean gzip, int threads, boolean hedging) {
+        UpdaterSettings settings = mock(UpdaterSettings.class);
+        when(settings.useEmbeddingApiHedging()).thenReturn(hedging);
+        when(settings.getEmbeddingApiHedgePercentile()).thenReturn(50);
+        when(settings.getEmbeddingApiHedgeBudget()).thenReturn(100);
+        when(settings.getEmbeddingProvider()).thenReturn(EmbeddingsApiProvider.NAME);
+        when(settings.getEmbeddingApiTimeout()).thenReturn(10);
+        when(settings.getThreads()).thenReturn(threads);
+        when(settings.getLogTimingInterval()).thenReturn(100);
+        when(settings.useEmbeddingApiGzip()).thenReturn(gzip);
+        EmbeddingsApiProvider provider = new EmbeddingsApiProvider(settings, mock(BuildInfo.class), url);
+        provider.initWebClient();
+        return provider;
+    }
+
+    static List<EmbeddingRecord> createRecords(String setId, int size) {
+        return IntStream.range(0, size)
+                .mapToObj(i -> new EmbeddingRecord(setId + "/" + i, new String[]{"Title " + i},
+                        new String[]{"Description of record " + i}, null, new String[]{"tag"}, null, null))
+                .toList();
+    }
+
+    private void checkVectors(boolean gzip) throws InterruptedException, EmbeddingsException {
+        EmbeddingsApiProvider provider = createProvider(stub.getUrl(), gzip, 1);
+        List<RecordVectors> vectors = provider.getVectors(createRecords("123", 5));
+
+        assertEquals(5, vectors.size());
+        for (int i = 0; i < vectors.size(); i++) {
+            assertEquals("123/" + i, vectors.get(i).getId());
+            assertArrayEquals(EmbeddingsApiStub.generateVector("123/" + i), vectors.get(i).getEmbedding());
+        }
+    }
+
+    @Test
+    public void testGetVectors() throws InterruptedException, EmbeddingsException {
+        checkVectors(false);
+    }
+
+    @Test
+    public void testGetVectorsGzip() throws InterruptedException, EmbeddingsException {
+        checkVectors(true);
+    }
+
+    /**
+     * Requests to a slow address should be hedged to the other one, and hedging shouldn't make clients unavailable
+     */
+    @Test
+    public void testHedging() throws IOException, InterruptedException, EmbeddingsException {
+        try (EmbeddingsApiStub slowStub = new EmbeddingsApiStub(4, 2);
+             EmbeddingsApiStub fastStub = new EmbeddingsApiStub(4, 3)) {
+            EmbeddingsApiProvider provider = createProvider(slowStub.getUrl() + "," + fastStub.getUrl(), false, 2, true);
+            // gather enough response times to start hedging
+            for (int i = 0; i < 30; i++) {
+                assertEquals(1, provider.getVectors(createRecords("warmup", 1)).size());
+            }
+
+            slowStub.setLatency(5000, 0);
+            long nrFastRequests = fastStub.getNrRequests();
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 10; i++) {
+                List<RecordVectors> vectors = provider.getVectors(createRecords("123", 2));
+                assertEquals(2, vectors.size());
+                assertArrayEquals(EmbeddingsApiStub.generateVector("123/1"), vectors.get(1).getEmbedding());
+            }
+
+            // half of the requests go to the slow address first, these should all be answered by the fast one
+            assertTrue(System.currentTimeMillis() - start < 5000, "Slow requests were not hedged");
+            assertTrue(fastStub.getNrRequests() - nrFastRequests >= 10);
+        }
+    }
+
+    /**
+     * A fast error from one address should not cancel a (slower) request to the other address that succeeds
+     */
+    @Test
+    public void testHedgingIgnoresErrors() throws IOException, InterruptedException, EmbeddingsException {
+        try (EmbeddingsApiStub slowStub = new EmbeddingsApiStub(4, 4);
+             EmbeddingsApiStub failingStub = new EmbeddingsApiStub(4, 5)) {
+            EmbeddingsApiProvider provider = createProvider(slowStub.getUrl() + "," + failingStub.getUrl(), false, 2, true);
+            for (int i = 0; i < 30; i++) {
+                assertEquals(1, provider.getVectors(createRecords("warmup", 1)).size());
+            }
+
+            slowStub.setLatency(200, 0);
+            failingStub.setErrorRate(1);
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 10; i++) {
+                assertEquals(2, provider.getVectors(createRecords("123", 2)).size());
+            }
+
+            // a failed attempt waits at least 5 seconds before retrying
+            assertTrue(System.currentTimeMillis() - start < 5000, "Request failed because of an error of the hedged request");
+            assertTrue(failingStub.getNrErrors() > 0);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import eu.europeana.api.recommend.common.MilvusConstants;
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.EmbeddingRequestData;
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Lightweight local stand-in for the Embeddings API, so we can test and benchmark the client without a (GPU)
+ * deployment. It accepts EmbeddingRequestData and returns an EmbeddingResponse with deterministic pseudo-random
+ * vectors (the same record id always gets the same vector).
+ *
+ * Response times follow a log-normal distribution (defined by median and sigma) and a configurable fraction of
+ * requests fails with a 500 error.
+ */
+public class EmbeddingsApiStub implements AutoCloseable {
+
+    private static final Logger LOG = LogManager.getLogger(EmbeddingsApiStub.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_ERROR = 500;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Random random;
+
+    private volatile double medianLatencyMs;
+    private volatile double latencySigma;
+    private volatile double errorRate;
+
+    private final AtomicLong nrRequests = new AtomicLong();
+    private final AtomicLong nrErrors = new AtomicLong();
+    private final AtomicLong nrRecords = new AtomicLong();
+
+    /**
+     * Start a new stub on a random free port, without latency and errors
+     * @param threads number of requests that can be handled in parallel
+     * @param seed seed for generating latencies and errors
+     * @throws IOException when the server can't be started
+     */
+    public EmbeddingsApiStub(int threads, long seed) throws IOException {
+        this.random = new Random(seed);
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+        LOG.info("Embeddings API stub started at {}", getUrl());
+    }
+
+    /**
+     * Set the response time distribution
+     * @param medianMs median response time in ms (0 means no latency)
+     * @param sigma standard deviation of the log-normal distribution. 0 means a fixed response time, higher values
+     *              mean longer tail latencies (e.g. 0.5 gives p99 of about 3x the median)
+     */
+    public void setLatency(double medianMs, double sigma) {
+        this.medianLatencyMs = medianMs;
+        this.latencySigma = sigma;
+    }
+
+    /**
+     * @param errorRate fraction of requests (between 0 and 1) that should fail with a 500 error
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public long getNrRequests() {
+        return nrRequests.get();
+    }
+
+    public long getNrErrors() {
+        return nrErrors.get();
+    }
+
+    public long getNrRecords() {
+        return nrRecords.get();
+    }
+
+    /**
+     * Generate the vector that the stub returns for a particular record id
+     * @param id record id
+     * @return deterministic pseudo-random vector
+     */
+    public static Float[] generateVector(String id) {
+        Random idRandom = new Random(id.hashCode());
+        Float[] result = new Float[MilvusConstants.VECTOR_DIMENSION];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = idRandom.nextFloat() * 2 - 1;
+        }
+        return result;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        nrRequests.incrementAndGet();
+        try (exchange) {
+            EmbeddingRequestData request;
+            try (InputStream in = getRequestBody(exchange)) {
+                request = MAPPER.readValue(in, EmbeddingRequestData.class);
+            }
+
+            double latency;
+            boolean fail;
+            synchronized (random) {
+                latency = medianLatencyMs * Math.exp(latencySigma * random.nextGaussian());
+                fail = random.nextDouble() < errorRate;
+            }
+            if (latency > 0) {
+                TimeUnit.MICROSECONDS.sleep(Math.round(latency * 1000));
+            }
+            if (fail) {
+                nrErrors.incrementAndGet();
+                sendResponse(exchange, HTTP_ERROR, "{\"status\":\"error\"}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            List<RecordVectors> vectors = new ArrayList<>(request.getRecords().length);
+            for (EmbeddingRecord embeddingRecord : request.getRecords()) {
+                vectors.add(new RecordVectors(embeddingRecord.getId(), generateVector(embeddingRecord.getId())));
+            }
+            nrRecords.addAndGet(vectors.size());
+            sendResponse(exchange, HTTP_OK, MAPPER.writeValueAsBytes(Map.of("status", "ok", "data", vectors)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Error handling request", e);
+            throw e;
+        }
+    }
+
+    private static InputStream getRequestBody(HttpExchange exchange) throws IOException {
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            return new GZIPInputStream(exchange.getRequestBody());
+        }
+        return exchange.getRequestBody();
+    }
+
+    private static void sendResponse(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        LOG.info("Embeddings API stub stopped after {} requests ({} errors)", nrRequests.get(), nrErrors.get());
+    }
+}
@@ -0,0 +1,75 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HedgePolicyTest {
+
+    @Test
+    public void testNoDelayWithoutTimings() {
+        HedgePolicy policy = new HedgePolicy(95, 5, 10_000);
+        assertNull(policy.getHedgeDelay());
+
+        for (int i = 0; i < 19; i++) {
+            policy.addTiming(100);
+        }
+        assertNull(policy.getHedgeDelay()); // not enough timings yet
+        policy.addTiming(100);
+        assertEquals(Duration.ofMillis(100), policy.getHedgeDelay());
+    }
+
+    @Test
+    public void testPercentile() {
+        HedgePolicy policy = new HedgePolicy(90, 5, 10_000);
+        for (int i = 1; i <= 100; i++) {
+            policy.addTiming(i * 10L);
+        }
+        assertEquals(Duration.ofMillis(900), policy.getHedgeDelay());
+    }
+
+    @Test
+    public void testOldTimingsAreForgotten() {
+        HedgePolicy policy = new HedgePolicy(50, 5, 10_000);
+        for (int i = 0; i < 200; i++) {
+            policy.addTiming(5000);
+        }
+        for (int i = 0; i < 200; i++) {
+            policy.addTiming(100);
+        }
+        assertEquals(Duration.ofMillis(100), policy.getHedgeDelay());
+    }
+
+    @Test
+    public void testNoHedgingAfterTimeout() {
+        HedgePolicy policy = new HedgePolicy(95, 5, 1000);
+        for (int i = 0; i < 50; i++) {
+            policy.addTiming(2000);
+        }
+        assertNull(policy.getHedgeDelay());
+    }
+
+    @Test
+    public void testBudget() {
+        HedgePolicy policy = new HedgePolicy(95, 10, 10_000);
+        assertFalse(policy.tryAcquire());
+
+        // every 10 requests we are allowed to hedge 1
+        for (int i = 0; i < 10; i++) {
+            policy.addRequest();
+        }
+        assertTrue(policy.tryAcquire());
+        assertFalse(policy.tryAcquire());
+    }
+
+    @Test
+    public void testBudgetZero() {
+        HedgePolicy policy = new HedgePolicy(95, 0, 10_000);
+        for (int i = 0; i < 1000; i++) {
+            policy.addRequest();
+        }
+        assertFalse(policy.tryAcquire());
+    }
+}
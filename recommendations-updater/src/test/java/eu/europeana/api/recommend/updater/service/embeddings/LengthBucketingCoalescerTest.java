@@ -0,0 +1,132 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.exception.EmbeddingsException;
+import nl.altindag.log.LogCaptor;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LengthBucketingCoalescerTest {
+
+    /**
+     * Returns vectors with the same id as the record and records the titles of each request
+     */
+    private static final class TestProvider implements EmbeddingProvider {
+        private final List<List<String>> requests = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public List<RecordVectors> getVectors(List<EmbeddingRecord> embeddingRecords) {
+            List<String> titles = new ArrayList<>();
+            List<RecordVectors> result = new ArrayList<>();
+            for (EmbeddingRecord embeddingRecord : embeddingRecords) {
+                titles.add(embeddingRecord.getTitle()[0]);
+                result.add(new RecordVectors(embeddingRecord.getId(), new Float[]{ 1F }));
+            }
+            requests.add(titles);
+            return result;
+        }
+    }
+
+    /**
+     * Create records where each record alternately has a short or long title
+     */
+    private static List<EmbeddingRecord> createRecords(String setId, int size) {
+        List<EmbeddingRecord> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            String title = (i % 2 == 0 ? "short" : "a much longer title of a record");
+            result.add(new EmbeddingRecord(setId + "/" + i, new String[]{ title }, null, null, null, null, null));
+        }
+        return result;
+    }
+
+    private static void assertVectorsForSet(String setId, int size, List<RecordVectors> vectors) {
+        assertEquals(size, vectors.size());
+        for (int i = 0; i < size; i++) {
+            assertEquals(setId + "/" + i, vectors.get(i).getId());
+        }
+    }
+
+    @Test
+    public void testGroupByLength() throws InterruptedException, ExecutionException {
+        TestProvider provider = new TestProvider();
+        LengthBucketingCoalescer coalescer = new LengthBucketingCoalescer(provider, 4, 8, 60_000);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<RecordVectors>> set1 = executor.submit(() -> coalescer.getVectors(createRecords("1", 4)));
+            Future<List<RecordVectors>> set2 = executor.submit(() -> coalescer.getVectors(createRecords("2", 4)));
+
+            // vectors should be returned in the original order
+            assertVectorsForSet("1", 4, set1.get());
+            assertVectorsForSet("2", 4, set2.get());
+
+            // 1 request with only short titles and 1 with only long titles
+            assertEquals(2, provider.requests.size());
+            for (List<String> request : provider.requests) {
+                assertEquals(4, request.size());
+                assertEquals(1, request.stream().distinct().count(), "Request mixes lengths: " + request);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBufferSentAfterMaxWait() throws InterruptedException, EmbeddingsException {
+        TestProvider provider = new TestProvider();
+        LengthBucketingCoalescer coalescer = new LengthBucketingCoalescer(provider, 4, 100, 100);
+
+        assertVectorsForSet("1", 6, coalescer.getVectors(createRecords("1", 6)));
+        assertEquals(2, provider.requests.size());
+    }
+
+    @Test
+    public void testErrorIsPropagated() {
+        EmbeddingProvider failingProvider = new EmbeddingProvider() {
+            @Override
+            public String getName() {
+                return "failing";
+            }
+
+            @Override
+            public List<RecordVectors> getVectors(List<EmbeddingRecord> embeddingRecords) throws EmbeddingsException {
+                throw new EmbeddingsException("Test error");
+            }
+        };
+        LengthBucketingCoalescer coalescer = new LengthBucketingCoalescer(failingProvider, 4, 4, 100);
+        assertThrows(EmbeddingsException.class, () -> coalescer.getVectors(createRecords("1", 3)));
+    }
+
+    @Test
+    public void testPaddingWaste() {
+        assertEquals(0, LengthBucketingCoalescer.estimatePaddingWaste(new int[]{ 10, 10, 10 }));
+        assertEquals(0, LengthBucketingCoalescer.estimatePaddingWaste(new int[]{ 0, 0 }));
+        assertEquals(45, LengthBucketingCoalescer.estimatePaddingWaste(new int[]{ 10, 100 }));
+    }
+
+    @Test
+    public void testPaddingWasteLogged() throws InterruptedException, EmbeddingsException {
+        LogCaptor logCaptor = LogCaptor.forClass(LengthBucketingCoalescer.class);
+        LengthBucketingCoalescer coalescer = new LengthBucketingCoalescer(new TestProvider(), 4, 4, 100, 1);
+
+        // each request mixes short and long titles, so there is padding waste
+        coalescer.getVectors(createRecords("1", 4));
+        assertTrue(logCaptor.getInfoLogs().isEmpty());
+        Thread.sleep(1100);
+        coalescer.getVectors(createRecords("2", 4));
+
+        // titles of 5 and 31 characters, so 100 - (2 * 5 + 2 * 31) * 100 / (4 * 31) = 42% waste
+        assertEquals(List.of("Grouped 2 requests by length, estimated padding waste is 42% on average, 42% at most"),
+                logCaptor.getInfoLogs());
+    }
+}
@@ -0,0 +1,152 @@
+package eu.europeana.api.recommend.updater.service.embeddings;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.config.UpdaterSettings;
+import eu.europeana.api.recommend.updater.exception.EmbeddingsException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the tokenization, batching and pooling of the OnnxEmbeddingProvider, using a fake tokenizer and model instead of
+ * a real ONNX model
+ */
+public class OnnxEmbeddingProviderTest {
+
+    private static final float DELTA = 0.0001f;
+
+    /**
+     * Tokenizer that creates 1 token per word, with the word length as token id
+     */
+    private static final OnnxEmbeddingProvider.Tokenizer WORD_TOKENIZER = texts -> Arrays.stream(texts)
+            .map(text -> {
+                long[] ids = Arrays.stream(text.split(" ")).mapToLong(String::length).toArray();
+                long[] mask = new long[ids.length];
+                Arrays.fill(mask, 1);
+                return new OnnxEmbeddingProvider.TokenizedText(ids, mask, new long[ids.length]);
+            })
+            .toList();
+
+    /**
+     * Model without pooling, the embedding of a token is [token id, 1]. Padding tokens get a large embedding, so
+     * we can detect if they are included in the pooling
+     */
+    private static final class TokenModel implements OnnxEmbeddingProvider.Model {
+        private final List<long[][]> batches = new ArrayList<>();
+
+        @Override
+        public OnnxEmbeddingProvider.ModelOutput run(long[][] ids, long[][] attentionMask, long[][] typeIds) {
+            batches.add(ids);
+            float[][][] result = new float[ids.length][ids[0].length][];
+            for (int i = 0; i < ids.length; i++) {
+                for (int t = 0; t < ids[i].length; t++) {
+                    result[i][t] = (attentionMask[i][t] == 0 ? new float[]{1000, 1000} : new float[]{ids[i][t], 1});
+                }
+            }
+            return new OnnxEmbeddingProvider.ModelOutput(null, result);
+        }
+    }
+
+    private static UpdaterSettings mockSettings(boolean normalize) {
+        UpdaterSettings settings = mock(UpdaterSettings.class);
+        when(settings.getLogTimingInterval()).thenReturn(100);
+        when(settings.useEmbeddingOnnxNormalize()).thenReturn(normalize);
+        return settings;
+    }
+
+    private static EmbeddingRecord createRecord(String id, String title, String description) {
+        return new EmbeddingRecord(id, new String[]{title}, description == null ? null : new String[]{description},
+                null, null, null, null);
+    }
+
+    @Test
+    public void testToText() {
+        EmbeddingRecord embeddingRecord = new EmbeddingRecord("1/1", new String[]{"Title"},
+                new String[]{"Description 1", "Description 2"}, null, new String[]{"tag"}, null, new String[]{"1900"});
+        assertEquals("Title. Description 1. Description 2. tag. 1900", OnnxEmbeddingProvider.toText(embeddingRecord));
+    }
+
+    @Test
+    public void testPadding() {
+        List<OnnxEmbeddingProvider.TokenizedText> texts = WORD_TOKENIZER.encode(new String[]{"a bb ccc", "dddd"});
+
+        long[][] ids = OnnxEmbeddingProvider.pad(texts, OnnxEmbeddingProvider.TokenizedText::ids, 3);
+        long[][] mask = OnnxEmbeddingProvider.pad(texts, OnnxEmbeddingProvider.TokenizedText::attentionMask, 3);
+
+        assertArrayEquals(new long[]{1, 2, 3}, ids[0]);
+        assertArrayEquals(new long[]{4, 0, 0}, ids[1]);
+        assertArrayEquals(new long[]{1, 1, 1}, mask[0]);
+        assertArrayEquals(new long[]{1, 0, 0}, mask[1]);
+    }
+
+    @Test
+    public void testMeanPoolIgnoresPadding() {
+        float[][][] tokenEmbeddings = {
+                {{1, 2}, {3, 4}, {100, 100}},
+                {{5, 6}, {100, 100}, {100, 100}}};
+        long[][] mask = {{1, 1, 0}, {1, 0, 0}};
+
+        float[][] result = OnnxEmbeddingProvider.meanPool(tokenEmbeddings, mask);
+
+        assertArrayEquals(new float[]{2, 3}, result[0], DELTA);
+        assertArrayEquals(new float[]{5, 6}, result[1], DELTA);
+    }
+
+    @Test
+    public void testNormalize() {
+        float[][] vectors = {{3, 4}, {0, 0}};
+
+        OnnxEmbeddingProvider.normalize(vectors);
+
+        assertArrayEquals(new float[]{0.6f, 0.8f}, vectors[0], DELTA);
+        assertArrayEquals(new float[]{0, 0}, vectors[1], DELTA);
+    }
+
+    @Test
+    public void testGetVectorsBatch() throws EmbeddingsException {
+        TokenModel model = new TokenModel();
+        OnnxEmbeddingProvider provider = new OnnxEmbeddingProvider(mockSettings(false), WORD_TOKENIZER, model);
+
+        List<RecordVectors> result = provider.getVectors(List.of(
+                createRecord("1/a", "a", "bb"),          // "a. bb" -> tokens of length 2 and 2
+                createRecord("1/b", "cccc", null),       // "cccc" -> 1 token of length 4
+                createRecord("1/c", "dd", "eee ffff"))); // "dd. eee ffff" -> tokens of length 3, 3 and 4
+
+        // all records are sent to the model in 1 batch, padded to the longest sequence
+        assertEquals(1, model.batches.size());
+        long[][] ids = model.batches.get(0);
+        assertEquals(3, ids.length);
+        for (long[] sequence : ids) {
+            assertEquals(3, sequence.length);
+        }
+
+        // vectors are returned in the same order as the records, padding is not included in the mean
+        assertEquals(List.of("1/a", "1/b", "1/c"), result.stream().map(RecordVectors::getId).toList());
+        assertArrayEquals(new Float[]{2f, 1f}, result.get(0).getEmbedding());
+        assertArrayEquals(new Float[]{4f, 1f}, result.get(1).getEmbedding());
+        assertEquals(10f / 3, result.get(2).getEmbedding()[0], DELTA);
+        assertEquals(1f, result.get(2).getEmbedding()[1], DELTA);
+    }
+
+    @Test
+    public void testGetVectorsSentenceEmbedding() throws EmbeddingsException {
+        OnnxEmbeddingProvider.Model model = (ids, mask, typeIds) ->
+                new OnnxEmbeddingProvider.ModelOutput(new float[][]{{3, 4}, {0, 2}}, null);
+        OnnxEmbeddingProvider provider = new OnnxEmbeddingProvider(mockSettings(true), WORD_TOKENIZER, model);
+
+        List<RecordVectors> result = provider.getVectors(List.of(createRecord("1/a", "a", null),
+                createRecord("1/b", "b", null)));
+
+        // sentence embeddings are used as they are, only normalized
+        assertArrayEquals(new Float[]{0.6f, 0.8f}, result.get(0).getEmbedding());
+        assertArrayEquals(new Float[]{0f, 1f}, result.get(1).getEmbedding());
+    }
+
+}
@@ -0,0 +1,101 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.europeana.api.recommend.common.MilvusConstants;
+import eu.europeana.api.recommend.updater.service.milvus.BulkInsertFileWriter.BulkInsertFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BulkInsertFileWriterTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path stagingDir;
+
+    private static List<String> ids(String set, int size) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            result.add("/" + set + "/" + i);
+        }
+        return result;
+    }
+
+    private static List<List<Float>> vectors(int size) {
+        List<List<Float>> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            List<Float> vector = new ArrayList<>();
+            for (int j = 0; j < MilvusConstants.VECTOR_DIMENSION; j++) {
+                vector.add(i + j / 1000f);
+            }
+            result.add(vector);
+        }
+        return result;
+    }
+
+    @Test
+    public void testWriteRows() throws IOException {
+        List<BulkInsertFile> files;
+        try (BulkInsertFileWriter writer = new BulkInsertFileWriter(stagingDir, "test", Long.MAX_VALUE)) {
+            writer.write(null, ids("1", 2), vectors(2));
+            writer.write(null, ids("2", 1), vectors(1));
+            files = writer.finish();
+        }
+
+        assertEquals(1, files.size());
+        assertNull(files.get(0).getPartition());
+        assertEquals(3, files.get(0).getRows());
+        assertEquals(stagingDir.resolve("test_all_00001.json"), files.get(0).getFile());
+
+        JsonNode rows = MAPPER.readTree(files.get(0).getFile().toFile()).get("rows");
+        assertEquals(3, rows.size());
+        assertEquals("/1/1", rows.get(1).get(MilvusConstants.RECORD_ID_FIELD_NAME).asText());
+        JsonNode vector = rows.get(1).get(MilvusConstants.VECTOR_FIELD_NAME);
+        assertEquals(MilvusConstants.VECTOR_DIMENSION, vector.size());
+        assertEquals(1.001f, vector.get(1).floatValue());
+    }
+
+    @Test
+    public void testFilePerPartition() throws IOException {
+        BulkInsertFileWriter writer = new BulkInsertFileWriter(stagingDir, "test", Long.MAX_VALUE);
+        writer.write("1", ids("1", 2), vectors(2));
+        writer.write("2", ids("2", 3), vectors(3));
+        writer.write("1", ids("1", 1), vectors(1));
+        List<BulkInsertFile> files = writer.finish();
+
+        assertEquals(2, files.size());
+        for (BulkInsertFile file : files) {
+            assertEquals(3, file.getRows());
+            assertEquals(file.getRows(), MAPPER.readTree(file.getFile().toFile()).get("rows").size());
+            assertTrue(file.getFile().getFileName().toString().startsWith("test_" + file.getPartition() + "_"));
+        }
+    }
+
+    @Test
+    public void testMaxFileSize() throws IOException {
+        long maxBytes = 10_000;
+        BulkInsertFileWriter writer = new BulkInsertFileWriter(stagingDir, "test", maxBytes);
+        for (int i = 0; i < 10; i++) {
+            writer.write(null, ids(String.valueOf(i), 2), vectors(2));
+        }
+        List<BulkInsertFile> files = writer.finish();
+
+        assertTrue(files.size() > 1);
+        long totalRows = 0;
+        for (BulkInsertFile file : files) {
+            totalRows = totalRows + MAPPER.readTree(file.getFile().toFile()).get("rows").size();
+            // a file can exceed the maximum by at most 1 batch
+            assertTrue(Files.size(file.getFile()) < 2 * maxBytes);
+        }
+        assertEquals(20, totalRows);
+    }
+}
@@ -1,20 +1,24 @@
 package eu.europeana.api.recommend.updater.service.milvus;
 
 import eu.europeana.api.recommend.common.MilvusConstants;
+import eu.europeana.api.recommend.updater.config.MilvusIndexConfig;
 import io.milvus.client.MilvusClient;
 import io.milvus.client.MilvusServiceClient;
 import io.milvus.grpc.*;
 import io.milvus.param.ConnectParam;
 import io.milvus.param.IndexType;
+import io.milvus.param.MetricType;
 import io.milvus.param.R;
 import io.milvus.param.collection.*;
+import io.milvus.param.control.GetQuerySegmentInfoParam;
+import io.milvus.param.dml.InsertParam;
 import io.milvus.param.dml.QueryParam;
 import io.milvus.param.dml.SearchParam;
 import io.milvus.param.highlevel.collection.ListCollectionsParam;
 import io.milvus.param.highlevel.collection.response.ListCollectionsResponse;
 import io.milvus.param.highlevel.dml.GetIdsParam;
 import io.milvus.param.highlevel.dml.response.GetResponse;
-import io.milvus.param.index.CreateIndexParam;
+import io.milvus.param.index.DropIndexParam;
 import io.milvus.param.index.GetIndexStateParam;
 import io.milvus.response.QueryResultsWrapper;
 import io.milvus.response.SearchResultsWrapper;
@@ -23,8 +27,14 @@ import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * This is a special test class that we use to check what is in a provided Milvus collection.
@@ -41,6 +51,21 @@ public class CheckMilvusContentsIT {
     private static final int SERVER_PORT = 19530;
     private static final String TEST_COLLECTION = "test";
 
+    // settings for index benchmark, note that Milvus can return at most 16384 rows in 1 query
+    private static final String BENCHMARK_COLLECTION = TEST_COLLECTION + "_benchmark";
+    private static final int BENCHMARK_SAMPLE_SIZE = 16_384;
+    private static final int BENCHMARK_NR_QUERIES = 200;
+    private static final int BENCHMARK_TOP_K = 10;
+    private static final int BENCHMARK_INSERT_BATCH = 2000;
+    private static final long BENCHMARK_POLL_INTERVAL_MS = 1000;
+    private static final List<BenchmarkCase> BENCHMARK_CASES = List.of(
+            new BenchmarkCase(MilvusIndexConfig.DEFAULT, "{\"nprobe\": 16}"),
+            new BenchmarkCase(new MilvusIndexConfig(IndexType.IVF_SQ8, MetricType.L2, "{\"nlist\": 128}"), "{\"nprobe\": 16}"),
+            new BenchmarkCase(new MilvusIndexConfig(IndexType.IVF_FLAT, MetricType.L2, "{\"nlist\": 128}"), "{\"nprobe\": 16}"),
+            new BenchmarkCase(new MilvusIndexConfig(IndexType.IVF_PQ, MetricType.L2, "{\"nlist\": 128, \"m\": 30, \"nbits\": 8}"), "{\"nprobe\": 16}"),
+            new BenchmarkCase(new MilvusIndexConfig(IndexType.HNSW, MetricType.L2, "{\"M\": 16, \"efConstruction\": 200}"), "{\"ef\": 64}"),
+            new BenchmarkCase(new MilvusIndexConfig(IndexType.HNSW, MetricType.L2, "{\"M\": 32, \"efConstruction\": 200}"), "{\"ef\": 128}"));
+
 
     private MilvusClient setup() {
         LOG.info("Setting up connection to Milvus at {}:{}...", SERVER_URL, SERVER_PORT);
@@ -229,16 +254,157 @@ public class CheckMilvusContentsIT {
         String indexName = collectionName + MilvusWriterService.INDEX_SUFFIX;
         MilvusClient milvusClient = setup();
 
-        LOG.info("Creating index for collection {}...", collectionName);
-        LOG.info(MilvusUtils.checkResponse(milvusClient.createIndex(CreateIndexParam.newBuilder()
-                .withCollectionName(collectionName)
-                .withFieldName(MilvusConstants.VECTOR_FIELD_NAME)
-                .withIndexName(indexName)
-                .withIndexType(IndexType.IVF_SQ8) // copied from original code by Pangeanic
-                .withMetricType(MilvusConstants.INDEX_METRIC_TYPE) // not sure, using L2 for now
-                .withExtraParam("{\"nlist\": 16384}") // copied from original code by Pangeanic
-                //.withSyncMode(Boolean.TRUE) // not sure, not setting for now
-                .build()), "Error creating index" + indexName));
+        MilvusUtils.createIndex(milvusClient, collectionName, indexName, MilvusIndexConfig.DEFAULT);
+    }
+
+    /**
+     * Compares different index types and parameters on a sample of the vectors in the test collection. The sample is
+     * copied to a separate benchmark collection and for each index configuration we measure build time, memory
+     * usage of the loaded segments, queries per second and recall@k (compared to exact brute-force search on the
+     * sample).
+     */
+    @Test
+    public void benchmarkIndexes() throws InterruptedException {
+        MilvusClient milvusClient = setup();
+        loadCollection(milvusClient, TEST_COLLECTION);
+
+        LOG.info("Retrieving sample of {} vectors...", BENCHMARK_SAMPLE_SIZE);
+        R<QueryResults> sample = MilvusUtils.checkResponse(milvusClient.query(QueryParam.newBuilder()
+                .withCollectionName(TEST_COLLECTION)
+                .withOutFields(List.of(MilvusConstants.RECORD_ID_FIELD_NAME, MilvusConstants.VECTOR_FIELD_NAME))
+                .withExpr(MilvusConstants.RECORD_ID_FIELD_NAME + " like '%'")
+                .withLimit((long) BENCHMARK_SAMPLE_SIZE)
+                .build()));
+        QueryResultsWrapper sampleWrapper = new QueryResultsWrapper(sample.getData());
+        List<String> ids = (List<String>) sampleWrapper.getFieldWrapper(MilvusConstants.RECORD_ID_FIELD_NAME).getFieldData();
+        List<List<Float>> vectors = (List<List<Float>>) sampleWrapper.getFieldWrapper(MilvusConstants.VECTOR_FIELD_NAME).getFieldData();
+        LOG.info("Retrieved {} vectors", ids.size());
+
+        if (testCollectionExists(milvusClient, BENCHMARK_COLLECTION)) {
+            MilvusUtils.deleteCollection(milvusClient, BENCHMARK_COLLECTION);
+        }
+        MilvusUtils.createCollection(milvusClient, BENCHMARK_COLLECTION, "Index benchmark", null);
+        for (int i = 0; i < ids.size(); i = i + BENCHMARK_INSERT_BATCH) {
+            int end = Math.min(ids.size(), i + BENCHMARK_INSERT_BATCH);
+            MilvusUtils.checkResponse(milvusClient.insert(InsertParam.newBuilder()
+                    .withCollectionName(BENCHMARK_COLLECTION)
+                    .withFields(List.of(new InsertParam.Field(MilvusConstants.RECORD_ID_FIELD_NAME, ids.subList(i, end)),
+                            new InsertParam.Field(MilvusConstants.VECTOR_FIELD_NAME, vectors.subList(i, end))))
+                    .build()), "Error inserting sample");
+        }
+        MilvusUtils.flush(milvusClient, BENCHMARK_COLLECTION, true);
+
+        // evenly spread queries over the sample
+        int step = Math.max(1, ids.size() / BENCHMARK_NR_QUERIES);
+        List<List<Float>> queries = IntStream.range(0, Math.min(BENCHMARK_NR_QUERIES, ids.size()))
+                .mapToObj(i -> vectors.get(i * step)).toList();
+
+        List<String> report = new ArrayList<>();
+        report.add(String.format("%-70s %-16s %10s %10s %10s %10s", "Index", "Search params", "Build (s)", "Memory (MB)",
+                "QPS", "Recall@" + BENCHMARK_TOP_K));
+        for (BenchmarkCase benchmarkCase : BENCHMARK_CASES) {
+            try {
+                report.add(runBenchmark(milvusClient, benchmarkCase, ids, vectors, queries));
+            } catch (RuntimeException e) {
+                LOG.error("Benchmark of {} failed", benchmarkCase.indexConfig, e);
+                report.add(String.format("%-70s %-16s failed: %s", benchmarkCase.indexConfig, benchmarkCase.searchParams, e.getMessage()));
+            }
+        }
+
+        MilvusUtils.deleteCollection(milvusClient, BENCHMARK_COLLECTION);
+        milvusClient.close();
+        LOG.info("Benchmark results for {} vectors, {} queries:\n{}", ids.size(), queries.size(), String.join("\n", report));
+    }
+
+    private String runBenchmark(MilvusClient milvusClient, BenchmarkCase benchmarkCase, List<String> ids,
+                                List<List<Float>> vectors, List<List<Float>> queries) throws InterruptedException {
+        MilvusIndexConfig indexConfig = benchmarkCase.indexConfig;
+        String indexName = BENCHMARK_COLLECTION + MilvusWriterService.INDEX_SUFFIX;
+        LOG.info("Benchmarking {} with search params {}...", indexConfig, benchmarkCase.searchParams);
+
+        long start = System.currentTimeMillis();
+        MilvusUtils.createIndex(milvusClient, BENCHMARK_COLLECTION, indexName, indexConfig);
+        MilvusUtils.waitForIndex(milvusClient, BENCHMARK_COLLECTION, indexName, BENCHMARK_POLL_INTERVAL_MS);
+        double buildTime = (System.currentTimeMillis() - start) / 1000.0;
+
+        loadCollection(milvusClient, BENCHMARK_COLLECTION);
+        R<GetQuerySegmentInfoResponse> segments = MilvusUtils.checkResponse(milvusClient.getQuerySegmentInfo(
+                GetQuerySegmentInfoParam.newBuilder().withCollectionName(BENCHMARK_COLLECTION).build()));
+        long memory = segments.getData().getInfosList().stream().mapToLong(QuerySegmentInfo::getMemSize).sum();
+
+        double totalRecall = 0;
+        start = System.currentTimeMillis();
+        for (List<Float> query : queries) {
+            R<SearchResults> response = MilvusUtils.checkResponse(milvusClient.search(SearchParam.newBuilder()
+                    .withCollectionName(BENCHMARK_COLLECTION)
+                    .withMetricType(indexConfig.getMetricType())
+                    .withVectorFieldName(MilvusConstants.VECTOR_FIELD_NAME)
+                    .withVectors(List.of(query))
+                    .withTopK(BENCHMARK_TOP_K)
+                    .withParams(benchmarkCase.searchParams)
+                    .build()));
+            Set<String> found = new SearchResultsWrapper(response.getData().getResults()).getIDScore(0).stream()
+                    .map(SearchResultsWrapper.IDScore::getStrID).collect(Collectors.toSet());
+            Set<String> expected = exactTopK(ids, vectors, query, indexConfig.getMetricType());
+            found.retainAll(expected);
+            totalRecall = totalRecall + (double) found.size() / expected.size();
+        }
+        double qps = queries.size() * 1000.0 / Math.max(1, System.currentTimeMillis() - start);
+
+        MilvusUtils.checkResponse(milvusClient.releaseCollection(ReleaseCollectionParam.newBuilder()
+                .withCollectionName(BENCHMARK_COLLECTION).build()));
+        MilvusUtils.checkResponse(milvusClient.dropIndex(DropIndexParam.newBuilder()
+                .withCollectionName(BENCHMARK_COLLECTION).withIndexName(indexName).build()));
+        return String.format("%-70s %-16s %10.1f %10.1f %10.1f %10.3f", indexConfig, benchmarkCase.searchParams, buildTime,
+                memory / (1024.0 * 1024.0), qps, totalRecall / queries.size());
+    }
+
+    /**
+     * Brute-force search for the ids of the top-k nearest vectors (ground truth for recall)
+     */
+    private static Set<String> exactTopK(List<String> ids, List<List<Float>> vectors, List<Float> query, MetricType metric) {
+        Comparator<Integer> byDistance = Comparator.comparingDouble(i -> distance(vectors.get(i), query, metric));
+        return IntStream.range(0, ids.size()).boxed()
+                .sorted(byDistance)
+                .limit(BENCHMARK_TOP_K)
+                .map(ids::get)
+                .collect(Collectors.toCollection(HashSet::new));
+    }
+
+    /**
+     * @return distance between 2 vectors, lower means more similar
+     */
+    private static double distance(List<Float> a, List<Float> b, MetricType metric) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        double l2 = 0;
+        for (int i = 0; i < a.size(); i++) {
+            dot = dot + a.get(i) * b.get(i);
+            normA = normA + a.get(i) * a.get(i);
+            normB = normB + b.get(i) * b.get(i);
+            l2 = l2 + (a.get(i) - b.get(i)) * (a.get(i) - b.get(i));
+        }
+        return switch (metric) {
+            case IP -> -dot;
+            case COSINE -> -dot / Math.sqrt(normA * normB);
+            default -> l2;
+        };
+    }
+
+    private boolean testCollectionExists(MilvusClient milvusClient, String collectionName) {
+        R<ListCollectionsResponse> response = MilvusUtils.checkResponse(milvusClient.listCollections(ListCollectionsParam.newBuilder().build()));
+        return response.getData().collectionNames.contains(collectionName);
+    }
+
+    private static final class BenchmarkCase {
+        private final MilvusIndexConfig indexConfig;
+        private final String searchParams;
+
+        private BenchmarkCase(MilvusIndexConfig indexConfig, String searchParams) {
+            this.indexConfig = indexConfig;
+            this.searchParams = searchParams;
+        }
     }
 
 //    @Disabled("Only enable this when creating a new collection manually")
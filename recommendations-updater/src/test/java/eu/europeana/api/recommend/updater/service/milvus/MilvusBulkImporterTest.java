@@ -0,0 +1,85 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import eu.europeana.api.recommend.updater.exception.MilvusStateException;
+import eu.europeana.api.recommend.updater.service.milvus.BulkInsertFileWriter.BulkInsertFile;
+import io.milvus.client.MilvusClient;
+import io.milvus.grpc.GetImportStateResponse;
+import io.milvus.grpc.ImportResponse;
+import io.milvus.grpc.ImportState;
+import io.milvus.param.R;
+import io.milvus.param.bulkinsert.BulkInsertParam;
+import io.milvus.param.bulkinsert.GetBulkInsertStateParam;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class MilvusBulkImporterTest {
+
+    private static final List<BulkInsertFile> FILES = List.of(
+            new BulkInsertFile(null, Path.of("/tmp/staging/test-0.json"), 2),
+            new BulkInsertFile("p1", Path.of("/tmp/staging/test-1.json"), 3));
+
+    private static R<ImportResponse> task(long taskId) {
+        return R.success(ImportResponse.newBuilder().addTasks(taskId).build());
+    }
+
+    private static R<GetImportStateResponse> state(ImportState state, long rows) {
+        return R.success(GetImportStateResponse.newBuilder().setState(state).setRowCount(rows).build());
+    }
+
+    private static MilvusClient mockClient(ImportState state) {
+        MilvusClient client = mock(MilvusClient.class);
+        when(client.bulkInsert(any(BulkInsertParam.class))).thenReturn(task(1), task(2));
+        when(client.getBulkInsertState(any(GetBulkInsertStateParam.class))).thenAnswer(invocation -> {
+            GetBulkInsertStateParam param = invocation.getArgument(0);
+            return state(state, param.getTask() == 1 ? 2 : 3);
+        });
+        return client;
+    }
+
+    @Test
+    public void testImportUploadsFilesFirst() throws Exception {
+        MilvusClient client = mockClient(ImportState.ImportCompleted);
+        BulkInsertUploader uploader = mock(BulkInsertUploader.class);
+
+        long nrImported = new MilvusBulkImporter(client, "test", "staging/", uploader, 1, 10_000).importFiles(FILES);
+
+        assertEquals(5, nrImported);
+        InOrder inOrder = inOrder(uploader, client);
+        inOrder.verify(uploader).upload(Path.of("/tmp/staging/test-0.json"), "staging/test-0.json");
+        inOrder.verify(uploader).upload(Path.of("/tmp/staging/test-1.json"), "staging/test-1.json");
+        inOrder.verify(client, times(2)).bulkInsert(any(BulkInsertParam.class));
+    }
+
+    @Test
+    public void testImportWithoutUploader() throws Exception {
+        MilvusClient client = mockClient(ImportState.ImportCompleted);
+
+        assertEquals(5, new MilvusBulkImporter(client, "test", null, null, 1, 10_000).importFiles(FILES));
+        verify(client, times(2)).bulkInsert(any(BulkInsertParam.class));
+    }
+
+    @Test
+    public void testImportTimeout() {
+        MilvusClient client = mockClient(ImportState.ImportPending);
+        MilvusBulkImporter importer = new MilvusBulkImporter(client, "test", null, null, 1, 50);
+
+        MilvusStateException e = assertThrows(MilvusStateException.class, () -> importer.importFiles(FILES));
+        assertEquals("Bulk insert did not complete within 0 seconds, 2 of 2 tasks are still running: [1, 2]", e.getMessage());
+    }
+
+    @Test
+    public void testImportFailed() {
+        MilvusClient client = mockClient(ImportState.ImportFailed);
+        MilvusBulkImporter importer = new MilvusBulkImporter(client, "test", null, null, 1, 10_000);
+
+        assertThrows(MilvusStateException.class, () -> importer.importFiles(FILES));
+    }
+}
@@ -0,0 +1,98 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import eu.europeana.api.recommend.common.MilvusConstants;
+import io.milvus.param.dml.InsertParam;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Benchmark that shows how insert throughput changes with the number of Milvus clients (gRPC connections), using a
+ * local gRPC stand-in instead of a real Milvus server.
+ */
+@Disabled("Run this manually to benchmark the Milvus client pool")
+public class MilvusClientPoolBenchmarkIT {
+
+    private static final Logger LOG = LogManager.getLogger(MilvusClientPoolBenchmarkIT.class);
+
+    private static final String COLLECTION = "benchmark";
+    private static final int[] POOL_SIZES = {1, 2, 4, 8};
+    private static final int THREADS = 8;
+    private static final int BATCH_SIZE = 200;
+    private static final int INSERTS_PER_THREAD = 100;
+    private static final long STUB_LATENCY_MICROS = 2_000;
+    private static final long STUB_MICROS_PER_ROW = 5;
+
+    private static List<List<Float>> createVectors(int size) {
+        Random random = new Random(1);
+        List<List<Float>> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            List<Float> vector = new ArrayList<>(MilvusConstants.VECTOR_DIMENSION);
+            for (int j = 0; j < MilvusConstants.VECTOR_DIMENSION; j++) {
+                vector.add(random.nextFloat());
+            }
+            result.add(vector);
+        }
+        return result;
+    }
+
+    @Test
+    public void benchmarkPoolSizes() throws Exception {
+        List<String> ids = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            ids.add("/benchmark/" + i);
+        }
+        List<List<Float>> vectors = createVectors(BATCH_SIZE);
+        InsertParam insertParam = InsertParam.newBuilder()
+                .withCollectionName(COLLECTION)
+                .withFields(List.of(new InsertParam.Field(MilvusConstants.RECORD_ID_FIELD_NAME, ids),
+                        new InsertParam.Field(MilvusConstants.VECTOR_FIELD_NAME, vectors)))
+                .build();
+
+        List<String> report = new ArrayList<>();
+        report.add(String.format("%10s %10s %12s", "Pool size", "Seconds", "Rows/sec"));
+        try (MilvusGrpcStub stub = new MilvusGrpcStub(THREADS * 2, STUB_LATENCY_MICROS, STUB_MICROS_PER_ROW)) {
+            for (int poolSize : POOL_SIZES) {
+                report.add(run(stub, poolSize, insertParam));
+            }
+        }
+        LOG.info("Inserting {} threads x {} inserts of {} rows:\n{}", THREADS, INSERTS_PER_THREAD, BATCH_SIZE,
+                String.join("\n", report));
+    }
+
+    private String run(MilvusGrpcStub stub, int poolSize, InsertParam insertParam) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try (MilvusClientPool pool = MilvusClientPool.create(stub.getConnectParam(), poolSize)) {
+            // warm up all connections
+            for (int i = 0; i < poolSize * 2; i++) {
+                MilvusUtils.checkResponse(pool.execute(client -> client.insert(insertParam)));
+            }
+
+            long start = System.nanoTime();
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < INSERTS_PER_THREAD; i++) {
+                        MilvusUtils.checkResponse(pool.execute(client -> client.insert(insertParam)));
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long rows = (long) THREADS * INSERTS_PER_THREAD * BATCH_SIZE;
+            return String.format("%10d %10.2f %12.0f", poolSize, seconds, rows / seconds);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import io.milvus.client.MilvusClient;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class MilvusClientPoolTest {
+
+    private static List<MilvusClient> mockClients(int size) {
+        return IntStream.range(0, size).mapToObj(i -> mock(MilvusClient.class)).toList();
+    }
+
+    @Test
+    public void testRoundRobinWhenIdle() {
+        List<MilvusClient> clients = mockClients(3);
+        MilvusClientPool pool = new MilvusClientPool(clients);
+
+        for (int i = 0; i < 6; i++) {
+            assertSame(clients.get(i % 3), pool.execute(client -> client));
+        }
+    }
+
+    @Test
+    public void testLeastBusy() {
+        List<MilvusClient> clients = mockClients(3);
+        MilvusClientPool pool = new MilvusClientPool(clients);
+
+        MilvusClientPool.Lease first = pool.acquire();
+        MilvusClientPool.Lease second = pool.acquire();
+        MilvusClientPool.Lease third = pool.acquire();
+        assertEquals(3, List.of(first.getClient(), second.getClient(), third.getClient()).stream().distinct().count());
+
+        // only the second client is free again, so that should be used next
+        second.release();
+        second.release(); // releasing twice shouldn't matter
+        assertEquals(0, pool.getInProgress(1));
+        assertSame(second.getClient(), pool.acquire().getClient());
+        assertEquals(1, pool.getInProgress(0));
+        assertEquals(1, pool.getInProgress(1));
+    }
+
+    @Test
+    public void testClose() {
+        List<MilvusClient> clients = mockClients(2);
+        new MilvusClientPool(clients).close();
+        for (MilvusClient client : clients) {
+            verify(client).close();
+        }
+    }
+
+    @Test
+    public void testEmptyPool() {
+        assertThrows(IllegalArgumentException.class, () -> new MilvusClientPool(List.of()));
+    }
+}
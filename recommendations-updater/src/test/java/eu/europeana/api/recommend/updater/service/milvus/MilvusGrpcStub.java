@@ -0,0 +1,127 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import eu.europeana.api.recommend.common.MilvusConstants;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.milvus.grpc.CollectionSchema;
+import io.milvus.grpc.DataType;
+import io.milvus.grpc.DescribeCollectionRequest;
+import io.milvus.grpc.DescribeCollectionResponse;
+import io.milvus.grpc.FieldSchema;
+import io.milvus.grpc.InsertRequest;
+import io.milvus.grpc.KeyValuePair;
+import io.milvus.grpc.MilvusServiceGrpc;
+import io.milvus.grpc.MutationResult;
+import io.milvus.param.ConnectParam;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal local gRPC stand-in for a Milvus server, so we can benchmark writing without a real Milvus instance. It
+ * only supports describing a collection (required by the client before inserting) and inserts. Inserted data is
+ * discarded, each insert takes a fixed time plus a time per row.
+ */
+public class MilvusGrpcStub implements AutoCloseable {
+
+    private static final Logger LOG = LogManager.getLogger(MilvusGrpcStub.class);
+
+    private static final int MAX_MESSAGE_SIZE = 64 * 1024 * 1024;
+
+    private final Server server;
+    private final ExecutorService executor;
+    private final long latencyMicros;
+    private final long microsPerRow;
+    private final AtomicLong nrInserts = new AtomicLong();
+    private final AtomicLong nrRows = new AtomicLong();
+
+    /**
+     * Start a new stub on a random free port
+     * @param threads number of requests that can be handled in parallel
+     * @param latencyMicros fixed processing time per insert in microseconds
+     * @param microsPerRow extra processing time per inserted row in microseconds
+     * @throws IOException when the server can't be started
+     */
+    public MilvusGrpcStub(int threads, long latencyMicros, long microsPerRow) throws IOException {
+        this.latencyMicros = latencyMicros;
+        this.microsPerRow = microsPerRow;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = ServerBuilder.forPort(0)
+                .addService(new Service())
+                .executor(executor)
+                .maxInboundMessageSize(MAX_MESSAGE_SIZE)
+                .build()
+                .start();
+        LOG.info("Milvus gRPC stub started on port {}", server.getPort());
+    }
+
+    public ConnectParam getConnectParam() {
+        return ConnectParam.newBuilder()
+                .withHost("localhost")
+                .withPort(server.getPort())
+                .build();
+    }
+
+    public long getNrInserts() {
+        return nrInserts.get();
+    }
+
+    public long getNrRows() {
+        return nrRows.get();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        server.shutdownNow().awaitTermination(1, TimeUnit.SECONDS);
+        executor.shutdownNow();
+        LOG.info("Milvus gRPC stub stopped after {} inserts ({} rows)", nrInserts.get(), nrRows.get());
+    }
+
+    private final class Service extends MilvusServiceGrpc.MilvusServiceImplBase {
+
+        @Override
+        public void describeCollection(DescribeCollectionRequest request, StreamObserver<DescribeCollectionResponse> responseObserver) {
+            CollectionSchema schema = CollectionSchema.newBuilder()
+                    .setName(request.getCollectionName())
+                    .addFields(FieldSchema.newBuilder()
+                            .setFieldID(1)
+                            .setName(MilvusConstants.RECORD_ID_FIELD_NAME)
+                            .setDataType(DataType.VarChar)
+                            .setIsPrimaryKey(true)
+                            .addTypeParams(KeyValuePair.newBuilder().setKey("max_length").setValue("256")))
+                    .addFields(FieldSchema.newBuilder()
+                            .setFieldID(2)
+                            .setName(MilvusConstants.VECTOR_FIELD_NAME)
+                            .setDataType(DataType.FloatVector)
+                            .addTypeParams(KeyValuePair.newBuilder().setKey("dim")
+                                    .setValue(String.valueOf(MilvusConstants.VECTOR_DIMENSION))))
+                    .build();
+            responseObserver.onNext(DescribeCollectionResponse.newBuilder()
+                    .setCollectionName(request.getCollectionName())
+                    .setSchema(schema)
+                    .build());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void insert(InsertRequest request, StreamObserver<MutationResult> responseObserver) {
+            try {
+                TimeUnit.MICROSECONDS.sleep(latencyMicros + microsPerRow * request.getNumRows());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                responseObserver.onError(e);
+                return;
+            }
+            nrInserts.incrementAndGet();
+            nrRows.addAndGet(request.getNumRows());
+            responseObserver.onNext(MutationResult.newBuilder().setInsertCnt(request.getNumRows()).build());
+            responseObserver.onCompleted();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import eu.europeana.api.recommend.updater.exception.MilvusStateException;
+import io.milvus.client.MilvusClient;
+import io.milvus.grpc.MutationResult;
+import io.milvus.param.R;
+import io.milvus.param.dml.InsertParam;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class MilvusInsertBufferTest {
+
+    private static final String COLLECTION = "test";
+
+    private static List<String> ids(int size) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            result.add("1/" + i);
+        }
+        return result;
+    }
+
+    private static List<List<Float>> vectors(int size) {
+        List<List<Float>> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            result.add(List.of(1F, 2F));
+        }
+        return result;
+    }
+
+    @Test
+    public void testBatchOnRows() {
+        MilvusClient client = mock(MilvusClient.class);
+        when(client.insertAsync(any())).thenReturn(Futures.immediateFuture(R.success(MutationResult.getDefaultInstance())));
+        MilvusInsertBuffer buffer = new MilvusInsertBuffer(new MilvusClientPool(List.of(client)), COLLECTION, 100, Long.MAX_VALUE, 2, false);
+
+        buffer.add(null, ids(50), vectors(50));
+        verify(client, never()).insertAsync(any());
+        buffer.add(null, ids(50), vectors(50));
+        buffer.add(null, ids(10), vectors(10));
+
+        ArgumentCaptor<InsertParam> captor = ArgumentCaptor.forClass(InsertParam.class);
+        verify(client, times(1)).insertAsync(captor.capture());
+        assertEquals(100, captor.getValue().getRowCount());
+
+        buffer.flush();
+        verify(client, times(2)).insertAsync(captor.capture());
+        assertEquals(10, captor.getValue().getRowCount());
+    }
+
+    @Test
+    public void testBatchOnBytes() {
+        MilvusClient client = mock(MilvusClient.class);
+        when(client.insertAsync(any())).thenReturn(Futures.immediateFuture(R.success(MutationResult.getDefaultInstance())));
+        // each row is 3 (id) + 2 * 4 (vector) = 11 bytes
+        MilvusInsertBuffer buffer = new MilvusInsertBuffer(new MilvusClientPool(List.of(client)), COLLECTION, 1000, 22, 2, false);
+
+        buffer.add(null, ids(1), vectors(1));
+        verify(client, never()).insertAsync(any());
+        buffer.add(null, ids(1), vectors(1));
+        verify(client, times(1)).insertAsync(any());
+    }
+
+    @Test
+    public void testSeparatePartitions() {
+        MilvusClient client = mock(MilvusClient.class);
+        when(client.insertAsync(any())).thenReturn(Futures.immediateFuture(R.success(MutationResult.getDefaultInstance())));
+        MilvusInsertBuffer buffer = new MilvusInsertBuffer(new MilvusClientPool(List.of(client)), COLLECTION, 100, Long.MAX_VALUE, 2, false);
+
+        buffer.add("set1", ids(10), vectors(10));
+        buffer.add("set2", ids(10), vectors(10));
+        buffer.flush();
+
+        ArgumentCaptor<InsertParam> captor = ArgumentCaptor.forClass(InsertParam.class);
+        verify(client, times(2)).insertAsync(captor.capture());
+        assertEquals(List.of("set1", "set2"), captor.getAllValues().stream().map(InsertParam::getPartitionName).sorted().toList());
+    }
+
+    @Test
+    public void testBackpressure() throws InterruptedException {
+        MilvusClient client = mock(MilvusClient.class);
+        SettableFuture<R<MutationResult>> slowInsert = SettableFuture.create();
+        when(client.insertAsync(any())).thenReturn(slowInsert);
+        MilvusInsertBuffer buffer = new MilvusInsertBuffer(new MilvusClientPool(List.of(client)), COLLECTION, 1, Long.MAX_VALUE, 1, false);
+
+        buffer.add(null, ids(1), vectors(1)); // first insert is in progress
+        CountDownLatch secondAdded = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            buffer.add(null, ids(1), vectors(1));
+            secondAdded.countDown();
+        });
+        thread.start();
+        assertFalse(secondAdded.await(200, TimeUnit.MILLISECONDS), "Second insert should wait for the first one");
+
+        slowInsert.set(R.success(MutationResult.getDefaultInstance()));
+        assertTrue(secondAdded.await(5, TimeUnit.SECONDS));
+        buffer.flush();
+    }
+
+    @Test
+    public void testErrorIsReported() {
+        MilvusClient client = mock(MilvusClient.class);
+        when(client.insertAsync(any())).thenReturn(Futures.immediateFuture(R.failed(new RuntimeException("test error"))));
+        MilvusInsertBuffer buffer = new MilvusInsertBuffer(new MilvusClientPool(List.of(client)), COLLECTION, 10, Long.MAX_VALUE, 2, false);
+
+        buffer.add(null, ids(10), vectors(10));
+        assertThrows(MilvusStateException.class, () -> buffer.add(null, ids(1), vectors(1)));
+        assertThrows(MilvusStateException.class, buffer::flush);
+    }
+}
@@ -0,0 +1,178 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import eu.europeana.api.recommend.common.MilvusConstants;
+import io.milvus.client.MilvusClient;
+import io.milvus.grpc.DataType;
+import io.milvus.grpc.FieldData;
+import io.milvus.grpc.GetIndexBuildProgressResponse;
+import io.milvus.grpc.QueryResults;
+import io.milvus.grpc.ScalarField;
+import io.milvus.grpc.StringArray;
+import io.milvus.param.R;
+import io.milvus.param.dml.QueryParam;
+import io.milvus.param.index.GetIndexBuildProgressParam;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class MilvusUtilsTest {
+
+    /**
+     * @param ids the record ids to return
+     * @return successful query response containing the provided record ids
+     */
+    public static R<QueryResults> queryResults(List<String> ids) {
+        return R.success(QueryResults.newBuilder()
+                .addFieldsData(FieldData.newBuilder()
+                        .setFieldName(MilvusConstants.RECORD_ID_FIELD_NAME)
+                        .setType(DataType.VarChar)
+                        .setScalars(ScalarField.newBuilder()
+                                .setStringData(StringArray.newBuilder().addAllData(ids))))
+                .build());
+    }
+
+    @Test
+    public void testCreateInExpression() {
+        List<String> result = MilvusUtils.createInExpressions(List.of("1/a", "1/b"), 1000);
+        assertEquals(List.of("about in [\"1/a\",\"1/b\"]"), result);
+    }
+
+    @Test
+    public void testCreateInExpressionEscaping() {
+        List<String> result = MilvusUtils.createInExpressions(List.of("1/a\"b", "1/c\\d"), 1000);
+        assertEquals(List.of("about in [\"1/a\\\"b\",\"1/c\\\\d\"]"), result);
+    }
+
+    @Test
+    public void testCreateSetExpression() {
+        assertEquals("about like \"2021672/%\"", MilvusUtils.createSetExpression("2021672"));
+    }
+
+    @Test
+    public void testCreateSetExpressionRange() {
+        assertEquals("about like \"2021672/%\" && about >= \"2021672/a\\\"b\" && about < \"2021672/c\"",
+                MilvusUtils.createSetExpression("2021672", "2021672/a\"b", "2021672/c"));
+        assertEquals("about like \"2021672/%\" && about < \"2021672/c\"",
+                MilvusUtils.createSetExpression("2021672", null, "2021672/c"));
+        assertEquals("about like \"2021672/%\"", MilvusUtils.createSetExpression("2021672", null, null));
+    }
+
+    /**
+     * Mock a Milvus collection that returns the highest matching ids when there are more than the query limit, to
+     * check we don't rely on getting the lowest ids
+     */
+    private static MilvusClient mockCollection(List<String> ids) {
+        Pattern from = Pattern.compile("about >= \"([^\"]+)\"");
+        Pattern to = Pattern.compile("about < \"([^\"]+)\"");
+        MilvusClient client = mock(MilvusClient.class);
+        when(client.query(any(QueryParam.class))).thenAnswer(invocation -> {
+            QueryParam query = invocation.getArgument(0);
+            Matcher fromMatch = from.matcher(query.getExpr());
+            Matcher toMatch = to.matcher(query.getExpr());
+            String fromId = fromMatch.find() ? fromMatch.group(1) : null;
+            String toId = toMatch.find() ? toMatch.group(1) : null;
+            List<String> matching = ids.stream()
+                    .filter(id -> fromId == null || id.compareTo(fromId) >= 0)
+                    .filter(id -> toId == null || id.compareTo(toId) < 0)
+                    .sorted(Comparator.reverseOrder())
+                    .limit(query.getLimit())
+                    .toList();
+            return queryResults(matching);
+        });
+        return client;
+    }
+
+    @Test
+    public void testIterateSetIds() {
+        List<String> ids = List.of("2021672/g", "2021672/a", "2021672/e", "2021672/b", "2021672/f", "2021672/d", "2021672/c");
+        for (int pageSize = 2; pageSize <= 8; pageSize++) {
+            MilvusClient client = mockCollection(ids);
+
+            List<String> result = new ArrayList<>();
+            MilvusUtils.iterateSetIds(client, "test", "2021672", pageSize).forEachRemaining(result::add);
+
+            assertEquals(ids.stream().sorted().toList(), result, "Wrong result for page size " + pageSize);
+        }
+    }
+
+    @Test
+    public void testIterateSetIdsSplitsFullRange() {
+        MilvusClient client = mockCollection(List.of("2021672/a", "2021672/b", "2021672/c"));
+
+        List<String> result = new ArrayList<>();
+        MilvusUtils.iterateSetIds(client, "test", "2021672", 2).forEachRemaining(result::add);
+
+        assertEquals(List.of("2021672/a", "2021672/b", "2021672/c"), result);
+        ArgumentCaptor<QueryParam> queries = ArgumentCaptor.forClass(QueryParam.class);
+        verify(client, atLeast(1)).query(queries.capture());
+        // the first query returns b and c, so it's split at c, then the range below c returns a and b and is split at b
+        assertEquals(List.of("about like \"2021672/%\"",
+                        "about like \"2021672/%\" && about < \"2021672/c\"",
+                        "about like \"2021672/%\" && about < \"2021672/b\"",
+                        "about like \"2021672/%\" && about >= \"2021672/b\" && about < \"2021672/c\"",
+                        "about like \"2021672/%\" && about >= \"2021672/c\""),
+                queries.getAllValues().stream().map(QueryParam::getExpr).toList());
+        assertEquals(2L, queries.getAllValues().get(0).getLimit());
+    }
+
+    @Test
+    public void testIterateSetIdsLastPageNotFull() {
+        MilvusClient client = mock(MilvusClient.class);
+        when(client.query(any(QueryParam.class))).thenReturn(queryResults(List.of("2021672/a")));
+
+        List<String> result = new ArrayList<>();
+        MilvusUtils.iterateSetIds(client, "test", "2021672", 2).forEachRemaining(result::add);
+
+        assertEquals(List.of("2021672/a"), result);
+        verify(client, times(1)).query(any(QueryParam.class));
+    }
+
+    @Test
+    public void testCreateInExpressionNoIds() {
+        assertTrue(MilvusUtils.createInExpressions(List.of(), 1000).isEmpty());
+    }
+
+    @Test
+    public void testCreateInExpressionSplit() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ids.add("2021672/resource_document_" + i);
+        }
+        int maxLength = 200;
+        List<String> result = MilvusUtils.createInExpressions(ids, maxLength);
+
+        assertTrue(result.size() > 1);
+        int nrIds = 0;
+        for (String expression : result) {
+            assertTrue(expression.length() <= maxLength, "Expression too long: " + expression);
+            assertTrue(expression.startsWith("about in [") && expression.endsWith("]"));
+            nrIds = nrIds + expression.split(",").length;
+        }
+        assertEquals(ids.size(), nrIds);
+    }
+
+    private static R<GetIndexBuildProgressResponse> progress(long indexed, long total) {
+        return R.success(GetIndexBuildProgressResponse.newBuilder().setIndexedRows(indexed).setTotalRows(total).build());
+    }
+
+    @Test
+    public void testWaitForIndex() throws InterruptedException {
+        MilvusClient client = mock(MilvusClient.class);
+        when(client.getIndexBuildProgress(any(GetIndexBuildProgressParam.class)))
+                .thenReturn(progress(0, 100), progress(50, 100), progress(100, 100));
+
+        MilvusUtils.waitForIndex(client, "test", "testIndex", 1);
+
+        verify(client, times(3)).getIndexBuildProgress(any(GetIndexBuildProgressParam.class));
+    }
+}
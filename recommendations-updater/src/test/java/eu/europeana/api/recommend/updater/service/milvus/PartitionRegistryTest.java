@@ -0,0 +1,80 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import eu.europeana.api.recommend.updater.exception.MilvusStateException;
+import eu.europeana.api.recommend.updater.service.vectorstore.VectorStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class PartitionRegistryTest {
+
+    private static VectorStore mockStore() {
+        VectorStore store = mock(VectorStore.class);
+        doAnswer(invocation -> {
+            TimeUnit.MILLISECONDS.sleep(50); // give other threads time to try the same
+            return null;
+        }).when(store).createPartition(anyString(), anyString());
+        return store;
+    }
+
+    @Test
+    public void testExistingNotCreated() {
+        VectorStore store = mockStore();
+        PartitionRegistry registry = new PartitionRegistry(store, "test", List.of("_default", "set1"));
+        assertEquals(2, registry.size());
+
+        registry.ensureExists("set1");
+        verify(store, never()).createPartition(anyString(), anyString());
+
+        registry.ensureExists("set2");
+        registry.ensureExists("set2");
+        verify(store, times(1)).createPartition("test", "set2");
+        assertEquals(3, registry.size());
+    }
+
+    @Test
+    public void testConcurrentCreate() throws Exception {
+        VectorStore store = mockStore();
+        PartitionRegistry registry = new PartitionRegistry(store, "test", List.of());
+
+        int nrThreads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < nrThreads; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                registry.ensureExists("bucket_1");
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        verify(store, times(1)).createPartition(anyString(), anyString());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testFailedCreateNotRegistered() {
+        VectorStore store = mock(VectorStore.class);
+        doThrow(new MilvusStateException("error", null)).when(store).createPartition(anyString(), anyString());
+        PartitionRegistry registry = new PartitionRegistry(store, "test", List.of());
+
+        assertThrows(MilvusStateException.class, () -> registry.ensureExists("set1"));
+        assertEquals(0, registry.size());
+    }
+}
@@ -0,0 +1,89 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import io.milvus.client.MilvusClient;
+import io.milvus.grpc.DescribeCollectionResponse;
+import io.milvus.param.R;
+import io.milvus.param.RpcStatus;
+import io.milvus.param.alias.AlterAliasParam;
+import io.milvus.param.alias.CreateAliasParam;
+import io.milvus.param.collection.DescribeCollectionParam;
+import io.milvus.param.collection.DropCollectionParam;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ShadowCollectionSwapperTest {
+
+    private static final String ALIAS = "records";
+
+    @Test
+    public void testCreateShadowName() {
+        assertEquals("records_20240131235901",
+                ShadowCollectionSwapper.createShadowName(ALIAS, LocalDateTime.of(2024, 1, 31, 23, 59, 1)));
+    }
+
+    @Test
+    public void testSelectCollectionsToDrop() {
+        List<String> collections = List.of("records_20240101000000", "records_20240301000000", "records_20240201000000",
+                "records_20240401000000", "records", "records_test", "other_20240101000000");
+
+        // current is never dropped, nor are collections that don't follow the naming pattern
+        assertEquals(List.of("records_20240201000000", "records_20240101000000"),
+                ShadowCollectionSwapper.selectCollectionsToDrop(collections, ALIAS, "records_20240401000000", 1));
+        assertEquals(List.of("records_20240301000000", "records_20240201000000", "records_20240101000000"),
+                ShadowCollectionSwapper.selectCollectionsToDrop(collections, ALIAS, "records_20240401000000", 0));
+        assertEquals(List.of(),
+                ShadowCollectionSwapper.selectCollectionsToDrop(collections, ALIAS, "records_20240401000000", 5));
+    }
+
+    private static MilvusClient mockClient(String currentCollection) {
+        MilvusClient client = mock(MilvusClient.class);
+        if (currentCollection == null) {
+            when(client.describeCollection(any(DescribeCollectionParam.class)))
+                    .thenReturn(R.failed(R.Status.CollectionNotExists, "not found"));
+        } else {
+            when(client.describeCollection(any(DescribeCollectionParam.class))).thenReturn(
+                    R.success(DescribeCollectionResponse.newBuilder().setCollectionName(currentCollection).build()));
+        }
+        when(client.createAlias(any(CreateAliasParam.class))).thenReturn(R.success(new RpcStatus(RpcStatus.SUCCESS_MSG)));
+        when(client.alterAlias(any(AlterAliasParam.class))).thenReturn(R.success(new RpcStatus(RpcStatus.SUCCESS_MSG)));
+        when(client.dropCollection(any(DropCollectionParam.class))).thenReturn(R.success(new RpcStatus(RpcStatus.SUCCESS_MSG)));
+        return client;
+    }
+
+    @Test
+    public void testSwapExistingAlias() {
+        MilvusClient client = mockClient("records_20240101000000");
+        new ShadowCollectionSwapper(client, ALIAS).swap("records_20240201000000",
+                List.of("records_20240101000000", "records_20240201000000"));
+
+        verify(client).alterAlias(any(AlterAliasParam.class));
+        verify(client, never()).createAlias(any(CreateAliasParam.class));
+        verify(client, never()).dropCollection(any(DropCollectionParam.class));
+    }
+
+    @Test
+    public void testSwapNoAlias() {
+        MilvusClient client = mockClient(null);
+        new ShadowCollectionSwapper(client, ALIAS).swap("records_20240201000000", List.of("records_20240201000000"));
+
+        verify(client).createAlias(any(CreateAliasParam.class));
+        verify(client, never()).alterAlias(any(AlterAliasParam.class));
+    }
+
+    @Test
+    public void testSwapReplacesCollectionWithAliasName() {
+        // collection from before we used rebuilds, describing the alias name returns the collection itself
+        MilvusClient client = mockClient(ALIAS);
+        new ShadowCollectionSwapper(client, ALIAS).swap("records_20240201000000", List.of(ALIAS, "records_20240201000000"));
+
+        verify(client).dropCollection(any(DropCollectionParam.class));
+        verify(client).createAlias(any(CreateAliasParam.class));
+        verify(client, never()).alterAlias(any(AlterAliasParam.class));
+    }
+}
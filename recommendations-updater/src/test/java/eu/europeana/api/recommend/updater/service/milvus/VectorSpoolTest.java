@@ -0,0 +1,221 @@
+package eu.europeana.api.recommend.updater.service.milvus;
+
+import eu.europeana.api.recommend.common.MilvusConstants;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VectorSpoolTest {
+
+    @TempDir
+    Path spoolDir;
+
+    private static List<String> ids(String set, int size) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            result.add("/" + set + "/" + i);
+        }
+        return result;
+    }
+
+    private static List<List<Float>> vectors(int size) {
+        List<List<Float>> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            List<Float> vector = new ArrayList<>();
+            for (int j = 0; j < MilvusConstants.VECTOR_DIMENSION; j++) {
+                vector.add(i + j / 1000f);
+            }
+            result.add(vector);
+        }
+        return result;
+    }
+
+    private static List<List<String>> readIds(Path segment) throws IOException, InterruptedException {
+        List<List<String>> result = new ArrayList<>();
+        VectorSpool.readSegment(segment, (ids, vectors) -> {
+            assertEquals(vectors(ids.size()), vectors);
+            result.add(ids);
+        });
+        return result;
+    }
+
+    @Test
+    public void testAppendAndRead() throws IOException, InterruptedException {
+        try (VectorSpool spool = new VectorSpool(spoolDir, Long.MAX_VALUE)) {
+            spool.append(ids("1", 2), vectors(2));
+            spool.append(ids("2", 3), vectors(3));
+            assertNull(spool.takeSealed(0));
+
+            spool.seal();
+            Path segment = spool.takeSealed(0);
+            assertNotNull(segment);
+            assertEquals(List.of(ids("1", 2), ids("2", 3)), readIds(segment));
+
+            spool.delete(segment);
+            assertFalse(Files.exists(segment));
+        }
+    }
+
+    @Test
+    public void testSealWhenFull() throws IOException {
+        try (VectorSpool spool = new VectorSpool(spoolDir, 1)) {
+            spool.append(ids("1", 1), vectors(1));
+            spool.append(ids("2", 1), vectors(1));
+            assertEquals(2, spool.getNrSealed());
+        }
+    }
+
+    @Test
+    public void testRecoverSegments() throws IOException, InterruptedException {
+        try (VectorSpool spool = new VectorSpool(spoolDir, 1)) {
+            spool.append(ids("1", 1), vectors(1));
+        }
+        try (VectorSpool spool = new VectorSpool(spoolDir, Long.MAX_VALUE)) {
+            assertEquals(1, spool.getNrSealed());
+            spool.append(ids("2", 1), vectors(1));
+            spool.seal();
+
+            // segments should be returned in the order they were written
+            assertEquals(List.of(ids("1", 1)), readIds(spool.takeSealed(0)));
+            assertEquals(List.of(ids("2", 1)), readIds(spool.takeSealed(0)));
+        }
+    }
+
+    @Test
+    public void testIncompleteEntry() throws IOException, InterruptedException {
+        Path segment;
+        try (VectorSpool spool = new VectorSpool(spoolDir, Long.MAX_VALUE)) {
+            spool.append(ids("1", 1), vectors(1));
+            spool.seal();
+            segment = spool.takeSealed(0);
+        }
+        // simulate a crash while writing the second entry
+        byte[] data = Files.readAllBytes(segment);
+        Files.write(segment, new byte[]{ 0, 0, 1, 0, 1, 2, 3 }, StandardOpenOption.APPEND);
+        assertEquals(List.of(ids("1", 1)), readIds(segment));
+
+        // corrupt data is skipped as well
+        data[10] = (byte) (data[10] + 1);
+        Files.write(segment, data);
+        assertTrue(readIds(segment).isEmpty());
+    }
+
+    @Test
+    public void testDrainerRetries() throws IOException, InterruptedException {
+        AtomicInteger nrFailures = new AtomicInteger(1);
+        List<List<String>> written = new ArrayList<>();
+        List<Boolean> replays = new ArrayList<>();
+        SpoolDrainer drainer;
+        try (VectorSpool spool = new VectorSpool(spoolDir, Long.MAX_VALUE)) {
+            drainer = new SpoolDrainer(spool, new SpoolDrainer.Target() {
+                @Override
+                public void write(List<String> ids, List<List<Float>> vectors, boolean replay) {
+                    written.add(ids);
+                    replays.add(replay);
+                }
+
+                @Override
+                public void sync() {
+                    if (nrFailures.getAndDecrement() > 0) {
+                        throw new IllegalStateException("Milvus unavailable");
+                    }
+                }
+            }, 1, 1);
+            drainer.start();
+            spool.append(ids("1", 2), vectors(2));
+            drainer.finish();
+        }
+        // the whole segment is written again after a failure, as a replay so the target can prevent duplicates
+        assertEquals(List.of(ids("1", 2), ids("1", 2)), written);
+        assertEquals(List.of(false, true), replays);
+        // rows are only counted once
+        assertEquals(2, drainer.getNrWritten());
+        try (var files = Files.list(spoolDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testDrainerReplaysPreviousRun() throws IOException, InterruptedException {
+        try (VectorSpool spool = new VectorSpool(spoolDir, Long.MAX_VALUE)) {
+            spool.append(ids("1", 1), vectors(1));
+        }
+        List<List<String>> written = new ArrayList<>();
+        List<Boolean> replays = new ArrayList<>();
+        try (VectorSpool spool = new VectorSpool(spoolDir, Long.MAX_VALUE)) {
+            SpoolDrainer drainer = new SpoolDrainer(spool, new SpoolDrainer.Target() {
+                @Override
+                public void write(List<String> ids, List<List<Float>> vectors, boolean replay) {
+                    written.add(ids);
+                    replays.add(replay);
+                }
+
+                @Override
+                public void sync() {
+                    // not used
+                }
+            }, 0, 1);
+            spool.append(ids("2", 1), vectors(1));
+            drainer.start();
+            drainer.finish();
+            assertEquals(2, drainer.getNrWritten());
+        }
+        assertEquals(List.of(ids("1", 1), ids("2", 1)), written);
+        assertEquals(List.of(true, false), replays);
+    }
+
+    @Test
+    public void testDiscardPreviousRun() throws IOException, InterruptedException {
+        try (VectorSpool spool = new VectorSpool(spoolDir, 1)) {
+            spool.append(ids("1", 1), vectors(1));
+            spool.append(ids("2", 1), vectors(1));
+        }
+        try (VectorSpool spool = new VectorSpool(spoolDir, Long.MAX_VALUE)) {
+            spool.append(ids("3", 1), vectors(1));
+            spool.seal();
+            assertEquals(3, spool.getNrSealed());
+
+            assertEquals(2, spool.discardPreviousRun());
+            assertEquals(1, spool.getNrSealed());
+            Path segment = spool.takeSealed(0);
+            assertFalse(spool.isFromPreviousRun(segment));
+            assertEquals(List.of(ids("3", 1)), readIds(segment));
+        }
+        try (var files = Files.list(spoolDir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void testDrainerGivesUp() throws IOException {
+        try (VectorSpool spool = new VectorSpool(spoolDir, Long.MAX_VALUE)) {
+            SpoolDrainer drainer = new SpoolDrainer(spool, new SpoolDrainer.Target() {
+                @Override
+                public void write(List<String> ids, List<List<Float>> vectors, boolean replay) {
+                    throw new IllegalStateException("Milvus unavailable");
+                }
+
+                @Override
+                public void sync() {
+                    // not used
+                }
+            }, 2, 1);
+            drainer.start();
+            spool.append(ids("1", 2), vectors(2));
+            assertThrows(RuntimeException.class, drainer::finish);
+        }
+        // segment should be kept for the next run
+        try (var files = Files.list(spoolDir)) {
+            assertEquals(1, files.count());
+        }
+    }
+}
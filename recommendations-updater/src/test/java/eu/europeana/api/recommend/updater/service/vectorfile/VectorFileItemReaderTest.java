@@ -0,0 +1,125 @@
+package eu.europeana.api.recommend.updater.service.vectorfile;
+
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import eu.europeana.api.recommend.updater.config.JobData;
+import eu.europeana.api.recommend.updater.config.UpdaterSettings;
+import eu.europeana.api.recommend.updater.service.ShardManifest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class VectorFileItemReaderTest {
+
+    private static final int BATCH_ROWS = 3;
+    private static final int VECTOR_BYTES = 4 + 2 * 4;
+
+    private static void writeFile(Path baseFile, String setId, int size) throws IOException {
+        List<RecordVectors> vectors = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            vectors.add(new RecordVectors(setId + "/" + i, new Float[]{(float) i, 1f}));
+        }
+        VectorFileWriter writer = new VectorFileWriter(baseFile);
+        writer.open(new ExecutionContext());
+        writer.write(List.of(vectors));
+        writer.close();
+    }
+
+    private static VectorFileItemReader createReader(Path loadFile, Long offset) {
+        UpdaterSettings settings = mock(UpdaterSettings.class);
+        when(settings.isVectorStoreDefined()).thenReturn(true);
+        when(settings.getMilvusCollection()).thenReturn("test");
+        when(settings.getMilvusInsertBatchRows()).thenReturn(BATCH_ROWS);
+        when(settings.getLogProgressInterval()).thenReturn(0);
+        VectorFileItemReader reader = new VectorFileItemReader(settings);
+        JobParametersBuilder params = new JobParametersBuilder().addString(JobData.LOAD_KEY, loadFile.toString());
+        if (offset != null) {
+            params.addLong(JobData.LOAD_OFFSET_KEY, offset);
+        }
+        reader.beforeStep(new StepExecution("loadStep", new JobExecution(1L, params.toJobParameters())));
+        reader.open(new ExecutionContext());
+        return reader;
+    }
+
+    private static List<List<RecordVectors>> readAll(VectorFileItemReader reader) throws IOException {
+        List<List<RecordVectors>> result = new ArrayList<>();
+        List<RecordVectors> batch;
+        while ((batch = reader.read()) != null) {
+            result.add(batch);
+        }
+        return result;
+    }
+
+    @Test
+    public void testLoadFile(@TempDir Path tempDir) throws IOException {
+        Path baseFile = tempDir.resolve("vectors");
+        writeFile(baseFile, "1", 7);
+
+        VectorFileItemReader reader = createReader(VectorFileWriter.getVectorsFile(baseFile), null);
+        List<List<RecordVectors>> batches = readAll(reader);
+        assertEquals(3, batches.size());
+        assertEquals(List.of(3, 3, 1), batches.stream().map(List::size).toList());
+        assertEquals("1/6", batches.get(2).get(0).getId());
+        assertArrayEquals(new Float[]{4f, 1f}, batches.get(1).get(1).getEmbedding());
+
+        // nothing written yet, so we resume from the start
+        assertEquals(0, reader.getResumeOffset());
+        reader.afterWrite(List.of(batches.get(0), batches.get(2)));
+        assertEquals(3L * VECTOR_BYTES, reader.getResumeOffset());
+        reader.afterWrite(List.of(batches.get(1)));
+        assertEquals(7L * VECTOR_BYTES, reader.getResumeOffset());
+        reader.close();
+    }
+
+    @Test
+    public void testLoadFromOffset(@TempDir Path tempDir) throws IOException {
+        Path baseFile = tempDir.resolve("vectors");
+        writeFile(baseFile, "1", 7);
+
+        // offset in the middle of a vector starts at that vector
+        VectorFileItemReader reader = createReader(baseFile, 5L * VECTOR_BYTES - 1);
+        List<List<RecordVectors>> batches = readAll(reader);
+        assertEquals(1, batches.size());
+        assertEquals("1/4", batches.get(0).get(0).getId());
+        assertEquals(3, batches.get(0).size());
+        reader.close();
+
+        assertThrows(ItemStreamException.class, () -> createReader(baseFile, 8L * VECTOR_BYTES));
+    }
+
+    @Test
+    public void testLoadManifest(@TempDir Path tempDir) throws IOException {
+        Path baseFile = tempDir.resolve("vectors");
+        writeFile(tempDir.resolve("vectors_shard_001"), "1", 4);
+        writeFile(tempDir.resolve("vectors_shard_002"), "2", 2);
+        new ShardManifest(6, List.of(
+                new ShardManifest.Shard("vectors_shard_001", 4, Map.of("1", 4L)),
+                new ShardManifest.Shard("vectors_shard_002", 2, Map.of("2", 2L)))).write(baseFile);
+
+        VectorFileItemReader reader = createReader(ShardManifest.getFile(baseFile), null);
+        List<List<RecordVectors>> batches = readAll(reader);
+        // batches don't cross shard boundaries
+        assertEquals(List.of(3, 1, 2), batches.stream().map(List::size).toList());
+        assertEquals("2/0", batches.get(2).get(0).getId());
+        reader.close();
+
+        // offset counts as if the shards were 1 file
+        reader = createReader(ShardManifest.getFile(baseFile), 5L * VECTOR_BYTES);
+        batches = readAll(reader);
+        assertEquals(1, batches.size());
+        assertEquals("2/1", batches.get(0).get(0).getId());
+        reader.close();
+    }
+}
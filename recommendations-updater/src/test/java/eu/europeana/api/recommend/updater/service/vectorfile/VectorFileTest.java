@@ -0,0 +1,80 @@
+package eu.europeana.api.recommend.updater.service.vectorfile;
+
+import eu.europeana.api.recommend.common.model.RecordVectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VectorFileTest {
+
+    private static RecordVectors createVectors(String id, float value) {
+        return new RecordVectors(id, new Float[]{value, value + 1, value + 2});
+    }
+
+    private static void writeFile(Path baseFile) throws IOException {
+        VectorFileWriter writer = new VectorFileWriter(baseFile);
+        writer.open(new ExecutionContext());
+        writer.write(List.of(
+                List.of(createVectors("/1/a", 1f), createVectors("/1/b", 2f)),
+                List.of(createVectors("/2/é", 3f))));
+        writer.write(List.of(List.of(createVectors("/3/c", 4f))));
+        assertEquals(4, writer.getNrVectors());
+        writer.close();
+    }
+
+    @Test
+    public void testWriteRead(@TempDir Path tempDir) throws IOException {
+        Path baseFile = tempDir.resolve("vectors");
+        writeFile(baseFile);
+        assertEquals(4 * (4 + 3 * 4), Files.size(tempDir.resolve("vectors.fvecs")));
+
+        try (VectorFileReader reader = new VectorFileReader(baseFile)) {
+            assertEquals(4, reader.size());
+            assertEquals(3, reader.getDimension());
+            assertEquals("/1/a", reader.getId(0));
+            assertEquals("/2/é", reader.getId(2));
+            assertEquals("/3/c", reader.getId(3));
+            assertArrayEquals(new float[]{2f, 3f, 4f}, reader.getVector(1));
+            assertArrayEquals(new float[]{4f, 5f, 6f}, reader.getVector(3));
+            assertThrows(IndexOutOfBoundsException.class, () -> reader.getVector(4));
+        }
+    }
+
+    @Test
+    public void testIncompleteFiles(@TempDir Path tempDir) throws IOException {
+        Path baseFile = tempDir.resolve("vectors");
+        writeFile(baseFile);
+        // simulate a crash while writing the last vector
+        try (FileChannel channel = FileChannel.open(VectorFileWriter.getVectorsFile(baseFile), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 2);
+        }
+
+        try (VectorFileReader reader = new VectorFileReader(baseFile)) {
+            assertEquals(3, reader.size());
+            assertEquals("/2/é", reader.getId(2));
+            assertArrayEquals(new float[]{3f, 4f, 5f}, reader.getVector(2));
+        }
+    }
+
+    @Test
+    public void testEmpty(@TempDir Path tempDir) throws IOException {
+        Path baseFile = tempDir.resolve("empty");
+        VectorFileWriter writer = new VectorFileWriter(baseFile);
+        writer.open(new ExecutionContext());
+        writer.close();
+
+        try (VectorFileReader reader = new VectorFileReader(baseFile)) {
+            assertEquals(0, reader.size());
+            assertEquals(0, reader.getDimension());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package eu.europeana.api.recommend.updater.service.vectorstore;
+
+import io.milvus.param.MetricType;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryVectorStoreTest {
+
+    private static final String COLLECTION = "test";
+
+    private static InMemoryVectorStore createStore(MetricType metricType) {
+        InMemoryVectorStore store = new InMemoryVectorStore(metricType, 2);
+        store.createCollection(COLLECTION, "test collection", true);
+        return store;
+    }
+
+    @Test
+    public void testCollections() {
+        try (InMemoryVectorStore store = createStore(MetricType.L2)) {
+            assertEquals(List.of(COLLECTION), store.listCollections());
+            assertThrows(IllegalStateException.class, () -> store.createCollection(COLLECTION, null, false));
+            store.dropCollection(COLLECTION);
+            assertTrue(store.listCollections().isEmpty());
+            assertThrows(IllegalStateException.class, () -> store.count(COLLECTION));
+        }
+    }
+
+    @Test
+    public void testInsertUpsertDelete() {
+        try (InMemoryVectorStore store = createStore(MetricType.L2)) {
+            store.insert(COLLECTION, null, List.of("/1/a", "/1/b", "/1/c"),
+                    List.of(List.of(1f, 1f), List.of(2f, 2f), List.of(3f, 3f)));
+            assertEquals(3, store.count(COLLECTION));
+
+            // existing ids are replaced
+            store.upsert(COLLECTION, null, List.of("/1/b"), List.of(List.of(9f, 9f)));
+            assertEquals(3, store.count(COLLECTION));
+            assertEquals("/1/b", store.search(COLLECTION, List.of(9f, 9f), 1).get(0).getId());
+
+            // deleting the first row moves the last row, which should still be found
+            store.delete(COLLECTION, null, List.of("/1/a", "/1/unknown"));
+            assertEquals(2, store.count(COLLECTION));
+            List<VectorStore.Hit> hits = store.search(COLLECTION, List.of(3f, 3f), 10);
+            assertEquals(2, hits.size());
+            assertEquals("/1/c", hits.get(0).getId());
+            assertEquals(0f, hits.get(0).getDistance());
+        }
+    }
+
+    @Test
+    public void testWrongDimension() {
+        try (InMemoryVectorStore store = createStore(MetricType.L2)) {
+            assertThrows(IllegalArgumentException.class, () -> store.insert(COLLECTION, null, List.of("/1/a"),
+                    List.of(List.of(1f, 2f, 3f))));
+            assertEquals(0, store.count(COLLECTION));
+        }
+    }
+
+    @Test
+    public void testPartitions() {
+        try (InMemoryVectorStore store = createStore(MetricType.L2)) {
+            assertEquals(List.of(InMemoryVectorStore.DEFAULT_PARTITION), store.getPartitions(COLLECTION));
+            assertThrows(IllegalStateException.class, () -> store.insert(COLLECTION, "set1", List.of("/1/a"),
+                    List.of(List.of(1f, 1f))));
+
+            store.createPartition(COLLECTION, "set1");
+            store.insert(COLLECTION, "set1", List.of("/1/a"), List.of(List.of(1f, 1f)));
+            assertEquals(List.of(InMemoryVectorStore.DEFAULT_PARTITION, "set1"), store.getPartitions(COLLECTION));
+
+            // only deleted from the provided partition
+            store.delete(COLLECTION, InMemoryVectorStore.DEFAULT_PARTITION, List.of("/1/a"));
+            assertEquals(1, store.count(COLLECTION));
+            store.delete(COLLECTION, "set1", List.of("/1/a"));
+            assertEquals(0, store.count(COLLECTION));
+        }
+    }
+
+    @Test
+    public void testSearchL2() {
+        try (InMemoryVectorStore store = createStore(MetricType.L2)) {
+            for (int i = 0; i < 2000; i++) {
+                store.insert(COLLECTION, null, List.of("/1/" + i), List.of(List.of((float) i, 0f)));
+            }
+            List<VectorStore.Hit> hits = store.search(COLLECTION, List.of(1000.2f, 0f), 3);
+            assertEquals(List.of("/1/1000", "/1/1001", "/1/999"), hits.stream().map(VectorStore.Hit::getId).toList());
+            assertEquals(0.04f, hits.get(0).getDistance(), 0.001f);
+        }
+    }
+
+    @Test
+    public void testSearchIP() {
+        try (InMemoryVectorStore store = createStore(MetricType.IP)) {
+            store.insert(COLLECTION, null, List.of("/1/a", "/1/b", "/1/c"),
+                    List.of(List.of(1f, 0f), List.of(0f, 1f), List.of(0.5f, 0.5f)));
+            List<VectorStore.Hit> hits = store.search(COLLECTION, List.of(1f, 0f), 2);
+            assertEquals(List.of("/1/a", "/1/c"), hits.stream().map(VectorStore.Hit::getId).toList());
+        }
+    }
+}
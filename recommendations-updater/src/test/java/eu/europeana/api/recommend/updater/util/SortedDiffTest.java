@@ -0,0 +1,50 @@
+package eu.europeana.api.recommend.updater.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SortedDiffTest {
+
+    @Test
+    public void testDiff() {
+        List<String> missing = new ArrayList<>();
+        List<String> orphaned = new ArrayList<>();
+        long matched = SortedDiff.diff(List.of("/1/a", "/1/b", "/1/d", "/1/f").iterator(),
+                List.of("/1/b", "/1/c", "/1/d", "/1/d", "/1/e", "/1/g").iterator(), missing::add, orphaned::add);
+
+        assertEquals(2, matched);
+        assertEquals(List.of("/1/a", "/1/f"), missing);
+        assertEquals(List.of("/1/c", "/1/e", "/1/g"), orphaned);
+    }
+
+    @Test
+    public void testDiffConverted() {
+        List<String> missing = new ArrayList<>();
+        List<String> orphaned = new ArrayList<>();
+        long matched = SortedDiff.diff(List.of("/1/a", "/1/b", "/1/c").iterator(), id -> id.substring(1),
+                List.of("1/b", "1/d").iterator(), missing::add, orphaned::add);
+
+        assertEquals(1, matched);
+        assertEquals(List.of("/1/a", "/1/c"), missing);
+        assertEquals(List.of("1/d"), orphaned);
+    }
+
+    @Test
+    public void testEmpty() {
+        List<String> missing = new ArrayList<>();
+        List<String> orphaned = new ArrayList<>();
+        assertEquals(0, SortedDiff.diff(List.of("/1/a").iterator(), List.<String>of().iterator(), missing::add, orphaned::add));
+        assertEquals(List.of("/1/a"), missing);
+        assertTrue(orphaned.isEmpty());
+    }
+
+    @Test
+    public void testNotSorted() {
+        assertThrows(IllegalArgumentException.class, () -> SortedDiff.diff(List.of("/1/b", "/1/a").iterator(),
+                List.<String>of().iterator(), id -> {}, id -> {}));
+    }
+}
@@ -0,0 +1,22 @@
+package eu.europeana.api.recommend.updater.util;
+
+import eu.europeana.api.recommend.common.model.EmbeddingRecord;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TextLengthUtilsTest {
+
+    @Test
+    public void testEstimateLength() {
+        EmbeddingRecord embeddingRecord = new EmbeddingRecord("1/2", new String[]{"title"}, new String[]{"desc", null},
+                null, new String[]{"a", "b"}, null, new String[]{"1900"});
+        assertEquals(15, TextLengthUtils.estimateLength(embeddingRecord));
+    }
+
+    @Test
+    public void testEstimateLengthEmpty() {
+        EmbeddingRecord embeddingRecord = new EmbeddingRecord("1/2", new String[0], null, null, null, null, null);
+        assertEquals(0, TextLengthUtils.estimateLength(embeddingRecord));
+    }
+}